@@ -70,6 +70,7 @@
 #include "jnetpcap_bpf.h"
 #include "jnetpcap_dumper.h"
 #include "jnetpcap_ids.h"
+#include "packet_jbatch.h"
 #include "nio_jmemory.h"
 //#include "org_jnetpcap_Pcap.h"
 #include "export.h"
@@ -437,6 +438,114 @@ JNIEXPORT jint JNICALL Java_org_jnetpcap_Pcap_dispatch__IILorg_jnetpcap_packet_P
 	return r;
 }
 
+/*
+ * Class:     org_jnetpcap_Pcap
+ * Method:    dispatch
+ * Signature: (IILorg/jnetpcap/packet/JPacketBatchHandler;Ljava/lang/Object;Lorg/jnetpcap/packet/JPacketBatch;Lorg/jnetpcap/packet/JPacket;Lorg/jnetpcap/packet/JScanner;)I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_Pcap_dispatch__IILorg_jnetpcap_packet_JPacketBatchHandler_2Ljava_lang_Object_2Lorg_jnetpcap_packet_JPacketBatch_2Lorg_jnetpcap_packet_JPacket_2Lorg_jnetpcap_packet_JScanner_2
+(JNIEnv *env, jobject obj,
+		jint jcnt,
+		jint id,
+		jobject jhandler,
+		jobject juser,
+		jobject jbatch,
+		jobject jpacket,
+		jobject jscanner) {
+
+	pcap_t *p = getPcap(env, obj);
+	if (p == NULL) {
+		return -1; // Exception already thrown
+	}
+
+	/*
+	 * Structure to encapsulate user data object, and store our JNI information
+	 * so we can dispatch to Java land.
+	 */
+	cb_jpacket_batch_t data;
+	if (cb_jpacket_batch_init(env, &data, p, obj, jhandler, juser, jbatch,
+			jpacket, jscanner, id) == -1) {
+		return -1; // Exception already thrown
+	}
+
+	int r = pcap_dispatch(p, jcnt, cb_jpacket_batch_dispatch, (u_char *)&data);
+
+	/* Deliver any partial batch before libpcap reuses its buffer */
+	if (data.exception == NULL) {
+		cb_jpacket_batch_flush(&data, 0);
+	}
+
+	if (data.exception != NULL) {
+		env->Throw(data.exception);
+	}
+
+	return r;
+}
+
+/*
+ * Class:     org_jnetpcap_Pcap
+ * Method:    loop
+ * Signature: (IILorg/jnetpcap/packet/JPacketBatchHandler;Ljava/lang/Object;Lorg/jnetpcap/packet/JPacketBatch;Lorg/jnetpcap/packet/JPacket;Lorg/jnetpcap/packet/JScanner;)I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_Pcap_loop__IILorg_jnetpcap_packet_JPacketBatchHandler_2Ljava_lang_Object_2Lorg_jnetpcap_packet_JPacketBatch_2Lorg_jnetpcap_packet_JPacket_2Lorg_jnetpcap_packet_JScanner_2
+(JNIEnv *env, jobject obj,
+		jint jcnt,
+		jint id,
+		jobject jhandler,
+		jobject juser,
+		jobject jbatch,
+		jobject jpacket,
+		jobject jscanner) {
+
+	pcap_t *p = getPcap(env, obj);
+	if (p == NULL) {
+		return -1; // Exception already thrown
+	}
+
+	cb_jpacket_batch_t data;
+	if (cb_jpacket_batch_init(env, &data, p, obj, jhandler, juser, jbatch,
+			jpacket, jscanner, id) == -1) {
+		return -1; // Exception already thrown
+	}
+
+	/*
+	 * pcap_loop() keeps reading into its capture buffer, which would
+	 * invalidate packets already collected in a batch. Instead we loop over
+	 * pcap_dispatch() ourselves and flush the batch after every buffer.
+	 */
+	int total = 0;
+	int r;
+	for (;;) {
+		int cnt = (jcnt <= 0) ? -1 : jcnt - total;
+
+		r = pcap_dispatch(p, cnt, cb_jpacket_batch_dispatch, (u_char *)&data);
+
+		if (data.exception == NULL) {
+			cb_jpacket_batch_flush(&data, 0);
+		}
+
+		if (data.exception != NULL || r < 0) {
+			break; // error or breakloop
+		}
+
+		if (r == 0 && data.copy) {
+			break; // End of savefile
+		}
+
+		total += r;
+		if (jcnt > 0 && total >= jcnt) {
+			r = 0;
+			break;
+		}
+	}
+
+	if (data.exception != NULL) {
+		env->Throw(data.exception);
+	}
+
+	return r;
+}
+
 /*
  * Class:     org_jnetpcap_Pcap
  * Method:    dispatch
@@ -45,11 +45,13 @@ jclass JBufferHandlerClass;
 jclass ByteBufferHandlerClass;
 jclass JPacketHandlerClass;
 jclass PcapPacketHandlerClass;
+jclass JPacketBatchHandlerClass;
 
 jmethodID JBufferHandlerNextPacketMID;
 jmethodID ByteBufferHandlerNextPacketMID;
 jmethodID JPacketHandlerNextPacketMID;
 jmethodID PcapPacketHandlerNextPacketMID;
+jmethodID JPacketBatchHandlerNextBatchMID;
 
 
 /*
@@ -124,6 +126,10 @@ JNIEXPORT void JNICALL JNICALL Java_org_jnetpcap_Pcap_initIDs
 			"org/jnetpcap/packet/PcapPacketHandler")) == NULL) {
 		return;
 	}
+	if ( (JPacketBatchHandlerClass = findClass(env, 
+			"org/jnetpcap/packet/JPacketBatchHandler")) == NULL) {
+		return;
+	}
 
 	if ( (JBufferHandlerNextPacketMID = 
 		env->GetMethodID(JBufferHandlerClass, "nextPacket",
@@ -145,6 +151,11 @@ JNIEXPORT void JNICALL JNICALL Java_org_jnetpcap_Pcap_initIDs
 			"(Lorg/jnetpcap/packet/PcapPacket;Ljava/lang/Object;)V")) == NULL) {
 		return;
 	}
+	if ( (JPacketBatchHandlerNextBatchMID = 
+		env->GetMethodID(JPacketBatchHandlerClass, "nextBatch",
+			"(Lorg/jnetpcap/packet/JPacketBatch;Ljava/lang/Object;)V")) == NULL) {
+		return;
+	}
 
 }
 
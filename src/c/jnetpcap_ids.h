@@ -23,6 +23,7 @@ extern jclass JBufferHandlerClass;
 extern jclass ByteBufferHandlerClass;
 extern jclass JPacketHandlerClass;
 extern jclass PcapPacketHandlerClass;
+extern jclass JPacketBatchHandlerClass;
 
 extern 	jmethodID byteBufferIsDirectMID;
 extern 	jmethodID bufferGetPositionMID;
@@ -35,6 +36,7 @@ extern  jmethodID JBufferHandlerNextPacketMID;
 extern  jmethodID ByteBufferHandlerNextPacketMID;
 extern  jmethodID JPacketHandlerNextPacketMID;
 extern  jmethodID PcapPacketHandlerNextPacketMID;
+extern  jmethodID JPacketBatchHandlerNextBatchMID;
 
 
 extern jclass msIpAdapterIndexMapClass;
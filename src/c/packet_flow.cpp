@@ -25,6 +25,8 @@
 #endif /*WIN32*/
 
 #include "packet_flow.h"
+#include "org_jnetpcap_packet_JFlowTable.h"
+#include "org_jnetpcap_packet_JFlowTableReference.h"
 #include "nio_jmemory.h"
 #include "packet_jscanner.h"
 #include "jnetpcap_utils.h"
@@ -56,8 +58,7 @@ void process_flow_key(scan_t *scan) {
 
 	if (key->hash == 0) {
 
-		key->hash = ((uint32_t) key->header_map) ^ (key->header_map >> 32)
-				^ key->flags;
+		key->hash = flow_key_map_hash(key) ^ key->flags;
 
 		if (reversable) {
 			for (int i = 0; i < key->pair_count; i ++) {
@@ -86,6 +87,295 @@ void process_flow_key(scan_t *scan) {
 
 }
 
+/**
+ * Folds the header map of the key into 32 bits. Only the words of the map
+ * that have bits set contribute, so keys made up of headers with IDs below 64
+ * hash the same as they did with the single word map.
+ */
+uint32_t flow_key_map_hash(flow_key_t *key) {
+	uint64_t h = 0;
+
+	for (int i = 0; i < FLOW_KEY_MAP_COUNT; i ++) {
+		h ^= key->header_map[i];
+	}
+
+	return ((uint32_t) h) ^ ((uint32_t) (h >> 32));
+}
+
+/**
+ * Compares the header maps of 2 flow keys. Returns true if equal.
+ */
+int flow_key_map_equal(flow_key_t *key1, flow_key_t *key2) {
+	return memcmp(key1->header_map, key2->header_map,
+			sizeof(key1->header_map)) == 0;
+}
+
+/****************************************************************
+ * **************************************************************
+ * 
+ * NON Java declared native functions. Flow table
+ * 
+ * **************************************************************
+ ****************************************************************/
+
+/**
+ * Spreads the bits of the flow key hash, which is a simple XOR of the key
+ * pairs, before it is reduced to a slot index. Uses murmur3 finalizer.
+ */
+static uint32_t flow_table_mix(uint32_t h) {
+	h ^= h >> 16;
+	h *= 0x85ebca6b;
+	h ^= h >> 13;
+	h *= 0xc2b2ae35;
+	h ^= h >> 16;
+
+	return h;
+}
+
+/**
+ * Computes a hash of the flow key that is the same for both directions of a
+ * flow, whether or not the key has reversable pairs. Within each pair the
+ * smaller value is hashed first, so swapping the pair values does not change
+ * the result. Unlike the XOR based key->hash, values of different pairs do not
+ * cancel each other out, which makes this hash suitable for spreading flows
+ * across a small number of queues.
+ */
+uint32_t flow_key_symmetric_hash(flow_key_t *key) {
+	uint32_t h = flow_table_mix(flow_key_map_hash(key));
+
+	for (int i = 0; i < key->pair_count; i ++) {
+		uint32_t a = key->forward_pair[i][0];
+		uint32_t b = key->forward_pair[i][1];
+
+		h = flow_table_mix(h ^ ((a < b) ? a : b)) + i;
+		h = flow_table_mix(h ^ ((a < b) ? b : a));
+	}
+
+	return h;
+}
+
+/**
+ * Compares 2 flow keys. Returns 0 if they don't match, 1 if they match in the
+ * forward direction and -1 if key2 is the reverse direction of key1.
+ */
+static int flow_key_compare(flow_key_t *key1, flow_key_t *key2) {
+
+	if (key1->hash != key2->hash ||
+			key1->flags != key2->flags ||
+			key1->pair_count != key2->pair_count ||
+			!flow_key_map_equal(key1, key2)) {
+		return 0;
+	}
+
+	const size_t len = key1->pair_count * sizeof(key1->forward_pair[0]);
+
+	if (memcmp(key1->forward_pair, key2->forward_pair, len) == 0) {
+		return 1;
+	}
+
+	if ((key1->flags & FLOW_KEY_FLAG_REVERSABLE_PAIRS) &&
+			memcmp(key1->forward_pair, key2->reverse_pair, len) == 0) {
+		return -1;
+	}
+
+	return 0;
+}
+
+/**
+ * Initializes an empty flow table. Slots must be a power of 2 and limit must
+ * be less than slots, so that there is always at least 1 empty slot which
+ * terminates every probe sequence. Entries must hold at least slots entries.
+ */
+void flow_table_init(flow_table_t *table, flow_entry_t *entries,
+		uint32_t slots, uint32_t limit) {
+	memset(table, 0, sizeof(flow_table_t));
+	memset(entries, 0, (size_t) FLOW_TABLE_ENTRIES_SIZEOF(slots));
+
+	table->ft_entries = entries;
+	table->ft_slots = slots;
+	table->ft_mask = slots - 1;
+	table->ft_limit = limit;
+}
+
+/**
+ * Finds the entry for the key. If not found, returns NULL and if slot is not
+ * NULL, sets slot to the first slot the key can be inserted into.
+ */
+static flow_entry_t *flow_table_probe(flow_table_t *table, flow_key_t *key,
+		int *direction, flow_entry_t **slot) {
+
+	flow_entry_t *deleted = NULL;
+	uint32_t i = flow_table_mix(key->hash) & table->ft_mask;
+
+	table->ft_lookups ++;
+
+	for (uint32_t n = 0; n < table->ft_slots; n ++, i = (i + 1) & table->ft_mask) {
+		flow_entry_t *e = &table->ft_entries[i];
+
+		table->ft_probes ++;
+
+		if (e->fe_state == FLOW_ENTRY_EMPTY) {
+			if (slot != NULL) {
+				*slot = (deleted == NULL) ? e : deleted;
+			}
+			return NULL;
+		}
+
+		if (e->fe_state == FLOW_ENTRY_DELETED) {
+			if (deleted == NULL) {
+				deleted = e;
+			}
+			continue;
+		}
+
+		int d = flow_key_compare(&e->fe_key, key);
+		if (d != 0) {
+			*direction = d;
+			return e;
+		}
+	}
+
+	if (slot != NULL) {
+		*slot = deleted;
+	}
+
+	return NULL;
+}
+
+/**
+ * Purges all deleted slots in place. Every used entry is moved back closer to
+ * its home slot, if a purged slot now lies on its probe path. Starting from a
+ * slot which was empty beforehand guarantees that no probe path wraps around
+ * the starting point.
+ */
+static void flow_table_compact(flow_table_t *table) {
+	flow_entry_t *entries = table->ft_entries;
+	const uint32_t mask = table->ft_mask;
+	uint32_t start = 0;
+
+	while (entries[start].fe_state != FLOW_ENTRY_EMPTY) {
+		start ++; // There is always at least 1 empty slot
+	}
+
+	for (uint32_t i = 0; i < table->ft_slots; i ++) {
+		if (entries[i].fe_state == FLOW_ENTRY_DELETED) {
+			entries[i].fe_state = FLOW_ENTRY_EMPTY;
+		}
+	}
+	table->ft_deleted = 0;
+
+	for (uint32_t n = 1; n < table->ft_slots; n ++) {
+		const uint32_t i = (start + n) & mask;
+		flow_entry_t *e = &entries[i];
+
+		if (e->fe_state != FLOW_ENTRY_USED) {
+			continue;
+		}
+
+		uint32_t j = flow_table_mix(e->fe_key.hash) & mask;
+		while (j != i && entries[j].fe_state == FLOW_ENTRY_USED) {
+			j = (j + 1) & mask;
+		}
+
+		if (j != i) {
+			memcpy(&entries[j], e, sizeof(flow_entry_t));
+			e->fe_state = FLOW_ENTRY_EMPTY;
+		}
+	}
+
+	table->ft_compacts ++;
+}
+
+/**
+ * Accounts for a packet with the given key. A new entry is created for the
+ * first packet of a flow. Returns NULL if the flow is new and the table is
+ * already full.
+ */
+flow_entry_t *flow_table_add(flow_table_t *table, flow_key_t *key,
+		uint64_t timestamp, uint32_t wirelen) {
+
+	int direction = 1;
+	flow_entry_t *slot = NULL;
+	flow_entry_t *e = flow_table_probe(table, key, &direction, &slot);
+
+	if (e == NULL) {
+		if (table->ft_size >= table->ft_limit || slot == NULL) {
+			table->ft_drops ++;
+			return NULL;
+		}
+
+		if (slot->fe_state == FLOW_ENTRY_DELETED) {
+			table->ft_deleted --;
+
+		} else if (table->ft_size + table->ft_deleted + 1 > table->ft_limit) {
+			/*
+			 * Using up another empty slot would go over the load limit. Purge
+			 * deleted slots and look for the insertion point again.
+			 */
+			flow_table_compact(table);
+			flow_table_probe(table, key, &direction, &slot);
+		}
+
+		e = slot;
+		memset(e, 0, sizeof(flow_entry_t));
+		memcpy(&e->fe_key, key, sizeof(flow_key_t));
+		e->fe_state = FLOW_ENTRY_USED;
+		e->fe_first = timestamp;
+		e->fe_last = timestamp;
+		direction = 1;
+
+		table->ft_size ++;
+	}
+
+	const int d = (direction == 1) ? 0 : 1;
+
+	e->fe_packets[d] ++;
+	e->fe_bytes[d] += wirelen;
+	e->fe_flags |= (d == 0) ? FLOW_ENTRY_FLAG_FORWARD : FLOW_ENTRY_FLAG_REVERSE;
+
+	/* Packets from merged captures may arrive slightly out of order */
+	if (timestamp < e->fe_first) {
+		e->fe_first = timestamp;
+	}
+	if (timestamp > e->fe_last) {
+		e->fe_last = timestamp;
+	}
+
+	return e;
+}
+
+/**
+ * Finds an existing flow entry, or NULL if flow is not in the table.
+ */
+flow_entry_t *flow_table_lookup(flow_table_t *table, flow_key_t *key,
+		int *direction) {
+
+	return flow_table_probe(table, key, direction, NULL);
+}
+
+/**
+ * Removes an entry from the table. If the next slot is empty, no probe path
+ * continues past this slot and it can be emptied right away, otherwise it is
+ * marked as deleted.
+ */
+void flow_table_remove(flow_table_t *table, flow_entry_t *entry) {
+	if (entry->fe_state != FLOW_ENTRY_USED) {
+		return;
+	}
+
+	const uint32_t i = (uint32_t) (entry - table->ft_entries);
+	const uint32_t next = (i + 1) & table->ft_mask;
+
+	if (table->ft_entries[next].fe_state == FLOW_ENTRY_EMPTY) {
+		entry->fe_state = FLOW_ENTRY_EMPTY;
+	} else {
+		entry->fe_state = FLOW_ENTRY_DELETED;
+		table->ft_deleted ++;
+	}
+
+	table->ft_size --;
+}
+
 /****************************************************************
  * **************************************************************
  * 
@@ -124,6 +414,10 @@ JNIEXPORT jlong JNICALL Java_org_jnetpcap_packet_JFlowKey_getPair
 		throwException(env, NULL_PTR_EXCEPTION, NULL);
 		return -1;
 	}
+
+	uint32_t *pair = (reverse)? key->reverse_pair[index] : key->forward_pair[index];
+
+	return (((jlong) pair[0]) << 32) | (jlong) pair[1];
 }
 
 /*
@@ -178,13 +472,30 @@ JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowKey_hashCode
 	return key->hash;
 }
 
+/*
+ * Class:     org_jnetpcap_packet_JFlowKey
+ * Method:    symmetricHash
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowKey_symmetricHash
+(JNIEnv *env, jobject obj) {
+
+	flow_key_t * key = (flow_key_t *) getJMemoryPhysical(env, obj);
+	if (key == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	return (jint) flow_key_symmetric_hash(key);
+}
+
 /*
  * Class:     org_jnetpcap_packet_JFlowKey
  * Method:    getHeaderMap
- * Signature: ()J
+ * Signature: (I)J
  */
 JNIEXPORT jlong JNICALL Java_org_jnetpcap_packet_JFlowKey_getHeaderMap
-(JNIEnv *env, jobject obj) {
+(JNIEnv *env, jobject obj, jint index) {
 
 	flow_key_t * key = (flow_key_t *) getJMemoryPhysical(env, obj);
 	if (key == NULL) {
@@ -192,7 +503,12 @@ JNIEXPORT jlong JNICALL Java_org_jnetpcap_packet_JFlowKey_getHeaderMap
 		return -1;
 	}
 
-	return key->header_map;
+	if (index < 0 || index >= FLOW_KEY_MAP_COUNT) {
+		throwException(env, INDEX_OUT_OF_BOUNDS_EXCEPTION, NULL);
+		return -1;
+	}
+
+	return (jlong) key->header_map[index];
 }
 
 /*
@@ -249,7 +565,7 @@ JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowKey_match
 	 */
 	if ( (key1->hash != key2->hash) || 
 			key1->flags != key2->flags || 
-			key1->header_map != key2->header_map) {
+			!flow_key_map_equal(key1, key2)) {
 		return 0;
 	}
 	
@@ -321,7 +637,7 @@ JNIEXPORT jboolean JNICALL Java_org_jnetpcap_packet_JFlowKey_equal
 	 */
 	if ( (key1->hash != key2->hash) || 
 			key1->flags != key2->flags || 
-			key1->header_map != key2->header_map) {
+			!flow_key_map_equal(key1, key2)) {
 		return false;
 	}
 	
@@ -383,3 +699,471 @@ JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowKey_getId
 	return (jint) key->id[index];	
 }
 
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    sizeof0
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowTable_sizeof0
+(JNIEnv *env, jclass clazz) {
+
+	return (jint) sizeof(flow_table_t);
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    sizeof
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_jnetpcap_packet_JFlowTable_sizeof
+(JNIEnv *env, jclass clazz, jint slots) {
+
+	return (jlong) (sizeof(flow_table_t) + FLOW_TABLE_ENTRIES_SIZEOF(slots));
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    init
+ * Signature: (II)V
+ * 
+ * Allocates the entries in a separate block, accounted for the same way as
+ * JMemory.allocate0 does, so that the table may be larger than 2GB. The block
+ * is released by JFlowTableReference.
+ */
+JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JFlowTable_init
+(JNIEnv *env, jobject obj, jint slots, jint limit) {
+
+	flow_table_t *table = (flow_table_t *) getJMemoryPhysical(env, obj);
+	if (table == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return;
+	}
+
+	memset(table, 0, sizeof(flow_table_t)); // No entries until allocated
+
+	const uint64_t size = FLOW_TABLE_ENTRIES_SIZEOF(slots);
+	if ((uint64_t) (size_t) size != size) {
+		throwException(env, ILLEGAL_ARGUMENT_EXCEPTION,
+				"flow table size exceeds addressable memory on this platform");
+		return;
+	}
+
+	if (memory_usage.available_direct < size) {
+		/*
+		 * Try to free up memory - blocking
+		 */
+		env->CallStaticVoidMethod(jmemoryClass, jmemoryMaxDirectMemoryBreachMID);
+
+		if (memory_usage.available_direct < size) {
+			throwException(env, OUT_OF_MEMORY_ERROR,
+					"flow table size exceeds JMemory.maxDirectMemory()");
+			return;
+		}
+	}
+
+	flow_entry_t *entries = (flow_entry_t *) malloc((size_t) size);
+	if (entries == NULL) {
+		throwException(env, OUT_OF_MEMORY_ERROR, "");
+		return;
+	}
+
+	memory_usage.available_direct -= size;
+	memory_usage.reserved_direct += size;
+	memory_usage.total_allocated += size;
+	memory_usage.total_allocate_calls ++;
+	memory_usage.seg_256_or_above_bytes ++;
+
+	flow_table_init(table, entries, (uint32_t) slots, (uint32_t) limit);
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTableReference
+ * Method:    disposeEntries
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JFlowTableReference_disposeEntries
+(JNIEnv *env, jobject obj) {
+
+	jlong pt = env->GetLongField(obj, jmemoryRefAddressFID);
+	flow_table_t *table = (flow_table_t *)toPtr(pt);
+	if (table == NULL || table->ft_entries == NULL) {
+		return;
+	}
+
+	const uint64_t size = FLOW_TABLE_ENTRIES_SIZEOF(table->ft_slots);
+
+	memory_usage.total_deallocated += size;
+	memory_usage.total_deallocate_calls ++;
+	memory_usage.available_direct += size;
+	memory_usage.reserved_direct -= size;
+
+	free(table->ft_entries);
+	table->ft_entries = NULL;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    add
+ * Signature: (Lorg/jnetpcap/packet/JFlowKey;JI)I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowTable_add
+(JNIEnv *env, jobject obj, jobject jkey, jlong timestamp, jint wirelen) {
+
+	flow_table_t *table = (flow_table_t *) getJMemoryPhysical(env, obj);
+	if (table == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	flow_key_t *key = (flow_key_t *) getJMemoryPhysical(env, jkey);
+	if (key == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	flow_entry_t *e = flow_table_add(table, key, (uint64_t) timestamp,
+			(uint32_t) wirelen);
+
+	return (e == NULL) ? -1 : (jint) (e - table->ft_entries);
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    lookup
+ * Signature: (Lorg/jnetpcap/packet/JFlowKey;)I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowTable_lookup
+(JNIEnv *env, jobject obj, jobject jkey) {
+
+	flow_table_t *table = (flow_table_t *) getJMemoryPhysical(env, obj);
+	if (table == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	flow_key_t *key = (flow_key_t *) getJMemoryPhysical(env, jkey);
+	if (key == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	int direction;
+	flow_entry_t *e = flow_table_lookup(table, key, &direction);
+
+	return (e == NULL) ? -1 : (jint) (e - table->ft_entries);
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    remove
+ * Signature: (I)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_jnetpcap_packet_JFlowTable_remove
+(JNIEnv *env, jobject obj, jint index) {
+
+	flow_table_t *table = (flow_table_t *) getJMemoryPhysical(env, obj);
+	if (table == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return JNI_FALSE;
+	}
+
+	if (index < 0 || (uint32_t) index >= table->ft_slots) {
+		throwException(env, INDEX_OUT_OF_BOUNDS_EXCEPTION, NULL);
+		return JNI_FALSE;
+	}
+
+	flow_entry_t *e = &table->ft_entries[index];
+	if (e->fe_state != FLOW_ENTRY_USED) {
+		return JNI_FALSE;
+	}
+
+	flow_table_remove(table, e);
+
+	return JNI_TRUE;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    clear
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JFlowTable_clear
+(JNIEnv *env, jobject obj) {
+
+	flow_table_t *table = (flow_table_t *) getJMemoryPhysical(env, obj);
+	if (table == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return;
+	}
+
+	flow_table_init(table, table->ft_entries, table->ft_slots, table->ft_limit);
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    next
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowTable_next
+(JNIEnv *env, jobject obj, jint index) {
+
+	flow_table_t *table = (flow_table_t *) getJMemoryPhysical(env, obj);
+	if (table == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	for (uint32_t i = (index < 0) ? 0 : index; i < table->ft_slots; i ++) {
+		if (table->ft_entries[i].fe_state == FLOW_ENTRY_USED) {
+			return (jint) i;
+		}
+	}
+
+	return -1;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    peer0
+ * Signature: (ILorg/jnetpcap/packet/JFlowRecord;)V
+ */
+JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JFlowTable_peer0
+(JNIEnv *env, jobject obj, jint index, jobject jrecord) {
+
+	flow_table_t *table = (flow_table_t *) getJMemoryPhysical(env, obj);
+	if (table == NULL || jrecord == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return;
+	}
+
+	if (index < 0 || (uint32_t) index >= table->ft_slots) {
+		throwException(env, INDEX_OUT_OF_BOUNDS_EXCEPTION, NULL);
+		return;
+	}
+
+	flow_entry_t *e = &table->ft_entries[index];
+	if (e->fe_state != FLOW_ENTRY_USED) {
+		throwException(env, ILLEGAL_ARGUMENT_EXCEPTION, "no flow at index");
+		return;
+	}
+
+	jmemoryPeer(env, jrecord, e, sizeof(flow_entry_t), obj);
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    expired
+ * Signature: (IJJJ[I)I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowTable_expired
+(JNIEnv *env, jobject obj, jint from, jlong jnow, jlong jidle, jlong jactive,
+		jintArray jindexes) {
+
+	flow_table_t *table = (flow_table_t *) getJMemoryPhysical(env, obj);
+	if (table == NULL || jindexes == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	const jint max = env->GetArrayLength(jindexes);
+	jint *indexes = env->GetIntArrayElements(jindexes, NULL);
+	if (indexes == NULL) {
+		return -1; // Out of memory exception already thrown
+	}
+
+	const uint64_t now = (uint64_t) jnow;
+	const uint64_t idle = (uint64_t) jidle;
+	const uint64_t active = (uint64_t) jactive;
+	jint count = 0;
+
+	for (uint32_t i = (from < 0) ? 0 : from; i < table->ft_slots && count < max;
+			i ++) {
+		flow_entry_t *e = &table->ft_entries[i];
+
+		if (e->fe_state != FLOW_ENTRY_USED) {
+			continue;
+		}
+
+		if ((jidle > 0 && now >= e->fe_last && now - e->fe_last >= idle) ||
+				(jactive > 0 && now >= e->fe_first && now - e->fe_first >= active)) {
+			indexes[count ++] = (jint) i;
+		}
+	}
+
+	env->ReleaseIntArrayElements(jindexes, indexes, 0);
+
+	return count;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    size
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowTable_size
+(JNIEnv *env, jobject obj) {
+
+	flow_table_t *table = (flow_table_t *) getJMemoryPhysical(env, obj);
+	if (table == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	return (jint) table->ft_size;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    slots
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowTable_slots
+(JNIEnv *env, jobject obj) {
+
+	flow_table_t *table = (flow_table_t *) getJMemoryPhysical(env, obj);
+	if (table == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	return (jint) table->ft_slots;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowTable
+ * Method:    getStatistic
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_jnetpcap_packet_JFlowTable_getStatistic
+(JNIEnv *env, jobject obj, jint which) {
+
+	flow_table_t *table = (flow_table_t *) getJMemoryPhysical(env, obj);
+	if (table == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	switch (which) {
+	case org_jnetpcap_packet_JFlowTable_STAT_LOOKUPS:  return table->ft_lookups;
+	case org_jnetpcap_packet_JFlowTable_STAT_PROBES:   return table->ft_probes;
+	case org_jnetpcap_packet_JFlowTable_STAT_DROPS:    return table->ft_drops;
+	case org_jnetpcap_packet_JFlowTable_STAT_COMPACTS: return table->ft_compacts;
+	case org_jnetpcap_packet_JFlowTable_STAT_DELETED:  return table->ft_deleted;
+	}
+
+	throwException(env, ILLEGAL_ARGUMENT_EXCEPTION, NULL);
+	return -1;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowRecord
+ * Method:    sizeof
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowRecord_sizeof
+(JNIEnv *env, jclass clazz) {
+
+	return (jint) sizeof(flow_entry_t);
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowRecord
+ * Method:    getPackets
+ * Signature: (Z)J
+ */
+JNIEXPORT jlong JNICALL Java_org_jnetpcap_packet_JFlowRecord_getPackets
+(JNIEnv *env, jobject obj, jboolean reverse) {
+
+	flow_entry_t *e = (flow_entry_t *) getJMemoryPhysical(env, obj);
+	if (e == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	return (jlong) e->fe_packets[(reverse) ? 1 : 0];
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowRecord
+ * Method:    getBytes
+ * Signature: (Z)J
+ */
+JNIEXPORT jlong JNICALL Java_org_jnetpcap_packet_JFlowRecord_getBytes
+(JNIEnv *env, jobject obj, jboolean reverse) {
+
+	flow_entry_t *e = (flow_entry_t *) getJMemoryPhysical(env, obj);
+	if (e == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	return (jlong) e->fe_bytes[(reverse) ? 1 : 0];
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowRecord
+ * Method:    getFirstTimestamp
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_org_jnetpcap_packet_JFlowRecord_getFirstTimestamp
+(JNIEnv *env, jobject obj) {
+
+	flow_entry_t *e = (flow_entry_t *) getJMemoryPhysical(env, obj);
+	if (e == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	return (jlong) e->fe_first;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowRecord
+ * Method:    getLastTimestamp
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_org_jnetpcap_packet_JFlowRecord_getLastTimestamp
+(JNIEnv *env, jobject obj) {
+
+	flow_entry_t *e = (flow_entry_t *) getJMemoryPhysical(env, obj);
+	if (e == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	return (jlong) e->fe_last;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowRecord
+ * Method:    getFlags
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JFlowRecord_getFlags
+(JNIEnv *env, jobject obj) {
+
+	flow_entry_t *e = (flow_entry_t *) getJMemoryPhysical(env, obj);
+	if (e == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	return (jint) e->fe_flags;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JFlowRecord
+ * Method:    peerKey
+ * Signature: (Lorg/jnetpcap/packet/JFlowKey;)V
+ */
+JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JFlowRecord_peerKey
+(JNIEnv *env, jobject obj, jobject jkey) {
+
+	flow_entry_t *e = (flow_entry_t *) getJMemoryPhysical(env, obj);
+	if (e == NULL || jkey == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return;
+	}
+
+	jmemoryPeer(env, jkey, &e->fe_key, sizeof(flow_key_t), obj);
+}
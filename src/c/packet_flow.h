@@ -13,8 +13,19 @@ extern "C" {
 	
 #include <jni.h>
 #include "org_jnetpcap_packet_JFlowKey.h"
+#include "org_jnetpcap_packet_JFlowRecord.h"
 	
 #define FLOW_KEY_PAIR_COUNT org_jnetpcap_packet_JFlowKey_FLOW_KEY_PAIR_COUNT
+#define FLOW_KEY_MAP_COUNT org_jnetpcap_packet_JFlowKey_FLOW_KEY_MAP_COUNT
+
+/*
+ * The header map of a flow key is a plain bitmap, 64 header IDs per word,
+ * covering all MAX_ID_COUNT IDs.
+ */
+#define FLOW_KEY_HAS_HEADER(key, id) \
+	(((key)->header_map[(id) >> 6] & (1ULL << ((id) & 0x3F))) != 0)
+#define FLOW_KEY_ADD_HEADER(key, id) \
+	((key)->header_map[(id) >> 6] |= (1ULL << ((id) & 0x3F)))
 
 struct scan_t; // Forward reference
 
@@ -26,14 +37,14 @@ struct scan_t; // Forward reference
  * reversal of the first array of pairs.
  */
 typedef struct flow_key_t {
-	uint64_t header_map; // bitmap of header IDs part of this flowkey
+	uint64_t header_map[FLOW_KEY_MAP_COUNT]; // bitmap of header IDs part of this flowkey
 	uint32_t hash; // Hashcode
 #define FLOW_KEY_FLAG_REVERSABLE_PAIRS org_jnetpcap_packet_JFlowKey_FLAG_REVERSABLE
 	uint16_t flags; // flags
 	uint16_t pair_count;  // number of pairs upto FLOW_KEY_PAIR_COUNT
 	uint32_t forward_pair[FLOW_KEY_PAIR_COUNT][2];
 	uint32_t reverse_pair[FLOW_KEY_PAIR_COUNT][2];
-	uint8_t id[FLOW_KEY_PAIR_COUNT];
+	uint16_t id[FLOW_KEY_PAIR_COUNT]; // header ID of each pair
 } flow_key_t;
 
 /**
@@ -46,6 +57,62 @@ void flow_key_init(flow_key_t *key, int id);
 
 void process_flow_key(scan_t *scan);
 
+uint32_t flow_key_symmetric_hash(flow_key_t *key);
+
+uint32_t flow_key_map_hash(flow_key_t *key);
+
+int flow_key_map_equal(flow_key_t *key1, flow_key_t *key2);
+
+/*
+ * Flow table. Open-addressing hash table of fixed size. The table structure is
+ * allocated by JMemory and the slots in a single separate block of native
+ * memory, which may be larger than 2GB. Each slot holds the flow key and the
+ * flow's counters.
+ * Collisions are resolved using linear probing. Removed entries are marked
+ * deleted and are reused by later inserts.
+ */
+#define FLOW_ENTRY_EMPTY   0
+#define FLOW_ENTRY_USED    1
+#define FLOW_ENTRY_DELETED 2
+
+#define FLOW_ENTRY_FLAG_FORWARD org_jnetpcap_packet_JFlowRecord_FLAG_FORWARD
+#define FLOW_ENTRY_FLAG_REVERSE org_jnetpcap_packet_JFlowRecord_FLAG_REVERSE
+
+typedef struct flow_entry_t {
+	uint32_t fe_state;         // EMPTY, USED or DELETED
+	uint32_t fe_flags;         // FLOW_ENTRY_FLAG_* bits
+	uint64_t fe_packets[2];    // packet counts [0] forward, [1] reverse
+	uint64_t fe_bytes[2];      // wire byte counts [0] forward, [1] reverse
+	uint64_t fe_first;         // timestamp of first packet in nanos
+	uint64_t fe_last;          // timestamp of last packet in nanos
+	flow_key_t fe_key;         // copy of the key of the first packet
+} flow_entry_t;
+
+typedef struct flow_table_t {
+	uint32_t ft_slots;         // number of slots, power of 2
+	uint32_t ft_mask;          // ft_slots - 1
+	uint32_t ft_limit;         // max number of flows
+	uint32_t ft_size;          // number of USED slots
+	uint32_t ft_deleted;       // number of DELETED slots
+	uint32_t ft_pad;
+	uint64_t ft_lookups;       // number of add/lookup calls
+	uint64_t ft_probes;        // number of slots examined by those calls
+	uint64_t ft_drops;         // flows not added because table was full
+	uint64_t ft_compacts;      // number of times deleted slots were purged
+	flow_entry_t *ft_entries;  // ft_slots entries, allocated separately
+} flow_table_t;
+
+#define FLOW_TABLE_ENTRIES_SIZEOF(slots) \
+	((uint64_t) sizeof(flow_entry_t) * (uint64_t) (slots))
+
+void flow_table_init(flow_table_t *table, flow_entry_t *entries,
+		uint32_t slots, uint32_t limit);
+flow_entry_t *flow_table_add(flow_table_t *table, flow_key_t *key,
+		uint64_t timestamp, uint32_t wirelen);
+flow_entry_t *flow_table_lookup(flow_table_t *table, flow_key_t *key,
+		int *direction);
+void flow_table_remove(flow_table_t *table, flow_entry_t *entry);
+
 
 #ifdef __cplusplus
 }
@@ -0,0 +1,391 @@
+/***************************************************************************
+ * Copyright (C) 2010, Sly Technologies, Inc                               *
+ * Distributed under the Lesser GNU Public License  (LGPL)                 *
+ ***************************************************************************/
+
+/*
+ * Batch dispatcher. Collects and scans packets delivered by libpcap into a
+ * packet_batch_t structure and calls on java handler once per batch instead of
+ * once per packet.
+ */
+
+#include <stdio.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <pcap.h>
+#include <jni.h>
+
+#ifndef WIN32
+#include <errno.h>
+#include <string.h>
+#include <sys/time.h>
+#include <sys/types.h>
+#include <sys/socket.h>
+#include <sys/ioctl.h>
+#include <net/if.h>
+#include <unistd.h>
+#endif /*WIN32*/
+
+#include "packet_jbatch.h"
+#include "packet_jscanner.h"
+#include "nio_jmemory.h"
+#include "jnetpcap_utils.h"
+#include "jnetpcap_ids.h"
+#include "org_jnetpcap_packet_JPacketBatch.h"
+#include "export.h"
+
+/****************************************************************
+ * **************************************************************
+ *
+ * NON Java declared native functions. Batch dispatcher
+ *
+ * **************************************************************
+ ****************************************************************/
+
+/**
+ * Initializes the callback structure for a batch dispatch. Returns -1 if
+ * any of the peered objects is not initialized and an exception has been
+ * thrown, otherwise 0.
+ */
+int cb_jpacket_batch_init(JNIEnv *env, cb_jpacket_batch_t *data, pcap_t *p,
+		jobject pcap, jobject jhandler, jobject juser, jobject jbatch,
+		jobject jpacket, jobject jscanner, jint id) {
+
+	if (jhandler == NULL || jbatch == NULL || jpacket == NULL
+			|| jscanner == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return -1;
+	}
+
+	memset(data, 0, sizeof(cb_jpacket_batch_t));
+
+	data->pb = (packet_batch_t *) getJMemoryPhysical(env, jbatch);
+	data->sc = (scanner_t *) getJMemoryPhysical(env, jscanner);
+	if (data->pb == NULL || data->sc == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION,
+				"batch or scanner not initialized");
+		return -1;
+	}
+
+	data->env = env;
+	data->p = p;
+	data->pcap = pcap;
+	data->obj = jhandler;
+	data->user = juser;
+	data->batch = jbatch;
+	data->packet = jpacket;
+	data->scanner = jscanner;
+	data->id = id;
+	data->exception = NULL;
+	data->mid = JPacketBatchHandlerNextBatchMID;
+
+	/*
+	 * A savefile is read one record at a time into the same libpcap buffer,
+	 * so pointers into it are not valid past the current callback.
+	 */
+	data->copy = (pcap_file(p) != NULL);
+
+	data->pb->pb_count = 0;
+	data->pb->pb_data_offset = 0;
+
+	return 0;
+}
+
+/**
+ * Hands the current batch to java handler and resets the batch. The
+ * in_callback flag tells us if we are being called from within a libpcap
+ * callback, in which case we can break the libpcap loop on an exception.
+ * Returns -1 if the handler threw an exception, otherwise 0.
+ */
+int cb_jpacket_batch_flush(cb_jpacket_batch_t *data, int in_callback) {
+
+	packet_batch_t *pb = data->pb;
+	JNIEnv *env = data->env;
+
+	if (pb->pb_count == 0) {
+		return 0;
+	}
+
+	env->CallVoidMethod(
+			data->obj,
+			data->mid,
+			data->batch,
+			data->user);
+
+	pb->pb_count = 0;
+	pb->pb_data_offset = 0;
+
+	if (env->ExceptionCheck() == JNI_TRUE) {
+		data->exception = env->ExceptionOccurred();
+		if (in_callback) {
+			pcap_breakloop(data->p);
+		}
+
+		return -1;
+	}
+
+	return 0;
+}
+
+/**
+ * JPacket batch dispatcher that collects and scans packets and dispatches
+ * them to java in batches.
+ */
+void cb_jpacket_batch_dispatch(u_char *user, const pcap_pkthdr *pkt_header,
+		const u_char *pkt_data) {
+
+	cb_jpacket_batch_t *data = (cb_jpacket_batch_t *)user;
+	packet_batch_t *pb = data->pb;
+	JNIEnv *env = data->env;
+
+	/* Ignore any remaining packets in the buffer after an exception */
+	if (data->exception != NULL) {
+		return;
+	}
+
+	const size_t len = BATCH_ALIGN(sizeof(pcap_pkthdr))
+			+ BATCH_ALIGN(pkt_header->caplen);
+
+	/*
+	 * Flush the batch when its full, when the copy area can not hold another
+	 * record or when scanner's ring-buffer is about to wrap around and
+	 * overwrite the states of packets already in this batch.
+	 */
+	if (pb->pb_count == pb->pb_capacity
+			|| (data->copy
+					&& (size_t) pb->pb_data_offset + len > (size_t) pb->pb_data_len)
+			|| SCANNER_WILL_WRAP(data->sc)) {
+
+		if (cb_jpacket_batch_flush(data, 1) == -1) {
+			return;
+		}
+	}
+
+	batch_entry_t *entry = &pb->pb_entries[pb->pb_count];
+
+	/*
+	 * A record bigger than the entire copy area is dispatched directly out of
+	 * libpcap buffer in a batch of its own.
+	 */
+	int direct = (data->copy == 0 || len > (size_t) pb->pb_data_len);
+	if (direct) {
+		entry->be_header = (pcap_pkthdr *) pkt_header;
+		entry->be_data = (u_char *) pkt_data;
+	} else {
+		uint8_t *dst = pb->pb_data + pb->pb_data_offset;
+
+		entry->be_header = (pcap_pkthdr *) dst;
+		entry->be_data = dst + BATCH_ALIGN(sizeof(pcap_pkthdr));
+
+		memcpy(entry->be_header, pkt_header, sizeof(pcap_pkthdr));
+		memcpy(entry->be_data, pkt_data, pkt_header->caplen);
+
+		pb->pb_data_offset += len;
+	}
+
+	/*
+	 * Point the scratch packet at the data without calling into java. Only
+	 * java header scanners ever look at it during the scan.
+	 */
+	setJMemoryPhysical(env, data->packet, toLong(entry->be_data));
+	env->SetIntField(data->packet, jmemorySizeFID, (jint) pkt_header->caplen);
+
+	entry->be_state = scanToState(
+			env,
+			data->scanner,
+			data->packet,
+			NULL,
+			data->sc,
+			data->id,
+			(char *) entry->be_data,
+			pkt_header->caplen,
+			pkt_header->len);
+
+	pb->pb_count ++;
+
+	if (env->ExceptionCheck() == JNI_TRUE) {
+		data->exception = env->ExceptionOccurred();
+		pcap_breakloop(data->p);
+		return;
+	}
+
+	if (direct && data->copy) {
+		cb_jpacket_batch_flush(data, 1);
+	}
+}
+
+/****************************************************************
+ * **************************************************************
+ *
+ * Java declared native functions
+ *
+ * **************************************************************
+ ****************************************************************/
+
+/*
+ * Class:     org_jnetpcap_packet_JPacketBatch
+ * Method:    initIds
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JPacketBatch_initIds
+(JNIEnv *env, jclass clazz) {
+
+	jclass c;
+
+	/*
+	 * PcapPacket field IDs are normally initialized by PcapPacket class, but
+	 * JPacketBatch may be loaded first. GetFieldID initializes the class.
+	 */
+	if ( (c = findClass(env, "org/jnetpcap/packet/PcapPacket")) == NULL) {
+		return;
+	}
+
+	if ( ( pcapStateFID = env->GetFieldID(
+			c,
+			"state",
+			"Lorg/jnetpcap/packet/JPacket$State;")) == NULL) {
+
+		throwException(env, NO_SUCH_FIELD_EXCEPTION,
+				"Unable to initialize field PcapPacket.State:JPacket.State");
+		return;
+	}
+
+	if ( ( pcapHeaderFID = env->GetFieldID(
+			c,
+			"header",
+			"Lorg/jnetpcap/PcapHeader;")) == NULL) {
+
+		throwException(env, NO_SUCH_FIELD_EXCEPTION,
+				"Unable to initialize field PcapPacket.header:PcapHeader");
+		return;
+	}
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JPacketBatch
+ * Method:    sizeof
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JPacketBatch_sizeof
+(JNIEnv *env, jclass clazz, jint capacity) {
+
+	return (jint) (sizeof(packet_batch_t) + sizeof(batch_entry_t) * capacity);
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JPacketBatch
+ * Method:    init
+ * Signature: (II)V
+ */
+JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JPacketBatch_init
+(JNIEnv *env, jobject obj, jint capacity, jint data_len) {
+
+	packet_batch_t *pb = (packet_batch_t *) getJMemoryPhysical(env, obj);
+	if (pb == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, "batch not initialized");
+		return;
+	}
+
+	const size_t table = sizeof(packet_batch_t)
+			+ sizeof(batch_entry_t) * capacity;
+
+	memset(pb, 0, table);
+
+	pb->pb_capacity = capacity;
+	pb->pb_count = 0;
+	pb->pb_data_len = data_len;
+	pb->pb_data_offset = 0;
+	pb->pb_data = ((uint8_t *) pb) + table;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JPacketBatch
+ * Method:    clear
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JPacketBatch_clear
+(JNIEnv *env, jobject obj) {
+
+	packet_batch_t *pb = (packet_batch_t *) getJMemoryPhysical(env, obj);
+	if (pb == NULL) {
+		return;
+	}
+
+	pb->pb_count = 0;
+	pb->pb_data_offset = 0;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JPacketBatch
+ * Method:    size
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JPacketBatch_size
+(JNIEnv *env, jobject obj) {
+
+	packet_batch_t *pb = (packet_batch_t *) getJMemoryPhysical(env, obj);
+	if (pb == NULL) {
+		return 0;
+	}
+
+	return (jint) pb->pb_count;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JPacketBatch
+ * Method:    getWirelen
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_org_jnetpcap_packet_JPacketBatch_getWirelen
+(JNIEnv *env, jobject obj, jint index) {
+
+	packet_batch_t *pb = (packet_batch_t *) getJMemoryPhysical(env, obj);
+	if (pb == NULL) {
+		return -1;
+	}
+
+	if (index < 0 || index >= pb->pb_count) {
+		throwException(env, INDEX_OUT_OF_BOUNDS_EXCEPTION, NULL);
+		return -1;
+	}
+
+	return (jint) pb->pb_entries[index].be_header->len;
+}
+
+/*
+ * Class:     org_jnetpcap_packet_JPacketBatch
+ * Method:    peer
+ * Signature: (ILorg/jnetpcap/packet/PcapPacket;)V
+ */
+JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JPacketBatch_peer
+(JNIEnv *env, jobject obj, jint index, jobject jpacket) {
+
+	packet_batch_t *pb = (packet_batch_t *) getJMemoryPhysical(env, obj);
+	if (pb == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, "batch not initialized");
+		return;
+	}
+
+	if (jpacket == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return;
+	}
+
+	if (index < 0 || index >= pb->pb_count) {
+		throwException(env, INDEX_OUT_OF_BOUNDS_EXCEPTION, NULL);
+		return;
+	}
+
+	batch_entry_t *entry = &pb->pb_entries[index];
+
+	jobject jheader = env->GetObjectField(jpacket, pcapHeaderFID);
+	jobject jstate = env->GetObjectField(jpacket, pcapStateFID);
+
+	jmemoryPeer(env, jheader, entry->be_header, sizeof(pcap_pkthdr), obj);
+	jmemoryPeer(env, jpacket, entry->be_data, entry->be_header->caplen, obj);
+	jmemoryPeer(env, jstate, entry->be_state,
+			PACKET_STATE_SIZE(entry->be_state), obj);
+
+	env->DeleteLocalRef(jheader);
+	env->DeleteLocalRef(jstate);
+}
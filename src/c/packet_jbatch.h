@@ -0,0 +1,72 @@
+/* Header for packet_jbatch batch dispatch methods */
+
+#ifndef _Included_packet_jbatch_h
+#define _Included_packet_jbatch_h
+#ifdef __cplusplus
+
+#include <stdint.h>
+#include <pcap.h>
+#include <jni.h>
+
+#include "export.h"
+#include "packet_jscanner.h"
+#include "org_jnetpcap_packet_JPacketBatch.h"
+
+/*
+ * Records in the copy area are aligned on this boundary
+ */
+#define BATCH_ALIGN(len) (((len) + 7) & ~7)
+
+/*
+ * A single packet within a batch. All 3 pointers either point into libpcap's
+ * capture buffer and scanner's ring-buffer, or into the batch's own copy area
+ * when the records come from a savefile.
+ */
+typedef struct batch_entry_t {
+	pcap_pkthdr *be_header;    // capture header
+	u_char *be_data;           // packet data buffer
+	packet_state_t *be_state;  // scanner state in JScanner ring-buffer
+} batch_entry_t;
+
+/*
+ * A batch of scanned packets. The structure is followed in memory by the
+ * entry table and then by the copy area.
+ */
+typedef struct packet_batch_t {
+	int32_t pb_capacity;        // maximum number of entries
+	int32_t pb_count;           // entries currently in the batch
+	int32_t pb_data_len;        // size of the copy area
+	int32_t pb_data_offset;     // next free byte in the copy area
+	uint8_t *pb_data;           // copy area for savefile records
+	batch_entry_t pb_entries[]; // one per packet
+} packet_batch_t;
+
+/*
+ * Structure which holds information for a batch callback from dispatch and
+ * loop.
+ */
+typedef struct cb_jpacket_batch_t {
+	pcap_t *p;
+	jmethodID mid;
+	JNIEnv *env;           // thread
+	jobject obj;           // JPacketBatchHandler
+	jobject pcap;
+	jthrowable exception;  // Any exceptions to rethrow
+	jobject user;
+	jobject batch;         // JPacketBatch
+	jobject packet;        // JPacket used as scratch while scanning
+	jint id;               // Header ID
+	jobject scanner;       // JScanner
+	packet_batch_t *pb;    // native peer of batch
+	scanner_t *sc;         // native peer of scanner
+	int copy;              // records must be copied, libpcap reuses its buffer
+} cb_jpacket_batch_t;
+
+void cb_jpacket_batch_dispatch(u_char*, const pcap_pkthdr*, const u_char*);
+int cb_jpacket_batch_init(JNIEnv *env, cb_jpacket_batch_t *data, pcap_t *p,
+		jobject pcap, jobject jhandler, jobject juser, jobject jbatch,
+		jobject jpacket, jobject jscanner, jint id);
+int cb_jpacket_batch_flush(cb_jpacket_batch_t *data, int in_callback);
+
+#endif
+#endif
@@ -46,7 +46,7 @@
 JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JHeaderScanner_bindNativeScanner
 (JNIEnv *env, jobject obj, jint id) {
 
-	if (id < 0 || id > MAX_ID_COUNT) {
+	if (id < 0 || id >= MAX_ID_COUNT) {
 		sprintf(str_buf, "invalid ID=%d (%s)", id, id2str(id));
 		throwException(env, UNREGISTERED_SCANNER_EXCEPTION, str_buf);
 		return;
@@ -94,7 +94,7 @@ typedef void (*native_dissect_func_t)(dissect_t *dissect);
 typedef void (*native_debug_func_t)(void *hdr);
 
 extern native_protocol_func_t native_protocols[];
-extern native_validate_func_t native_heuristics[MAX_ID_COUNT][MAX_ID_COUNT];
+extern native_validate_func_t *native_heuristics[MAX_ID_COUNT];
 extern native_debug_func_t native_debug[];
 extern const char *native_protocol_names[];
 
@@ -252,7 +252,7 @@ typedef struct scan_t {
  * represented here for future compatibility.
  */
 typedef struct header_t {
-	uint8_t  hdr_id;         // header ID
+	uint16_t hdr_id;         // header ID, upto MAX_ID_COUNT
 	
 	uint8_t  hdr_prefix;     // length of the prefix (preamble) before the header 
 	uint8_t  hdr_gap;        // length of the gap between header and payload
@@ -272,6 +272,9 @@ typedef struct header_t {
 #define MASK2MAP(m) (map >> 32)
 #define ID2MASK(id)	((uint64_t)((uint64_t)(id & ~0x1F) << 27) | (1ULL << (id & 0x1F)))
 
+#define PACKET_STATE_SIZE(pkt) \
+	(sizeof(packet_state_t) + sizeof(header_t) * (pkt)->pkt_header_count)
+
 #define PACKET_STATE_ADD_HEADER(pkt, id) pkt->pkt_header_map[ID2MAP(id)] |= ID2MASK(id)
 #define PACKET_STATE_HAS_HEADER(pkt, id) (pkt->pkt_header_map[ID2MAP(id)] & ID2MAP(id) != 0)
 
@@ -309,7 +312,24 @@ typedef struct scanner_t {
 	 * java scanners at the same time.
 	 */
 	native_protocol_func_t sc_scan_table[MAX_ID_COUNT];
-	native_validate_func_t sc_heuristics_table[MAX_ID_COUNT][MAX_ID_COUNT]; // Huristic
+
+	/*
+	 * Heuristic bindings, one NULL terminated list of validate functions per
+	 * protocol or NULL if the protocol has none. Lists are shared with the
+	 * global native_heuristics table, so the table grows linearly with
+	 * MAX_ID_COUNT.
+	 */
+	native_validate_func_t *sc_heuristics_table[MAX_ID_COUNT];
+
+	/*
+	 * Scan limits. The scan stops binding to new protocols after a header
+	 * whose id is in sc_stop_map or once every header in sc_target_map has been
+	 * found. The remainder of the packet becomes payload. Both maps use the
+	 * same format as pkt_header_map.
+	 */
+	int32_t		sc_limit_flags;		// SCAN_LIMIT_* flags, 0 if no limits
+	uint64_t	sc_stop_map[MAX_MAP_COUNT];
+	uint64_t	sc_target_map[MAX_MAP_COUNT];
 
 	
 	/* Packet and main header ring-buffer */
@@ -328,6 +348,25 @@ typedef struct scanner_t {
 	
 } scanner_t;
 
+/*
+ * Checks if the next packet_state_t allocated out of the scanner's ring-buffer
+ * will cause the buffer to wrap around to the beginning.
+ */
+#define SCANNER_WILL_WRAP(scanner) \
+	((scanner)->sc_offset > (scanner)->sc_len - sizeof(header_t) * MAX_ENTRY_COUNT)
+
+/*
+ * Scan limit flags
+ */
+#define SCAN_LIMIT_STOP		0x0001 // sc_stop_map is set
+#define SCAN_LIMIT_TARGET	0x0002 // sc_target_map is set
+
+/*
+ * Checks if scan should not bind any more protocols after the current header
+ */
+#define SCAN_LIMIT_REACHED(scanner, packet, id) \
+	((scanner)->sc_limit_flags != 0 && scan_limit_reached(scanner, packet, id))
+
 
 
 /******************************
@@ -337,11 +376,17 @@ typedef struct scanner_t {
 int scan(JNIEnv *env, jobject obj, jobject jpacket, scanner_t *scanner, packet_state_t *packet,
 		int first_id, char *buf, int buf_length, uint32_t wirelen);
 
+packet_state_t *scanToState(JNIEnv *env, jobject obj, jobject jpacket,
+		jobject jstate, scanner_t *scanner, int first_id, char *buf,
+		int buf_length, uint32_t wirelen);
+
 int scanJPacket(JNIEnv *env, jobject obj, jobject jpacket, jobject jstate, scanner_t *scanner, int first_id, char *buf,
 		int buf_length, uint32_t wirelen);
 
 int scanJavaBinding(scan_t *scan);
 
+int scan_limit_reached(scanner_t *scanner, packet_state_t *packet, int id);
+
 uint64_t toUlong64(JNIEnv *env, jintArray ja);
 
 jint findHeaderById(packet_state_t *packet, jint id, jint instance);
@@ -221,125 +221,138 @@ int scan(JNIEnv *env, jobject obj, jobject jpacket, scanner_t *scanner,
 			debug_scan("loop-length > 0", &scan);
 #endif
 
-			/******************************************************
-			 * ****************************************************
-			 * * If override flag is set, then we reset the
-			 * * discovered next protocol. If that is what the user 
-			 * * wants then that is what he gets.
-			 * ****************************************************
-			 ******************************************************/
-			if (scanner->sc_flags[scan.id] & FLAG_OVERRIDE_BINDING) {
-#ifdef DEBUG
-				debug_scan("TCP OVERRIDE", &scan);
-#endif
+			/*
+			 * Once the scan limit is reached, the rest of the packet is
+			 * recorded as payload without any bindings or heuristics.
+			 */
+			if (SCAN_LIMIT_REACHED(scanner, scan.packet, scan.id)) {
 				scan.next_id = PAYLOAD_ID;
-			}
+				record_header(&scan);
 
-			/******************************************************
-			 * ****************************************************
-			 * * Now do HEURISTIC discovery scans if the appropriate
-			 * * flags are set. Heuristics allow us to provide nxt
-			 * * protocol binding, using discovery (an educated 
-			 * * guess). 
-			 * ****************************************************
-			 ******************************************************/
-			if (scanner->sc_flags[scan.id] & FLAG_HEURISTIC_BINDING) {
-
-				/* 
-				 * Save these critical properties, in case heuristic changes them
-				 * for this current header, not the next one its supposed to
-				 * check for.
-				 */
-				int saved_offset = scan.offset;
-				int saved_length = scan.length;
-
-				/* Advance offset to next header, so that heuristics can get a 
-				 * peek. It will be restored at the end of heuristics block.
-				 */
-				scan.offset += scan.length + scan.hdr_gap;
-
-				/*
-				 * 2 types of heuristic bindings. Pre and post.
-				 * Pre - heuristics are run before the direct discovery method
-				 *       in scanner. Only after the pre-heuristic fail do we
-				 *       utilize the directly discovered binding.
-				 * 
-				 * Post - heuristics are run after the direct discovery method
-				 *        didn't produce a binding.
-				 *
-				 * ------------------------------------------------------------
-				 * 
-				 * In our case, since we have already ran the direct discovery
-				 * in the header scanner, we save scan.next_id value, reset it,
-				 * call the heuristic function, check its scan.next_id if it
-				 * was set, if it was, then use that instead. Otherwise if it
-				 * wasn't restore the original next_id and continue on normally.
-				 */
-				if (scanner->sc_flags[scan.id] & FLAG_HEURISTIC_PRE_BINDING) {
-#ifdef DEBUG
-					debug_scan("heurists_pre", &scan);
-#endif
-
-					int saved_next_id = scan.next_id;
+			} else {
+
+				/******************************************************
+				 * ****************************************************
+				 * * If override flag is set, then we reset the
+				 * * discovered next protocol. If that is what the user 
+				 * * wants then that is what he gets.
+				 * ****************************************************
+				 ******************************************************/
+				if (scanner->sc_flags[scan.id] & FLAG_OVERRIDE_BINDING) {
+#ifdef DEBUG
+					debug_scan("TCP OVERRIDE", &scan);
+#endif
 					scan.next_id = PAYLOAD_ID;
+				}
+
+				/******************************************************
+				 * ****************************************************
+				 * * Now do HEURISTIC discovery scans if the appropriate
+				 * * flags are set. Heuristics allow us to provide nxt
+				 * * protocol binding, using discovery (an educated 
+				 * * guess). 
+				 * ****************************************************
+				 ******************************************************/
+				if (scanner->sc_flags[scan.id] & FLAG_HEURISTIC_BINDING) {
+
+					/* 
+					 * Save these critical properties, in case heuristic changes them
+					 * for this current header, not the next one its supposed to
+					 * check for.
+					 */
+					int saved_offset = scan.offset;
+					int saved_length = scan.length;
+
+					/* Advance offset to next header, so that heuristics can get a 
+					 * peek. It will be restored at the end of heuristics block.
+					 */
+					scan.offset += scan.length + scan.hdr_gap;
+
+					/*
+					 * 2 types of heuristic bindings. Pre and post.
+					 * Pre - heuristics are run before the direct discovery method
+					 *       in scanner. Only after the pre-heuristic fail do we
+					 *       utilize the directly discovered binding.
+					 * 
+					 * Post - heuristics are run after the direct discovery method
+					 *        didn't produce a binding.
+					 *
+					 * ------------------------------------------------------------
+					 * 
+					 * In our case, since we have already ran the direct discovery
+					 * in the header scanner, we save scan.next_id value, reset it,
+					 * call the heuristic function, check its scan.next_id if it
+					 * was set, if it was, then use that instead. Otherwise if it
+					 * wasn't restore the original next_id and continue on normally.
+					 */
+					if (scanner->sc_flags[scan.id] & FLAG_HEURISTIC_PRE_BINDING) {
+#ifdef DEBUG
+						debug_scan("heurists_pre", &scan);
+#endif
 
-					for (int i = 0; i < MAX_ID_COUNT; i++) {
-						native_validate_func_t validate_func;
-						validate_func
-								= scanner->sc_heuristics_table[scan.id][i];
+						int saved_next_id = scan.next_id;
+						scan.next_id = PAYLOAD_ID;
 
-						if (validate_func == NULL) {
-							break;
-						}
+						native_validate_func_t *heuristics =
+								scanner->sc_heuristics_table[scan.id];
 
-						if ((scan.next_id = validate_func(&scan)) != INVALID) {
-							break;
+						for (int i = 0; heuristics != NULL; i++) {
+							native_validate_func_t validate_func = heuristics[i];
+
+							if (validate_func == NULL) {
+								break;
+							}
+
+							if ((scan.next_id = validate_func(&scan)) != INVALID) {
+								break;
+							}
 						}
-					}
 
-					if (scan.next_id == PAYLOAD_ID) {
-						scan.next_id = saved_next_id;
-					}
+						if (scan.next_id == PAYLOAD_ID) {
+							scan.next_id = saved_next_id;
+						}
 
-				} else if (scan.next_id == PAYLOAD_ID) {
+					} else if (scan.next_id == PAYLOAD_ID) {
 #ifdef DEBUG
-					debug_scan("heurists_post", &scan);
+						debug_scan("heurists_post", &scan);
 #endif
-					for (int i = 0; i < MAX_ID_COUNT; i++) {
-						native_validate_func_t validate_func;
-						validate_func
-								= scanner->sc_heuristics_table[scan.id][i];
+						native_validate_func_t *heuristics =
+								scanner->sc_heuristics_table[scan.id];
 
-						if (validate_func == NULL) {
-							break;
-						}
+						for (int i = 0; heuristics != NULL; i++) {
+							native_validate_func_t validate_func = heuristics[i];
+
+							if (validate_func == NULL) {
+								break;
+							}
 
 #ifdef DEBUG
-						debug_trace("heurists_post", "[%d]", i);
+							debug_trace("heurists_post", "[%d]", i);
 #endif
-						if ((scan.next_id = validate_func(&scan)) != INVALID) {
+							if ((scan.next_id = validate_func(&scan)) != INVALID) {
 
 #ifdef DEBUG
-							debug_scan("heurists_post::found", &scan);
+								debug_scan("heurists_post::found", &scan);
 #endif
 
-							break;
+								break;
+							}
 						}
 					}
+
+					/* Restore these 2 critical properties */
+					scan.offset = saved_offset;
+					scan.length = saved_length;
 				}
 
-				/* Restore these 2 critical properties */
-				scan.offset = saved_offset;
-				scan.length = saved_length;
+				/******************************************************
+				 * ****************************************************
+				 * * Now record discovered information in structures
+				 * ****************************************************
+				 ******************************************************/
+				record_header(&scan);
 			}
 
-			/******************************************************
-			 * ****************************************************
-			 * * Now record discovered information in structures
-			 * ****************************************************
-			 ******************************************************/
-			record_header(&scan);
-
 #ifdef DEBUG
 			debug_header("header_t", scan.header - 1);
 #endif
@@ -376,6 +389,37 @@ int scan(JNIEnv *env, jobject obj, jobject jpacket, scanner_t *scanner,
 	return scan.offset;
 } // End scan()
 
+/**
+ * Checks if the scan should stop binding new protocols after the header with
+ * the specified id, because the id is one of the scanner's stop ids or
+ * because with this header all of the scanner's target headers have been
+ * found.
+ */
+int scan_limit_reached(scanner_t *scanner, packet_state_t *packet, int id) {
+
+	if ((scanner->sc_limit_flags & SCAN_LIMIT_STOP) &&
+			(scanner->sc_stop_map[ID2MAP(id)] & (1ULL << (id & 0x1F)))) {
+		return TRUE;
+	}
+
+	if ((scanner->sc_limit_flags & SCAN_LIMIT_TARGET) == 0) {
+		return FALSE;
+	}
+
+	for (int i = 0; i < MAX_MAP_COUNT; i ++) {
+		uint64_t map = packet->pkt_header_map[i];
+		if (i == ID2MAP(id)) {
+			map |= ID2MASK(id);
+		}
+
+		if ((map & scanner->sc_target_map[i]) != scanner->sc_target_map[i]) {
+			return FALSE;
+		}
+	}
+
+	return TRUE;
+}
+
 /**
  * Record state of the header in the packet state structure.
  */
@@ -622,19 +666,17 @@ void callJavaHeaderScanner(scan_t *scan) {
 }
 
 /**
- * Prepares a scan of packet buffer
+ * Allocates the next packet_state_t out of scanner's ring-buffer and scans the
+ * packet buffer into it. The jstate object is optional. When NULL no java
+ * objects are peered, which allows callers such as the batch dispatcher to
+ * scan many packets without calling back into java space.
  */
-int scanJPacket(JNIEnv *env, jobject obj, jobject jpacket, jobject jstate,
-		scanner_t *scanner, int first_id, char *buf, int buf_length,
-		uint32_t wirelen) {
-
-#ifdef DEBUG
-	debug_enter("scanJPacket");
-#endif
+packet_state_t *scanToState(JNIEnv *env, jobject obj, jobject jpacket,
+		jobject jstate, scanner_t *scanner, int first_id, char *buf,
+		int buf_length, uint32_t wirelen) {
 
 	/* Check if we need to wrap our entry buffer around */
-	if (scanner->sc_offset > scanner->sc_len - sizeof(header_t)
-			* MAX_ENTRY_COUNT) {
+	if (SCANNER_WILL_WRAP(scanner)) {
 		scanner->sc_offset = 0;
 	}
 
@@ -646,7 +688,9 @@ int scanJPacket(JNIEnv *env, jobject obj, jobject jpacket, jobject jstate,
 	 */
 	//	setJMemoryPhysical(env, jstate, toLong(packet));
 	//	env->SetObjectField(jstate, jmemoryKeeperFID, obj); // Set it to JScanner
-	jmemoryPeer(env, jstate, packet, sizeof(packet_state_t), obj);
+	if (jstate != NULL) {
+		jmemoryPeer(env, jstate, packet, sizeof(packet_state_t), obj);
+	}
 
 	/*
 	 * Reset the entire packet_state_t structure
@@ -678,12 +722,30 @@ int scanJPacket(JNIEnv *env, jobject obj, jobject jpacket, jobject jstate,
 	debug_trace("after scan", "buf_len=%d wire_len=%d", buf_length, wirelen);
 #endif
 
-	const size_t len = sizeof(packet_state_t) + (sizeof(header_t)
-			* packet->pkt_header_count);
+	const size_t len = PACKET_STATE_SIZE(packet);
 
 	scanner->sc_offset += len;
 
-	jmemoryResize(env, jstate, len);
+	if (jstate != NULL) {
+		jmemoryResize(env, jstate, len);
+	}
+
+	return packet;
+}
+
+/**
+ * Prepares a scan of packet buffer
+ */
+int scanJPacket(JNIEnv *env, jobject obj, jobject jpacket, jobject jstate,
+		scanner_t *scanner, int first_id, char *buf, int buf_length,
+		uint32_t wirelen) {
+
+#ifdef DEBUG
+	debug_enter("scanJPacket");
+#endif
+
+	scanToState(env, obj, jpacket, jstate, scanner, first_id, buf, buf_length,
+			wirelen);
 
 #ifdef DEBUG
 	debug_exit("scanJPacket");
@@ -826,9 +888,7 @@ JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JScanner_init
 	}
 
 	for (int i = 0; i < MAX_ID_COUNT; i++) {
-		for (int j = 0; j < MAX_ID_COUNT; j++) {
-			scanner->sc_heuristics_table[i][j] = native_heuristics[i][j];
-		}
+		scanner->sc_heuristics_table[i] = native_heuristics[i];
 	}
 
 	/* Initialize sub-header area - allocate 1/10th */
@@ -954,6 +1014,49 @@ JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JScanner_loadFlags
 #endif
 }
 
+/*
+ * Class:     org_jnetpcap_packet_JScanner
+ * Method:    loadLimits
+ * Signature: ([J[J)V
+ */
+JNIEXPORT void JNICALL Java_org_jnetpcap_packet_JScanner_loadLimits
+(JNIEnv *env, jobject obj, jlongArray jstop, jlongArray jtarget) {
+
+	scanner_t *scanner = (scanner_t *)getJMemoryPhysical(env, obj);
+	if (scanner == NULL) {
+		return;
+	}
+
+	if (jstop == NULL || jtarget == NULL) {
+		throwException(env, NULL_PTR_EXCEPTION, NULL);
+		return;
+	}
+
+	if (env->GetArrayLength(jstop) != MAX_MAP_COUNT ||
+			env->GetArrayLength(jtarget) != MAX_MAP_COUNT) {
+		throwException(env,
+				ILLEGAL_ARGUMENT_EXCEPTION,
+				"size of array must be MAX_MAP_COUNT size");
+		return;
+	}
+
+	env->GetLongArrayRegion(jstop, 0, MAX_MAP_COUNT,
+			(jlong *)scanner->sc_stop_map);
+	env->GetLongArrayRegion(jtarget, 0, MAX_MAP_COUNT,
+			(jlong *)scanner->sc_target_map);
+
+	scanner->sc_limit_flags = 0;
+	for (int i = 0; i < MAX_MAP_COUNT; i ++) {
+		if (scanner->sc_stop_map[i] != 0) {
+			scanner->sc_limit_flags |= SCAN_LIMIT_STOP;
+		}
+
+		if (scanner->sc_target_map[i] != 0) {
+			scanner->sc_limit_flags |= SCAN_LIMIT_TARGET;
+		}
+	}
+}
+
 /*
  * Class:     org_jnetpcap_packet_JScanner
  * Method:    scan
@@ -88,7 +88,7 @@ void scan_ethernet(scan_t *scan);
  * New protocols are added in the init_native_protocol() in this file.
  */
 native_protocol_func_t	native_protocols      [MAX_ID_COUNT];
-native_validate_func_t	native_heuristics     [MAX_ID_COUNT][MAX_ID_COUNT];
+native_validate_func_t	*native_heuristics    [MAX_ID_COUNT];
 native_validate_func_t	validate_table        [MAX_ID_COUNT];
 native_debug_func_t   	native_debug          [MAX_ID_COUNT];
 native_dissect_func_t 	subheader_dissectors  [MAX_ID_COUNT];
@@ -1012,8 +1012,8 @@ void scan_snap(scan_t *scan) {
 	 * First, we check if SNAP has already been set by looking in the
 	 * flow_key_t and checking if SNAP has previously been processed
 	 */
-	if ((scan->packet->pkt_flow_key.header_map & (1L << IEEE_SNAP_ID)) == 0) {
-		scan->packet->pkt_flow_key.header_map |= (1L << IEEE_SNAP_ID);
+	if (!FLOW_KEY_HAS_HEADER(&scan->packet->pkt_flow_key, IEEE_SNAP_ID)) {
+		FLOW_KEY_ADD_HEADER(&scan->packet->pkt_flow_key, IEEE_SNAP_ID);
 
 		/*
 		 * Ip4 always takes up pair[1]
@@ -1056,8 +1056,8 @@ void scan_tcp(scan_t *scan) {
 	 * First, we check if Tcp has already been set by looking in the
 	 * flow_key_t and checking if Tcp has previously been processed
 	 */
-	if ((scan->packet->pkt_flow_key.header_map & (1L << TCP_ID)) == 0) {
-		scan->packet->pkt_flow_key.header_map |= (1L << TCP_ID);
+	if (!FLOW_KEY_HAS_HEADER(&scan->packet->pkt_flow_key, TCP_ID)) {
+		FLOW_KEY_ADD_HEADER(&scan->packet->pkt_flow_key, TCP_ID);
 
 		/*
 		 * Tcp takes up one pair
@@ -1074,7 +1074,7 @@ void scan_tcp(scan_t *scan) {
 #ifdef DEBUG
 	printf("scan_tcp(): count=%d map=0x%lx\n",
 			scan->packet->pkt_flow_key.pair_count,
-			scan->packet->pkt_flow_key.header_map
+			scan->packet->pkt_flow_key.header_map[0]
 			);
 	fflush(stdout);
 #endif
@@ -1140,8 +1140,8 @@ void scan_udp(scan_t *scan) {
 	 * First, we check if Udp has already been set by looking in the
 	 * flow_key_t and checking if Udp has previously been processed
 	 */
-	if ((scan->packet->pkt_flow_key.header_map & (1L << UDP_ID)) == 0) {
-		scan->packet->pkt_flow_key.header_map |= (1L << UDP_ID);
+	if (!FLOW_KEY_HAS_HEADER(&scan->packet->pkt_flow_key, UDP_ID)) {
+		FLOW_KEY_ADD_HEADER(&scan->packet->pkt_flow_key, UDP_ID);
 
 		/*
 		 * Udp takes up one pair
@@ -1241,8 +1241,8 @@ void scan_ip6(scan_t *scan) {
 	 * First, we check if Ip6 has already been set by looking in the
 	 * flow_key_t and checking if it has been previously been processed
 	 */
-	if ((scan->packet->pkt_flow_key.header_map & (1L << IP6_ID)) == 0) {
-		scan->packet->pkt_flow_key.header_map |= (1L << IP6_ID);
+	if (!FLOW_KEY_HAS_HEADER(&scan->packet->pkt_flow_key, IP6_ID)) {
+		FLOW_KEY_ADD_HEADER(&scan->packet->pkt_flow_key, IP6_ID);
 
 		/*
 		 * Ip6 always takes up 2 pairs
@@ -1494,8 +1494,8 @@ void scan_ip4(register scan_t *scan) {
 	 * First, we check if Ip4 has already been set by looking in the
 	 * flow_key_t and checking if Ip4 has previously been processed
 	 */
-	if ((scan->packet->pkt_flow_key.header_map & (1L << IP4_ID)) == 0) {
-		scan->packet->pkt_flow_key.header_map |= (1L << IP4_ID);
+	if (!FLOW_KEY_HAS_HEADER(&scan->packet->pkt_flow_key, IP4_ID)) {
+		FLOW_KEY_ADD_HEADER(&scan->packet->pkt_flow_key, IP4_ID);
 
 		/*
 		 * Ip4 always takes up pair[0] and pair[1]
@@ -1599,8 +1599,8 @@ void scan_802dot3(scan_t *scan) {
 	 * First, we check if Ethernet has already been set by looking in the
 	 * flow_key_t and checking if it has been previously been processed
 	 */
-	if ((scan->packet->pkt_flow_key.header_map & (1L << IEEE_802DOT3_ID)) == 0) {
-		scan->packet->pkt_flow_key.header_map |= (1L << IEEE_802DOT3_ID);
+	if (!FLOW_KEY_HAS_HEADER(&scan->packet->pkt_flow_key, IEEE_802DOT3_ID)) {
+		FLOW_KEY_ADD_HEADER(&scan->packet->pkt_flow_key, IEEE_802DOT3_ID);
 
 		/*
 		 * Ethernet always takes up 2 pairs
@@ -1656,8 +1656,8 @@ void scan_ethernet(scan_t *scan) {
 	 * First, we check if Ethernet has already been set by looking in the
 	 * flow_key_t and checking if it has been previously been processed
 	 */
-	if ((scan->packet->pkt_flow_key.header_map & (1L << ETHERNET_ID)) == 0) {
-		scan->packet->pkt_flow_key.header_map |= (1L << ETHERNET_ID);
+	if (!FLOW_KEY_HAS_HEADER(&scan->packet->pkt_flow_key, ETHERNET_ID)) {
+		FLOW_KEY_ADD_HEADER(&scan->packet->pkt_flow_key, ETHERNET_ID);
 
 		/*
 		 * Ethernet always takes up 2 pairs
@@ -1715,6 +1715,14 @@ int validate_next(register int id, register scan_t *scan) {
 		return INVALID;
 	}
 
+	/*
+	 * No point validating the next protocol, if the scan is going to stop
+	 * after the current header anyway.
+	 */
+	if (SCAN_LIMIT_REACHED(scan->scanner, scan->packet, scan->id)) {
+		return INVALID;
+	}
+
 	register native_validate_func_t validate_func = validate_table[id];
 	if (validate_func == NULL) {
 		return id;
@@ -1780,7 +1788,7 @@ void init_native_protocols() {
 	 */
 	memset(native_protocols, 0, MAX_ID_COUNT * sizeof(native_protocol_func_t));
 	memset(native_heuristics, 0,
-			MAX_ID_COUNT * MAX_ID_COUNT * sizeof(native_validate_func_t));
+			MAX_ID_COUNT * sizeof(native_validate_func_t *));
 	memset(validate_table, 0, MAX_ID_COUNT * sizeof(native_validate_func_t));
 	memset(native_debug, 0, MAX_ID_COUNT * sizeof(native_debug_func_t));
 
@@ -1851,12 +1859,21 @@ void init_native_protocols() {
 	 * Heuristic bindings (guesses) to protocols. Used by main scan loop to
 	 * check heuristic bindings.
 	 */
-	native_heuristics[TCP_ID][0]			= &validate_http;
-	native_heuristics[TCP_ID][1]			= &validate_sip;
-
-	native_heuristics[UDP_ID][0]			= &validate_rtp;
-	native_heuristics[UDP_ID][1]			= &validate_rtcp;
-	native_heuristics[UDP_ID][2]			= &validate_sip;
+	static native_validate_func_t tcp_heuristics[] = {
+			&validate_http,
+			&validate_sip,
+			NULL
+	};
+
+	static native_validate_func_t udp_heuristics[] = {
+			&validate_rtp,
+			&validate_rtcp,
+			&validate_sip,
+			NULL
+	};
+
+	native_heuristics[TCP_ID]				= tcp_heuristics;
+	native_heuristics[UDP_ID]				= udp_heuristics;
 
 	/*
 	 * Dissector tables. Dissection == discovery of optional fields and 
@@ -0,0 +1,496 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.BlockingQueue;
+
+import org.jnetpcap.nio.JBuffer;
+import org.jnetpcap.packet.JPacket;
+import org.jnetpcap.util.RingBlockingQueue;
+
+/**
+ * Writes a classic pcap "savefile" on a background thread. Unlike
+ * {@link PcapDumper}, which writes every record through libpcap on the calling
+ * thread, this dumper copies records into large preallocated direct buffers.
+ * Full buffers are handed off to a writer thread, which writes each one to the
+ * channel in a single call, while the capture thread carries on filling the
+ * next buffer. A slow disk only delays the writer thread, never the capture
+ * thread.
+ * <p>
+ * When the writer falls behind and no free buffer is available, the dumper
+ * either drops the record or waits for a buffer, depending on whether it is
+ * blocking. Dropped records are counted and, together with the number of
+ * buffers waiting to be written, can be used to tell when the disk can not
+ * keep up.
+ * </p>
+ * <p>
+ * Records only reach the file once their buffer fills up, the dumper is
+ * flushed or closed. The dump, flush and close methods must all be called by
+ * the same thread, typically the one capturing packets. The counters may be
+ * read from any thread.
+ * </p>
+ * 
+ * <pre>
+ * AsyncPcapDumper dumper = new AsyncPcapDumper(new File(&quot;capture.pcap&quot;),
+ *     PcapDLT.EN10MB.value, 65535);
+ * pcap.loop(Pcap.LOOP_INFINITE, new PcapPacketHandler&lt;AsyncPcapDumper&gt;() {
+ * 	public void nextPacket(PcapPacket packet, AsyncPcapDumper dumper) {
+ * 		dumper.dump(packet);
+ * 	}
+ * }, dumper);
+ * dumper.close();
+ * </pre>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ * @see PcapDumper
+ */
+public class AsyncPcapDumper
+    implements Closeable, Flushable {
+
+	/**
+	 * Buffers are allocated in multiples of this block size, which matches the
+	 * page size and the block size of most file systems. The writes themselves
+	 * are not block aligned, a buffer is written out as soon as the next record
+	 * does not fit, so most writes are a little short of a full buffer.
+	 */
+	public final static int BLOCK_SIZE = 4096;
+
+	/** Default number of buffers, one being filled while one is written. */
+	public final static int DEFAULT_BUFFER_COUNT = 2;
+
+	/** Default size of each buffer. */
+	public final static int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	/** Tells the writer thread to exit. */
+	private final static ByteBuffer SHUTDOWN = ByteBuffer.allocate(0);
+
+	/** True if dump waits for a free buffer instead of dropping records. */
+	private volatile boolean blocking;
+
+	/** Bytes written to the channel. */
+	private volatile long bytesWritten;
+
+	/** The channel. */
+	private final WritableByteChannel channel;
+
+	/** True once closed. */
+	private boolean closed;
+
+	/** Buffer currently being filled, or null if none was available. */
+	private ByteBuffer current;
+
+	/** Records dropped. */
+	private volatile long dropped;
+
+	/** First error encountered by the writer thread. */
+	private volatile IOException error;
+
+	/** Free buffers, returned by the writer thread. */
+	private final BlockingQueue<ByteBuffer> free;
+
+	/** Full buffers, waiting to be written. */
+	private final BlockingQueue<ByteBuffer> full;
+
+	/** Largest number of buffers that were waiting to be written at once. */
+	private volatile int maxQueueDepth;
+
+	/** Records accepted. */
+	private volatile long records;
+
+	/** Snapshot length, records are truncated to this length. */
+	private final int snaplen;
+
+	/** Number of times dump waited for a free buffer. */
+	private volatile long stalls;
+
+	/** Buffers handed to the writer thread, guarded by this. */
+	private long submitted;
+
+	/** Buffers written by the writer thread, guarded by this. */
+	private long written;
+
+	/** The writer thread. */
+	private final Thread writer;
+
+	/**
+	 * Creates a new savefile using {@value #DEFAULT_BUFFER_COUNT} buffers of
+	 * {@value #DEFAULT_BUFFER_SIZE} bytes each.
+	 * 
+	 * @param file
+	 *          file to create or overwrite
+	 * @param linktype
+	 *          link type (DLT) of the packets
+	 * @param snaplen
+	 *          snapshot length
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public AsyncPcapDumper(File file, int linktype, int snaplen)
+	    throws IOException {
+		this(new FileOutputStream(file).getChannel(), linktype, snaplen,
+		    DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+	}
+
+	/**
+	 * Creates a savefile on a channel.
+	 * 
+	 * @param channel
+	 *          channel to write to, closed when the dumper is closed
+	 * @param linktype
+	 *          link type (DLT) of the packets
+	 * @param snaplen
+	 *          snapshot length
+	 * @param bufferSize
+	 *          size of each buffer, rounded up to a multiple of
+	 *          {@link #BLOCK_SIZE}
+	 * @param bufferCount
+	 *          number of buffers, at least 2
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public AsyncPcapDumper(WritableByteChannel channel, int linktype,
+	    int snaplen, int bufferSize, int bufferCount) throws IOException {
+		if (snaplen <= 0) {
+			throw new IllegalArgumentException("invalid snaplen " + snaplen);
+		}
+
+		if (bufferCount < 2) {
+			throw new IllegalArgumentException("at least 2 buffers are required");
+		}
+
+		bufferSize = (bufferSize + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+		if (bufferSize < MappedPcapReader.FILE_HEADER_LENGTH
+		    + MappedPcapReader.RECORD_HEADER_LENGTH + snaplen) {
+			throw new IllegalArgumentException("buffer size " + bufferSize
+			    + " too small for snaplen " + snaplen);
+		}
+
+		this.channel = channel;
+		this.snaplen = snaplen;
+		this.free = new RingBlockingQueue<ByteBuffer>(bufferCount);
+		this.full = new RingBlockingQueue<ByteBuffer>(bufferCount + 1);
+
+		for (int i = 0; i < bufferCount; i++) {
+			ByteBuffer b = ByteBuffer.allocateDirect(bufferSize);
+			b.order(ByteOrder.nativeOrder());
+			free.add(b);
+		}
+
+		current = free.poll();
+		current.putInt(MappedPcapReader.MAGIC_MICROS);
+		current.putShort((short) 2).putShort((short) 4);
+		current.putInt(0).putInt(0);
+		current.putInt(snaplen).putInt(linktype);
+
+		writer = new Thread(new Runnable() {
+
+			public void run() {
+				write();
+			}
+
+		}, "AsyncPcapDumper");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Flushes all records, stops the writer thread and closes the channel.
+	 * 
+	 * @throws IOException
+	 *           any IO errors encountered by the writer thread
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		try {
+			flush();
+		} finally {
+			closed = true;
+
+			put(SHUTDOWN);
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			channel.close();
+		}
+	}
+
+	/**
+	 * Copies a record into the current buffer.
+	 * 
+	 * @param header
+	 *          capture header
+	 * @param packet
+	 *          packet data
+	 * @return true if the record was accepted, false if it was dropped
+	 */
+	public boolean dump(JCaptureHeader header, JBuffer packet) {
+		final int caplen = Math.min(Math.min(header.caplen(), packet.size()),
+		    snaplen);
+		final int length = MappedPcapReader.RECORD_HEADER_LENGTH + caplen;
+
+		if (reserve(length) == false) {
+			dropped++;
+			return false;
+		}
+
+		current.putInt((int) header.seconds());
+		current.putInt((int) (header.nanos() / 1000));
+		current.putInt(caplen);
+		current.putInt(header.wirelen());
+		packet.transferTo(current, 0, caplen);
+
+		records++;
+
+		return true;
+	}
+
+	/**
+	 * Copies a packet, using its capture header, into the current buffer.
+	 * 
+	 * @param packet
+	 *          packet to dump
+	 * @return true if the record was accepted, false if it was dropped
+	 */
+	public boolean dump(JPacket packet) {
+		return dump(packet.getCaptureHeader(), packet);
+	}
+
+	/**
+	 * Hands the current buffer to the writer thread and waits for all buffers
+	 * to be written.
+	 * 
+	 * @throws IOException
+	 *           any IO errors encountered by the writer thread
+	 */
+	public void flush() throws IOException {
+		if (closed) {
+			throw new IOException("dumper closed");
+		}
+
+		submit();
+
+		synchronized (this) {
+			while (written < submitted) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw (IOException) new IOException("interrupted").initCause(e);
+				}
+			}
+		}
+
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Gets the number of bytes written to the channel so far.
+	 * 
+	 * @return number of bytes
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Gets the number of records dropped because no buffer was free or because
+	 * the writer thread failed.
+	 * 
+	 * @return number of records
+	 */
+	public long getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * Gets the largest number of full buffers that were waiting to be written at
+	 * the same time.
+	 * 
+	 * @return number of buffers
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	/**
+	 * Gets the number of full buffers currently waiting to be written.
+	 * 
+	 * @return number of buffers
+	 */
+	public int getQueueDepth() {
+		return full.size();
+	}
+
+	/**
+	 * Gets the number of records accepted.
+	 * 
+	 * @return number of records
+	 */
+	public long getRecordCount() {
+		return records;
+	}
+
+	/**
+	 * Gets the number of times a blocking dumper had to wait for a free buffer.
+	 * 
+	 * @return number of waits
+	 */
+	public long getStallCount() {
+		return stalls;
+	}
+
+	/**
+	 * Checks if the dumper waits for a free buffer instead of dropping records.
+	 * 
+	 * @return true if blocking
+	 */
+	public boolean isBlocking() {
+		return blocking;
+	}
+
+	/**
+	 * Adds a buffer to the full queue, which has room for every buffer.
+	 */
+	private void put(ByteBuffer b) {
+		while (full.offer(b) == false) {
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Makes sure the current buffer has room for a record, handing a full
+	 * buffer to the writer thread.
+	 * 
+	 * @return false if no buffer is available
+	 */
+	private boolean reserve(int length) {
+		if (closed) {
+			throw new IllegalStateException("dumper closed");
+		}
+
+		if (error != null) {
+			return false;
+		}
+
+		if (current != null && current.remaining() >= length) {
+			return true;
+		}
+
+		submit();
+
+		current = free.poll();
+		if (current == null && blocking) {
+			stalls++;
+			try {
+				current = free.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return current != null;
+	}
+
+	/**
+	 * Sets whether dump waits for a free buffer instead of dropping records.
+	 * 
+	 * @param blocking
+	 *          true to wait, false to drop
+	 */
+	public void setBlocking(boolean blocking) {
+		this.blocking = blocking;
+	}
+
+	/**
+	 * Hands the current buffer to the writer thread, if it holds any records.
+	 */
+	private void submit() {
+		if (current == null || current.position() == 0) {
+			return;
+		}
+
+		current.flip();
+
+		synchronized (this) {
+			submitted++;
+		}
+
+		put(current);
+		current = null;
+
+		final int depth = full.size();
+		if (depth > maxQueueDepth) {
+			maxQueueDepth = depth;
+		}
+	}
+
+	/**
+	 * Writer thread main loop. Writes full buffers and returns them to the free
+	 * queue. After an error, buffers are returned without being written.
+	 */
+	private void write() {
+		while (true) {
+			final ByteBuffer b;
+			try {
+				b = full.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (b == SHUTDOWN) {
+				return;
+			}
+
+			if (error == null) {
+				try {
+					while (b.hasRemaining()) {
+						bytesWritten += channel.write(b);
+					}
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+
+			b.clear();
+			free.offer(b);
+
+			synchronized (this) {
+				written++;
+				notifyAll();
+			}
+		}
+	}
+}
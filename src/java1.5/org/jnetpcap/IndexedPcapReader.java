@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.packet.PcapPacket;
+
+/**
+ * A mapped capture file reader which can seek by time. The reader uses a
+ * {@link PcapIndex} of the file, which is loaded from the file's sidecar index
+ * or, if there isn't one or it is out of date, built and saved to the sidecar
+ * for next time. Seeking to a time jumps to the nearest index entry before it
+ * and reads forward over at most one index interval worth of records.
+ * <p>
+ * For pcapng files, the reader remembers every interface description of the
+ * first section it has come across, along with its file offset. Seeking
+ * restores the interfaces described in front of the target record, reading
+ * ahead over any interface descriptions not seen yet, so that packets always
+ * refer to the right interface no matter which way the reader jumps.
+ * </p>
+ * 
+ * <pre>
+ * IndexedPcapReader reader = new IndexedPcapReader(new File(&quot;big.pcap&quot;));
+ * if (reader.seekTime(incident * 1000000L)) {
+ * 	reader.loop(1000, handler, user); // 1000 packets from the time of incident
+ * }
+ * reader.close();
+ * </pre>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ * @see PcapIndex
+ */
+public class IndexedPcapReader
+    extends MappedPcapReader {
+
+	/** Default index granularity of 1 second, in micros. */
+	public final static long DEFAULT_GRANULARITY = 1000000L;
+
+	/** The index. */
+	private final PcapIndex index;
+
+	/** Used to look at timestamps while seeking. */
+	private final PcapPacket scratch = new PcapPacket(JMemory.POINTER);
+
+	/** Offset of the first record. */
+	private final long start;
+
+	/** Pcapng section number of the first section. */
+	private final int firstSection;
+
+	/** Interfaces of the first pcapng section known so far, in file order. */
+	private List<Interface> table;
+
+	/** File offset up to which all interfaces of the first section are known. */
+	private long tableEnd;
+
+	/**
+	 * Opens a capture file and its index, using
+	 * {@link #DEFAULT_GRANULARITY} if the index has to be built.
+	 * 
+	 * @param file
+	 *          capture file
+	 * @throws IOException
+	 *           if file is not a capture file or any IO errors
+	 */
+	public IndexedPcapReader(File file) throws IOException {
+		this(file, DEFAULT_GRANULARITY);
+	}
+
+	/**
+	 * Opens a capture file and its index.
+	 * 
+	 * @param file
+	 *          capture file
+	 * @param granularity
+	 *          minimum time between index entries in micros, used if the index
+	 *          has to be built
+	 * @throws IOException
+	 *           if file is not a capture file or any IO errors
+	 */
+	public IndexedPcapReader(File file, long granularity) throws IOException {
+		this(file, PcapIndex.open(file, granularity), DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Opens a capture file with an index supplied by the caller.
+	 * 
+	 * @param file
+	 *          capture file
+	 * @param index
+	 *          index of the file
+	 * @param windowSize
+	 *          maximum number of bytes to map at a time
+	 * @throws IOException
+	 *           if file is not a capture file or any IO errors
+	 */
+	public IndexedPcapReader(File file, PcapIndex index, int windowSize)
+	    throws IOException {
+		super(file, windowSize);
+
+		this.index = index;
+		this.start = position();
+		this.firstSection = sections;
+		this.table = getInterfaces();
+		this.tableEnd = start;
+	}
+
+	/**
+	 * Gets the index.
+	 * 
+	 * @return the index
+	 */
+	public PcapIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Positions the reader at the first record with a timestamp at or after the
+	 * given time. The next packet read is that record.
+	 * 
+	 * @param timestamp
+	 *          micros since epoch
+	 * @return true if there is such a record, false if all records are before
+	 *         the time, in which case the reader is at end of file
+	 * @throws IOException
+	 *           if file is corrupt or any IO errors
+	 */
+	public boolean seekTime(long timestamp) throws IOException {
+		final int entry = index.floor(timestamp);
+		seekRecord((entry == -1) ? start : index.getOffset(entry));
+
+		while (skipToPacket()) {
+			final long offset = position();
+			if (next(scratch) == false) {
+				break;
+			}
+
+			if (getCaptureHeader().timestampInMicros() >= timestamp) {
+				seek(offset);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Seeks to a record of the first section. For pcapng files, the interface
+	 * table is set to the interfaces described in front of the record. Any
+	 * interface descriptions between the furthest point read so far and the
+	 * record are read first.
+	 * 
+	 * @param offset
+	 *          file offset of a record
+	 * @throws IOException
+	 *           if file is corrupt or any IO errors
+	 */
+	private void seekRecord(long offset) throws IOException {
+		if (isPcapNg() == false) {
+			seek(offset);
+			return;
+		}
+
+		if (offset > tableEnd) {
+			seek(tableEnd);
+			setInterfaces(table);
+
+			while (skipToPacket() && sections == firstSection
+			    && position() < offset) {
+				skip();
+			}
+
+			if (sections == firstSection) {
+				table = getInterfaces();
+				tableEnd = Math.min(position(), offset);
+			}
+		}
+
+		final List<Interface> list = new ArrayList<Interface>(table.size());
+		for (Interface i : table) {
+			if (i.offset < offset) {
+				list.add(i);
+			}
+		}
+
+		seek(offset);
+		setInterfaces(list);
+	}
+}
@@ -0,0 +1,876 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jnetpcap.nio.JBuffer;
+import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.packet.JRegistry;
+import org.jnetpcap.packet.JScanner;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.PcapPacketHandler;
+import org.jnetpcap.packet.PeeringException;
+
+/**
+ * Reads capture files by mapping them into memory, without going through
+ * libpcap. Both classic pcap files, in either byte order and with micro or
+ * nano second timestamps, and pcapng files are supported. Packets are peered
+ * directly with the mapped file pages and no packet data is copied.
+ * <p>
+ * The file is mapped one window at a time. The default window is
+ * {@value #DEFAULT_WINDOW_SIZE} bytes, and is moved forward as records are
+ * read, which allows files of any size to be read using a bounded amount of
+ * address space.
+ * </p>
+ * <p>
+ * Only the packet data stays valid after the reader moves on. The data keeps
+ * its window mapped for as long as it is referenced, even after the reader has
+ * been closed. All packets share the reader's single capture header, which is
+ * overwritten by the next read, and the scanner state of a packet is reused by
+ * the next scan. A packet that must be kept past the next read has to be
+ * copied, for example using <code>new PcapPacket(packet)</code>. Copying also
+ * allows large windows to be released.
+ * </p>
+ * 
+ * <pre>
+ * MappedPcapReader reader = new MappedPcapReader(new File(&quot;capture.pcap&quot;));
+ * try {
+ * 	reader.loop(0, new PcapPacketHandler&lt;String&gt;() {
+ * 		public void nextPacket(PcapPacket packet, String user) {
+ * 			// process packet
+ * 		}
+ * 	}, &quot;user&quot;);
+ * } finally {
+ * 	reader.close();
+ * }
+ * </pre>
+ * <p>
+ * The capture header is a {@link PcapHeader}, which holds micro second
+ * timestamps. Nano second timestamps are truncated to micro seconds.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class MappedPcapReader implements Closeable {
+
+	/**
+	 * A pcapng interface description.
+	 */
+	static class Interface {
+
+		/** Scanner ID of the link type. */
+		final int id;
+
+		/** Link type (DLT). */
+		final int linktype;
+
+		/** Snapshot length. */
+		final int snaplen;
+
+		/** File offset of the interface description block. */
+		final long offset;
+
+		/** Number of timestamp units per second. */
+		final long unitsPerSecond;
+
+		/**
+		 * Creates an interface description.
+		 */
+		Interface(long offset, int linktype, int snaplen, long unitsPerSecond) {
+			this.offset = offset;
+			this.linktype = linktype;
+			this.snaplen = snaplen;
+			this.unitsPerSecond = unitsPerSecond;
+			this.id = JRegistry.mapDLTToId(linktype);
+		}
+	}
+
+	/** Default size of the mapped window. */
+	public final static int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/** Length of classic pcap file header. */
+	public final static int FILE_HEADER_LENGTH = 24;
+
+	/** Classic pcap magic number, micro second timestamps. */
+	public final static int MAGIC_MICROS = 0xa1b2c3d4;
+
+	/** Classic pcap magic number, nano second timestamps. */
+	public final static int MAGIC_NANOS = 0xa1b23c4d;
+
+	/** Pcapng byte-order magic found in section header block. */
+	public final static int PCAPNG_BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+
+	/** Pcapng enhanced packet block type. */
+	public final static int PCAPNG_EPB = 0x00000006;
+
+	/** Pcapng interface description block type. */
+	public final static int PCAPNG_IDB = 0x00000001;
+
+	/** Pcapng section header block type. */
+	public final static int PCAPNG_SHB = 0x0a0d0d0a;
+
+	/** Pcapng simple packet block type. */
+	public final static int PCAPNG_SPB = 0x00000003;
+
+	/** Interface description option which specifies timestamp resolution. */
+	private final static int PCAPNG_OPTION_IF_TSRESOL = 9;
+
+	/** Length of classic pcap record header. */
+	public final static int RECORD_HEADER_LENGTH = 16;
+
+	/** Number of micros in a second. */
+	private final static long MICROS_PER_SECOND = 1000000L;
+
+	/** The channel. */
+	private final FileChannel channel;
+
+	/** The file. */
+	private final RandomAccessFile file;
+
+	/** Capture header of the last packet read. */
+	private final PcapHeader header = new PcapHeader();
+
+	/** Scanner ID of the link type for classic files. */
+	private int id;
+
+	/** Interface ID of the last packet read, pcapng only. */
+	private int interfaceId;
+
+	/** Interfaces described in the current pcapng section. */
+	private final List<Interface> interfaces = new ArrayList<Interface>();
+
+	/** Link type of the file or of the last packet read. */
+	private int linktype;
+
+	/** True if file timestamps are in nanos, classic pcap only. */
+	private boolean nanos;
+
+	/** Byte order of the file or of the current pcapng section. */
+	private ByteOrder order;
+
+	/** True if file is in pcapng format. */
+	private final boolean pcapng;
+
+	/** File offset of the next record. */
+	private long position;
+
+	/** File size. */
+	private final long size;
+
+	/** Number of pcapng section headers read so far. */
+	int sections;
+
+	/** Snapshot length of the file or of the last packet's interface. */
+	private int snaplen;
+
+	/** The currently mapped window. */
+	private MappedByteBuffer window;
+
+	/** File offset of the mapped window. */
+	private long windowBase;
+
+	/** Peered with the mapped window, packets are peered from this buffer. */
+	private JBuffer windowBuffer;
+
+	/** Maximum size of the window. */
+	private final int windowSize;
+
+	/**
+	 * Opens a capture file for reading using {@link #DEFAULT_WINDOW_SIZE}.
+	 * 
+	 * @param file
+	 *          file to read
+	 * @throws IOException
+	 *           if file can not be read or is not a capture file
+	 */
+	public MappedPcapReader(File file) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Opens a capture file for reading.
+	 * 
+	 * @param file
+	 *          file to read
+	 * @param windowSize
+	 *          maximum number of bytes to map at a time, which also limits the
+	 *          maximum record size
+	 * @throws IOException
+	 *           if file can not be read or is not a capture file
+	 */
+	public MappedPcapReader(File file, int windowSize) throws IOException {
+		if (windowSize < FILE_HEADER_LENGTH) {
+			throw new IllegalArgumentException("window size too small");
+		}
+
+		this.windowSize = windowSize;
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.size = channel.size();
+
+		try {
+			if (map(0, FILE_HEADER_LENGTH) == false) {
+				throw new IOException("not a capture file " + file);
+			}
+
+			final int magic = window.getInt(0);
+			if (magic == PCAPNG_SHB) {
+				this.pcapng = true;
+				this.order = ByteOrder.BIG_ENDIAN;
+				this.position = 0;
+
+				/*
+				 * Read up to first packet so that link type and the interfaces of the
+				 * first section are known, even after a seek into the section.
+				 */
+				readBlock(null, false);
+
+			} else {
+				this.pcapng = false;
+				readFileHeader(file);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the file. Data of packets already read stays mapped for as long as
+	 * it is referenced, but the packets' capture header and state must not be
+	 * used once the reader is closed.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void close() throws IOException {
+		window = null;
+		windowBuffer = null;
+		file.close();
+	}
+
+	/**
+	 * Makes sure that the record at the offset is completely within the mapped
+	 * window, moving the window if necessary.
+	 * 
+	 * @param offset
+	 *          file offset of the record
+	 * @param length
+	 *          length of the record
+	 * @return false if the record goes past end of file
+	 * @throws IOException
+	 *           if record is bigger than window or any IO errors
+	 */
+	private boolean ensure(long offset, int length) throws IOException {
+		if (window != null && offset >= windowBase
+		    && offset + length <= windowBase + window.limit()) {
+			return true;
+		}
+
+		if (length > windowSize) {
+			throw new IOException("record at " + offset + " of length " + length
+			    + " does not fit in window of " + windowSize + " bytes");
+		}
+
+		return map(offset, length);
+	}
+
+	/**
+	 * Gets a copy of the interfaces described so far in the current pcapng
+	 * section.
+	 * 
+	 * @return interface table
+	 */
+	List<Interface> getInterfaces() {
+		return new ArrayList<Interface>(interfaces);
+	}
+
+	/**
+	 * Replaces the interface table of the current pcapng section. Used when
+	 * seeking to a record that follows interface descriptions this reader has
+	 * not read itself.
+	 * 
+	 * @param list
+	 *          interface table, as returned by {@link #getInterfaces()}
+	 */
+	void setInterfaces(List<Interface> list) {
+		interfaces.clear();
+		interfaces.addAll(list);
+	}
+
+	/**
+	 * Gets the byte order of the file.
+	 * 
+	 * @return byte order
+	 */
+	public ByteOrder getByteOrder() {
+		return order;
+	}
+
+	/**
+	 * Gets the capture header of the last packet read. The header is shared by
+	 * all the packets read.
+	 * 
+	 * @return capture header
+	 */
+	public PcapHeader getCaptureHeader() {
+		return header;
+	}
+
+	/**
+	 * Gets the size of the file.
+	 * 
+	 * @return size in bytes
+	 */
+	public long getFileSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the pcapng interface ID of the last packet read. Always 0 for
+	 * classic files.
+	 * 
+	 * @return interface ID
+	 */
+	public int getInterfaceId() {
+		return interfaceId;
+	}
+
+	/**
+	 * Gets the data link type of the file or of the interface of the last
+	 * packet read.
+	 * 
+	 * @return DLT value
+	 */
+	public int getLinktype() {
+		return linktype;
+	}
+
+	/**
+	 * Gets the snapshot length of the file or of the interface of the last
+	 * packet read.
+	 * 
+	 * @return snaplen
+	 */
+	public int getSnaplen() {
+		return snaplen;
+	}
+
+	/**
+	 * Checks if the file stores timestamps with nano second resolution. Only
+	 * applies to classic files.
+	 * 
+	 * @return true if nano second timestamps
+	 */
+	public boolean isNanosecond() {
+		return nanos;
+	}
+
+	/**
+	 * Checks if the file is in pcapng format.
+	 * 
+	 * @return true if pcapng, false if classic pcap
+	 */
+	public boolean isPcapNg() {
+		return pcapng;
+	}
+
+	/**
+	 * Reads and scans packets, dispatching each one to the handler. The packet
+	 * is peered with the mapped file and scanned using the calling thread's
+	 * {@link JScanner}. The packet and its state are only valid until the
+	 * handler returns.
+	 * 
+	 * @param <T>
+	 *          user supplied type
+	 * @param cnt
+	 *          number of packets to read, or 0 or less for all
+	 * @param handler
+	 *          packet handler
+	 * @param user
+	 *          user object passed to the handler
+	 * @return number of packets dispatched
+	 * @throws IOException
+	 *           if file is corrupt or any IO errors
+	 */
+	public <T> int loop(int cnt, PcapPacketHandler<T> handler, T user)
+	    throws IOException {
+		return loop(cnt, Long.MAX_VALUE, handler, user);
+	}
+
+	/**
+	 * Reads and scans packets.
+	 * 
+	 * @param <T>
+	 *          user supplied type
+	 * @param cnt
+	 *          number of packets to read, or 0 or less for all
+	 * @param end
+	 *          file offset at which to stop
+	 * @param handler
+	 *          packet handler
+	 * @param user
+	 *          user object passed to the handler
+	 * @return number of packets dispatched
+	 * @throws IOException
+	 *           if file is corrupt or any IO errors
+	 */
+	private <T> int loop(int cnt, long end, PcapPacketHandler<T> handler, T user)
+	    throws IOException {
+		final JScanner scanner = JScanner.getThreadLocal();
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+
+		int count = 0;
+		while ((cnt <= 0 || count < cnt) && position < end && next(packet)) {
+			scanner.scan(packet, id, header.hdr_wirelen());
+			handler.nextPacket(packet, user);
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Reads and scans all packets from the current position up to, but not
+	 * including, the record at the end offset. The end offset must be a record
+	 * boundary, as returned by {@link #position()}, or the file size.
+	 * 
+	 * @param <T>
+	 *          user supplied type
+	 * @param end
+	 *          file offset at which to stop
+	 * @param handler
+	 *          packet handler
+	 * @param user
+	 *          user object passed to the handler
+	 * @return number of packets dispatched
+	 * @throws IOException
+	 *           if file is corrupt or any IO errors
+	 */
+	public <T> int loopTo(long end, PcapPacketHandler<T> handler, T user)
+	    throws IOException {
+		return loop(0, end, handler, user);
+	}
+
+	/**
+	 * Maps a new window starting at the offset.
+	 * 
+	 * @param offset
+	 *          file offset
+	 * @param length
+	 *          minimum number of bytes required
+	 * @return false if there are not enough bytes left in the file
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private boolean map(long offset, int length) throws IOException {
+		if (offset < 0 || offset + length > size) {
+			return false;
+		}
+
+		final long len = Math.min(windowSize, size - offset);
+
+		window = channel.map(FileChannel.MapMode.READ_ONLY, offset, len);
+		if (order != null) {
+			window.order(order);
+		}
+
+		windowBase = offset;
+		windowBuffer = new JBuffer(JMemory.POINTER);
+
+		try {
+			windowBuffer.peer(window);
+		} catch (PeeringException e) {
+			throw new IOException(e.toString());
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads the next packet and peers it with the mapped file. Both the packet
+	 * data and capture header are peered, the packet is not scanned. The
+	 * capture header is shared with every other packet read and is overwritten
+	 * by the next call.
+	 * 
+	 * @param packet
+	 *          packet to peer
+	 * @return true if a packet was read, false on end of file
+	 * @throws IOException
+	 *           if file is corrupt or any IO errors
+	 */
+	public boolean next(PcapPacket packet) throws IOException {
+		return (pcapng) ? readBlock(packet, true) : readRecord(packet);
+	}
+
+	/**
+	 * Gets the file offset of the next record.
+	 * 
+	 * @return file offset
+	 */
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * Peers the packet with record data and fills in the capture header.
+	 */
+	private void peer(PcapPacket packet, long offset, int caplen, int wirelen,
+	    long seconds, int micros) {
+		header.hdr_sec(seconds);
+		header.hdr_usec(micros);
+		header.hdr_len(caplen);
+		header.hdr_wirelen(wirelen);
+
+		packet.getCaptureHeader().peerTo(header, 0);
+		packet.peer(windowBuffer, (int) (offset - windowBase), caplen);
+	}
+
+	/**
+	 * Reads pcapng blocks until the next packet block. When packet is null, the
+	 * packet block is either skipped or left to be read next.
+	 * 
+	 * @param packet
+	 *          packet to peer or null
+	 * @param consume
+	 *          when packet is null, true to skip over the packet block, false to
+	 *          stop in front of it
+	 * @return true if a packet block was found
+	 * @throws IOException
+	 *           if file is corrupt or any IO errors
+	 */
+	private boolean readBlock(PcapPacket packet, boolean consume)
+	    throws IOException {
+
+		while (ensure(position, 12)) {
+			int o = (int) (position - windowBase);
+			final int type = window.getInt(o);
+
+			if (type == PCAPNG_SHB) {
+				readSectionHeader(o);
+			}
+
+			final int length = window.getInt(o + 4);
+			if (length < 12 || (length & 3) != 0) {
+				throw new IOException("corrupt pcapng block at " + position);
+			}
+
+			if (ensure(position, length) == false) {
+				throw new IOException("truncated pcapng block at " + position);
+			}
+
+			o = (int) (position - windowBase);
+
+			switch (type) {
+				case PCAPNG_IDB:
+					readInterface(o, length);
+					break;
+
+				case PCAPNG_EPB:
+				case PCAPNG_SPB: {
+					if (packet == null) {
+						selectInterface((type == PCAPNG_EPB) ? window.getInt(o + 8) : 0);
+						if (consume) {
+							position += length;
+						}
+
+						return true;
+					}
+
+					readPacket(packet, type, o, length);
+					position += length;
+					return true;
+				}
+			}
+
+			position += length;
+		}
+
+		if (position != size) {
+			throw new IOException("truncated pcapng block at " + position);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reads and validates classic pcap file header.
+	 */
+	private void readFileHeader(File f) throws IOException {
+		window.order(ByteOrder.BIG_ENDIAN);
+		int magic = window.getInt(0);
+
+		if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+			window.order(ByteOrder.LITTLE_ENDIAN);
+			magic = window.getInt(0);
+
+			if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+				throw new IOException("not a capture file " + f);
+			}
+		}
+
+		this.order = window.order();
+		this.nanos = (magic == MAGIC_NANOS);
+		this.snaplen = window.getInt(16);
+		this.linktype = window.getInt(20) & 0x0fffffff; // Upper bits hold FCS info
+		this.id = JRegistry.mapDLTToId(linktype);
+		this.position = FILE_HEADER_LENGTH;
+	}
+
+	/**
+	 * Reads a pcapng interface description block.
+	 */
+	private void readInterface(int o, int length) throws IOException {
+		final int linktype = window.getShort(o + 8) & 0xffff;
+		final int snaplen = window.getInt(o + 12);
+		long unitsPerSecond = MICROS_PER_SECOND;
+
+		/* Options follow the fixed part, up to the trailing length */
+		final int end = o + length - 4;
+		int p = o + 16;
+		while (p + 4 <= end) {
+			final int code = window.getShort(p) & 0xffff;
+			final int len = window.getShort(p + 2) & 0xffff;
+			if (code == 0) {
+				break; // opt_endofopt
+			}
+
+			if (code == PCAPNG_OPTION_IF_TSRESOL && len >= 1 && p + 5 <= end) {
+				final int v = window.get(p + 4) & 0xff;
+
+				/* Any larger exponent does not fit in a long */
+				if (((v & 0x80) != 0) ? (v & 0x7f) > 62 : v > 18) {
+					throw new IOException("unsupported pcapng timestamp resolution 0x"
+					    + Integer.toHexString(v) + " at " + position);
+				}
+
+				if ((v & 0x80) != 0) {
+					unitsPerSecond = 1L << (v & 0x7f);
+				} else {
+					unitsPerSecond = 1;
+					for (int i = 0; i < v; i++) {
+						unitsPerSecond *= 10;
+					}
+				}
+			}
+
+			p += 4 + ((len + 3) & ~3);
+		}
+
+		interfaces.add(new Interface(position, linktype, snaplen, unitsPerSecond));
+	}
+
+	/**
+	 * Reads a pcapng enhanced or simple packet block.
+	 */
+	private void readPacket(PcapPacket packet, int type, int o, int length)
+	    throws IOException {
+		final int caplen;
+		final int wirelen;
+		final int data;
+		long seconds = 0;
+		int micros = 0;
+
+		if (type == PCAPNG_EPB) {
+			final Interface i = selectInterface(window.getInt(o + 8));
+			final long ts =
+			    ((window.getInt(o + 12) & 0xffffffffL) << 32)
+			        | (window.getInt(o + 16) & 0xffffffffL);
+
+			seconds = ts / i.unitsPerSecond;
+			micros = (int) toMicros(ts % i.unitsPerSecond, i.unitsPerSecond);
+			caplen = window.getInt(o + 20);
+			wirelen = window.getInt(o + 24);
+			data = o + 28;
+
+		} else {
+			final Interface i = selectInterface(0);
+			wirelen = window.getInt(o + 8);
+			data = o + 12;
+
+			int len = Math.min(wirelen, length - 16);
+			if (i.snaplen > 0) {
+				len = Math.min(len, i.snaplen);
+			}
+			caplen = len;
+		}
+
+		/* Bound caplen by the space left in the block, adding it could overflow */
+		if (caplen < 0 || caplen > o + length - 4 - data) {
+			throw new IOException("corrupt pcapng packet block at " + position);
+		}
+
+		peer(packet, windowBase + data, caplen, wirelen, seconds, micros);
+	}
+
+	/**
+	 * Reads a classic pcap record. When packet is null, the record is skipped.
+	 */
+	private boolean readRecord(PcapPacket packet) throws IOException {
+		if (ensure(position, RECORD_HEADER_LENGTH) == false) {
+			if (position != size) {
+				throw new IOException("truncated record at " + position);
+			}
+
+			return false;
+		}
+
+		int o = (int) (position - windowBase);
+		final long seconds = window.getInt(o) & 0xffffffffL;
+		final int frac = window.getInt(o + 4);
+		final int caplen = window.getInt(o + 8);
+		final int wirelen = window.getInt(o + 12);
+
+		if (caplen < 0 || caplen > windowSize - RECORD_HEADER_LENGTH) {
+			throw new IOException("corrupt record at " + position);
+		}
+
+		if (packet == null) {
+			if (position + RECORD_HEADER_LENGTH + caplen > size) {
+				throw new IOException("truncated record at " + position);
+			}
+
+			position += RECORD_HEADER_LENGTH + caplen;
+			return true;
+		}
+
+		if (ensure(position, RECORD_HEADER_LENGTH + caplen) == false) {
+			throw new IOException("truncated record at " + position);
+		}
+
+		peer(packet, position + RECORD_HEADER_LENGTH, caplen, wirelen, seconds,
+		    (nanos) ? frac / 1000 : frac);
+
+		position += RECORD_HEADER_LENGTH + caplen;
+
+		return true;
+	}
+
+	/**
+	 * Reads a pcapng section header block and sets the byte order.
+	 */
+	private void readSectionHeader(int o) throws IOException {
+		int magic = window.getInt(o + 8);
+
+		if (magic != PCAPNG_BYTE_ORDER_MAGIC) {
+			window.order((window.order() == ByteOrder.BIG_ENDIAN)
+			    ? ByteOrder.LITTLE_ENDIAN
+			    : ByteOrder.BIG_ENDIAN);
+
+			magic = window.getInt(o + 8);
+			if (magic != PCAPNG_BYTE_ORDER_MAGIC) {
+				throw new IOException("corrupt pcapng section header at " + position);
+			}
+		}
+
+		order = window.order();
+		interfaces.clear();
+		sections++;
+	}
+
+	/**
+	 * Positions the reader at a record boundary. Offset must point at a record
+	 * previously returned by {@link #position()}, or at the start of a file.
+	 * For pcapng files, the interfaces of the first section up to its first
+	 * packet are read when the file is opened. Seeking past any other interface
+	 * descriptions requires that they have been read by this reader first.
+	 * 
+	 * @param offset
+	 *          file offset of a record
+	 */
+	public void seek(long offset) {
+		if (offset < 0 || offset > size) {
+			throw new IllegalArgumentException("offset out of range " + offset);
+		}
+
+		this.position = (pcapng == false && offset < FILE_HEADER_LENGTH)
+		    ? FILE_HEADER_LENGTH
+		    : offset;
+	}
+
+	/**
+	 * Skips over the next packet without peering or scanning it. Used to
+	 * quickly find record boundaries.
+	 * 
+	 * @return true if a packet was skipped, false on end of file
+	 * @throws IOException
+	 *           if file is corrupt or any IO errors
+	 */
+	public boolean skip() throws IOException {
+		return (pcapng) ? readBlock(null, true) : readRecord(null);
+	}
+
+	/**
+	 * Reads up to, but not including, the next packet. For pcapng files, any
+	 * blocks in front of the next packet block are processed, so that
+	 * {@link #position()} afterwards returns the offset of the packet block
+	 * itself and seeking back to it does not read those blocks again.
+	 * 
+	 * @return true if there may be another packet, false on end of file
+	 * @throws IOException
+	 *           if file is corrupt or any IO errors
+	 */
+	boolean skipToPacket() throws IOException {
+		return (pcapng) ? readBlock(null, false) : position < size;
+	}
+
+	/**
+	 * Makes the interface current, for link type and snaplen.
+	 */
+	private Interface selectInterface(int index) throws IOException {
+		if (index < 0 || index >= interfaces.size()) {
+			throw new IOException("packet block at " + position
+			    + " refers to undefined interface " + index);
+		}
+
+		final Interface i = interfaces.get(index);
+		this.interfaceId = index;
+		this.linktype = i.linktype;
+		this.snaplen = i.snaplen;
+		this.id = i.id;
+
+		return i;
+	}
+
+	/**
+	 * Converts a fraction of a second in the given units to micros, without
+	 * overflowing for any resolution.
+	 */
+	private static long toMicros(long fraction, long unitsPerSecond) {
+		if (unitsPerSecond <= MICROS_PER_SECOND) {
+			return fraction * MICROS_PER_SECOND / unitsPerSecond;
+		}
+
+		if (unitsPerSecond % MICROS_PER_SECOND == 0) {
+			return fraction / (unitsPerSecond / MICROS_PER_SECOND);
+		}
+
+		return (long) (fraction / ((double) unitsPerSecond / MICROS_PER_SECOND));
+	}
+}
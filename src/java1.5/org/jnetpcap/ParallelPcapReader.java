@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import org.jnetpcap.packet.PcapPacketHandler;
+
+/**
+ * Processes a single capture file on multiple threads. The file is split into
+ * chunks at record boundaries and each chunk is read by its own
+ * {@link MappedPcapReader}, scanned by its own thread's
+ * {@link org.jnetpcap.packet.JScanner} and dispatched to the user's handler.
+ * Every chunk gets its own result object, created by a {@link ResultFactory},
+ * which is passed to the handler as the user object. Since each result object
+ * is only ever accessed by a single thread, the handler can update it without
+ * any synchronization.
+ * <p>
+ * Results are returned in file order, which allows them to be merged as if the
+ * file had been processed sequentially. They can also be received through a
+ * {@link ChunkListener} as each chunk completes, either in file order or in
+ * order of completion.
+ * </p>
+ * 
+ * <pre>
+ * ParallelPcapReader reader = new ParallelPcapReader(new File(&quot;big.pcap&quot;));
+ * List&lt;long[]&gt; counts = reader.process(new PcapPacketHandler&lt;long[]&gt;() {
+ * 	public void nextPacket(PcapPacket packet, long[] count) {
+ * 		count[0]++;
+ * 	}
+ * }, new ResultFactory&lt;long[]&gt;() {
+ * 	public long[] newResult(Chunk chunk) {
+ * 		return new long[1];
+ * 	}
+ * });
+ * </pre>
+ * <p>
+ * Packets are only valid until the handler returns and must be copied to be
+ * kept. Any state which spans chunks, such as a flow or a reassembly which
+ * starts in one chunk and ends in the next, has to be stitched together by the
+ * user when merging the results.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class ParallelPcapReader {
+
+	/**
+	 * A contiguous range of records within the file.
+	 */
+	public static class Chunk {
+
+		/** File offset past the last record. */
+		private final long end;
+
+		/** Index of the chunk in file order. */
+		private final int index;
+
+		/** Pcapng interfaces defined in front of the first record. */
+		final List<MappedPcapReader.Interface> interfaces;
+
+		/** File offset of first record. */
+		private final long start;
+
+		/**
+		 * Creates a chunk.
+		 * 
+		 * @param index
+		 *          index in file order
+		 * @param start
+		 *          offset of first record
+		 * @param end
+		 *          offset past the last record
+		 * @param interfaces
+		 *          pcapng interfaces defined in front of the first record
+		 */
+		Chunk(int index, long start, long end,
+		    List<MappedPcapReader.Interface> interfaces) {
+			this.index = index;
+			this.start = start;
+			this.end = end;
+			this.interfaces = interfaces;
+		}
+
+		/**
+		 * Gets the file offset past the last record.
+		 * 
+		 * @return end offset
+		 */
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * Gets the index of the chunk in file order.
+		 * 
+		 * @return index
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets the file offset of the first record.
+		 * 
+		 * @return start offset
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * Debug string.
+		 * 
+		 * @return the string
+		 */
+		@Override
+		public String toString() {
+			return "Chunk[" + index + ", " + start + "-" + end + "]";
+		}
+	}
+
+	/**
+	 * Receives results of each chunk as it completes.
+	 * 
+	 * @param <R>
+	 *          result type
+	 */
+	public interface ChunkListener<R> {
+
+		/**
+		 * Called with the result of a completed chunk. Calls are made from the
+		 * thread which called process, one at a time.
+		 * 
+		 * @param chunk
+		 *          the chunk
+		 * @param result
+		 *          result object, after all packets of the chunk were handled
+		 */
+		public void chunkCompleted(Chunk chunk, R result);
+	}
+
+	/**
+	 * Creates a result object for each chunk.
+	 * 
+	 * @param <R>
+	 *          result type
+	 */
+	public interface ResultFactory<R> {
+
+		/**
+		 * Creates the result object for the chunk, which is passed as user object
+		 * to the handler for every packet in the chunk.
+		 * 
+		 * @param chunk
+		 *          the chunk
+		 * @return new result object
+		 */
+		public R newResult(Chunk chunk);
+	}
+
+	/** Number of chunks created per thread by default. */
+	public final static int DEFAULT_CHUNKS_PER_THREAD = 4;
+
+	/** Chunks, computed on first use. */
+	private List<Chunk> chunks;
+
+	/** The file. */
+	private final File file;
+
+	/** Number of worker threads. */
+	private final int threads;
+
+	/** Mapped window size used by each chunk reader. */
+	private int windowSize = MappedPcapReader.DEFAULT_WINDOW_SIZE;
+
+	/**
+	 * Creates a reader using one thread per available processor.
+	 * 
+	 * @param file
+	 *          capture file
+	 */
+	public ParallelPcapReader(File file) {
+		this(file, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a reader.
+	 * 
+	 * @param file
+	 *          capture file
+	 * @param threads
+	 *          number of worker threads
+	 */
+	public ParallelPcapReader(File file, int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException(
+			    "number of threads must be greater than 0");
+		}
+
+		this.file = file;
+		this.threads = threads;
+	}
+
+	/**
+	 * Gets the chunks, splitting the file into
+	 * {@link #DEFAULT_CHUNKS_PER_THREAD} chunks per thread if it has not been
+	 * split yet.
+	 * 
+	 * @return chunks in file order
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public List<Chunk> getChunks() throws IOException {
+		if (chunks == null) {
+			split(threads * DEFAULT_CHUNKS_PER_THREAD);
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Gets the number of worker threads.
+	 * 
+	 * @return number of threads
+	 */
+	public int getThreadCount() {
+		return threads;
+	}
+
+	/**
+	 * Processes all the chunks and returns the results in file order.
+	 * 
+	 * @param <R>
+	 *          result type
+	 * @param handler
+	 *          packet handler, called concurrently from all worker threads
+	 * @param factory
+	 *          creates a result object for each chunk
+	 * @return results, one per chunk, in file order
+	 * @throws IOException
+	 *           any IO errors or errors thrown by the handler
+	 */
+	public <R> List<R> process(PcapPacketHandler<R> handler,
+	    ResultFactory<R> factory) throws IOException {
+		final List<R> results = new ArrayList<R>();
+
+		process(handler, factory, new ChunkListener<R>() {
+
+			public void chunkCompleted(Chunk chunk, R result) {
+				results.add(result);
+			}
+
+		}, true);
+
+		return results;
+	}
+
+	/**
+	 * Processes all the chunks and delivers each result to the listener as soon
+	 * as it is available. When ordered, results are delivered in file order,
+	 * which means that a finished chunk is held back until all the chunks before
+	 * it have been delivered.
+	 * 
+	 * @param <R>
+	 *          result type
+	 * @param handler
+	 *          packet handler, called concurrently from all worker threads
+	 * @param factory
+	 *          creates a result object for each chunk
+	 * @param listener
+	 *          receives results, on the calling thread
+	 * @param ordered
+	 *          true to deliver results in file order, false in order of
+	 *          completion
+	 * @throws IOException
+	 *           any IO errors or errors thrown by the handler
+	 */
+	public <R> void process(final PcapPacketHandler<R> handler,
+	    final ResultFactory<R> factory, ChunkListener<R> listener,
+	    boolean ordered) throws IOException {
+
+		final List<Chunk> chunks = getChunks();
+		final ExecutorService executor =
+		    Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			    private int count = 0;
+
+			    public Thread newThread(Runnable r) {
+				    Thread t = new Thread(r, file.getName() + "-" + (count++));
+				    t.setDaemon(true);
+				    return t;
+			    }
+		    });
+
+		final BlockingQueue<Future<Integer>> done =
+		    new LinkedBlockingQueue<Future<Integer>>();
+		final ExecutorCompletionService<Integer> service =
+		    new ExecutorCompletionService<Integer>(executor, done);
+
+		final List<R> results = new ArrayList<R>(Collections.<R> nCopies(chunks
+		    .size(), null));
+
+		try {
+			for (final Chunk chunk : chunks) {
+				final R result = factory.newResult(chunk);
+				results.set(chunk.getIndex(), result);
+
+				service.submit(new Callable<Integer>() {
+
+					public Integer call() throws Exception {
+						final MappedPcapReader reader =
+						    new MappedPcapReader(file, windowSize);
+						try {
+							reader.seek(chunk.getStart());
+							if (reader.isPcapNg()) {
+								reader.setInterfaces(chunk.interfaces);
+							}
+							reader.loopTo(chunk.getEnd(), handler, result);
+						} finally {
+							reader.close();
+						}
+
+						return chunk.getIndex();
+					}
+				});
+			}
+
+			final boolean[] completed = new boolean[chunks.size()];
+			int next = 0;
+
+			for (int i = 0; i < chunks.size(); i++) {
+				final int index = service.take().get();
+
+				if (ordered == false) {
+					listener.chunkCompleted(chunks.get(index), results.get(index));
+					continue;
+				}
+
+				completed[index] = true;
+				while (next < completed.length && completed[next]) {
+					listener.chunkCompleted(chunks.get(next), results.get(next));
+					results.set(next, null); // Let go of delivered results
+					next++;
+				}
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw (IOException) new IOException("interrupted").initCause(e);
+
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+
+			throw (IOException) new IOException(cause.toString()).initCause(cause);
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Sets the size of the window each chunk reader maps at a time.
+	 * 
+	 * @param windowSize
+	 *          window size in bytes
+	 */
+	public void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Splits the file into approximately equally sized chunks. Record boundaries
+	 * are found by walking the record headers, without reading any packet data.
+	 * A pcapng file is only split within its first section, any following
+	 * sections all end up in the last chunk. Each chunk carries the interfaces
+	 * described in front of it, so that chunks following an interface
+	 * description in the middle of the section can still be read.
+	 * 
+	 * @param count
+	 *          requested number of chunks
+	 * @return chunks in file order, may be fewer than requested for small files
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public List<Chunk> split(int count) throws IOException {
+		if (count <= 0) {
+			throw new IllegalArgumentException(
+			    "number of chunks must be greater than 0");
+		}
+
+		final MappedPcapReader reader = new MappedPcapReader(file, windowSize);
+		final List<Chunk> list = new ArrayList<Chunk>(count);
+
+		try {
+			final long first = reader.position();
+			final long size = reader.getFileSize();
+			final long step = Math.max(1, (size - first) / count);
+			final int sections = reader.sections;
+
+			long start = first;
+			long target = first + step;
+			List<MappedPcapReader.Interface> interfaces = reader.getInterfaces();
+
+			while (list.size() < count - 1 && reader.skip()) {
+				if (reader.sections != sections) {
+					break; // New pcapng section, interfaces would be unknown
+				}
+
+				final long position = reader.position();
+				if (position >= target && position < size) {
+					list.add(new Chunk(list.size(), start, position, interfaces));
+					start = position;
+					target = position + step;
+					interfaces = reader.getInterfaces();
+				}
+			}
+
+			list.add(new Chunk(list.size(), start, size, interfaces));
+
+		} finally {
+			reader.close();
+		}
+
+		this.chunks = list;
+
+		return list;
+	}
+}
@@ -27,6 +27,8 @@ import org.jnetpcap.nio.JBuffer;
 import org.jnetpcap.nio.JMemory.Type;
 import org.jnetpcap.nio.JNumber;
 import org.jnetpcap.packet.JPacket;
+import org.jnetpcap.packet.JPacketBatch;
+import org.jnetpcap.packet.JPacketBatchHandler;
 import org.jnetpcap.packet.JPacketHandler;
 import org.jnetpcap.packet.JRegistry;
 import org.jnetpcap.packet.JScanner;
@@ -1136,6 +1138,12 @@ public class Pcap {
 	/** The id. */
 	private int id = -1;
 
+	/**
+	 * Scratch packet used by the batch dispatchers while scanning, created on
+	 * first use and reused by every batch dispatch on this handle.
+	 */
+	private PcapPacket batchPacket;
+
 	/**
 	 * Pcap object can only be created by calling one of the static.
 	 * 
@@ -1694,6 +1702,108 @@ public class Pcap {
 			PcapPacketHandler<T> handler, T user, JPacket packet,
 			JPacket.State state, PcapHeader header, JScanner scanner);
 
+	/**
+	 * <p>
+	 * Collect a group of packets and deliver them to the handler in batches.
+	 * This method works exactly like
+	 * {@link #dispatch(int, int, JPacketHandler, Object)} except that instead
+	 * of calling on the java handler once per packet, the native dispatcher
+	 * scans up to {@link JPacketBatch#capacity()} packets into the scanner's
+	 * ring-buffer and then calls on the handler once with the entire batch.
+	 * Collecting packets natively reduces the number of transitions between
+	 * native and java space by the size of the batch.
+	 * </p>
+	 * <p>
+	 * A partially filled batch is always delivered before this method returns,
+	 * so no packets are held back between calls. The packets, headers and
+	 * states within the batch are only valid for the duration of the
+	 * {@link JPacketBatchHandler#nextBatch} call.
+	 * </p>
+	 * 
+	 * @param <T>
+	 *            user data type
+	 * @param cnt
+	 *            number of packets to process
+	 * @param id
+	 *            numerical protocol ID found in JProtocol.ID constant and in
+	 *            JRegistery
+	 * @param handler
+	 *            user supplied batch handler
+	 * @param user
+	 *            a custom opaque user object
+	 * @param batch
+	 *            the batch to fill in and dispatch; the batch capacity
+	 *            determines how many packets are delivered per upcall
+	 * @return number of packet captured
+	 * @since 1.4
+	 */
+	public <T> int dispatch(int cnt, int id, JPacketBatchHandler<T> handler,
+			T user, JPacketBatch batch) {
+		if (batchPacket == null) {
+			batchPacket = new PcapPacket(Type.POINTER);
+		}
+
+		return dispatch(cnt,
+				id,
+				handler,
+				user,
+				batch,
+				batchPacket,
+				JScanner.getThreadLocal());
+	}
+
+	/**
+	 * Collect a group of packets and deliver them to the handler in batches.
+	 * This method derrives the numerical protocol ID for the data link header
+	 * automatically using <code>Pcap.datalink()</code> value returned. The
+	 * batch is supplied by the caller so that it can be allocated once and
+	 * reused for every call.
+	 * 
+	 * @param <T>
+	 *            user data type
+	 * @param cnt
+	 *            number of packets to process
+	 * @param handler
+	 *            user supplied batch handler
+	 * @param user
+	 *            a custom opaque user object
+	 * @param batch
+	 *            the batch to fill in and dispatch
+	 * @return number of packet captured
+	 * @see #dispatch(int, int, JPacketBatchHandler, Object, JPacketBatch)
+	 * @since 1.4
+	 */
+	public <T> int dispatch(int cnt, JPacketBatchHandler<T> handler, T user,
+			JPacketBatch batch) {
+		return dispatch(cnt, datalinkToId(), handler, user, batch);
+	}
+
+	/**
+	 * Private native implementation.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param cnt
+	 *            the cnt
+	 * @param id
+	 *            the id
+	 * @param handler
+	 *            the handler
+	 * @param user
+	 *            the user
+	 * @param batch
+	 *            the batch
+	 * @param packet
+	 *            scratch packet used while scanning
+	 * @param scanner
+	 *            the scanner
+	 * @return the int
+	 */
+	@LibraryMember("pcap_dispatch")
+	private native <T> int dispatch(int cnt, int id,
+			JPacketBatchHandler<T> handler, T user, JPacketBatch batch,
+			JPacket packet, JScanner scanner);
+
 	/**
 	 * <p>
 	 * Collect a group of packets. pcap_dispatch() is used to collect and
@@ -2637,6 +2747,111 @@ public class Pcap {
 			T user, JPacket packet, JPacket.State state, PcapHeader header,
 			JScanner scanner);
 
+	/**
+	 * <p>
+	 * Collect a group of packets and deliver them to the handler in batches.
+	 * This method works exactly like {@link #loop(int, JPacketHandler, Object)}
+	 * except that instead of calling on the java handler once per packet, the
+	 * native dispatcher scans up to {@link JPacketBatch#capacity()} packets
+	 * into the scanner's ring-buffer and then calls on the handler once with
+	 * the entire batch.
+	 * </p>
+	 * <p>
+	 * The loop is implemented natively as a series of pcap_dispatch() calls,
+	 * so that a batch never references libpcap's capture buffer past the point
+	 * where libpcap refills it. Any partially filled batch is delivered after
+	 * each buffer is exhausted. The return values are the same as those of
+	 * pcap_loop().
+	 * </p>
+	 * 
+	 * @param <T>
+	 *            user data type
+	 * @param cnt
+	 *            number of packets to process, or a negative number to loop
+	 *            forever
+	 * @param id
+	 *            numerical protocol ID found in JProtocol.ID constant and in
+	 *            JRegistery
+	 * @param handler
+	 *            user supplied batch handler
+	 * @param user
+	 *            a custom opaque user object
+	 * @param batch
+	 *            the batch to fill in and dispatch; the batch capacity
+	 *            determines how many packets are delivered per upcall
+	 * @return 0 on success, -1 on error and -2 if breakloop was used interrupt
+	 *         the captue
+	 * @since 1.4
+	 */
+	public <T> int loop(int cnt, int id, JPacketBatchHandler<T> handler,
+			T user, JPacketBatch batch) {
+		if (batchPacket == null) {
+			batchPacket = new PcapPacket(Type.POINTER);
+		}
+
+		return loop(cnt,
+				id,
+				handler,
+				user,
+				batch,
+				batchPacket,
+				JScanner.getThreadLocal());
+	}
+
+	/**
+	 * Collect a group of packets and deliver them to the handler in batches.
+	 * This method derrives the numerical protocol ID for the data link header
+	 * automatically using <code>Pcap.datalink()</code> value returned. The
+	 * batch is supplied by the caller so that it can be allocated once and
+	 * reused for every call.
+	 * 
+	 * @param <T>
+	 *            user data type
+	 * @param cnt
+	 *            number of packets to process, or a negative number to loop
+	 *            forever
+	 * @param handler
+	 *            user supplied batch handler
+	 * @param user
+	 *            a custom opaque user object
+	 * @param batch
+	 *            the batch to fill in and dispatch
+	 * @return 0 on success, -1 on error and -2 if breakloop was used interrupt
+	 *         the captue
+	 * @see #loop(int, int, JPacketBatchHandler, Object, JPacketBatch)
+	 * @since 1.4
+	 */
+	public <T> int loop(int cnt, JPacketBatchHandler<T> handler, T user,
+			JPacketBatch batch) {
+		return loop(cnt, datalinkToId(), handler, user, batch);
+	}
+
+	/**
+	 * Private native implementation.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param cnt
+	 *            the cnt
+	 * @param id
+	 *            the id
+	 * @param handler
+	 *            the handler
+	 * @param user
+	 *            the user
+	 * @param batch
+	 *            the batch
+	 * @param packet
+	 *            scratch packet used while scanning
+	 * @param scanner
+	 *            the scanner
+	 * @return the int
+	 */
+	@LibraryMember("pcap_dispatch")
+	private native <T> int loop(int cnt, int id,
+			JPacketBatchHandler<T> handler, T user, JPacketBatch batch,
+			JPacket packet, JScanner scanner);
+
 	/**
 	 * Collect a group of packets. pcap_loop() is similar to pcap_dispatch()
 	 * except it keeps reading packets until cnt packets are processed or an
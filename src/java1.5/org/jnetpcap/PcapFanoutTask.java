@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jnetpcap.packet.JPacket;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.PcapPacketHandler;
+import org.jnetpcap.util.SpscRing;
+
+/**
+ * A pcap background task which reads packets from a single pcap handle and
+ * fans them out to a number of worker threads, similar to receive side scaling
+ * (RSS) done by network cards. The capture thread scans each packet, computes a
+ * direction independent hash of its flow key and copies the packet onto the
+ * ring of the worker selected by the hash. Each worker thread has its own
+ * single producer, single consumer ring and invokes the user handler for every
+ * packet taken off of it.
+ * <p>
+ * Since both directions of a flow hash to the same value, all the packets of a
+ * flow are delivered to the same worker, in the order they were captured. The
+ * handler is called concurrently from all the worker threads and must be
+ * thread safe, but any per flow state can be kept without synchronization as
+ * long as it is only accessed by the worker thread which owns the flow.
+ * </p>
+ * <p>
+ * Each packet delivered to the handler is a private copy, which the handler
+ * may keep for as long as it needs. When a worker's ring is full, the capture
+ * thread waits for space, pushing back on libpcap which will buffer or drop
+ * packets in the kernel as usual. The number of times this has happened is
+ * available from {@link #getStallCount()}.
+ * </p>
+ * 
+ * @param <T>
+ *          user supplied type
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ * @see PcapUtils#fanoutInBackground(Pcap, int, int, PcapPacketHandler, Object)
+ */
+public class PcapFanoutTask<T> extends PcapTask<T> {
+
+	/**
+	 * Ring of packets handed to a worker. A concrete type so that an array of
+	 * rings can be created without a raw or unchecked generic array.
+	 */
+	private static class PacketRing extends SpscRing<PcapPacket> {
+
+		/**
+		 * Creates an empty ring.
+		 * 
+		 * @param capacity
+		 *          number of packets the ring can hold
+		 */
+		public PacketRing(int capacity) {
+			super(capacity);
+		}
+	}
+
+	/**
+	 * Worker thread, which drains its ring.
+	 */
+	private class Worker implements Runnable {
+
+		/** Index of the worker. */
+		private final int index;
+
+		/** Ring this worker consumes. */
+		private final SpscRing<PcapPacket> ring;
+
+		/**
+		 * Creates a worker for the ring.
+		 * 
+		 * @param index
+		 *          index of the worker
+		 */
+		public Worker(int index) {
+			this.index = index;
+			this.ring = rings[index];
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Runnable#run()
+		 */
+		public void run() {
+			long count = 0;
+
+			while (true) {
+				final PcapPacket packet = ring.poll();
+
+				if (packet == null) {
+					/*
+					 * Check done flag first, any packets added before it was set are
+					 * already visible in the ring.
+					 */
+					if (done && ring.isEmpty()) {
+						break;
+					}
+
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+					continue;
+				}
+
+				handler.nextPacket(packet, user);
+				counts.lazySet(index, ++count);
+			}
+		}
+	}
+
+	/** Default capacity of each worker's ring. */
+	public final static int DEFAULT_RING_CAPACITY = 4096;
+
+	/** How long an idle worker sleeps before checking its ring again. */
+	private final static long IDLE_PARK_NANOS = 50000L;
+
+	/** Capture side handler which copies packets onto the worker rings. */
+	private final PcapPacketHandler<T> capture = new PcapPacketHandler<T>() {
+
+		public void nextPacket(PcapPacket packet, T user) {
+			final int index = selectWorker(packet);
+			final PcapPacket copy = new PcapPacket(packet);
+			final SpscRing<PcapPacket> ring = rings[index];
+
+			if (ring.offer(copy)) {
+				return;
+			}
+
+			stalls++;
+			while (ring.offer(copy) == false) {
+				if (workers[index].isAlive() == false) {
+					return; // Worker died on an exception, nothing will drain it
+				}
+
+				Thread.yield();
+			}
+		}
+	};
+
+	/** Number of packets handled by each worker. */
+	private final AtomicLongArray counts;
+
+	/** Set by capture thread once the capture loop has exited. */
+	private volatile boolean done;
+
+	/** User handler, called on worker threads. */
+	private final PcapPacketHandler<T> handler;
+
+	/** One ring per worker. */
+	private final PacketRing[] rings;
+
+	/** Number of times capture thread waited on a full ring. */
+	private volatile long stalls;
+
+	/** Worker threads, created on each start. */
+	private final Thread[] workers;
+
+	/**
+	 * Creates a fan-out task with {@link #DEFAULT_RING_CAPACITY} rings.
+	 * 
+	 * @param pcap
+	 *          pcap handle
+	 * @param count
+	 *          number of packets to capture or 0 for infinite
+	 * @param workers
+	 *          number of worker threads
+	 * @param handler
+	 *          user handler, called from the worker threads
+	 * @param user
+	 *          user supplied object
+	 */
+	public PcapFanoutTask(Pcap pcap, int count, int workers,
+	    PcapPacketHandler<T> handler, T user) {
+		this(pcap, count, workers, DEFAULT_RING_CAPACITY, handler, user);
+	}
+
+	/**
+	 * Creates a fan-out task.
+	 * 
+	 * @param pcap
+	 *          pcap handle
+	 * @param count
+	 *          number of packets to capture or 0 for infinite
+	 * @param workers
+	 *          number of worker threads
+	 * @param ringCapacity
+	 *          number of packets each worker's ring can hold
+	 * @param handler
+	 *          user handler, called from the worker threads
+	 * @param user
+	 *          user supplied object
+	 */
+	public PcapFanoutTask(Pcap pcap, int count, int workers, int ringCapacity,
+	    PcapPacketHandler<T> handler, T user) {
+		super(pcap, count, user);
+
+		if (workers <= 0) {
+			throw new IllegalArgumentException(
+			    "number of workers must be greater than 0");
+		}
+
+		if (handler == null) {
+			throw new NullPointerException();
+		}
+
+		this.handler = handler;
+		this.workers = new Thread[workers];
+		this.rings = new PacketRing[workers];
+		this.counts = new AtomicLongArray(workers);
+
+		for (int i = 0; i < workers; i++) {
+			rings[i] = new PacketRing(ringCapacity);
+		}
+	}
+
+	/**
+	 * Gets the number of packets which have been passed to the handler by the
+	 * worker.
+	 * 
+	 * @param worker
+	 *          index of the worker
+	 * @return number of packets
+	 */
+	public long getPacketCount(int worker) {
+		return counts.get(worker);
+	}
+
+	/**
+	 * Gets the number of packets waiting on the worker's ring.
+	 * 
+	 * @param worker
+	 *          index of the worker
+	 * @return number of packets queued
+	 */
+	public int getQueueSize(int worker) {
+		return rings[worker].size();
+	}
+
+	/**
+	 * Gets the number of times the capture thread found a worker's ring full and
+	 * had to wait for it to drain.
+	 * 
+	 * @return number of stalls
+	 */
+	public long getStallCount() {
+		return stalls;
+	}
+
+	/**
+	 * Gets the number of worker threads.
+	 * 
+	 * @return number of workers
+	 */
+	public int getWorkerCount() {
+		return workers.length;
+	}
+
+	/**
+	 * Starts the workers, runs the capture loop and once the loop exits, waits
+	 * for the workers to drain their rings.
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		done = false;
+
+		final String name = Thread.currentThread().getName();
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Worker(i), name + "-worker-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+
+		try {
+			this.result =
+			    pcap.loop((count > 0) ? count : Pcap.LOOP_INFINITE, capture, user);
+
+		} finally {
+			done = true;
+
+			for (Thread worker : workers) {
+				try {
+					worker.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Selects the worker that will receive the packet. The default
+	 * implementation uses a symmetric hash of the packet's flow key, which sends
+	 * both directions of a flow to the same worker. Subclasses may override this
+	 * method to distribute packets differently, but must always map all the
+	 * packets of a flow to the same worker to keep them in order.
+	 * 
+	 * @param packet
+	 *          scanned packet on the capture thread
+	 * @return index of the worker, between 0 and number of workers - 1
+	 */
+	protected int selectWorker(JPacket packet) {
+		final int hash = packet.getFlowKey().symmetricHash();
+
+		return (int) ((hash & 0xFFFFFFFFL) % workers.length);
+	}
+}
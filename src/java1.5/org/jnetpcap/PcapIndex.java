@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.packet.PcapPacket;
+
+/**
+ * An index of records within a classic pcap file. Each entry records the
+ * timestamp of a record, its offset within the file and the symmetric hash of
+ * the flow the packet belongs to, or 0 if the flow is not known. The index is
+ * usually kept in a sidecar file next to the capture file, named after the
+ * capture file with an {@value #SUFFIX} suffix.
+ * <p>
+ * The sidecar file is a simple big endian binary file:
+ * </p>
+ * 
+ * <pre>
+ * int  magic        'JIDX'
+ * int  version      1
+ * long file size    size of the capture file when it was indexed
+ * int  count        number of entries
+ * count entries of:
+ *   long timestamp  micro seconds since epoch
+ *   long offset     file offset of the record header
+ *   int  flow hash  symmetric flow hash or 0
+ * </pre>
+ * <p>
+ * An index can be built for an existing capture file at any granularity, see
+ * {@link #build(File, long)}, and is then persisted with {@link #open(File,
+ * long)} so that later runs reuse it. Timestamps are assumed to be mostly
+ * increasing through the file, which is how capture files are normally
+ * written.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapIndex {
+
+	/** Magic number of an index file. */
+	public final static int MAGIC = 0x4a494458; // JIDX
+
+	/** Suffix appended to the capture file name to name its sidecar index. */
+	public final static String SUFFIX = ".idx";
+
+	/** Format version. */
+	public final static int VERSION = 1;
+
+	/** Number of entries. */
+	private int count;
+
+	/** Size of the indexed capture file. */
+	private long fileSize;
+
+	/** Flow hashes. */
+	private int[] hashes;
+
+	/** Record offsets. */
+	private long[] offsets;
+
+	/** Timestamps in micros. */
+	private long[] timestamps;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public PcapIndex() {
+		this(1024);
+	}
+
+	/**
+	 * Creates an empty index.
+	 * 
+	 * @param capacity
+	 *          initial number of entries
+	 */
+	public PcapIndex(int capacity) {
+		capacity = Math.max(capacity, 16);
+
+		this.timestamps = new long[capacity];
+		this.offsets = new long[capacity];
+		this.hashes = new int[capacity];
+	}
+
+	/**
+	 * Builds an index by reading through a capture file. An entry is made for
+	 * the first record and then for the first record at least granularity
+	 * micros after the previous entry. Only packet headers are read, packets
+	 * are not scanned and no flow hashes are recorded. For pcapng files, only
+	 * the first section is indexed.
+	 * 
+	 * @param file
+	 *          capture file
+	 * @param granularity
+	 *          minimum time between entries in micros, 0 to index every record
+	 * @return the index
+	 * @throws IOException
+	 *           if file is not a capture file or any IO errors
+	 */
+	public static PcapIndex build(File file, long granularity)
+	    throws IOException {
+		final MappedPcapReader reader = new MappedPcapReader(file);
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+		final PcapIndex index = new PcapIndex();
+
+		try {
+			final int sections = reader.sections;
+			long next = Long.MIN_VALUE;
+
+			while (reader.skipToPacket()) {
+				if (reader.sections != sections) {
+					break; // Interfaces of later sections are unknown after a seek
+				}
+
+				final long offset = reader.position();
+				if (reader.next(packet) == false) {
+					break;
+				}
+
+				final long ts = reader.getCaptureHeader().timestampInMicros();
+				if (ts >= next) {
+					index.add(ts, offset, 0);
+					next = ts + granularity;
+				}
+			}
+
+			index.setFileSize(reader.getFileSize());
+
+		} finally {
+			reader.close();
+		}
+
+		return index;
+	}
+
+	/**
+	 * Gets the sidecar index file of a capture file.
+	 * 
+	 * @param file
+	 *          capture file
+	 * @return index file
+	 */
+	public static File getIndexFile(File file) {
+		return new File(file.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Gets the index of a capture file, from its sidecar index file if there is
+	 * one and it is up to date, otherwise by building a new one and saving it
+	 * in the sidecar file. Failing to save the sidecar file is not an error, the
+	 * index is simply rebuilt next time.
+	 * 
+	 * @param file
+	 *          capture file
+	 * @param granularity
+	 *          minimum time between entries in micros, used when the index is
+	 *          built
+	 * @return the index
+	 * @throws IOException
+	 *           if file is not a capture file or any IO errors
+	 */
+	public static PcapIndex open(File file, long granularity) throws IOException {
+		final File sidecar = getIndexFile(file);
+
+		if (sidecar.isFile() && sidecar.lastModified() >= file.lastModified()) {
+			try {
+				final PcapIndex index = read(sidecar);
+				if (index.getFileSize() == file.length()) {
+					return index;
+				}
+			} catch (IOException e) {
+				// Unreadable or old format, rebuild
+			}
+		}
+
+		final PcapIndex index = build(file, granularity);
+		try {
+			index.write(sidecar);
+		} catch (IOException e) {
+			sidecar.delete(); // Read-only directory or disk full, not fatal
+		}
+
+		return index;
+	}
+
+	/**
+	 * Reads an index file.
+	 * 
+	 * @param file
+	 *          index file
+	 * @return the index
+	 * @throws IOException
+	 *           if file is not an index file or any IO errors
+	 */
+	public static PcapIndex read(File file) throws IOException {
+		final DataInputStream in =
+		    new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("not an index file " + file);
+			}
+
+			final int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("unsupported index version " + version
+				    + " in " + file);
+			}
+
+			final long fileSize = in.readLong();
+			final int count = in.readInt();
+			if (count < 0) {
+				throw new IOException("corrupt index file " + file);
+			}
+
+			final PcapIndex index = new PcapIndex(count);
+			index.fileSize = fileSize;
+
+			for (int i = 0; i < count; i++) {
+				index.add(in.readLong(), in.readLong(), in.readInt());
+			}
+
+			return index;
+
+		} catch (EOFException e) {
+			throw new IOException("truncated index file " + file);
+
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Adds an entry. Entries should be added in file order.
+	 * 
+	 * @param timestamp
+	 *          record timestamp in micros
+	 * @param offset
+	 *          file offset of the record header
+	 * @param flowHash
+	 *          symmetric flow hash or 0
+	 */
+	public void add(long timestamp, long offset, int flowHash) {
+		if (count == timestamps.length) {
+			final int capacity = count * 2;
+
+			final long[] t = new long[capacity];
+			final long[] o = new long[capacity];
+			final int[] h = new int[capacity];
+
+			System.arraycopy(timestamps, 0, t, 0, count);
+			System.arraycopy(offsets, 0, o, 0, count);
+			System.arraycopy(hashes, 0, h, 0, count);
+
+			timestamps = t;
+			offsets = o;
+			hashes = h;
+		}
+
+		timestamps[count] = timestamp;
+		offsets[count] = offset;
+		hashes[count] = flowHash;
+		count++;
+	}
+
+	/**
+	 * Finds the last entry whose timestamp is before the given time. Reading
+	 * from that entry's offset is guaranteed not to miss any record at or after
+	 * the time, as long as timestamps increase through the file.
+	 * 
+	 * @param timestamp
+	 *          micros since epoch
+	 * @return entry index or -1 if the first entry is not before the time
+	 */
+	public int floor(long timestamp) {
+		int low = 0;
+		int high = count - 1;
+
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			if (timestamps[mid] < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		return low - 1;
+	}
+
+	/**
+	 * Gets the size of the capture file at the time it was indexed.
+	 * 
+	 * @return file size in bytes
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Gets the flow hash of an entry.
+	 * 
+	 * @param index
+	 *          entry index
+	 * @return symmetric flow hash or 0
+	 */
+	public int getFlowHash(int index) {
+		check(index);
+		return hashes[index];
+	}
+
+	/**
+	 * Gets the record offset of an entry.
+	 * 
+	 * @param index
+	 *          entry index
+	 * @return file offset
+	 */
+	public long getOffset(int index) {
+		check(index);
+		return offsets[index];
+	}
+
+	/**
+	 * Gets the timestamp of an entry.
+	 * 
+	 * @param index
+	 *          entry index
+	 * @return micros since epoch
+	 */
+	public long getTimestamp(int index) {
+		check(index);
+		return timestamps[index];
+	}
+
+	/**
+	 * Sets the size of the indexed capture file.
+	 * 
+	 * @param fileSize
+	 *          file size in bytes
+	 */
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 * 
+	 * @return number of entries
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Writes the index to a file.
+	 * 
+	 * @param file
+	 *          index file to create or overwrite
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void write(File file) throws IOException {
+		final DataOutputStream out =
+		    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+		        file), 64 * 1024));
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fileSize);
+			out.writeInt(count);
+
+			for (int i = 0; i < count; i++) {
+				out.writeLong(timestamps[i]);
+				out.writeLong(offsets[i]);
+				out.writeInt(hashes[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Checks an entry index.
+	 */
+	private void check(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("index " + index + ", size "
+			    + count);
+		}
+	}
+
+	/**
+	 * Debug string.
+	 * 
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		return "PcapIndex[entries=" + count + ", fileSize=" + fileSize + "]";
+	}
+}
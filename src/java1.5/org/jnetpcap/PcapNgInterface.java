@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import org.jnetpcap.packet.JRegistry;
+
+/**
+ * Describes a capture interface of a pcapng section, as defined by an interface
+ * description block (IDB). Interfaces are numbered within their section in the
+ * order they were defined, starting with 0. Every packet block refers to its
+ * interface by this number. The interface also holds the latest counters
+ * reported for it by an interface statistics block (ISB), if any.
+ * <p>
+ * Timestamp resolution is specified the same way as the pcapng
+ * <code>if_tsresol</code> option. A value with the most significant bit clear
+ * is a negative power of 10, while a value with the bit set is a negative power
+ * of 2. The default of 6 is micro seconds, 9 is nano seconds.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class PcapNgInterface {
+
+	/** Micro second timestamp resolution, the pcapng default. */
+	public final static int RESOLUTION_MICROS = 6;
+
+	/** Nano second timestamp resolution. */
+	public final static int RESOLUTION_NANOS = 9;
+
+	/** Nano seconds in a second. */
+	private final static long NANOS_PER_SECOND = 1000000000L;
+
+	/** Value of a statistics counter which was not reported. */
+	public final static long UNKNOWN = -1;
+
+	/** Description, or null. */
+	private String description;
+
+	/** Packets dropped, from the last ISB. */
+	private long dropped = UNKNOWN;
+
+	/** Interface number within its section. */
+	private int index = -1;
+
+	/** Link type (DLT). */
+	private final int linktype;
+
+	/** Name, or null. */
+	private String name;
+
+	/** Packets received, from the last ISB. */
+	private long received = UNKNOWN;
+
+	/** The if_tsresol value. */
+	private int resolution = RESOLUTION_MICROS;
+
+	/** Scanner ID of the link type. */
+	private final int scannerId;
+
+	/** Snapshot length, 0 for unlimited. */
+	private final int snaplen;
+
+	/** Timestamp of the last ISB, in nanos, or UNKNOWN. */
+	private long statisticsTimestamp = UNKNOWN;
+
+	/** Seconds added to every timestamp, if_tsoffset. */
+	private long timestampOffset;
+
+	/** Number of timestamp units per second, derived from resolution. */
+	private long unitsPerSecond = 1000000L;
+
+	/**
+	 * Creates an interface description with micro second timestamps.
+	 * 
+	 * @param linktype
+	 *          link type (DLT)
+	 * @param snaplen
+	 *          snapshot length, 0 for unlimited
+	 */
+	public PcapNgInterface(int linktype, int snaplen) {
+		this.linktype = linktype;
+		this.snaplen = snaplen;
+		this.scannerId = JRegistry.mapDLTToId(linktype);
+	}
+
+	/**
+	 * Creates an interface description with micro second timestamps.
+	 * 
+	 * @param dlt
+	 *          link type
+	 * @param snaplen
+	 *          snapshot length, 0 for unlimited
+	 */
+	public PcapNgInterface(PcapDLT dlt, int snaplen) {
+		this(dlt.value, snaplen);
+	}
+
+	/**
+	 * Gets the interface description.
+	 * 
+	 * @return description or null if not set
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * Gets the number of packets dropped by the interface, as reported by the
+	 * last interface statistics block.
+	 * 
+	 * @return number of packets or {@link #UNKNOWN}
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Gets the interface number within its section.
+	 * 
+	 * @return interface number or -1 if the interface has not been written or
+	 *         read yet
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Gets the link type.
+	 * 
+	 * @return link type (DLT)
+	 */
+	public int getLinktype() {
+		return linktype;
+	}
+
+	/**
+	 * Gets the interface name.
+	 * 
+	 * @return name or null if not set
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the number of packets received by the interface, as reported by the
+	 * last interface statistics block.
+	 * 
+	 * @return number of packets or {@link #UNKNOWN}
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * Gets the timestamp resolution, as the pcapng <code>if_tsresol</code>
+	 * value.
+	 * 
+	 * @return resolution
+	 */
+	public int getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * Gets the scanner ID of the link type.
+	 * 
+	 * @return protocol ID of the first header
+	 */
+	public int getScannerId() {
+		return scannerId;
+	}
+
+	/**
+	 * Gets the snapshot length.
+	 * 
+	 * @return snaplen, 0 for unlimited
+	 */
+	public int getSnaplen() {
+		return snaplen;
+	}
+
+	/**
+	 * Gets the timestamp of the last interface statistics block.
+	 * 
+	 * @return timestamp in nanos or {@link #UNKNOWN}
+	 */
+	public long getStatisticsTimestamp() {
+		return statisticsTimestamp;
+	}
+
+	/**
+	 * Gets the number of seconds added to every timestamp of this interface.
+	 * 
+	 * @return offset in seconds
+	 */
+	public long getTimestampOffset() {
+		return timestampOffset;
+	}
+
+	/**
+	 * Gets the number of timestamp units per second.
+	 * 
+	 * @return units per second
+	 */
+	public long getUnitsPerSecond() {
+		return unitsPerSecond;
+	}
+
+	/**
+	 * Sets the interface description.
+	 * 
+	 * @param description
+	 *          description or null
+	 */
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	/**
+	 * Sets the interface number.
+	 * 
+	 * @param index
+	 *          interface number
+	 */
+	void setIndex(int index) {
+		this.index = index;
+	}
+
+	/**
+	 * Sets the interface name.
+	 * 
+	 * @param name
+	 *          name or null
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Sets the timestamp resolution.
+	 * 
+	 * @param resolution
+	 *          pcapng <code>if_tsresol</code> value
+	 * @throws IllegalArgumentException
+	 *           if the resolution is finer than a long can represent
+	 */
+	public void setResolution(int resolution) {
+		final int exponent = resolution & 0x7f;
+		long units = 1;
+
+		if ((resolution & 0x80) != 0) {
+			if (exponent > 62) {
+				throw new IllegalArgumentException("resolution too fine "
+				    + resolution);
+			}
+
+			units = 1L << exponent;
+
+		} else {
+			if (exponent > 18) {
+				throw new IllegalArgumentException("resolution too fine "
+				    + resolution);
+			}
+
+			for (int i = 0; i < exponent; i++) {
+				units *= 10;
+			}
+		}
+
+		this.resolution = resolution & 0xff;
+		this.unitsPerSecond = units;
+	}
+
+	/**
+	 * Records counters from an interface statistics block.
+	 * 
+	 * @param timestamp
+	 *          timestamp in nanos
+	 * @param received
+	 *          packets received or {@link #UNKNOWN}
+	 * @param dropped
+	 *          packets dropped or {@link #UNKNOWN}
+	 */
+	void setStatistics(long timestamp, long received, long dropped) {
+		this.statisticsTimestamp = timestamp;
+		this.received = received;
+		this.dropped = dropped;
+	}
+
+	/**
+	 * Sets the number of seconds added to every timestamp.
+	 * 
+	 * @param offset
+	 *          offset in seconds
+	 */
+	public void setTimestampOffset(long offset) {
+		this.timestampOffset = offset;
+	}
+
+	/**
+	 * Converts a timestamp in nanos to units of this interface.
+	 * 
+	 * @param nanos
+	 *          nanos since epoch
+	 * @return timestamp as stored in a packet block
+	 */
+	long fromNanos(long nanos) {
+		final long seconds = nanos / NANOS_PER_SECOND - timestampOffset;
+		final long fraction = nanos % NANOS_PER_SECOND;
+
+		return seconds * unitsPerSecond
+		    + convert(fraction, NANOS_PER_SECOND, unitsPerSecond);
+	}
+
+	/**
+	 * Converts a timestamp in units of this interface to nanos.
+	 * 
+	 * @param units
+	 *          timestamp as stored in a packet block
+	 * @return nanos since epoch
+	 */
+	long toNanos(long units) {
+		final long seconds = units / unitsPerSecond + timestampOffset;
+		final long fraction = units % unitsPerSecond;
+
+		return seconds * NANOS_PER_SECOND
+		    + convert(fraction, unitsPerSecond, NANOS_PER_SECOND);
+	}
+
+	/**
+	 * Converts a fraction of a second between resolutions, without overflowing.
+	 * Both resolutions are at most 2^62 units per second and the fraction is
+	 * less than one second.
+	 */
+	private static long convert(long fraction, long from, long to) {
+		if (from == to) {
+			return fraction;
+		}
+
+		if (from % to == 0) {
+			return fraction / (from / to);
+		}
+
+		if (to % from == 0) {
+			return fraction * (to / from);
+		}
+
+		return (long) (fraction * ((double) to / from));
+	}
+
+	/**
+	 * Debug string.
+	 * 
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		return "PcapNgInterface[" + index + ", linktype=" + linktype
+		    + ", snaplen=" + snaplen + ", resolution=" + resolution
+		    + ((name == null) ? "" : ", name=" + name) + "]";
+	}
+}
@@ -0,0 +1,686 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jnetpcap.nio.JBuffer;
+import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.packet.JScanner;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.PcapPacketHandler;
+import org.jnetpcap.packet.PeeringException;
+
+/**
+ * Streaming reader for pcapng files, without going through libpcap. The file
+ * is read sequentially from any channel, such as a file, a pipe or a socket,
+ * through a single direct buffer. Section header (SHB), interface description
+ * (IDB), enhanced packet (EPB), simple packet (SPB) and interface statistics
+ * (ISB) blocks are understood, any other blocks are skipped. Files with
+ * multiple sections, in either byte order, are supported.
+ * <p>
+ * Packets are peered directly with the read buffer, no packet data is copied.
+ * A packet, and its capture header, are only valid until the next packet is
+ * read. The capture header holds micro second timestamps. The full precision
+ * timestamp, the interface the packet was captured on and the packet comment
+ * of the last packet read are available from the reader.
+ * </p>
+ * 
+ * <pre>
+ * final PcapNgReader reader = new PcapNgReader(new File(&quot;capture.pcapng&quot;));
+ * try {
+ * 	reader.loop(0, new PcapPacketHandler&lt;String&gt;() {
+ * 		public void nextPacket(PcapPacket packet, String user) {
+ * 			PcapNgInterface i = reader.getInterface();
+ * 			String comment = reader.getComment();
+ * 		}
+ * 	}, &quot;&quot;);
+ * } finally {
+ * 	reader.close();
+ * }
+ * </pre>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ * @see PcapNgWriter
+ */
+public class PcapNgReader
+    implements Closeable {
+
+	/** Default size of the read buffer. */
+	public final static int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Largest block accepted. Longer block lengths are treated as corrupt,
+	 * instead of growing the read buffer to hold them.
+	 */
+	public final static int MAX_BLOCK_LENGTH = 16 * 1024 * 1024;
+
+	/** Section header block type. */
+	public final static int BLOCK_SHB = 0x0a0d0d0a;
+
+	/** Interface description block type. */
+	public final static int BLOCK_IDB = 0x00000001;
+
+	/** Simple packet block type. */
+	public final static int BLOCK_SPB = 0x00000003;
+
+	/** Interface statistics block type. */
+	public final static int BLOCK_ISB = 0x00000005;
+
+	/** Enhanced packet block type. */
+	public final static int BLOCK_EPB = 0x00000006;
+
+	/** Byte order magic of the section header block. */
+	public final static int BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+
+	/** End of options. */
+	final static int OPT_ENDOFOPT = 0;
+
+	/** Comment option, valid in every block. */
+	final static int OPT_COMMENT = 1;
+
+	/** Interface name. */
+	final static int OPT_IF_NAME = 2;
+
+	/** Interface description. */
+	final static int OPT_IF_DESCRIPTION = 3;
+
+	/** Interface timestamp resolution. */
+	final static int OPT_IF_TSRESOL = 9;
+
+	/** Interface timestamp offset in seconds. */
+	final static int OPT_IF_TSOFFSET = 14;
+
+	/** Packets received by the interface. */
+	final static int OPT_ISB_IFRECV = 4;
+
+	/** Packets dropped by the interface. */
+	final static int OPT_ISB_IFDROP = 5;
+
+	/** The buffer, data between position and limit has not been read yet. */
+	private ByteBuffer buffer;
+
+	/** Peered with the entire buffer, packets are peered from this buffer. */
+	private JBuffer bufferMemory;
+
+	/** The channel. */
+	private final ReadableByteChannel channel;
+
+	/** Buffer offset of the comment of the last packet, or -1. */
+	private int commentOffset = -1;
+
+	/** Length of the comment of the last packet. */
+	private int commentLength;
+
+	/** Capture header of the last packet read. */
+	private final PcapHeader header = new PcapHeader();
+
+	/** Interface of the last packet read. */
+	private PcapNgInterface iface;
+
+	/** Interfaces described in the current section. */
+	private final List<PcapNgInterface> interfaces =
+	    new ArrayList<PcapNgInterface>();
+
+	/** Offset of the next block within the stream. */
+	private long position;
+
+	/** Number of sections read so far. */
+	private int sections;
+
+	/** Full precision timestamp of the last packet read. */
+	private long timestamp;
+
+	/**
+	 * Opens a pcapng file for reading.
+	 * 
+	 * @param file
+	 *          file to read
+	 * @throws IOException
+	 *           if file can not be read or is not a pcapng file
+	 */
+	public PcapNgReader(File file) throws IOException {
+		this(new FileInputStream(file).getChannel(), DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Reads pcapng blocks from a channel, using a buffer of
+	 * {@value #DEFAULT_BUFFER_SIZE} bytes.
+	 * 
+	 * @param channel
+	 *          channel to read from
+	 * @throws IOException
+	 *           if stream is not in pcapng format or any IO errors
+	 */
+	public PcapNgReader(ReadableByteChannel channel) throws IOException {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Reads pcapng blocks from a channel. The buffer grows if a block larger than
+	 * the buffer is encountered.
+	 * 
+	 * @param channel
+	 *          channel to read from
+	 * @param bufferSize
+	 *          initial size of the read buffer
+	 * @throws IOException
+	 *           if stream is not in pcapng format or any IO errors
+	 */
+	public PcapNgReader(ReadableByteChannel channel, int bufferSize)
+	    throws IOException {
+		if (bufferSize < 28) {
+			throw new IllegalArgumentException("buffer size too small");
+		}
+
+		this.channel = channel;
+
+		try {
+			allocate(bufferSize);
+			buffer.limit(0);
+
+			if (ensure(12) == false || getInt(0) != BLOCK_SHB) {
+				throw new IOException("not a pcapng stream");
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Replaces the buffer with a new one, keeping any unread data.
+	 */
+	private void allocate(int size) throws IOException {
+		final ByteBuffer b = ByteBuffer.allocateDirect(size);
+		if (buffer != null) {
+			b.order(buffer.order());
+			b.put(buffer);
+			b.flip();
+		}
+
+		final JBuffer memory = new JBuffer(JMemory.POINTER);
+		try {
+			final ByteBuffer all = b.duplicate();
+			all.clear();
+			memory.peer(all);
+		} catch (PeeringException e) {
+			throw new IOException(e.toString());
+		}
+
+		this.buffer = b;
+		this.bufferMemory = memory;
+	}
+
+	/**
+	 * Closes the underlying channel.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Makes sure that at least length bytes are available in the buffer,
+	 * reading more from the channel as necessary. Unread data is moved to the
+	 * front of the buffer, which invalidates the previous packet.
+	 * 
+	 * @param length
+	 *          number of bytes required
+	 * @return false if the stream ended before enough bytes were read
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private boolean ensure(int length) throws IOException {
+		if (buffer.remaining() >= length) {
+			return true;
+		}
+
+		if (length > MAX_BLOCK_LENGTH) {
+			throw new IOException("corrupt pcapng block at " + position
+			    + ", length " + length + " exceeds " + MAX_BLOCK_LENGTH);
+		}
+
+		if (length > buffer.capacity()) {
+			allocate(Math.max(length, buffer.capacity() * 2));
+		}
+
+		buffer.compact();
+		try {
+			while (buffer.position() < length) {
+				if (channel.read(buffer) == -1) {
+					break;
+				}
+			}
+		} finally {
+			buffer.flip();
+		}
+
+		return buffer.remaining() >= length;
+	}
+
+	/**
+	 * Gets the byte order of the current section.
+	 * 
+	 * @return byte order
+	 */
+	public ByteOrder getByteOrder() {
+		return buffer.order();
+	}
+
+	/**
+	 * Gets the capture header of the last packet read.
+	 * 
+	 * @return capture header with micro second timestamp
+	 */
+	public PcapHeader getCaptureHeader() {
+		return header;
+	}
+
+	/**
+	 * Gets the comment of the last packet read. The comment is decoded on every
+	 * call.
+	 * 
+	 * @return the comment or null if the packet has none
+	 */
+	public String getComment() {
+		if (commentOffset == -1) {
+			return null;
+		}
+
+		return getString(commentOffset, commentLength);
+	}
+
+	/**
+	 * Gets a 32-bit value at a buffer position relative offset.
+	 */
+	private int getInt(int offset) {
+		return buffer.getInt(buffer.position() + offset);
+	}
+
+	/**
+	 * Gets the interface of the last packet read.
+	 * 
+	 * @return interface or null if no packet was read yet
+	 */
+	public PcapNgInterface getInterface() {
+		return iface;
+	}
+
+	/**
+	 * Gets the interfaces defined in the current section so far.
+	 * 
+	 * @return read-only list of interfaces
+	 */
+	public List<PcapNgInterface> getInterfaces() {
+		return Collections.unmodifiableList(interfaces);
+	}
+
+	/**
+	 * Gets a 64-bit value made up of 2 32-bit values, high word first, at a
+	 * buffer position relative offset.
+	 */
+	private long getLong(int offset) {
+		return ((getInt(offset) & 0xffffffffL) << 32)
+		    | (getInt(offset + 4) & 0xffffffffL);
+	}
+
+	/**
+	 * Gets the number of section headers read so far.
+	 * 
+	 * @return number of sections
+	 */
+	public int getSectionCount() {
+		return sections;
+	}
+
+	/**
+	 * Gets a 16-bit unsigned value at a buffer position relative offset.
+	 */
+	private int getShort(int offset) {
+		return buffer.getShort(buffer.position() + offset) & 0xffff;
+	}
+
+	/**
+	 * Decodes a UTF-8 string at an absolute buffer offset, without any
+	 * trailing nul characters.
+	 */
+	private String getString(int offset, int length) {
+		final byte[] b = new byte[length];
+		for (int i = 0; i < length; i++) {
+			b[i] = buffer.get(offset + i);
+		}
+
+		while (length > 0 && b[length - 1] == 0) {
+			length--;
+		}
+
+		try {
+			return new String(b, 0, length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	/**
+	 * Gets the full precision timestamp of the last packet read. Simple packet
+	 * blocks have no timestamp, in which case this is 0.
+	 * 
+	 * @return nanos since epoch
+	 */
+	public long getTimestampInNanos() {
+		return timestamp;
+	}
+
+	/**
+	 * Reads and scans packets, dispatching each one to the handler. The packet
+	 * is scanned using the calling thread's {@link JScanner} and is only valid
+	 * until the handler returns.
+	 * 
+	 * @param <T>
+	 *          user supplied type
+	 * @param cnt
+	 *          number of packets to read, or 0 or less for all
+	 * @param handler
+	 *          packet handler
+	 * @param user
+	 *          user object passed to the handler
+	 * @return number of packets dispatched
+	 * @throws IOException
+	 *           if stream is corrupt or any IO errors
+	 */
+	public <T> int loop(int cnt, PcapPacketHandler<T> handler, T user)
+	    throws IOException {
+		final JScanner scanner = JScanner.getThreadLocal();
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+
+		int count = 0;
+		while ((cnt <= 0 || count < cnt) && next(packet)) {
+			scanner.scan(packet, iface.getScannerId(), header.hdr_wirelen());
+			handler.nextPacket(packet, user);
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Reads blocks up to and including the next packet block and peers the
+	 * packet with it. Both the packet data and capture header are peered, the
+	 * packet is not scanned.
+	 * 
+	 * @param packet
+	 *          packet to peer
+	 * @return true if a packet was read, false at end of stream
+	 * @throws IOException
+	 *           if stream is corrupt or any IO errors
+	 */
+	public boolean next(PcapPacket packet) throws IOException {
+		while (ensure(12)) {
+			final int type = getInt(0);
+			if (type == BLOCK_SHB) {
+				readSectionHeader();
+			}
+
+			final int length = getInt(4);
+			if (length < 12 || (length & 3) != 0 || length > MAX_BLOCK_LENGTH) {
+				throw new IOException("corrupt pcapng block at " + position);
+			}
+
+			if (ensure(length) == false) {
+				throw new IOException("truncated pcapng block at " + position);
+			}
+
+			boolean found = false;
+			switch (type) {
+				case BLOCK_IDB:
+					readInterface(length);
+					break;
+
+				case BLOCK_ISB:
+					readStatistics(length);
+					break;
+
+				case BLOCK_EPB:
+				case BLOCK_SPB:
+					readPacket(packet, type, length);
+					found = true;
+					break;
+			}
+
+			buffer.position(buffer.position() + length);
+			position += length;
+
+			if (found) {
+				return true;
+			}
+		}
+
+		if (buffer.hasRemaining()) {
+			throw new IOException("truncated pcapng block at " + position);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the offset of the next block within the stream.
+	 * 
+	 * @return number of bytes consumed so far
+	 */
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * Reads an interface description block.
+	 */
+	private void readInterface(int length) throws IOException {
+		final PcapNgInterface i = new PcapNgInterface(getShort(8), getInt(12));
+		i.setIndex(interfaces.size());
+
+		final int end = buffer.position() + length - 4;
+		int p = buffer.position() + 16;
+
+		while (p + 4 <= end) {
+			final int code = buffer.getShort(p) & 0xffff;
+			final int len = buffer.getShort(p + 2) & 0xffff;
+			if (code == OPT_ENDOFOPT) {
+				break;
+			}
+
+			if (p + 4 + len > end) {
+				throw new IOException("corrupt pcapng interface block at "
+				    + position);
+			}
+
+			switch (code) {
+				case OPT_IF_NAME:
+					i.setName(getString(p + 4, len));
+					break;
+
+				case OPT_IF_DESCRIPTION:
+					i.setDescription(getString(p + 4, len));
+					break;
+
+				case OPT_IF_TSRESOL:
+					if (len >= 1) {
+						try {
+							i.setResolution(buffer.get(p + 4) & 0xff);
+						} catch (IllegalArgumentException e) {
+							throw new IOException(e.getMessage() + " at " + position);
+						}
+					}
+					break;
+
+				case OPT_IF_TSOFFSET:
+					if (len >= 8) {
+						i.setTimestampOffset(buffer.getLong(p + 4));
+					}
+					break;
+			}
+
+			p += 4 + ((len + 3) & ~3);
+		}
+
+		interfaces.add(i);
+	}
+
+	/**
+	 * Reads an enhanced or simple packet block.
+	 */
+	private void readPacket(PcapPacket packet, int type, int length)
+	    throws IOException {
+		final int o = buffer.position();
+		final int caplen;
+		final int wirelen;
+		final int data;
+
+		commentOffset = -1;
+
+		if (type == BLOCK_EPB) {
+			selectInterface(getInt(8));
+			timestamp = iface.toNanos(getLong(12));
+			caplen = getInt(20);
+			wirelen = getInt(24);
+			data = o + 28;
+
+			/* Bound caplen by the space left in the block, adding it could overflow */
+			if (caplen < 0 || caplen > length - 32) {
+				throw new IOException("corrupt pcapng packet block at " + position);
+			}
+
+			/* Options follow the padded packet data */
+			final int end = o + length - 4;
+			int p = data + ((caplen + 3) & ~3);
+			while (p + 4 <= end) {
+				final int code = buffer.getShort(p) & 0xffff;
+				final int len = buffer.getShort(p + 2) & 0xffff;
+				if (code == OPT_ENDOFOPT || p + 4 + len > end) {
+					break;
+				}
+
+				if (code == OPT_COMMENT) {
+					commentOffset = p + 4;
+					commentLength = len;
+				}
+
+				p += 4 + ((len + 3) & ~3);
+			}
+
+		} else {
+			selectInterface(0);
+			timestamp = 0;
+			wirelen = getInt(8);
+			data = o + 12;
+
+			int len = Math.min(wirelen, length - 16);
+			if (iface.getSnaplen() > 0) {
+				len = Math.min(len, iface.getSnaplen());
+			}
+			caplen = Math.max(len, 0);
+		}
+
+		header.hdr_sec(timestamp / 1000000000L);
+		header.hdr_usec((int) (timestamp % 1000000000L / 1000));
+		header.hdr_len(caplen);
+		header.hdr_wirelen(wirelen);
+
+		packet.getCaptureHeader().peerTo(header, 0);
+		packet.peer(bufferMemory, data, caplen);
+	}
+
+	/**
+	 * Reads a section header block and sets the byte order.
+	 */
+	private void readSectionHeader() throws IOException {
+		if (getInt(8) != BYTE_ORDER_MAGIC) {
+			buffer.order((buffer.order() == ByteOrder.BIG_ENDIAN)
+			    ? ByteOrder.LITTLE_ENDIAN
+			    : ByteOrder.BIG_ENDIAN);
+
+			if (getInt(8) != BYTE_ORDER_MAGIC) {
+				throw new IOException("corrupt pcapng section header at " + position);
+			}
+		}
+
+		interfaces.clear();
+		sections++;
+	}
+
+	/**
+	 * Reads an interface statistics block.
+	 */
+	private void readStatistics(int length) throws IOException {
+		final int index = getInt(8);
+		if (index < 0 || index >= interfaces.size()) {
+			return; // Statistics for an undefined interface are ignored
+		}
+
+		final PcapNgInterface i = interfaces.get(index);
+		long received = PcapNgInterface.UNKNOWN;
+		long dropped = PcapNgInterface.UNKNOWN;
+
+		final int end = buffer.position() + length - 4;
+		int p = buffer.position() + 20;
+
+		while (p + 4 <= end) {
+			final int code = buffer.getShort(p) & 0xffff;
+			final int len = buffer.getShort(p + 2) & 0xffff;
+			if (code == OPT_ENDOFOPT || p + 4 + len > end) {
+				break;
+			}
+
+			if (code == OPT_ISB_IFRECV && len == 8) {
+				received = buffer.getLong(p + 4);
+			} else if (code == OPT_ISB_IFDROP && len == 8) {
+				dropped = buffer.getLong(p + 4);
+			}
+
+			p += 4 + ((len + 3) & ~3);
+		}
+
+		i.setStatistics(i.toNanos(getLong(12)), received, dropped);
+	}
+
+	/**
+	 * Makes the interface current.
+	 */
+	private void selectInterface(int index) throws IOException {
+		if (index < 0 || index >= interfaces.size()) {
+			throw new IOException("packet block at " + position
+			    + " refers to undefined interface " + index);
+		}
+
+		iface = interfaces.get(index);
+	}
+}
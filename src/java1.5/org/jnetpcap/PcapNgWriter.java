@@ -0,0 +1,490 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jnetpcap.nio.JBuffer;
+import org.jnetpcap.packet.PcapPacket;
+
+/**
+ * Streaming writer for pcapng files, without going through libpcap. Blocks are
+ * assembled in a direct buffer, in native byte order, and written to the
+ * channel whenever the buffer fills up. Packet data is copied natively from
+ * the packet straight into the buffer.
+ * <p>
+ * A section header block is written when the writer is created. Interfaces
+ * have to be added before any packets referring to them are written. Packets
+ * are written as enhanced packet blocks, with an optional comment, or as simple
+ * packet blocks. Interface statistics blocks can be written at any time.
+ * </p>
+ * 
+ * <pre>
+ * PcapNgWriter writer = new PcapNgWriter(new File(&quot;capture.pcapng&quot;));
+ * PcapNgInterface eth0 = new PcapNgInterface(PcapDLT.EN10MB, 65535);
+ * eth0.setName(&quot;eth0&quot;);
+ * eth0.setResolution(PcapNgInterface.RESOLUTION_NANOS);
+ * int id = writer.addInterface(eth0);
+ * 
+ * writer.writePacket(id, packet);
+ * writer.writePacket(id, packet, &quot;retransmission&quot;);
+ * writer.close();
+ * </pre>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ * @see PcapNgReader
+ */
+public class PcapNgWriter
+    implements Closeable, Flushable {
+
+	/** Default size of the write buffer. */
+	public final static int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	/** Length of the fixed part of an enhanced packet block. */
+	private final static int EPB_LENGTH = 32;
+
+	/** Longest option value, the option length field is 16 bits. */
+	public final static int MAX_OPTION_LENGTH = 0xFFFF;
+
+	/** The buffer. */
+	private ByteBuffer buffer;
+
+	/** Number of bytes written to the channel so far. */
+	private long bytesWritten;
+
+	/** The channel. */
+	private final WritableByteChannel channel;
+
+	/** Interfaces added to the section. */
+	private final List<PcapNgInterface> interfaces =
+	    new ArrayList<PcapNgInterface>();
+
+	/**
+	 * Creates a new pcapng file.
+	 * 
+	 * @param file
+	 *          file to create or overwrite
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public PcapNgWriter(File file) throws IOException {
+		this(new FileOutputStream(file).getChannel(), DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Writes pcapng blocks to a channel, using a buffer of
+	 * {@value #DEFAULT_BUFFER_SIZE} bytes.
+	 * 
+	 * @param channel
+	 *          channel to write to
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public PcapNgWriter(WritableByteChannel channel) throws IOException {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Writes pcapng blocks to a channel. The buffer grows if a block larger than
+	 * the buffer is written.
+	 * 
+	 * @param channel
+	 *          channel to write to
+	 * @param bufferSize
+	 *          initial size of the write buffer
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public PcapNgWriter(WritableByteChannel channel, int bufferSize)
+	    throws IOException {
+		if (bufferSize < 28) {
+			throw new IllegalArgumentException("buffer size too small");
+		}
+
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.buffer.order(ByteOrder.nativeOrder());
+
+		/* SHB with unknown section length and no options */
+		buffer.putInt(PcapNgReader.BLOCK_SHB).putInt(28);
+		buffer.putInt(PcapNgReader.BYTE_ORDER_MAGIC);
+		buffer.putShort((short) 1).putShort((short) 0);
+		buffer.putLong(-1L);
+		buffer.putInt(28);
+	}
+
+	/**
+	 * Writes an interface description block for the interface. The interface is
+	 * assigned the next interface number of the section.
+	 * 
+	 * @param iface
+	 *          interface to add
+	 * @return interface number to use when writing packets
+	 * @throws IOException
+	 *           any IO errors
+	 * @throws IllegalArgumentException
+	 *           if name or description is longer than
+	 *           {@link #MAX_OPTION_LENGTH} bytes
+	 */
+	public int addInterface(PcapNgInterface iface) throws IOException {
+		final byte[] name = encode(iface.getName());
+		final byte[] description = encode(iface.getDescription());
+		final boolean resolution =
+		    iface.getResolution() != PcapNgInterface.RESOLUTION_MICROS;
+		final boolean offset = iface.getTimestampOffset() != 0;
+
+		int options = optionLength(name) + optionLength(description);
+		options += (resolution) ? 8 : 0;
+		options += (offset) ? 12 : 0;
+		options += (options != 0) ? 4 : 0; // opt_endofopt
+
+		final int length = 20 + options;
+		reserve(length);
+
+		buffer.putInt(PcapNgReader.BLOCK_IDB).putInt(length);
+		buffer.putShort((short) iface.getLinktype()).putShort((short) 0);
+		buffer.putInt(iface.getSnaplen());
+
+		putOption(PcapNgReader.OPT_IF_NAME, name);
+		putOption(PcapNgReader.OPT_IF_DESCRIPTION, description);
+
+		if (resolution) {
+			buffer.putShort((short) PcapNgReader.OPT_IF_TSRESOL).putShort((short) 1);
+			buffer.put((byte) iface.getResolution()).put((byte) 0).putShort(
+			    (short) 0);
+		}
+
+		if (offset) {
+			buffer.putShort((short) PcapNgReader.OPT_IF_TSOFFSET).putShort(
+			    (short) 8);
+			buffer.putLong(iface.getTimestampOffset());
+		}
+
+		if (options != 0) {
+			buffer.putInt(PcapNgReader.OPT_ENDOFOPT);
+		}
+
+		buffer.putInt(length);
+
+		iface.setIndex(interfaces.size());
+		interfaces.add(iface);
+
+		return iface.getIndex();
+	}
+
+	/**
+	 * Flushes any buffered blocks and closes the channel.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Encodes a string option value as UTF-8.
+	 * 
+	 * @throws IllegalArgumentException
+	 *           if encoded value is longer than {@link #MAX_OPTION_LENGTH}
+	 */
+	private static byte[] encode(String s) {
+		if (s == null) {
+			return null;
+		}
+
+		final byte[] b;
+		try {
+			b = s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.toString());
+		}
+
+		if (b.length > MAX_OPTION_LENGTH) {
+			throw new IllegalArgumentException("option value of " + b.length
+			    + " bytes is longer than " + MAX_OPTION_LENGTH);
+		}
+
+		return b;
+	}
+
+	/**
+	 * Writes all buffered blocks to the channel.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				bytesWritten += channel.write(buffer);
+			}
+		} finally {
+			buffer.compact();
+		}
+	}
+
+	/**
+	 * Gets the number of bytes written so far, including any bytes still in
+	 * the buffer.
+	 * 
+	 * @return number of bytes
+	 */
+	public long getBytesWritten() {
+		return bytesWritten + buffer.position();
+	}
+
+	/**
+	 * Looks up an interface.
+	 */
+	private PcapNgInterface getInterface(int index) {
+		if (index < 0 || index >= interfaces.size()) {
+			throw new IllegalArgumentException("undefined interface " + index);
+		}
+
+		return interfaces.get(index);
+	}
+
+	/**
+	 * Length of a string option, including padding.
+	 */
+	private static int optionLength(byte[] value) {
+		return (value == null) ? 0 : 4 + ((value.length + 3) & ~3);
+	}
+
+	/**
+	 * Pads the buffer to a 32-bit boundary, relative to length.
+	 */
+	private void pad(int length) {
+		for (int i = length; (i & 3) != 0; i++) {
+			buffer.put((byte) 0);
+		}
+	}
+
+	/**
+	 * Puts a string option, if value is not null.
+	 */
+	private void putOption(int code, byte[] value) {
+		if (value == null) {
+			return;
+		}
+
+		buffer.putShort((short) code).putShort((short) value.length);
+		buffer.put(value);
+		pad(value.length);
+	}
+
+	/**
+	 * Makes room for a block of the given length, flushing the buffer or
+	 * growing it as necessary.
+	 */
+	private void reserve(int length) throws IOException {
+		if (buffer.remaining() >= length) {
+			return;
+		}
+
+		flush();
+
+		if (buffer.remaining() < length) {
+			final ByteBuffer b = ByteBuffer.allocateDirect(length);
+			b.order(buffer.order());
+			this.buffer = b;
+		}
+	}
+
+	/**
+	 * Writes a packet, with a timestamp from its capture header, as an enhanced
+	 * packet block.
+	 * 
+	 * @param interfaceId
+	 *          interface number returned by {@link #addInterface}
+	 * @param packet
+	 *          packet to write
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void writePacket(int interfaceId, PcapPacket packet)
+	    throws IOException {
+		writePacket(interfaceId, packet, null);
+	}
+
+	/**
+	 * Writes a packet, with a timestamp from its capture header, as an enhanced
+	 * packet block with a comment.
+	 * 
+	 * @param interfaceId
+	 *          interface number returned by {@link #addInterface}
+	 * @param packet
+	 *          packet to write
+	 * @param comment
+	 *          packet comment or null for none
+	 * @throws IOException
+	 *           any IO errors
+	 * @throws IllegalArgumentException
+	 *           if the comment is longer than {@link #MAX_OPTION_LENGTH} bytes
+	 */
+	public void writePacket(int interfaceId, PcapPacket packet, String comment)
+	    throws IOException {
+		final PcapHeader header = packet.getCaptureHeader();
+
+		writePacket(interfaceId, header.hdr_sec() * 1000000000L
+		    + header.hdr_usec() * 1000L, header.wirelen(), packet, comment);
+	}
+
+	/**
+	 * Writes packet data as an enhanced packet block, with a full precision
+	 * timestamp. The entire buffer is written as captured data.
+	 * 
+	 * @param interfaceId
+	 *          interface number returned by {@link #addInterface}
+	 * @param timestampInNanos
+	 *          timestamp in nanos since epoch
+	 * @param wirelen
+	 *          original length of the packet
+	 * @param data
+	 *          packet data
+	 * @param comment
+	 *          packet comment or null for none
+	 * @throws IOException
+	 *           any IO errors
+	 * @throws IllegalArgumentException
+	 *           if the comment is longer than {@link #MAX_OPTION_LENGTH} bytes
+	 */
+	public void writePacket(int interfaceId, long timestampInNanos, int wirelen,
+	    JBuffer data, String comment) throws IOException {
+		final PcapNgInterface iface = getInterface(interfaceId);
+		final byte[] c = encode(comment);
+		final int caplen = data.size();
+		final int options = (c == null) ? 0 : optionLength(c) + 4;
+		final int length = EPB_LENGTH + ((caplen + 3) & ~3) + options;
+		final long ts = iface.fromNanos(timestampInNanos);
+
+		reserve(length);
+
+		buffer.putInt(PcapNgReader.BLOCK_EPB).putInt(length);
+		buffer.putInt(interfaceId);
+		buffer.putInt((int) (ts >>> 32)).putInt((int) ts);
+		buffer.putInt(caplen).putInt(wirelen);
+		data.transferTo(buffer, 0, caplen);
+		pad(caplen);
+
+		if (c != null) {
+			putOption(PcapNgReader.OPT_COMMENT, c);
+			buffer.putInt(PcapNgReader.OPT_ENDOFOPT);
+		}
+
+		buffer.putInt(length);
+	}
+
+	/**
+	 * Writes packet data as a simple packet block, which always belongs to
+	 * interface 0 and has no timestamp. Data beyond the snaplen of the
+	 * interface is not written.
+	 * 
+	 * @param wirelen
+	 *          original length of the packet
+	 * @param data
+	 *          packet data
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void writeSimplePacket(int wirelen, JBuffer data) throws IOException {
+		final PcapNgInterface iface = getInterface(0);
+		int caplen = Math.min(data.size(), wirelen);
+		if (iface.getSnaplen() > 0) {
+			caplen = Math.min(caplen, iface.getSnaplen());
+		}
+
+		final int length = 16 + ((caplen + 3) & ~3);
+		reserve(length);
+
+		buffer.putInt(PcapNgReader.BLOCK_SPB).putInt(length);
+		buffer.putInt(wirelen);
+		data.transferTo(buffer, 0, caplen);
+		pad(caplen);
+		buffer.putInt(length);
+	}
+
+	/**
+	 * Writes an interface statistics block.
+	 * 
+	 * @param interfaceId
+	 *          interface number returned by {@link #addInterface}
+	 * @param timestampInNanos
+	 *          time the statistics were taken, in nanos since epoch
+	 * @param received
+	 *          packets received or {@link PcapNgInterface#UNKNOWN}
+	 * @param dropped
+	 *          packets dropped or {@link PcapNgInterface#UNKNOWN}
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void writeStatistics(int interfaceId, long timestampInNanos,
+	    long received, long dropped) throws IOException {
+		final PcapNgInterface iface = getInterface(interfaceId);
+		final boolean r = received != PcapNgInterface.UNKNOWN;
+		final boolean d = dropped != PcapNgInterface.UNKNOWN;
+
+		int options = ((r) ? 12 : 0) + ((d) ? 12 : 0);
+		options += (options != 0) ? 4 : 0;
+
+		final int length = 24 + options;
+		final long ts = iface.fromNanos(timestampInNanos);
+
+		reserve(length);
+
+		buffer.putInt(PcapNgReader.BLOCK_ISB).putInt(length);
+		buffer.putInt(interfaceId);
+		buffer.putInt((int) (ts >>> 32)).putInt((int) ts);
+
+		if (r) {
+			buffer.putShort((short) PcapNgReader.OPT_ISB_IFRECV).putShort((short) 8);
+			buffer.putLong(received);
+		}
+
+		if (d) {
+			buffer.putShort((short) PcapNgReader.OPT_ISB_IFDROP).putShort((short) 8);
+			buffer.putLong(dropped);
+		}
+
+		if (options != 0) {
+			buffer.putInt(PcapNgReader.OPT_ENDOFOPT);
+		}
+
+		buffer.putInt(length);
+
+		iface.setStatistics(timestampInNanos, received, dropped);
+	}
+}
@@ -162,6 +162,40 @@ public final class PcapUtils {
 		};
 	}
 
+	/**
+	 * Runs the capture loop in a background thread and fans the captured
+	 * packets out to a number of worker threads. Packets are assigned to workers
+	 * using a direction independent hash of their flow key, so that all packets
+	 * of a flow are delivered to the same worker in capture order. The function
+	 * returns immediately and returns a task from which the user can interact
+	 * with the background threads.
+	 * 
+	 * @param <T>
+	 *          user supplied type
+	 * @param pcap
+	 *          an open pcap object
+	 * @param cnt
+	 *          number of packets to capture and exit, 0 for infinate
+	 * @param workers
+	 *          number of worker threads to fan packets out to
+	 * @param handler
+	 *          user supplied callback handler, called from all the worker threads
+	 * @param data
+	 *          opaque, user supplied data object dispatched back to the handler
+	 * @return a task object which allows interaction with the underlying capture
+	 *         loop and threads
+	 * @see PcapFanoutTask
+	 */
+	public static <T> PcapFanoutTask<T> fanoutInBackground(
+	    Pcap pcap,
+	    int cnt,
+	    int workers,
+	    PcapPacketHandler<T> handler,
+	    T data) {
+
+		return new PcapFanoutTask<T>(pcap, cnt, workers, handler, data);
+	}
+
 	/**
 	 * Retrieves a network hardware address or MAC for a network interface.
 	 * 
@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.jnetpcap.nio.JBuffer;
+import org.jnetpcap.packet.JPacket;
+
+/**
+ * Writes packets to a ring of classic pcap files. A new file is started once
+ * the current one reaches a size, a number of packets or spans a number of
+ * seconds, whichever comes first. Only the most recent files are kept, older
+ * ones are deleted as new ones are started. Files are named
+ * <code>prefix-NNNNNN.pcap</code> after a sequence number, within the
+ * directory given.
+ * <p>
+ * Optionally, every file gets a sidecar {@link PcapIndex} which records the
+ * timestamp, file offset and flow hash of every Nth record. The index is
+ * written when its file is completed and allows a time window to be found
+ * later on, without reading the whole file.
+ * </p>
+ * <p>
+ * Rotation by time uses packet timestamps, not the wall clock, so a rotating
+ * dumper behaves the same whether it is fed live or from a file. Records are
+ * buffered and written with a single call per buffer. This class is not thread
+ * safe.
+ * </p>
+ * 
+ * <pre>
+ * RotatingPcapDumper dumper = new RotatingPcapDumper(new File(&quot;/var/capture&quot;),
+ *     &quot;eth0&quot;, PcapDLT.EN10MB.value, 65535);
+ * dumper.setMaxBytes(100 * 1024 * 1024); // 100MB per file
+ * dumper.setMaxSeconds(60); // but no more than a minute per file
+ * dumper.setMaxFiles(10); // keep last 10 files
+ * dumper.setIndexInterval(1); // index every packet
+ * </pre>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ * @see PcapIndex
+ */
+public class RotatingPcapDumper
+    implements Closeable, Flushable {
+
+	/** Default size of the write buffer. */
+	public final static int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	/** The buffer. */
+	private final ByteBuffer buffer;
+
+	/** Channel of the current file or null. */
+	private FileChannel channel;
+
+	/** True once closed. */
+	private boolean closed;
+
+	/** The current file or null. */
+	private File current;
+
+	/** Directory files are created in. */
+	private final File directory;
+
+	/** Bytes in the current file, including buffered bytes. */
+	private long fileBytes;
+
+	/** Retained files, oldest first. */
+	private final Deque<File> files = new ArrayDeque<File>();
+
+	/** Timestamp seconds of the first packet in the current file. */
+	private long fileFirstSecond;
+
+	/** Packets in the current file. */
+	private long filePackets;
+
+	/** Index of the current file or null. */
+	private PcapIndex index;
+
+	/** Index interval of the current file, fixed when the file is started. */
+	private int fileIndexInterval;
+
+	/** Every how many packets an index entry is made, 0 for no index. */
+	private int indexInterval;
+
+	/** Link type. */
+	private final int linktype;
+
+	/** Maximum bytes per file, 0 for unlimited. */
+	private long maxBytes;
+
+	/** Number of files to keep, 0 to keep all. */
+	private int maxFiles;
+
+	/** Maximum packets per file, 0 for unlimited. */
+	private long maxPackets;
+
+	/** Maximum seconds spanned by a file, 0 for unlimited. */
+	private long maxSeconds;
+
+	/** File name prefix. */
+	private final String prefix;
+
+	/** Sequence number of the next file. */
+	private int sequence;
+
+	/** Snapshot length. */
+	private final int snaplen;
+
+	/**
+	 * Creates a rotating dumper. No files are created until the first packet is
+	 * dumped.
+	 * 
+	 * @param directory
+	 *          directory to create files in
+	 * @param prefix
+	 *          file name prefix
+	 * @param linktype
+	 *          link type (DLT) of the packets
+	 * @param snaplen
+	 *          snapshot length
+	 */
+	public RotatingPcapDumper(File directory, String prefix, int linktype,
+	    int snaplen) {
+		if (snaplen <= 0) {
+			throw new IllegalArgumentException("invalid snaplen " + snaplen);
+		}
+
+		this.directory = directory;
+		this.prefix = prefix;
+		this.linktype = linktype;
+		this.snaplen = snaplen;
+
+		this.buffer = ByteBuffer.allocateDirect(Math.max(DEFAULT_BUFFER_SIZE,
+		    MappedPcapReader.FILE_HEADER_LENGTH
+		        + MappedPcapReader.RECORD_HEADER_LENGTH + snaplen));
+		this.buffer.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Completes the current file and stops the dumper.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		closeFile();
+	}
+
+	/**
+	 * Flushes and closes the current file and writes its index.
+	 */
+	private void closeFile() throws IOException {
+		if (channel == null) {
+			return;
+		}
+
+		try {
+			flush();
+		} finally {
+			channel.close();
+			channel = null;
+		}
+
+		if (index != null) {
+			index.setFileSize(fileBytes);
+			index.write(PcapIndex.getIndexFile(current));
+			index = null;
+		}
+	}
+
+	/**
+	 * Deletes a file and its index.
+	 */
+	private static void delete(File file) {
+		file.delete();
+		PcapIndex.getIndexFile(file).delete();
+	}
+
+	/**
+	 * Writes a record without a flow hash.
+	 * 
+	 * @param header
+	 *          capture header
+	 * @param packet
+	 *          packet data
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void dump(JCaptureHeader header, JBuffer packet) throws IOException {
+		dump(header, packet, 0);
+	}
+
+	/**
+	 * Writes a record.
+	 * 
+	 * @param header
+	 *          capture header
+	 * @param packet
+	 *          packet data
+	 * @param flowHash
+	 *          flow hash recorded in the index
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void dump(JCaptureHeader header, JBuffer packet, int flowHash)
+	    throws IOException {
+		if (closed) {
+			throw new IOException("dumper closed");
+		}
+
+		final int caplen =
+		    Math.min(Math.min(header.caplen(), packet.size()), snaplen);
+		final int length = MappedPcapReader.RECORD_HEADER_LENGTH + caplen;
+		final long seconds = header.seconds();
+
+		if (channel == null
+		    || (maxPackets > 0 && filePackets >= maxPackets)
+		    || (maxBytes > 0 && filePackets > 0 && fileBytes + length > maxBytes)
+		    || (maxSeconds > 0 && filePackets > 0
+		        && seconds - fileFirstSecond >= maxSeconds)) {
+			rotate();
+		}
+
+		if (filePackets == 0) {
+			fileFirstSecond = seconds;
+		}
+
+		if (index != null && filePackets % fileIndexInterval == 0) {
+			index.add(seconds * 1000000L + header.nanos() / 1000, fileBytes,
+			    flowHash);
+		}
+
+		reserve(length);
+		buffer.putInt((int) seconds);
+		buffer.putInt((int) (header.nanos() / 1000));
+		buffer.putInt(caplen);
+		buffer.putInt(header.wirelen());
+		packet.transferTo(buffer, 0, caplen);
+
+		fileBytes += length;
+		filePackets++;
+	}
+
+	/**
+	 * Writes a packet, using its capture header. If the packet has been
+	 * scanned, its symmetric flow hash is recorded in the index.
+	 * 
+	 * @param packet
+	 *          packet to write
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void dump(JPacket packet) throws IOException {
+		final int hash =
+		    ((indexInterval > 0 || index != null)
+		        && packet.getState().isInitialized() && packet.getHeaderCount() > 0)
+		        ? packet.getFlowKey().symmetricHash() : 0;
+
+		dump(packet.getCaptureHeader(), packet, hash);
+	}
+
+	/**
+	 * Writes all buffered records to the current file.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void flush() throws IOException {
+		if (channel == null) {
+			buffer.clear();
+			return;
+		}
+
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			buffer.compact();
+		}
+	}
+
+	/**
+	 * Gets the file currently being written.
+	 * 
+	 * @return the file or null if no packets have been dumped yet
+	 */
+	public File getCurrentFile() {
+		return current;
+	}
+
+	/**
+	 * Gets the files written and not yet deleted, oldest first, including the
+	 * current file.
+	 * 
+	 * @return list of files
+	 */
+	public List<File> getFiles() {
+		return new ArrayList<File>(files);
+	}
+
+	/**
+	 * Gets the index interval.
+	 * 
+	 * @return every how many packets an index entry is made, 0 for no index
+	 */
+	public int getIndexInterval() {
+		return indexInterval;
+	}
+
+	/**
+	 * Gets the maximum file size.
+	 * 
+	 * @return bytes, 0 for unlimited
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Gets the number of files kept.
+	 * 
+	 * @return number of files, 0 to keep all
+	 */
+	public int getMaxFiles() {
+		return maxFiles;
+	}
+
+	/**
+	 * Gets the maximum number of packets per file.
+	 * 
+	 * @return packets, 0 for unlimited
+	 */
+	public long getMaxPackets() {
+		return maxPackets;
+	}
+
+	/**
+	 * Gets the maximum number of seconds spanned by a file.
+	 * 
+	 * @return seconds, 0 for unlimited
+	 */
+	public long getMaxSeconds() {
+		return maxSeconds;
+	}
+
+	/**
+	 * Makes room in the buffer for a record.
+	 */
+	private void reserve(int length) throws IOException {
+		if (buffer.remaining() < length) {
+			flush();
+		}
+	}
+
+	/**
+	 * Completes the current file, if any, and starts the next one. Files beyond
+	 * the number of files to keep are deleted, oldest first.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void rotate() throws IOException {
+		if (closed) {
+			throw new IOException("dumper closed");
+		}
+
+		closeFile();
+
+		current = new File(directory, String.format("%s-%06d.pcap", prefix,
+		    sequence++));
+		channel = new FileOutputStream(current).getChannel();
+		files.addLast(current);
+
+		buffer.putInt(MappedPcapReader.MAGIC_MICROS);
+		buffer.putShort((short) 2).putShort((short) 4);
+		buffer.putInt(0).putInt(0);
+		buffer.putInt(snaplen).putInt(linktype);
+
+		fileBytes = MappedPcapReader.FILE_HEADER_LENGTH;
+		filePackets = 0;
+		fileIndexInterval = indexInterval;
+		index = (fileIndexInterval > 0) ? new PcapIndex() : null;
+
+		while (maxFiles > 0 && files.size() > maxFiles) {
+			delete(files.removeFirst());
+		}
+	}
+
+	/**
+	 * Sets every how many packets an index entry is made. Takes effect with the
+	 * next file.
+	 * 
+	 * @param interval
+	 *          number of packets, 1 to index every packet, 0 for no index
+	 */
+	public void setIndexInterval(int interval) {
+		if (interval < 0) {
+			throw new IllegalArgumentException("invalid interval " + interval);
+		}
+
+		this.indexInterval = interval;
+	}
+
+	/**
+	 * Sets the maximum file size. A file always holds at least one record.
+	 * 
+	 * @param maxBytes
+	 *          bytes, 0 for unlimited
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Sets the number of files to keep.
+	 * 
+	 * @param maxFiles
+	 *          number of files, 0 to keep all
+	 */
+	public void setMaxFiles(int maxFiles) {
+		this.maxFiles = maxFiles;
+	}
+
+	/**
+	 * Sets the maximum number of packets per file.
+	 * 
+	 * @param maxPackets
+	 *          packets, 0 for unlimited
+	 */
+	public void setMaxPackets(long maxPackets) {
+		this.maxPackets = maxPackets;
+	}
+
+	/**
+	 * Sets the maximum number of seconds, by packet timestamps, spanned by a
+	 * file.
+	 * 
+	 * @param maxSeconds
+	 *          seconds, 0 for unlimited
+	 */
+	public void setMaxSeconds(long maxSeconds) {
+		this.maxSeconds = maxSeconds;
+	}
+}
@@ -492,6 +492,16 @@ public abstract class JMemory {
 	 */
 	long physical;
 
+	/**
+	 * Number of bytes this object was given out of a {@link JMemoryPool} block.
+	 * Zero if this object was not the target of a pool allocation. Objects that
+	 * are only peered with pool memory never return it to the pool.
+	 */
+	private int pooled = 0;
+
+	/** Block the pooled bytes were allocated out of, or null. */
+	private JMemoryPool.Block pooledBlock;
+
 	/** The ref. */
 	private JMemoryReference ref = null;
 
@@ -619,6 +629,8 @@ public abstract class JMemory {
 	 * necessary.
 	 */
 	protected void cleanup() {
+		freePooled();
+
 		if (ref != null) {
 			this.ref.dispose();
 			if (this.ref != null) {
@@ -632,6 +644,25 @@ public abstract class JMemory {
 		this.size = 0;
 	}
 
+	/**
+	 * Returns memory this object was given out of a {@link JMemoryPool} block
+	 * back to the block. Called whenever this object lets go of its memory,
+	 * either when it is peered with different memory, given a new pool
+	 * allocation or cleaned up. Otherwise an object reused for many copies
+	 * would keep every block it was ever given from being recycled.
+	 */
+	private void freePooled() {
+		if (pooledBlock != null) {
+			final JMemoryPool.Block block = pooledBlock;
+			final int length = pooled;
+
+			this.pooledBlock = null;
+			this.pooled = 0;
+
+			block.free((int) (physical - block.physical), length);
+		}
+	}
+
 	/**
 	 * Creates a cleanup/dispose weak reference object. This reference object is
 	 * responsible for cleanup, after the actual JMemory object is garbage
@@ -758,7 +789,7 @@ public abstract class JMemory {
 	protected int peer(JMemory peer, int offset, int length)
 			throws IndexOutOfBoundsException {
 
-		if (offset < 0 || length < 0 || offset + length > peer.size) {
+		if (offset < 0 || length < 0 || length > peer.size - offset) {
 			throw new IndexOutOfBoundsException("Invalid [" + offset + ","
 					+ (offset + length) + "," + length + ") range.\n" + toDebugString());
 		}
@@ -793,6 +824,10 @@ public abstract class JMemory {
 			cleanup();
 		}
 
+		/*
+		 * When peered with the same address again, any pool allocation is still
+		 * the memory being used and is kept until this object lets go of it.
+		 */
 		this.physical = peerAddress;
 		this.size = length;
 
@@ -815,6 +850,42 @@ public abstract class JMemory {
 		return size;
 	}
 
+	/**
+	 * Peers this object with memory just allocated out of a pool block and
+	 * records the allocation so that it can be returned to the block. Any
+	 * previous pool allocation held by this object is returned first.
+	 * 
+	 * @param block
+	 *          block the memory was allocated out of
+	 * @param offset
+	 *          offset of the allocation within the block
+	 * @param length
+	 *          number of bytes allocated
+	 */
+	void peerPooled(JMemoryPool.Block block, int offset, int length) {
+		peer(block, offset, length);
+
+		this.pooledBlock = block;
+		this.pooled = length;
+	}
+
+	/**
+	 * Releases memory held by this object immediately, instead of waiting for
+	 * garbage collection. If this object was given memory out of a
+	 * {@link JMemoryPool}, the memory is returned to its block and once every
+	 * allocation out of that block has been released, the entire block is
+	 * recycled by the pool. If this object owns its memory, the memory is
+	 * deallocated. In all cases this object is reset to un-peered state.
+	 * <p>
+	 * Pool memory is also returned when this object is peered with other memory
+	 * or given a new pool allocation. Any other objects that were peered with
+	 * the same memory, must not be used after it has been released.
+	 * </p>
+	 */
+	public void release() {
+		cleanup();
+	}
+
 	/**
 	 * Changes the size of the current memory buffer. The size can only be reduced
 	 * in length and can not grow. The method throws exceptions if size parameter
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.nio;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A memory pool which gives every thread its own arena of memory blocks. Each
+ * thread sub allocates, using a simple bump pointer, out of a block that only it
+ * ever allocates from. No locks are taken on the allocation path, so multiple
+ * capture threads which deep copy packets do not serialize on each other.
+ * <p>
+ * To use the arena pool for all packet copies, replace the packet's default
+ * pool:
+ * 
+ * <pre>
+ * JPacket.setMemoryPool(new JMemoryArenaPool());
+ * </pre>
+ * 
+ * </p>
+ * <p>
+ * Just like with the regular pool, a block is deallocated once every JMemory
+ * object that received any of its memory has been garbage collected. Blocks are
+ * therefore released in bulk, one block at a time. A thread can give up its
+ * current, partially used block early using {@link #releaseArena()}, which is
+ * useful when a thread is done capturing but keeps running.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JMemoryArenaPool extends JMemoryPool {
+
+	/**
+	 * Per thread allocation state. Only the owning thread modifies an arena.
+	 * The counters are read by other threads for statistics only.
+	 * 
+	 * @author Sly Technologies, Inc.
+	 */
+	private static class Arena {
+
+		/** Current block owned by the thread. */
+		private Block block;
+
+		/** Number of allocations out of this arena. */
+		private volatile long allocationCount;
+
+		/** Number of blocks allocated by this arena. */
+		private volatile long blockCount;
+
+		/** Thread owning this arena. */
+		private final WeakReference<Thread> owner;
+
+		/**
+		 * Creates an arena for the current thread.
+		 */
+		public Arena() {
+			this.owner = new WeakReference<Thread>(Thread.currentThread());
+		}
+
+		/**
+		 * Checks if the owning thread is still running.
+		 * 
+		 * @return true if thread is alive, otherwise false
+		 */
+		public boolean isAlive() {
+			final Thread t = owner.get();
+
+			return t != null && t.isAlive();
+		}
+	}
+
+	/** Arena of the calling thread. */
+	private final ThreadLocal<Arena> arena = new ThreadLocal<Arena>() {
+
+		@Override
+		protected Arena initialValue() {
+			final Arena a = new Arena();
+			register(a);
+
+			return a;
+		}
+	};
+
+	/** All known arenas, used for collecting statistics. */
+	private final CopyOnWriteArrayList<Arena> arenas =
+			new CopyOnWriteArrayList<Arena>();
+
+	/** Counters of arenas whose threads have since exited. */
+	private long retiredAllocationCount;
+
+	/** Counters of arenas whose threads have since exited. */
+	private long retiredBlockCount;
+
+	/**
+	 * Uses default block size.
+	 */
+	public JMemoryArenaPool() {
+		super();
+	}
+
+	/**
+	 * Allocates per thread blocks in specified size.
+	 * 
+	 * @param defaultBlockSize
+	 *          minimum memory block allocation size
+	 */
+	public JMemoryArenaPool(final int defaultBlockSize) {
+		super(defaultBlockSize);
+	}
+
+	/**
+	 * Sub allocates out of the calling thread's own block without locking it.
+	 * 
+	 * @param block
+	 *          block returned by {@link #getBlock(int)}
+	 * @param size
+	 *          number of bytes
+	 * @return offset into the block where the allocated memory begins
+	 */
+	@Override
+	protected int allocate(final Block block, final int size) {
+		final Arena a = arena.get();
+		a.allocationCount++;
+
+		return block.allocate0(size);
+	}
+
+	/**
+	 * Gets the number of threads that currently have an arena in this pool.
+	 * 
+	 * @return number of arenas
+	 */
+	public int getArenaCount() {
+		return arenas.size();
+	}
+
+	/**
+	 * Gets the total number of allocations out of all the arenas.
+	 * 
+	 * @return number of allocations
+	 */
+	@Override
+	public long getAllocationCount() {
+		long count = retiredAllocationCount;
+		for (Arena a : arenas) {
+			count += a.allocationCount;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Gets the total number of blocks allocated by all the arenas.
+	 * 
+	 * @return number of blocks
+	 */
+	@Override
+	public long getBlockCount() {
+		long count = retiredBlockCount;
+		for (Arena a : arenas) {
+			count += a.blockCount;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Gets the calling thread's current block, allocating a new one if the
+	 * current block can not hold size bytes.
+	 * 
+	 * @param size
+	 *          minimum available amount of memory in a block
+	 * @return block owned by the calling thread
+	 */
+	@Override
+	public Block getBlock(int size) {
+
+		/* Align to an even boundary */
+		size += (size % BUS_WIDTH);
+
+		final Arena a = arena.get();
+		if (a.block == null || a.block.available() < size) {
+			if (a.block != null) {
+				a.block.retire();
+			}
+
+			a.block = newBlock(size);
+			a.blockCount++;
+		}
+
+		return a.block;
+	}
+
+	/**
+	 * Arena allocations do not lock.
+	 */
+	@Override
+	protected void lock() {
+		// Empty
+	}
+
+	/**
+	 * Adds a new arena to the list and drops arenas of threads that are no
+	 * longer alive, keeping their counters.
+	 * 
+	 * @param a
+	 *          new arena
+	 */
+	private synchronized void register(final Arena a) {
+		final Iterator<Arena> i = arenas.iterator();
+		while (i.hasNext()) {
+			final Arena old = i.next();
+			if (old.isAlive() == false) {
+				retiredAllocationCount += old.allocationCount;
+				retiredBlockCount += old.blockCount;
+				arenas.remove(old);
+			}
+		}
+
+		arenas.add(a);
+	}
+
+	/**
+	 * Releases the calling thread's current block. No memory is freed
+	 * immediately; the block is recycled once all allocations out of it have
+	 * been released, or deallocated once all memory objects that were given
+	 * memory out of it are garbage collected. The next allocation by this
+	 * thread will start with a new block.
+	 */
+	public void releaseArena() {
+		final Arena a = arena.get();
+		if (a.block != null) {
+			a.block.retire();
+			a.block = null;
+		}
+	}
+
+	/**
+	 * Arena allocations do not lock.
+	 */
+	@Override
+	protected void unlock() {
+		// Empty
+	}
+
+	/**
+	 * Debug string.
+	 * 
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		return "JMemoryArenaPool[arenas=" + getArenaCount() + ", allocations="
+				+ getAllocationCount() + ", blocks=" + getBlockCount() + "]";
+	}
+}
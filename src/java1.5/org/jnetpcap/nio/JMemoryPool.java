@@ -21,6 +21,10 @@ package org.jnetpcap.nio;
 import java.nio.ByteBuffer;
 import java.sql.Time;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jnetpcap.nio.JMemory.Type;
 
@@ -42,6 +46,22 @@ import org.jnetpcap.nio.JMemory.Type;
  * the memory management is done completely behind the scene, very efficiently
  * and automatically using java's garbage collection mechanism.
  * </p>
+ * <p>
+ * All allocations out of a single pool are serialized on a lock. The pool keeps
+ * track of how many times that lock was found already held by another thread,
+ * which can be checked with {@link #getContentionCount()}. When several
+ * capture threads copy packets at the same time, {@link JMemoryArenaPool}
+ * gives each thread its own blocks and avoids the lock all together.
+ * </p>
+ * <p>
+ * Memory can also be given back explicitly with {@link JMemory#release()}.
+ * Each block keeps count of bytes still in use. Once the pool has moved on to
+ * a new block and every allocation out of the old block has been released, the
+ * old block is reset and put on a bounded free list to be reused for the next
+ * block, instead of waiting for garbage collection to free it. Blocks which
+ * still have unreleased allocations are reclaimed by the garbage collector as
+ * before.
+ * </p>
  * 
  * @author Sly Technologies, Inc.
  */
@@ -64,6 +84,16 @@ public class JMemoryPool {
 		/** The created on. */
 		private final long createdOn;
 
+		/**
+		 * Bytes still in use out of this block, plus 1 for as long as the pool
+		 * is allocating out of this block. Reaching 0 means the block can be
+		 * recycled.
+		 */
+		private final AtomicInteger live = new AtomicInteger(1);
+
+		/** Pool that recycles this block, or null if block is not recyclable. */
+		private JMemoryPool pool;
+
 		/**
 		 * Constructor for allocating a block of a requested size.
 		 * 
@@ -76,6 +106,19 @@ public class JMemoryPool {
 			this.createdOn = System.currentTimeMillis();
 		}
 
+		/**
+		 * Allocates a recyclable block for a pool.
+		 * 
+		 * @param size
+		 *          number of bytes to allocate for this block
+		 * @param pool
+		 *          pool to return this block to once its been fully released
+		 */
+		Block(final int size, final JMemoryPool pool) {
+			this(size);
+			this.pool = pool;
+		}
+
 		/**
 		 * Peers this block with another memory object.
 		 * 
@@ -95,6 +138,20 @@ public class JMemoryPool {
 		 * @return offset into the buffer where the allocated memory begins
 		 */
 		public synchronized int allocate(int size) {
+			return allocate0(size);
+		}
+
+		/**
+		 * Allocates without synchronizing on the block. Used when the block is
+		 * owned by a single thread or is already guarded by the pool.
+		 * 
+		 * @param size
+		 *          number of bytes
+		 * @return offset into the buffer where the allocated memory begins or -1
+		 *         if not enough memory is available
+		 */
+		int allocate0(int size) {
+			final int requested = size;
 
 			/* Align to an even boundary */
 			size += (size % BUS_WIDTH);
@@ -106,9 +163,20 @@ public class JMemoryPool {
 			this.available -= size;
 			this.current += size;
 
+			this.live.addAndGet(requested);
+
 			return allocated;
 		}
 
+		/**
+		 * Gets the number of bytes still available for allocation in this block.
+		 * 
+		 * @return number of bytes
+		 */
+		public int available() {
+			return this.available;
+		}
+
 		/**
 		 * Frees the existing memory to be put back in the memory pool.
 		 * 
@@ -118,7 +186,42 @@ public class JMemoryPool {
 		 *          the length
 		 */
 		public void free(final int offset, final int length) {
-			// Do nothing for now
+			if (length > 0 && this.live.addAndGet(-length) == 0) {
+				recycle();
+			}
+		}
+
+		/**
+		 * Hands the block back to its pool, if it has one.
+		 */
+		private void recycle() {
+			if (this.pool != null) {
+				this.pool.recycle(this);
+			}
+		}
+
+		/**
+		 * Resets the block for reuse.
+		 */
+		void reset() {
+			this.current = 0;
+			this.available = size();
+			this.live.set(1);
+		}
+
+		/**
+		 * Called by the pool when it stops allocating out of this block. The
+		 * block will be recycled as soon as everything allocated out of it has
+		 * been released.
+		 */
+		void retire() {
+			if (this.pool != null) {
+				this.pool.retired(this);
+			}
+
+			if (this.live.decrementAndGet() == 0) {
+				recycle();
+			}
 		}
 
 		/**
@@ -148,7 +251,7 @@ public class JMemoryPool {
 	 * hardware architecture. We use the BUS_WIDTH to align our allocated memory
 	 * on that boundary.
 	 */
-	private final static int BUS_WIDTH = JNumber.Type.INT.size;
+	final static int BUS_WIDTH = JNumber.Type.INT.size;
 
 	/**
 	 * Default block size. JMemoryPool allocates memory in a large block which
@@ -157,6 +260,12 @@ public class JMemoryPool {
 	 */
 	public static final int DEFAULT_BLOCK_SIZE = 32 * 1024;
 
+	/**
+	 * Default maximum number of fully released blocks kept on the free list for
+	 * reuse.
+	 */
+	public static final int DEFAULT_MAX_RECYCLED_BLOCKS = 16;
+
 	/** The default pool. */
 	private static JMemoryPool defaultPool;
 
@@ -192,6 +301,40 @@ public class JMemoryPool {
 	 */
 	private Block block;
 
+	/** Guards the active block and counters. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Number of allocate and duplicate calls made on this pool. */
+	private long allocationCount;
+
+	/** Number of blocks allocated by this pool. */
+	private long blockCount;
+
+	/** Number of times the lock was already held by another thread. */
+	private long contentionCount;
+
+	/** Fully released blocks ready for reuse. */
+	private final ConcurrentLinkedQueue<Block> recycled =
+			new ConcurrentLinkedQueue<Block>();
+
+	/** Number of blocks on the free list. */
+	private final AtomicInteger recycledSize = new AtomicInteger();
+
+	/** Maximum number of blocks kept on the free list. */
+	private volatile int maxRecycledBlocks = DEFAULT_MAX_RECYCLED_BLOCKS;
+
+	/** Number of blocks put on the free list. */
+	private final AtomicLong recycleCount = new AtomicLong();
+
+	/** Number of blocks taken off the free list instead of being allocated. */
+	private final AtomicLong reuseCount = new AtomicLong();
+
+	/** Total size of blocks the pool has stopped allocating from. */
+	private final AtomicLong retiredBytes = new AtomicLong();
+
+	/** Bytes left unallocated at the end of blocks when they were retired. */
+	private final AtomicLong wastedBytes = new AtomicLong();
+
 	/**
 	 * Current default block size when creating new memory blocks. This is user
 	 * modifiable.
@@ -224,12 +367,31 @@ public class JMemoryPool {
 	 * @param memory
 	 *          memory pointer
 	 */
-	public synchronized void allocate(final int size, final JMemory memory) {
+	public void allocate(final int size, final JMemory memory) {
+		lock();
+		try {
+			final Block block = getBlock(size);
+			final int offset = allocate(block, size);
+
+			memory.peerPooled(block, offset, size);
+		} finally {
+			unlock();
+		}
+	}
 
-		final Block block = getBlock(size);
-		final int offset = block.allocate(size);
+	/**
+	 * Sub allocates memory out of a block returned by {@link #getBlock(int)}.
+	 * 
+	 * @param block
+	 *          block big enough to hold size bytes
+	 * @param size
+	 *          number of bytes
+	 * @return offset into the block where the allocated memory begins
+	 */
+	protected int allocate(final Block block, final int size) {
+		allocationCount++;
 
-		memory.peer(block, offset, size);
+		return block.allocate0(size);
 	}
 
 	/**
@@ -257,14 +419,19 @@ public class JMemoryPool {
 	 *          memory pointed to by src
 	 * @return number of bytes duplicated
 	 */
-	public synchronized int duplicate(JMemory src, JMemory dst) {
-		final Block block = getBlock(src.size);
-		final int offset = block.allocate(src.size);
-
-		src.transferTo(block, 0, src.size, offset);
-		dst.peer(block, offset, src.size);
-
-		return src.size;
+	public int duplicate(JMemory src, JMemory dst) {
+		lock();
+		try {
+			final Block block = getBlock(src.size);
+			final int offset = allocate(block, src.size);
+
+			src.transferTo(block, 0, src.size, offset);
+			dst.peerPooled(block, offset, src.size);
+
+			return src.size;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -285,7 +452,7 @@ public class JMemoryPool {
 	 *          length of peer
 	 * @return total number of bytes duplicated
 	 */
-	public synchronized int duplicate2(JMemory src1,
+	public int duplicate2(JMemory src1,
 			JMemory src2,
 			JMemory dst1,
 			JMemory dst2) {
@@ -294,16 +461,21 @@ public class JMemoryPool {
 
 		final int size = src1.size + src2.size;
 
-		final Block block = getBlock(size);
-		final int offset = block.allocate(size);
+		lock();
+		try {
+			final Block block = getBlock(size);
+			final int offset = allocate(block, size);
 
-		int o = src1.transferTo(block, 0, size1, offset);
-		src2.transferTo(block, 0, size2, offset + o);
+			int o = src1.transferTo(block, 0, size1, offset);
+			src2.transferTo(block, 0, size2, offset + o);
 
-		dst1.peer(block, offset, size1);
-		dst2.peer(block, offset + o, size2);
+			dst1.peerPooled(block, offset, size1);
+			dst2.peerPooled(block, offset + o, size2);
 
-		return size;
+			return size;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -324,7 +496,7 @@ public class JMemoryPool {
 	 *          length of peer
 	 * @return total number of bytes duplicated
 	 */
-	public synchronized int duplicate2(JMemory src1,
+	public int duplicate2(JMemory src1,
 			ByteBuffer src2,
 			JMemory dst1,
 			JMemory dst2) {
@@ -334,16 +506,21 @@ public class JMemoryPool {
 
 		final int size = size1 + size2;
 
-		final Block block = getBlock(size);
-		final int offset = block.allocate(size);
+		lock();
+		try {
+			final Block block = getBlock(size);
+			final int offset = allocate(block, size);
 
-		int o = src1.transferTo(block, 0, size1, offset);
-		block.transferFrom(src2, offset + o);
+			int o = src1.transferTo(block, 0, size1, offset);
+			block.transferFrom(src2, offset + o);
 
-		dst1.peer(block, offset, size1);
-		dst2.peer(block, offset + o, size2);
+			dst1.peerPooled(block, offset, size1);
+			dst2.peerPooled(block, offset + o, size2);
 
-		return size;
+			return size;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -357,18 +534,41 @@ public class JMemoryPool {
 	 *          memory pointed to by src
 	 * @return number of bytes duplicated
 	 */
-	public synchronized int duplicate(ByteBuffer src, JMemory dst) {
+	public int duplicate(ByteBuffer src, JMemory dst) {
 
 		final int size = src.limit() - src.position();
 
-		final Block block = getBlock(size);
-		final int offset = block.allocate(size);
+		lock();
+		try {
+			final Block block = getBlock(size);
+			final int offset = allocate(block, size);
 
-		block.transferFrom(src, offset);
+			block.transferFrom(src, offset);
 
-		dst.peer(block, offset, size);
+			dst.peerPooled(block, offset, size);
 
-		return size;
+			return size;
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Acquires the pool lock before an allocation. Counts every time the lock
+	 * is found to be held by another thread.
+	 */
+	protected void lock() {
+		if (lock.tryLock() == false) {
+			lock.lock();
+			contentionCount++;
+		}
+	}
+
+	/**
+	 * Releases the pool lock after an allocation.
+	 */
+	protected void unlock() {
+		lock.unlock();
 	}
 
 	/**
@@ -391,11 +591,21 @@ public class JMemoryPool {
 		/* Align to an even boundary */
 		size += (size % BUS_WIDTH);
 
-		if (this.block == null || this.block.available < size) {
-			this.block = newBlock(size);
-		}
+		lock();
+		try {
+			if (this.block == null || this.block.available < size) {
+				if (this.block != null) {
+					this.block.retire();
+				}
+
+				this.block = newBlock(size);
+				blockCount++;
+			}
 
-		return this.block;
+			return this.block;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -406,9 +616,56 @@ public class JMemoryPool {
 	 *          minimum number of bytes to allocate
 	 * @return a new block to be used for allocations
 	 */
-	private Block newBlock(final int atLeastInSize) {
-		return new Block((atLeastInSize > this.blockSize) ? atLeastInSize
-				: this.blockSize);
+	protected Block newBlock(final int atLeastInSize) {
+		final int blockSize = getBlockSize();
+
+		if (atLeastInSize <= blockSize) {
+			Block block;
+			while ((block = recycled.poll()) != null) {
+				recycledSize.decrementAndGet();
+
+				/* Block size may have been changed since block was recycled */
+				if (block.size() == blockSize) {
+					reuseCount.incrementAndGet();
+					return block;
+				}
+			}
+		}
+
+		return new Block((atLeastInSize > blockSize) ? atLeastInSize : blockSize,
+				this);
+	}
+
+	/**
+	 * Puts a fully released block on the free list, if there is room and the
+	 * block is of the standard size. Otherwise the block is dropped and left for
+	 * the garbage collector.
+	 * 
+	 * @param block
+	 *          block with no more memory in use
+	 */
+	void recycle(final Block block) {
+		if (block.size() != getBlockSize()
+				|| recycledSize.incrementAndGet() > maxRecycledBlocks) {
+			recycledSize.decrementAndGet();
+			return;
+		}
+
+		block.reset();
+		recycled.offer(block);
+		recycleCount.incrementAndGet();
+	}
+
+	/**
+	 * Records fragmentation statistics for a block the pool no longer allocates
+	 * from.
+	 * 
+	 * @param block
+	 *          retired block
+	 */
+	void retired(final Block block) {
+		retiredBytes.addAndGet(block.size());
+		wastedBytes.addAndGet(block.available());
 	}
 
 	/**
@@ -429,6 +686,7 @@ public class JMemoryPool {
 	public static void shutdown() {
 		if (defaultPool != null) {
 			defaultPool.block = null;
+			defaultPool.recycled.clear();
 			defaultPool = null;
 		}
 	}
@@ -461,6 +719,116 @@ public class JMemoryPool {
 		return blockSize;
 	}
 
+	/**
+	 * Gets the number of allocate and duplicate requests made on this pool.
+	 * 
+	 * @return number of allocations
+	 */
+	public long getAllocationCount() {
+		return allocationCount;
+	}
+
+	/**
+	 * Gets the number of native memory blocks allocated by this pool.
+	 * 
+	 * @return number of blocks
+	 */
+	public long getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * Gets the number of times an allocation had to wait on another thread
+	 * that was allocating out of this pool at the same time.
+	 * 
+	 * @return number of contended allocations
+	 */
+	public long getContentionCount() {
+		return contentionCount;
+	}
+
+	/**
+	 * Gets the fraction of block memory that was never handed out, because
+	 * requests did not fit into the remainder of a block and a new block was
+	 * started instead.
+	 * 
+	 * @return value between 0.0 and 1.0
+	 */
+	public double getFragmentation() {
+		final long total = retiredBytes.get();
+
+		return (total == 0) ? 0. : (double) wastedBytes.get() / total;
+	}
+
+	/**
+	 * Gets the maximum number of fully released blocks kept for reuse.
+	 * 
+	 * @return maximum size of the free list
+	 */
+	public int getMaxRecycledBlocks() {
+		return maxRecycledBlocks;
+	}
+
+	/**
+	 * Gets the number of blocks that were fully released and put on the free
+	 * list.
+	 * 
+	 * @return number of recycled blocks
+	 */
+	public long getRecycleCount() {
+		return recycleCount.get();
+	}
+
+	/**
+	 * Gets the number of blocks currently on the free list.
+	 * 
+	 * @return number of blocks ready for reuse
+	 */
+	public int getRecycledBlocks() {
+		return recycledSize.get();
+	}
+
+	/**
+	 * Gets the number of new blocks that were taken off the free list instead
+	 * of being allocated.
+	 * 
+	 * @return number of reused blocks
+	 */
+	public long getReuseCount() {
+		return reuseCount.get();
+	}
+
+	/**
+	 * Gets the fraction of blocks that were served out of the free list.
+	 * 
+	 * @return value between 0.0 and 1.0
+	 */
+	public double getReuseRate() {
+		final long blocks = getBlockCount();
+
+		return (blocks == 0) ? 0. : (double) reuseCount.get() / blocks;
+	}
+
+	/**
+	 * Gets the number of bytes that were left unused at the end of blocks.
+	 * 
+	 * @return number of bytes
+	 */
+	public long getWastedBytes() {
+		return wastedBytes.get();
+	}
+
+	/**
+	 * Sets the maximum number of fully released blocks kept for reuse. Setting
+	 * it to 0 disables recycling.
+	 * 
+	 * @param max
+	 *          maximum size of the free list
+	 */
+	public void setMaxRecycledBlocks(int max) {
+		this.maxRecycledBlocks = max;
+	}
+
 	/**
 	 * Sets the current default block size when creating new memory blocks.
 	 * 
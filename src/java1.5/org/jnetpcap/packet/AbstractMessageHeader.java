@@ -20,7 +20,6 @@ package org.jnetpcap.packet;
 
 import org.jnetpcap.nio.JBuffer;
 import org.jnetpcap.packet.annotate.HeaderLength;
-import org.jnetpcap.util.JThreadLocal;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -51,6 +50,9 @@ public abstract class AbstractMessageHeader extends JMappedHeader {
 			'\n'
 	};
 
+	/** Size of the field name cache, must be a power of 2. */
+	private final static int NAME_CACHE_SIZE = 64;
+
 	/** The Constant VALID_CHARS. */
 	private final static String[] VALID_CHARS = {
 			"GET",
@@ -88,9 +90,11 @@ public abstract class AbstractMessageHeader extends JMappedHeader {
 	 * @return true, if successful
 	 */
 	private static boolean checkValidFirstChars(JBuffer buffer, int offset) {
-		final String first = buffer.getUTF8String(offset, 3);
+		final int b0 = buffer.getUByte(offset);
+		final int b1 = buffer.getUByte(offset + 1);
+		final int b2 = buffer.getUByte(offset + 2);
 		for (String c : VALID_CHARS) {
-			if (first.equals(c)) {
+			if (c.charAt(0) == b0 && c.charAt(1) == b1 && c.charAt(2) == b2) {
 				return true;
 			}
 		}
@@ -132,110 +136,428 @@ public abstract class AbstractMessageHeader extends JMappedHeader {
 	/** The message type. */
 	private MessageType messageType;
 
-	/** The string local. */
-	private final JThreadLocal<StringBuilder> stringLocal =
-			new JThreadLocal<StringBuilder>(StringBuilder.class);
+	/** Copy of the header bytes the field index was built from. */
+	private byte[] bytes = new byte[512];
+
+	/** Mapped field names seen by this header, indexed by hash of the name. */
+	private final String[] names = new String[NAME_CACHE_SIZE];
+
+	/** Number of names in the cache. */
+	private int nameCount;
 
-	/** The raw header. */
+	/**
+	 * The raw header. No longer created while decoding, it is null until
+	 * {@link #getRawHeader()} is first called on the decoded header, so
+	 * subclasses should read it through that method.
+	 */
 	protected String rawHeader;
 
 	/**
-	 * Decode first line.
+	 * Decode first line. Only called by the default implementation of
+	 * {@link #decodeFirstLine(int, int)}.
 	 * 
 	 * @param line
 	 *          the line
 	 */
-	protected abstract void decodeFirstLine(String line);
+	protected void decodeFirstLine(String line) {
+		// Empty
+	}
 
 	/**
-	 * Decode the http/sip header. First we need to convert raw bytes to a char's
-	 * we can deal with since Http/sip header is text based. Once converted we can
-	 * then accurately determine the Http/sip header length, type of request,
-	 * etc...
+	 * Decode first line of the message, directly from the header bytes. The
+	 * default implementation converts the line to a string and calls on
+	 * {@link #decodeFirstLine(String)}.
+	 * 
+	 * @param offset
+	 *          offset of the line within the header
+	 * @param length
+	 *          length of the line without the line terminator
+	 */
+	protected void decodeFirstLine(int offset, int length) {
+		decodeFirstLine(super.getUTF8String(offset, length));
+	}
+
+	/**
+	 * Decode the http/sip header. The header is scanned a byte at a time and
+	 * only the offsets of each field's name and value are recorded. Names are
+	 * mapped through a small cache kept with the header and values are not
+	 * converted to strings until accessed, so that decoding a header does not
+	 * generate any garbage once the header object has warmed up.
 	 */
 	@Override
 	protected void decodeHeader() {
 
 		super.clearFields();
+		rawHeader = null;
 
 		/*
-		 * Note: this parser is not really robust enough to parse entire syntax, but
-		 * has done OK job so far. We should plan on replacing it with at a more
-		 * robust tokenizer/parser that can handle all corner cases more efficiently
-		 * and reliably.
+		 * We already know the length of the header, so just get the raw bytes
 		 */
+		final int len = super.getLength();
+		if (bytes.length < len) {
+			bytes = new byte[len];
+		}
+		super.getByteArray(0, bytes, 0, len);
+
+		final byte[] b = bytes;
+		boolean first = true;
 
 		/*
-		 * We already know the length of the header, so just get the raw chars
+		 * The field currently being parsed. Its value may continue on the
+		 * following lines, so it is not added until we see the next field.
 		 */
-		final StringBuilder buf = stringLocal.get();
-		buf.setLength(0);
-		int len = super.getLength();
-		super.getUTF8String(0, buf, len);
+		int name = -1, nameEnd = 0, value = 0, valueEnd = 0, fieldEnd = 0;
 
-		rawHeader = buf.toString();
-		String lines[] = rawHeader.split("\r\n|\n");
+		for (int start = 0, next; start < len; start = next) {
+			int end = start;
+			while (end < len && b[end] != '\n') {
+				end++;
+			}
 
-		// System.out.println("[" + s + "]");
+			next = end + 1;
+			if (end > start && b[end - 1] == '\r') {
+				end--;
+			}
 
-		buf.setLength(0);
-		for (int i = 0; i < lines.length; i++) {
-			String line = lines[i];
-			if (line.length() == 0) {
+			if (end == start) {
 				continue; // Skip 0 length/blank lines
 			}
 
+			if (first) {
+				first = false;
+				if (b[start] != ':') {
+					decodeFirstLine(start, end - start);
+				}
+				continue;
+			}
+
 			/*
-			 * First check if lines need to be combined if first character is a space
-			 * or a tab. This indicates line continuation and all leading white space
-			 * is replaced with a single space.
+			 * A line starting with a space or a tab is a continuation of the
+			 * previous field's value. The line breaks are folded into a single
+			 * space when the value is decoded.
 			 */
-			char firstChar = line.charAt(0);
-			if (firstChar == ' ' || firstChar == '\t') {
-				line = line.trim();
-				if (buf.length() != 0) {
-					buf.append(' ');
+			if (b[start] == ' ' || b[start] == '\t') {
+				if (name == -1) {
+					continue;
 				}
 
-				buf.append(line);
-				continue;
-			} else {
-
-				/*
-				 * Check if we have any buffered string in the buffer from the
-				 * recombining process. If yes, we make take the string out of the
-				 * buffer and process it, while we decrement i pointer, to rerun the
-				 * lines[i] which was just used as an indicator that no more lines are
-				 * to be recombined.
-				 */
-				if (buf.length() != 0) {
-					line = buf.toString();
-					buf.setLength(0);
-					i--;
+				final int s = skipSpace(b, start, end);
+				final int e = trimSpace(b, s, end);
+				if (s < e) {
+					if (value == valueEnd) {
+						value = s;
+					}
+					valueEnd = e;
 				}
+				fieldEnd = end;
+				continue;
 			}
 
-			String c[] = line.split(":", 2);
+			if (name != -1) {
+				addHeaderField(name, nameEnd, value, valueEnd, fieldEnd);
+				name = -1;
+			}
 
-			if (i == 0) {
-				if (c[0].length() > 0) {
-					decodeFirstLine(line);
-				}
-				continue;
+			int colon = start;
+			while (colon < end && b[colon] != ':') {
+				colon++;
 			}
 
-			if (c.length < 2) {
+			if (colon == end) {
 				continue; // We need at least 2 sections or something is wrong
 			}
 
-			// System.out.printf("[%s]=[%s]\n", c[0], c[1]);
-			String name = c[0];
-			String value = c[1];
-			int offset = rawHeader.indexOf(name + ":");
-			int length = name.length() + value.length() + 1;
+			name = skipSpace(b, start, colon);
+			nameEnd = trimSpace(b, name, colon);
+			value = skipSpace(b, colon + 1, end);
+			valueEnd = trimSpace(b, value, end);
+			fieldEnd = end;
+
+			if (name == nameEnd) {
+				name = -1; // Nothing to key the field on
+			}
+		}
+
+		if (name != -1) {
+			addHeaderField(name, nameEnd, value, valueEnd, fieldEnd);
+		}
+	}
+
+	/**
+	 * Adds a "name: value" field to the header. The offset of the field is the
+	 * start of the name and its length spans to the end of the value, including
+	 * any continuation lines.
+	 * 
+	 * @param name
+	 *          start of the name
+	 * @param nameEnd
+	 *          end of the name
+	 * @param value
+	 *          start of the value
+	 * @param valueEnd
+	 *          end of the value
+	 * @param fieldEnd
+	 *          end of the field's last line
+	 */
+	private void addHeaderField(int name, int nameEnd, int value, int valueEnd,
+			int fieldEnd) {
+		super.addField(mapName(name, nameEnd - name), name, fieldEnd - name,
+				value, valueEnd - value);
+	}
+
+	/**
+	 * Maps a field name found in the header bytes. Once a name has been mapped
+	 * it is kept in the name cache and returned without allocating a new
+	 * string. Once the cache fills up, names are simply mapped every time.
+	 * 
+	 * @param offset
+	 *          offset of the name
+	 * @param length
+	 *          length of the name
+	 * @return the mapped name
+	 */
+	private String mapName(int offset, int length) {
+		final byte[] b = bytes;
+
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + toUpper(b[offset + i]);
+		}
+
+		final int mask = names.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		for (int probe = 0; probe < names.length; probe++) {
+			final String s = names[slot];
+			if (s == null) {
+				break;
+			}
+
+			if (matchesName(s, offset, length)) {
+				return s;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		final String s = map(super.getUTF8String(offset, length));
+
+		if (names[slot] == null && nameCount < NAME_CACHE_SIZE / 2) {
+			names[slot] = s;
+			nameCount++;
+		}
+
+		return s;
+	}
+
+	/**
+	 * Compares a mapped name to upper cased header bytes.
+	 * 
+	 * @param s
+	 *          mapped name
+	 * @param offset
+	 *          offset of the name
+	 * @param length
+	 *          length of the name
+	 * @return true if the same
+	 */
+	private boolean matchesName(String s, int offset, int length) {
+		if (s.length() != length) {
+			return false;
+		}
+
+		for (int i = 0; i < length; i++) {
+			if (s.charAt(i) != toUpper(bytes[offset + i])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Upper cases an ascii character.
+	 * 
+	 * @param b
+	 *          the byte
+	 * @return the upper cased unsigned value
+	 */
+	private static int toUpper(byte b) {
+		final int c = b & 0xFF;
+		return (c >= 'a' && c <= 'z') ? c - ('a' - 'A') : c;
+	}
+
+	/**
+	 * Skips leading white space.
+	 * 
+	 * @param b
+	 *          the bytes
+	 * @param start
+	 *          start of the range
+	 * @param end
+	 *          end of the range
+	 * @return offset of the first non white space char or end
+	 */
+	private static int skipSpace(byte[] b, int start, int end) {
+		while (start < end && (b[start] & 0xFF) <= ' ') {
+			start++;
+		}
+
+		return start;
+	}
+
+	/**
+	 * Trims trailing white space.
+	 * 
+	 * @param b
+	 *          the bytes
+	 * @param start
+	 *          start of the range
+	 * @param end
+	 *          end of the range
+	 * @return end of the range without trailing white space
+	 */
+	private static int trimSpace(byte[] b, int start, int end) {
+		while (end > start && (b[end - 1] & 0xFF) <= ' ') {
+			end--;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Decodes a field value. Values which span multiple lines have each line
+	 * break and the white space around it replaced with a single space.
+	 * 
+	 * @param offset
+	 *          offset of the value
+	 * @param length
+	 *          length of the value
+	 * @return the value
+	 * @see org.jnetpcap.packet.JMappedHeader#decodeValue(int, int)
+	 */
+	@Override
+	protected String decodeValue(int offset, int length) {
+		final String s = super.decodeValue(offset, length);
+		if (s.indexOf('\n') == -1) {
+			return s;
+		}
+
+		final StringBuilder buf = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c != '\r' && c != '\n') {
+				buf.append(c);
+				continue;
+			}
+
+			int e = buf.length();
+			while (e > 0 && buf.charAt(e - 1) <= ' ') {
+				e--;
+			}
+			buf.setLength(e);
+
+			while (i + 1 < s.length() && s.charAt(i + 1) <= ' ') {
+				i++;
+			}
+
+			buf.append(' ');
+		}
+
+		return buf.toString();
+	}
+
+	/**
+	 * Splits a line in the header into tokens separated by spaces. Runs of
+	 * spaces are treated as a single separator. The start and length of each
+	 * token are stored in pairs in the tokens array.
+	 * 
+	 * @param offset
+	 *          offset of the line
+	 * @param length
+	 *          length of the line
+	 * @param tokens
+	 *          array to receive offset and length pairs
+	 * @return number of tokens found, but no more than half the size of the
+	 *         tokens array
+	 */
+	protected int tokenize(int offset, int length, int[] tokens) {
+		final byte[] b = bytes;
+		final int end = offset + length;
+		int count = 0;
+
+		int i = offset;
+		while (i < end && count * 2 < tokens.length) {
+			while (i < end && b[i] == ' ') {
+				i++;
+			}
+
+			final int start = i;
+			while (i < end && b[i] != ' ') {
+				i++;
+			}
+
+			if (i > start) {
+				tokens[count * 2] = start;
+				tokens[count * 2 + 1] = i - start;
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Checks if a range of header bytes starts with the ascii prefix.
+	 * 
+	 * @param offset
+	 *          offset of the range
+	 * @param length
+	 *          length of the range
+	 * @param prefix
+	 *          the prefix
+	 * @return true if range starts with the prefix
+	 */
+	protected boolean startsWith(int offset, int length, String prefix) {
+		if (length < prefix.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < prefix.length(); i++) {
+			if ((bytes[offset + i] & 0xFF) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
 
-			super.addField(map(name.trim()), value.trim(), offset, length);
+	/**
+	 * Checks if a range of header bytes is equal to the ascii string.
+	 * 
+	 * @param offset
+	 *          offset of the range
+	 * @param length
+	 *          length of the range
+	 * @param s
+	 *          the string
+	 * @return true if range is equal to the string
+	 */
+	protected boolean matches(int offset, int length, String s) {
+		return length == s.length() && startsWith(offset, length, s);
+	}
+
+	/**
+	 * Gets the entire header as a string. The string is created on first
+	 * access.
+	 * 
+	 * @return the raw header
+	 */
+	protected String getRawHeader() {
+		if (rawHeader == null) {
+			rawHeader = super.getUTF8String(0, super.getLength());
 		}
+
+		return rawHeader;
 	}
 
 	/**
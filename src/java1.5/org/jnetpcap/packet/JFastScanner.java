@@ -0,0 +1,1085 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.jnetpcap.protocol.JProtocol;
+
+/**
+ * A pure java scanner for the core protocols. The scanner decodes Ethernet,
+ * IEEE 802.1q, Ip4, Ip6, Tcp and Udp headers directly out of a
+ * <code>ByteBuffer</code>, heap or mapped, without making any native calls.
+ * For simple handlers that only need header offsets and lengths, the JNI
+ * transition of {@link JScanner#scan(JPacket, int)} costs more than the decode
+ * itself. This scanner is small enough for the JIT to inline into the handler's
+ * loop.
+ * <p>
+ * The results are recorded in java arrays that mirror the native
+ * <code>packet_state_t</code> and <code>flow_key_t</code> structures: header
+ * ids, offsets, lengths, payloads, postfixes and flags, the 64-bit header maps
+ * and the flow-key pairs. The values are computed exactly the same way the
+ * native scanner computes them using the default bindings, so results of the
+ * two scanners can be used interchangeably. A <code>JPacket.State</code> can
+ * not be filled in from java, since its memory is private to the native
+ * scanner.
+ * </p>
+ * <p>
+ * When the scanner reaches a protocol it does not decode itself, or a binding
+ * that the native scanner would resolve using heuristics, it stops and
+ * {@link #scan(ByteBuffer, int, int)} returns false. Headers recorded up to
+ * that point are valid and {@link #getNextId()} returns the protocol the native
+ * scanner would have to continue with. The caller then falls back on the native
+ * scanner for the complete decode:
+ * </p>
+ * 
+ * <pre>
+ * if (fast.scan(buffer, JProtocol.ETHERNET_ID, wirelen) == false) {
+ * 	packet.scan(JProtocol.ETHERNET_ID); // native scan
+ * }
+ * </pre>
+ * <p>
+ * The scanner is not thread safe. Each thread should use its own instance.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ * @see JScanner
+ */
+public class JFastScanner {
+
+	/** Maximum number of flow-key pairs, same as native FLOW_KEY_PAIR_COUNT. */
+	private final static int FLOW_KEY_PAIR_COUNT = 3;
+
+	/** Number of 64-bit header maps, same as native MAX_MAP_COUNT. */
+	private final static int MAP_COUNT = JRegistry.MAX_ID_COUNT / 32;
+
+	/** True if 32-bit words in memory are little endian on this platform. */
+	private final static boolean LITTLE_ENDIAN =
+	    ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+	/** Buffer being scanned. */
+	private ByteBuffer buf;
+
+	/** Position of the first byte of the packet within the buffer. */
+	private int base;
+
+	/** Buffer length, reduced by the Ethernet trailer. */
+	private int bufLen;
+
+	/** Original packet length. */
+	private int wirelen;
+
+	/** Packet flags. */
+	private int flags;
+
+	/** The frame number assigned to the next packet. */
+	private long frameNumber;
+
+	/** Frame number of the last scanned packet. */
+	private long packetFrameNumber;
+
+	/** Protocol at which the last scan stopped. */
+	private int nextId = JScan.END_OF_HEADERS_ID;
+
+	/** Enables the heuristic check, same default as JRegistry. */
+	private boolean heuristics = true;
+
+	/* Header scan state, same as the native scan_t */
+	private int offset;
+
+	private int length;
+
+	private int payload;
+
+	private int next;
+
+	private int cumulative;
+
+	/* Recorded headers, same as the native header_t */
+	private int count;
+
+	private final int[] ids = new int[JScanner.MAX_ENTRY_COUNT];
+
+	private final int[] offsets = new int[JScanner.MAX_ENTRY_COUNT];
+
+	private final int[] lengths = new int[JScanner.MAX_ENTRY_COUNT];
+
+	private final int[] payloads = new int[JScanner.MAX_ENTRY_COUNT];
+
+	private final int[] postfixes = new int[JScanner.MAX_ENTRY_COUNT];
+
+	private final int[] headerFlags = new int[JScanner.MAX_ENTRY_COUNT];
+
+	private final long[] headerMap = new long[MAP_COUNT];
+
+	/* Flow key, same as the native flow_key_t */
+	private long keyMap;
+
+	private int keyFlags;
+
+	private int keyHash;
+
+	private int pairCount;
+
+	private final int[] pairs = new int[FLOW_KEY_PAIR_COUNT * 2];
+
+	private final int[] pairIds = new int[FLOW_KEY_PAIR_COUNT];
+
+	/**
+	 * Checks if the scanner decodes the protocol itself.
+	 * 
+	 * @param id
+	 *          numerical id of the protocol
+	 * @return true if supported, otherwise false
+	 */
+	public static boolean isSupported(int id) {
+		switch (id) {
+			case JProtocol.PAYLOAD_ID:
+			case JProtocol.ETHERNET_ID:
+			case JProtocol.IEEE_802DOT1Q_ID:
+			case JProtocol.IP4_ID:
+			case JProtocol.IP6_ID:
+			case JProtocol.TCP_ID:
+			case JProtocol.UDP_ID:
+				return true;
+
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Finds the index of the first instance of a header.
+	 * 
+	 * @param id
+	 *          numerical id of the header
+	 * @return index of the header or -1 if not found
+	 */
+	public int findHeaderIndex(int id) {
+		return findHeaderIndex(id, 0);
+	}
+
+	/**
+	 * Finds the index of a header instance.
+	 * 
+	 * @param id
+	 *          numerical id of the header
+	 * @param instance
+	 *          instance number of the header, 0 for the first
+	 * @return index of the header or -1 if not found
+	 */
+	public int findHeaderIndex(int id, int instance) {
+		for (int i = 0; i < count; i++) {
+			if (ids[i] == id && instance-- == 0) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Gets a 64-bit header map, the same as
+	 * {@link JPacket.State#get64BitHeaderMap(int)}.
+	 * 
+	 * @param index
+	 *          index of the map
+	 * @return bitmap of the headers in the packet
+	 */
+	public long get64BitHeaderMap(int index) {
+		return headerMap[index];
+	}
+
+	/**
+	 * Gets the packet flags.
+	 * 
+	 * @return packet flags, {@link JPacket.State#FLAG_TRUNCATED}
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * Gets the flow-key flags.
+	 * 
+	 * @return flags, {@link JFlowKey#FLAG_REVERSABLE}
+	 */
+	public int getFlowKeyFlags() {
+		return keyFlags;
+	}
+
+	/**
+	 * Gets the flow-key hashcode, the same as {@link JFlowKey#hashCode()}.
+	 * 
+	 * @return direction dependent hash, unless the pairs are reversable
+	 */
+	public int getFlowKeyHash() {
+		return keyHash;
+	}
+
+	/**
+	 * Gets the bitmap of protocols that contributed to the flow-key, the same as
+	 * {@link JFlowKey#getHeaderMap()}. All of the protocols decoded by this
+	 * scanner have ids below 64, so the other words of the native map are
+	 * always 0.
+	 * 
+	 * @return bitmap of header ids
+	 */
+	public long getFlowKeyHeaderMap() {
+		return keyMap;
+	}
+
+	/**
+	 * Gets the protocol id that supplied a flow-key pair.
+	 * 
+	 * @param index
+	 *          index of the pair
+	 * @return numerical id of the protocol
+	 */
+	public int getFlowKeyId(int index) {
+		return pairIds[index];
+	}
+
+	/**
+	 * Gets the number of flow-key pairs.
+	 * 
+	 * @return number of pairs
+	 */
+	public int getFlowKeyPairCount() {
+		return pairCount;
+	}
+
+	/**
+	 * Gets the first value of a flow-key pair.
+	 * 
+	 * @param index
+	 *          index of the pair
+	 * @param reversePairs
+	 *          if true returns the value of the reversed pair
+	 * @return the value
+	 */
+	public int getFlowKeyPairP1(int index, boolean reversePairs) {
+		return pairs[index * 2 + (reversePairs ? 1 : 0)];
+	}
+
+	/**
+	 * Gets the second value of a flow-key pair.
+	 * 
+	 * @param index
+	 *          index of the pair
+	 * @param reversePairs
+	 *          if true returns the value of the reversed pair
+	 * @return the value
+	 */
+	public int getFlowKeyPairP2(int index, boolean reversePairs) {
+		return pairs[index * 2 + (reversePairs ? 0 : 1)];
+	}
+
+	/**
+	 * Gets the frame number of the last scanned packet.
+	 * 
+	 * @return the frame number
+	 */
+	public long getFrameNumber() {
+		return packetFrameNumber;
+	}
+
+	/**
+	 * Gets the number of headers found.
+	 * 
+	 * @return number of headers
+	 */
+	public int getHeaderCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the header flags.
+	 * 
+	 * @param index
+	 *          index of the header
+	 * @return flags, see <code>JHeader.State</code> FLAG constants
+	 */
+	public int getHeaderFlagsByIndex(int index) {
+		return headerFlags[index];
+	}
+
+	/**
+	 * Gets the numerical id of a header.
+	 * 
+	 * @param index
+	 *          index of the header
+	 * @return numerical id
+	 */
+	public int getHeaderIdByIndex(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * Gets the length of a header.
+	 * 
+	 * @param index
+	 *          index of the header
+	 * @return length in bytes
+	 */
+	public int getHeaderLengthByIndex(int index) {
+		return lengths[index];
+	}
+
+	/**
+	 * Gets the offset of a header, relative to the start of the packet.
+	 * 
+	 * @param index
+	 *          index of the header
+	 * @return offset in bytes
+	 */
+	public int getHeaderOffsetByIndex(int index) {
+		return offsets[index];
+	}
+
+	/**
+	 * Gets the payload length of a header.
+	 * 
+	 * @param index
+	 *          index of the header
+	 * @return length in bytes
+	 */
+	public int getHeaderPayloadByIndex(int index) {
+		return payloads[index];
+	}
+
+	/**
+	 * Gets the postfix length of a header, such as the Ethernet trailer.
+	 * 
+	 * @param index
+	 *          index of the header
+	 * @return length in bytes
+	 */
+	public int getHeaderPostfixByIndex(int index) {
+		return postfixes[index];
+	}
+
+	/**
+	 * Gets the number of instances of a header.
+	 * 
+	 * @param id
+	 *          numerical id of the header
+	 * @return number of instances
+	 */
+	public int getInstanceCount(int id) {
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (ids[i] == id) {
+				n++;
+			}
+		}
+
+		return n;
+	}
+
+	/**
+	 * Gets the protocol where the last scan stopped.
+	 * 
+	 * @return {@link JScan#END_OF_HEADERS_ID} if the packet was completely
+	 *         decoded, otherwise the id of the protocol the native scanner
+	 *         would have to decode next
+	 */
+	public int getNextId() {
+		return nextId;
+	}
+
+	/**
+	 * Gets the original length of the last scanned packet.
+	 * 
+	 * @return length in bytes
+	 */
+	public int getWirelen() {
+		return wirelen;
+	}
+
+	/**
+	 * Computes a flow hash that is the same for both directions of a flow, the
+	 * same as {@link JFlowKey#symmetricHash()}.
+	 * 
+	 * @return symmetric hash of the flow-key
+	 */
+	public int getFlowKeySymmetricHash() {
+		int h = mix((int) keyMap ^ (int) (keyMap >>> 32));
+
+		for (int i = 0; i < pairCount; i++) {
+			int a = pairs[i * 2];
+			int b = pairs[i * 2 + 1];
+			boolean lt = (a ^ 0x80000000) < (b ^ 0x80000000);
+
+			h = mix(h ^ (lt ? a : b)) + i;
+			h = mix(h ^ (lt ? b : a));
+		}
+
+		return h;
+	}
+
+	/**
+	 * Checks if a header is present.
+	 * 
+	 * @param id
+	 *          numerical id of the header
+	 * @return true if found, otherwise false
+	 */
+	public boolean hasHeader(int id) {
+		return (headerMap[id >> 5] & (1L << (id & 0x1F))) != 0;
+	}
+
+	/**
+	 * Checks if bindings that need heuristics stop the scan.
+	 * 
+	 * @return true if enabled
+	 */
+	public boolean isHeuristics() {
+		return heuristics;
+	}
+
+	/**
+	 * Scans the remaining bytes of the buffer, from position to limit. The
+	 * buffer's position is not changed.
+	 * 
+	 * @param buffer
+	 *          packet data
+	 * @param id
+	 *          numerical id of the first header, usually the DLT protocol
+	 * @return true if the packet was completely decoded, false if the scan has
+	 *         to fall back on the native scanner
+	 */
+	public boolean scan(ByteBuffer buffer, int id) {
+		return scan(buffer, id, buffer.remaining());
+	}
+
+	/**
+	 * Scans the remaining bytes of the buffer, from position to limit. The
+	 * buffer's position is not changed.
+	 * 
+	 * @param buffer
+	 *          packet data
+	 * @param id
+	 *          numerical id of the first header, usually the DLT protocol
+	 * @param wirelen
+	 *          original length of the packet
+	 * @return true if the packet was completely decoded, false if the scan has
+	 *         to fall back on the native scanner
+	 */
+	public boolean scan(ByteBuffer buffer, int id, int wirelen) {
+		final int caplen = buffer.remaining();
+
+		this.buf = buffer;
+		this.base = buffer.position();
+		this.wirelen = wirelen;
+		this.bufLen = (caplen > wirelen) ? wirelen : caplen;
+		this.flags = (caplen != wirelen) ? JPacket.State.FLAG_TRUNCATED : 0;
+		this.packetFrameNumber = frameNumber++;
+
+		offset = 0;
+		cumulative = 0;
+		count = 0;
+		for (int i = 0; i < MAP_COUNT; i++) {
+			headerMap[i] = 0;
+		}
+
+		keyMap = 0;
+		keyFlags = 0;
+		keyHash = 0;
+		pairCount = 0;
+
+		try {
+			return scanHeaders(id);
+		} finally {
+			buf = null;
+			computeFlowKeyHash();
+		}
+	}
+
+	/**
+	 * Main scanner loop, same as the native one.
+	 * 
+	 * @param id
+	 *          first header
+	 * @return true if completely decoded
+	 */
+	private boolean scanHeaders(int id) {
+
+		while (id != JScan.END_OF_HEADERS_ID) {
+			length = 0;
+			payload = 0;
+			next = JProtocol.PAYLOAD_ID;
+
+			switch (id) {
+				case JProtocol.ETHERNET_ID:
+					if (scanEthernet() == false) {
+						nextId = id;
+						return false;
+					}
+					break;
+
+				case JProtocol.IEEE_802DOT1Q_ID:
+					scanVlan();
+					break;
+
+				case JProtocol.IP4_ID:
+					scanIp4();
+					break;
+
+				case JProtocol.IP6_ID:
+					scanIp6();
+					break;
+
+				case JProtocol.TCP_ID:
+					scanTcp();
+					break;
+
+				case JProtocol.UDP_ID:
+					scanUdp();
+					break;
+
+				case JProtocol.PAYLOAD_ID:
+					length = bufLen - offset;
+					next = JScan.END_OF_HEADERS_ID;
+					break;
+
+				default:
+					nextId = id;
+					return false;
+			}
+
+			if (length == 0) {
+				next =
+				    (id == JProtocol.PAYLOAD_ID) ? JScan.END_OF_HEADERS_ID
+				        : JProtocol.PAYLOAD_ID;
+
+			} else {
+				if (count == JScanner.MAX_ENTRY_COUNT) {
+					nextId = id;
+					return false;
+				}
+
+				record(id);
+
+				/*
+				 * Tcp and Udp have heuristic binding enabled by default. When the
+				 * port numbers do not bind the payload, the native scanner tries
+				 * the heuristics which we don't have.
+				 */
+				if (heuristics && next == JProtocol.PAYLOAD_ID
+				    && (id == JProtocol.TCP_ID || id == JProtocol.UDP_ID)
+				    && offset + length < bufLen) {
+					nextId = JProtocol.PAYLOAD_ID;
+					return false;
+				}
+			}
+
+			id = next;
+			offset += length;
+
+			if (offset >= bufLen) {
+				id = JScan.END_OF_HEADERS_ID;
+			}
+		}
+
+		nextId = JScan.END_OF_HEADERS_ID;
+
+		return true;
+	}
+
+	/**
+	 * Records the current header, same as native record_header and
+	 * adjustForTruncatedPacket.
+	 * 
+	 * @param id
+	 *          numerical id of the header
+	 */
+	private void record(int id) {
+		int hflags = 0;
+
+		if (payload == 0 && id != JProtocol.PAYLOAD_ID) {
+			payload = bufLen - (offset + length);
+			payload = (payload < 0) ? 0 : payload;
+		}
+
+		if (offset + length + payload > bufLen) {
+			hflags |= JHeader.State.FLAG_PAYLOAD_TRUNCATED;
+			payload = (offset + length > bufLen) ? 0 : bufLen - offset - length;
+
+			if (offset + length > bufLen) {
+				hflags |= JHeader.State.FLAG_HEADER_TRUNCATED;
+				length = (offset > bufLen) ? 0 : bufLen - offset;
+			}
+		}
+
+		headerMap[id >> 5] |= ((long) (id & ~0x1F) << 27) | (1L << (id & 0x1F));
+
+		ids[count] = id;
+		offsets[count] = offset;
+		lengths[count] = length;
+		payloads[count] = payload;
+		postfixes[count] = 0;
+		headerFlags[count] =
+		    hflags | (cumulative & JHeader.State.FLAG_HEADER_FRAGMENTED);
+
+		count++;
+	}
+
+	/**
+	 * Scans Ethernet header.
+	 * 
+	 * @return false if the frame is IEEE 802.3 which we don't decode
+	 */
+	private boolean scanEthernet() {
+		if (bufLen - offset < 14) {
+			return true;
+		}
+
+		final int type = uint16(offset + 12);
+		if (type < 0x600) {
+			return false;
+		}
+
+		length = 14;
+
+		if ((keyMap & (1L << JProtocol.ETHERNET_ID)) == 0) {
+			keyMap |= (1L << JProtocol.ETHERNET_ID);
+
+			/*
+			 * Same hash of the addresses as native, which reads the 12 bytes as
+			 * 3 native order 32-bit words
+			 */
+			final int i0 = word(offset);
+			final int i1 = word(offset + 4);
+			final int i2 = word(offset + 8);
+
+			setPair(0, i0 ^ (i1 >>> 16), i2 ^ (i1 & 0x0000FFFF),
+			    JProtocol.ETHERNET_ID);
+			setPair(1, type, type, JProtocol.ETHERNET_ID);
+			pairCount = 2;
+		}
+
+		next = lookupEthertype(type);
+
+		return true;
+	}
+
+	/**
+	 * Scans IEEE 802.1q vlan header.
+	 */
+	private void scanVlan() {
+		if (bufLen - offset < 4) {
+			return;
+		}
+
+		length = 4;
+
+		final int type = uint16(offset + 2);
+		if (type < 0x600) {
+			next = JProtocol.IEEE_802DOT2_ID;
+			payload = type - length - offset;
+		} else {
+			next = lookupEthertype(type);
+		}
+	}
+
+	/**
+	 * Scans Ip4 header.
+	 */
+	private void scanIp4() {
+		if (bufLen - offset < 20) {
+			return;
+		}
+
+		final int totLen = uint16(offset + 2);
+		length = (uint8(offset) & 0x0F) << 2;
+		payload = totLen - length;
+
+		/* Adjust for Ethernet trailer, using ip.tot_len field */
+		if (count >= 1 && totLen <= bufLen
+		    && ids[count - 1] == JProtocol.ETHERNET_ID) {
+			final int postfix = bufLen - offset - totLen;
+			if (postfix > 0) {
+				postfixes[count - 1] = postfix;
+				payloads[count - 1] -= postfix;
+				bufLen -= postfix;
+			}
+		}
+
+		final int frag = uint16(offset + 6) & 0x1FFF;
+		if ((uint8(offset + 6) & 0x20) != 0 || frag > 0) {
+			cumulative |= JHeader.State.FLAG_HEADER_FRAGMENTED;
+			payload = bufLen - length - offset;
+		}
+
+		final int proto = uint8(offset + 9);
+
+		if ((keyMap & (1L << JProtocol.IP4_ID)) == 0) {
+			keyMap |= (1L << JProtocol.IP4_ID);
+
+			setPair(0, int32(offset + 12), int32(offset + 16), JProtocol.IP4_ID);
+			setPair(1, proto, proto, JProtocol.IP4_ID);
+			pairCount = 2;
+		}
+
+		if (frag != 0) {
+			next = JProtocol.PAYLOAD_ID;
+			return;
+		}
+
+		switch (proto) {
+			case 1:
+				next = JProtocol.ICMP_ID;
+				break;
+			case 4:
+				next = JProtocol.IP4_ID;
+				break;
+			case 6:
+				next = JProtocol.TCP_ID;
+				break;
+			case 17:
+				next = JProtocol.UDP_ID;
+				break;
+			case 115:
+				next = JProtocol.L2TP_ID;
+				break;
+			case 132:
+				next = JProtocol.SCTP_ID;
+				break;
+		}
+	}
+
+	/**
+	 * Scans Ip6 header, including any extension headers.
+	 */
+	private void scanIp6() {
+		if (bufLen - offset < 40) {
+			return;
+		}
+
+		length = 40;
+		payload = uint16(offset + 4);
+
+		/* Same condition as native scan_ip6 */
+		if (count > 1 && ids[count - 1] == JProtocol.ETHERNET_ID) {
+			final int postfix = bufLen - offset - payload - 40;
+			if (postfix > 0) {
+				postfixes[count - 1] = postfix;
+				payloads[count - 1] -= postfix;
+				bufLen -= postfix;
+			}
+		}
+
+		int type = uint8(offset + 6);
+
+		if ((keyMap & (1L << JProtocol.IP6_ID)) == 0) {
+			keyMap |= (1L << JProtocol.IP6_ID);
+
+			final int src =
+			    word(offset + 8) ^ word(offset + 12) ^ word(offset + 16)
+			        ^ word(offset + 20);
+			final int dst =
+			    word(offset + 24) ^ word(offset + 28) ^ word(offset + 32)
+			        ^ word(offset + 36);
+
+			setPair(0, src, dst, JProtocol.IP6_ID);
+			setPair(1, type, type, JProtocol.IP6_ID);
+			pairCount = 2;
+		}
+
+		int ext = offset + 40;
+
+		for (;;) {
+			switch (type) {
+				case 1:
+					next = JProtocol.ICMP_ID;
+					return;
+				case 4:
+					next = JProtocol.IP4_ID;
+					return;
+				case 6:
+					next = JProtocol.TCP_ID;
+					return;
+				case 17:
+					next = JProtocol.UDP_ID;
+					return;
+				case 58:
+					next = JProtocol.PAYLOAD_ID;
+					return;
+				case 132:
+					next = JProtocol.SCTP_ID;
+					return;
+
+				case 0: // Hop-by-hop options
+				case 60: // Destination Options
+				case 43: // Routing header
+				case 44: // Fragment Header
+				case 51: // Authentication Header
+				case 50: // Encapsulation Security Payload Header
+				case 135: // Mobility Header
+					if (type == 44) {
+						cumulative |= JHeader.State.FLAG_HEADER_FRAGMENTED;
+					}
+
+					if (offset + length + 2 > bufLen) {
+						return;
+					}
+
+					type = uint8(ext);
+					final int len = uint8(ext + 1) * 8 + 8;
+
+					/* Same bounds check as native */
+					if (offset + offset + len > bufLen) {
+						next = JProtocol.PAYLOAD_ID;
+						return;
+					}
+
+					length += len;
+					payload -= len;
+					ext += len;
+					break;
+
+				case 59: // No next header
+				default:
+					next =
+					    (payload == 0) ? JScan.END_OF_HEADERS_ID : JProtocol.PAYLOAD_ID;
+					return;
+			}
+		}
+	}
+
+	/**
+	 * Scans Tcp header.
+	 */
+	private void scanTcp() {
+		if (bufLen - offset < 20) {
+			return;
+		}
+
+		length = (uint8(offset + 12) >> 4) << 2;
+
+		final int sport = uint16(offset);
+		final int dport = uint16(offset + 2);
+
+		if ((keyMap & (1L << JProtocol.TCP_ID)) == 0) {
+			keyMap |= (1L << JProtocol.TCP_ID);
+			addPair(sport, dport, JProtocol.TCP_ID);
+		}
+
+		switch (dport) {
+			case 80:
+			case 8080:
+			case 8081:
+				next = JProtocol.HTTP_ID;
+				return;
+			case 5060:
+				next = JProtocol.SIP_ID;
+				return;
+		}
+
+		switch (sport) {
+			case 80:
+			case 8080:
+			case 8081:
+				next = JProtocol.HTTP_ID;
+				return;
+			case 5060:
+				next = JProtocol.SIP_ID;
+				return;
+		}
+
+		if (dport < 1024 || sport < 1024) {
+			next = JScan.END_OF_HEADERS_ID;
+		}
+	}
+
+	/**
+	 * Scans Udp header.
+	 */
+	private void scanUdp() {
+		if (bufLen - offset < 8) {
+			return;
+		}
+
+		length = 8;
+
+		final int sport = uint16(offset);
+		final int dport = uint16(offset + 2);
+
+		if ((keyMap & (1L << JProtocol.UDP_ID)) == 0) {
+			keyMap |= (1L << JProtocol.UDP_ID);
+			addPair(sport, dport, JProtocol.UDP_ID);
+		}
+
+		if ((next = lookupUdpPort(dport)) != JProtocol.PAYLOAD_ID
+		    || (next = lookupUdpPort(sport)) != JProtocol.PAYLOAD_ID) {
+			return;
+		}
+
+		if (dport < 1024 || sport < 1024) {
+			next = JScan.END_OF_HEADERS_ID;
+		}
+	}
+
+	/**
+	 * Enables or disables the heuristic check. When enabled, which is the
+	 * default as in JRegistry, a Tcp or Udp payload that is not bound by a port
+	 * number stops the scan since the native scanner might bind it using
+	 * heuristics. Disable only if heuristics are also disabled for the native
+	 * scanner.
+	 * 
+	 * @param enable
+	 *          true to stop the scan where native would run heuristics
+	 */
+	public void setHeuristics(boolean enable) {
+		this.heuristics = enable;
+	}
+
+	/**
+	 * Sets the frame number assigned to the next scanned packet.
+	 * 
+	 * @param frameNo
+	 *          the frame number
+	 */
+	public void setFrameNumber(long frameNo) {
+		this.frameNumber = frameNo;
+	}
+
+	/**
+	 * Debug string.
+	 * 
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		b.append("JFastScanner[#").append(packetFrameNumber);
+		b.append(" wirelen=").append(wirelen);
+		b.append(" headers=");
+
+		for (int i = 0; i < count; i++) {
+			b.append((i == 0) ? "" : ",").append(ids[i]).append('@').append(
+			    offsets[i]).append('/').append(lengths[i]);
+		}
+
+		b.append(" next=").append(nextId).append(']');
+
+		return b.toString();
+	}
+
+	/**
+	 * Computes the flow-key hashcode, same as native process_flow_key.
+	 */
+	private void computeFlowKeyHash() {
+		int h = (int) keyMap ^ (int) (keyMap >>> 32) ^ keyFlags;
+
+		if ((keyFlags & JFlowKey.FLAG_REVERSABLE) != 0) {
+			for (int i = 0; i < pairCount * 2; i++) {
+				h ^= pairs[i];
+			}
+		} else {
+			for (int i = 0; i < pairCount * 2; i++) {
+				h ^= pairs[i] << 16;
+				h ^= pairs[i] >>> 16;
+			}
+		}
+
+		keyHash = h;
+	}
+
+	private void addPair(int p1, int p2, int id) {
+		if (pairCount < FLOW_KEY_PAIR_COUNT) {
+			setPair(pairCount++, p1, p2, id);
+		}
+
+		keyFlags |= JFlowKey.FLAG_REVERSABLE;
+	}
+
+	private void setPair(int index, int p1, int p2, int id) {
+		pairs[index * 2] = p1;
+		pairs[index * 2 + 1] = p2;
+		pairIds[index] = id;
+	}
+
+	private static int lookupEthertype(int type) {
+		switch (type) {
+			case 0x0800:
+				return JProtocol.IP4_ID;
+			case 0x0806:
+				return JProtocol.ARP_ID;
+			case 0x86DD:
+				return JProtocol.IP6_ID;
+			case 0x8100: // 802.1q (Vlan) C-VLAN
+			case 0x88a8: // 802.1ad (QinQ) S-VLAN
+			case 0x9100: // Old style 802.1ad (QinQ) S-VLAN
+				return JProtocol.IEEE_802DOT1Q_ID;
+		}
+
+		return JProtocol.PAYLOAD_ID;
+	}
+
+	private static int lookupUdpPort(int port) {
+		switch (port) {
+			case 1701:
+				return JProtocol.L2TP_ID;
+			case 5004:
+				return JProtocol.RTP_ID;
+			case 5005:
+				return JProtocol.RTCP_SENDER_REPORT_ID;
+			case 5060:
+				return JProtocol.SIP_ID;
+		}
+
+		return JProtocol.PAYLOAD_ID;
+	}
+
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+
+		return h;
+	}
+
+	private int uint8(int index) {
+		return buf.get(base + index) & 0xFF;
+	}
+
+	private int uint16(int index) {
+		return (uint8(index) << 8) | uint8(index + 1);
+	}
+
+	private int int32(int index) {
+		return (uint16(index) << 16) | uint16(index + 2);
+	}
+
+	/**
+	 * Reads a 32-bit word the way native code dereferences a uint32_t pointer,
+	 * in native byte order.
+	 */
+	private int word(int index) {
+		final int v = int32(index);
+
+		return LITTLE_ENDIAN ? Integer.reverseBytes(v) : v;
+	}
+}
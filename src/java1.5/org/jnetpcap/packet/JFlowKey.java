@@ -61,6 +61,12 @@ public class JFlowKey extends JStruct {
 	/** MACRO used in native code. */
 	private static final int FLOW_KEY_PAIR_COUNT = 3;
 
+	/**
+	 * Number of 64-bit words in the header map, one bit for every possible
+	 * header ID. MACRO used in native code.
+	 */
+	public static final int FLOW_KEY_MAP_COUNT = JRegistry.MAX_ID_COUNT / 64;
+
 	/** The Constant STRUCT_NAME. */
 	public final static String STRUCT_NAME = "flow_key_t";
 
@@ -131,11 +137,37 @@ public class JFlowKey extends JStruct {
 
 	/**
 	 * Retrieves bitmap of headers that are part of this key. Each bit within the
-	 * returned bitmap represents a different header ID.
+	 * returned bitmap represents a different header ID. Only header IDs 0 to 63
+	 * are covered by the returned bitmap, see {@link #getHeaderMap(int)} for the
+	 * rest.
+	 * 
+	 * @return bitmap of headers that have contributed atleast one key pair
+	 */
+	public long getHeaderMap() {
+		return getHeaderMap(0);
+	}
+
+	/**
+	 * Retrieves a 64-bit word of the bitmap of headers that are part of this
+	 * key. Word at index covers header IDs <code>index * 64</code> to
+	 * <code>index * 64 + 63</code>.
 	 * 
+	 * @param index
+	 *          index of the word, 0 to {@link #FLOW_KEY_MAP_COUNT} - 1
 	 * @return bitmap of headers that have contributed atleast one key pair
 	 */
-	public native long getHeaderMap();
+	public native long getHeaderMap(int index);
+
+	/**
+	 * Checks if a header has contributed to this key.
+	 * 
+	 * @param id
+	 *          numerical id of the header
+	 * @return true if the header is part of the key
+	 */
+	public boolean hasHeader(int id) {
+		return (getHeaderMap(id >> 6) & (1L << (id & 0x3F))) != 0;
+	}
 
 	/**
 	 * Gets the id.
@@ -162,7 +194,8 @@ public class JFlowKey extends JStruct {
 	}
 
 	/**
-	 * Gets the pair.
+	 * Gets the pair, with the first value of the pair in the upper 32 bits and
+	 * the second value in the lower 32 bits.
 	 * 
 	 * @param index
 	 *          the index
@@ -230,6 +263,17 @@ public class JFlowKey extends JStruct {
 	@Override
 	public native int hashCode();
 
+	/**
+	 * Computes a direction independent hash of the key. Both directions of a
+	 * flow produce the same value, regardless if the key has reversable pairs
+	 * or not. The hash is well distributed in all of its bits and is intended
+	 * for spreading flows across a number of queues or threads, where all
+	 * packets of a flow must end up in the same place.
+	 * 
+	 * @return symmetric hash of the flow key
+	 */
+	public native int symmetricHash();
+
 	/**
 	 * Compares the flow keys and returns the direction in which the match
 	 * occured. Forward or reverse.
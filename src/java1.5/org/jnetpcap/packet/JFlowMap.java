@@ -23,7 +23,9 @@ import java.util.Map;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class JFlowMap.
+ * A map of flows which keeps a copy of every packet, grouped by flow. For
+ * long running captures, where only per flow counters are needed, use
+ * {@link JFlowTable} which keeps no packets and uses fixed amount of memory.
  * 
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.util.Formatter;
+
+import org.jnetpcap.nio.JStruct;
+
+/**
+ * A flow record within a {@link JFlowTable}. The record is peered directly
+ * with a slot in the table's native memory and reads its counters from there.
+ * The class is peered with <code>struct flow_entry_t</code>
+ * 
+ * <pre>
+ * typedef struct flow_entry_t {
+ * 	uint32_t fe_state;         // EMPTY, USED or DELETED
+ * 	uint32_t fe_flags;         // FLOW_ENTRY_FLAG_* bits
+ * 	uint64_t fe_packets[2];    // packet counts [0] forward, [1] reverse
+ * 	uint64_t fe_bytes[2];      // wire byte counts [0] forward, [1] reverse
+ * 	uint64_t fe_first;         // timestamp of first packet in nanos
+ * 	uint64_t fe_last;          // timestamp of last packet in nanos
+ * 	flow_key_t fe_key;         // copy of the key of the first packet
+ * } flow_entry_t;
+ * </pre>
+ * 
+ * <p>
+ * The forward direction is the direction of the first packet seen for the
+ * flow. Only bi-directional flow keys ever have packets counted in the
+ * reverse direction.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JFlowRecord extends JStruct {
+
+	/** Flag set once a packet was seen in the forward direction. */
+	public static final int FLAG_FORWARD = 0x00000001;
+
+	/** Flag set once a packet was seen in the reverse direction. */
+	public static final int FLAG_REVERSE = 0x00000002;
+
+	/** The Constant STRUCT_NAME. */
+	public final static String STRUCT_NAME = "flow_entry_t";
+
+	/**
+	 * Size of the native flow_entry_t structure.
+	 * 
+	 * @return size in bytes
+	 */
+	public native static int sizeof();
+
+	/** Slot within the table this record is peered with. */
+	int index = -1;
+
+	/**
+	 * Creates an unpeered flow record.
+	 */
+	public JFlowRecord() {
+		super(STRUCT_NAME, Type.POINTER);
+	}
+
+	/**
+	 * Gets the number of bytes, as seen on the wire, in one direction.
+	 * 
+	 * @param reverse
+	 *          true for reverse direction, false for forward
+	 * @return number of bytes
+	 */
+	public native long getBytes(boolean reverse);
+
+	/**
+	 * Gets the timestamp of the earliest packet in the flow.
+	 * 
+	 * @return timestamp in nanos
+	 */
+	public native long getFirstTimestamp();
+
+	/**
+	 * Gets the direction flags of this flow.
+	 * 
+	 * @return bitmask of FLAG_FORWARD and FLAG_REVERSE
+	 */
+	public native int getFlags();
+
+	/**
+	 * Gets the slot index of this flow within its table.
+	 * 
+	 * @return index or -1 if not peered
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Peers the supplied key with the flow key stored in this record.
+	 * 
+	 * @param key
+	 *          key to peer
+	 * @return the same key
+	 */
+	public JFlowKey getKey(JFlowKey key) {
+		peerKey(key);
+
+		return key;
+	}
+
+	/**
+	 * Gets the timestamp of the latest packet in the flow.
+	 * 
+	 * @return timestamp in nanos
+	 */
+	public native long getLastTimestamp();
+
+	/**
+	 * Gets the number of packets in one direction.
+	 * 
+	 * @param reverse
+	 *          true for reverse direction, false for forward
+	 * @return number of packets
+	 */
+	public native long getPackets(boolean reverse);
+
+	/**
+	 * Gets the total number of bytes in both directions.
+	 * 
+	 * @return number of bytes
+	 */
+	public long getTotalBytes() {
+		return getBytes(false) + getBytes(true);
+	}
+
+	/**
+	 * Gets the total number of packets in both directions.
+	 * 
+	 * @return number of packets
+	 */
+	public long getTotalPackets() {
+		return getPackets(false) + getPackets(true);
+	}
+
+	/**
+	 * Checks if packets were seen in both directions.
+	 * 
+	 * @return true if flow is bi-directional
+	 */
+	public boolean isBidirectional() {
+		final int both = FLAG_FORWARD | FLAG_REVERSE;
+
+		return (getFlags() & both) == both;
+	}
+
+	/**
+	 * Peer key.
+	 * 
+	 * @param key
+	 *          the key
+	 */
+	private native void peerKey(JFlowKey key);
+
+	/**
+	 * To string.
+	 * 
+	 * @return the string
+	 * @see org.jnetpcap.nio.JStruct#toString()
+	 */
+	@Override
+	public String toString() {
+		Formatter out = new Formatter();
+
+		out.format("[index=%d packets=%d/%d bytes=%d/%d duration=%dms]", index,
+				getPackets(false), getPackets(true), getBytes(false), getBytes(true),
+				(getLastTimestamp() - getFirstTimestamp()) / 1000000L);
+
+		return out.toString();
+	}
+}
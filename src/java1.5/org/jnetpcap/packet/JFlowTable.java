@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.jnetpcap.JCaptureHeader;
+import org.jnetpcap.nio.JMemoryReference;
+import org.jnetpcap.nio.JStruct;
+
+/**
+ * A flow table kept entirely in native memory. Unlike {@link JFlowMap}, which
+ * keeps copies of every packet in java objects, the flow table only keeps a
+ * copy of each flow's key and a set of counters: packets and bytes in each
+ * direction, first and last timestamp and direction flags. The table is an
+ * open-addressing hash table keyed directly by the native
+ * <code>flow_key_t</code> structure, using linear probing.
+ * <p>
+ * All the memory for the table is allocated up front, when the table is
+ * created. Its size depends only on the maximum number of flows, which makes
+ * the memory usage completely predictable. Once the table holds the maximum
+ * number of flows, any new flows are dropped and counted (see
+ * {@link #getDropCount()}) until some flows are removed. The slots are
+ * allocated in a single block of native memory, which may be larger than 2GB.
+ * Its exact size is returned by {@link #sizeof(int)}. Be aware that large
+ * tables, for example one holding 10 million flows in 2<sup>24</sup> slots,
+ * take several gigabytes and require that the maximum direct memory limit be
+ * raised accordingly (see
+ * {@link org.jnetpcap.nio.JMemory#maxDirectMemory()}).
+ * </p>
+ * <p>
+ * Flows are referred to by their slot index. An index remains valid until the
+ * flow is removed, except that when a large number of flows have been removed,
+ * a call to {@link #add} may purge deleted slots, which can move the remaining
+ * flows to different slots. Each purge is counted by
+ * {@link #getCompactCount()}.
+ * </p>
+ * 
+ * <pre>
+ * JFlowTable table = new JFlowTable(100000);
+ * pcap.loop(Pcap.LOOP_INFINITE, table, null);
+ * 
+ * for (JFlowRecord flow : table) {
+ * 	System.out.println(flow);
+ * }
+ * </pre>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JFlowTable extends JStruct implements PcapPacketHandler<Object>,
+		Iterable<JFlowRecord> {
+
+	/** Maximum ratio of used to total slots. */
+	public final static double LOAD_FACTOR = 0.75;
+
+	/** The Constant STRUCT_NAME. */
+	public final static String STRUCT_NAME = "flow_table_t";
+
+	/** Statistic selector used in native code. */
+	private final static int STAT_LOOKUPS = 0;
+
+	/** Statistic selector used in native code. */
+	private final static int STAT_PROBES = 1;
+
+	/** Statistic selector used in native code. */
+	private final static int STAT_DROPS = 2;
+
+	/** Statistic selector used in native code. */
+	private final static int STAT_COMPACTS = 3;
+
+	/** Statistic selector used in native code. */
+	private final static int STAT_DELETED = 4;
+
+	/** Maximum number of slots. */
+	private final static int MAX_SLOTS = 1 << 30;
+
+	/**
+	 * Total size of the flow_table_t structure and its slots, with the given
+	 * number of slots.
+	 * 
+	 * @param slots
+	 *          number of slots
+	 * @return size in bytes
+	 */
+	public native static long sizeof(int slots);
+
+	/**
+	 * Size of the flow_table_t structure alone.
+	 * 
+	 * @return size in bytes
+	 */
+	private native static int sizeof0();
+
+	/**
+	 * Calculates the number of slots needed to hold maxFlows without going
+	 * over the load factor. Always a power of 2.
+	 * 
+	 * @param maxFlows
+	 *          maximum number of flows
+	 * @return number of slots
+	 */
+	static int slotsFor(int maxFlows) {
+		if (maxFlows <= 0) {
+			throw new IllegalArgumentException("maxFlows must be greater than 0");
+		}
+
+		final long min = (long) Math.ceil(maxFlows / LOAD_FACTOR) + 1;
+		if (min > MAX_SLOTS) {
+			throw new IllegalArgumentException("too many flows " + maxFlows
+					+ ", table would need more than " + MAX_SLOTS + " slots");
+		}
+
+		int slots = 16;
+		while (slots < min) {
+			slots <<= 1;
+		}
+
+		return slots;
+	}
+
+	/** Maximum number of flows. */
+	private final int capacity;
+
+	/** Shared record used by iterator. */
+	private final JFlowRecord record = new JFlowRecord();
+
+	/**
+	 * Allocates a flow table for up to maxFlows concurrent flows.
+	 * 
+	 * @param maxFlows
+	 *          maximum number of flows the table will hold
+	 * @throws IllegalArgumentException
+	 *           if maxFlows is not positive or the table is too large to be
+	 *           addressed on this platform
+	 * @throws OutOfMemoryError
+	 *           if the table does not fit within the direct memory limit
+	 */
+	public JFlowTable(int maxFlows) {
+		this(maxFlows, slotsFor(maxFlows));
+	}
+
+	/**
+	 * Allocates a flow table with exact number of slots.
+	 * 
+	 * @param maxFlows
+	 *          maximum number of flows the table will hold
+	 * @param slots
+	 *          number of slots, a power of 2 greater than maxFlows
+	 */
+	private JFlowTable(int maxFlows, int slots) {
+		super(STRUCT_NAME, sizeof0());
+		this.capacity = maxFlows;
+
+		init(slots, maxFlows);
+	}
+
+	/**
+	 * Accounts for a packet with the supplied flow key.
+	 * 
+	 * @param key
+	 *          flow key of the packet
+	 * @param timestamp
+	 *          capture timestamp in nanos
+	 * @param wirelen
+	 *          original length of the packet
+	 * @return index of the flow or -1 if flow is new and the table is full
+	 */
+	public native int add(JFlowKey key, long timestamp, int wirelen);
+
+	/**
+	 * Accounts for a packet. The packet must have been scanned.
+	 * 
+	 * @param packet
+	 *          packet to add
+	 * @return index of the flow or -1 if flow is new and the table is full
+	 */
+	public int add(JPacket packet) {
+		final JCaptureHeader header = packet.getCaptureHeader();
+
+		return add(packet.getState().getFlowKey(), header.timestampInNanos(),
+				header.wirelen());
+	}
+
+	/**
+	 * Gets the maximum number of flows the table will hold.
+	 * 
+	 * @return maximum number of flows
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Removes all the flows and resets all statistics.
+	 */
+	public native void clear();
+
+	/**
+	 * Creates a reference which also releases the slots, which are allocated
+	 * separately from the table structure.
+	 * 
+	 * @param address
+	 *          the address
+	 * @param size
+	 *          the size
+	 * @return the j memory reference
+	 * @see org.jnetpcap.nio.JMemory#createReference(long, long)
+	 */
+	@Override
+	protected JMemoryReference createReference(long address, long size) {
+		return new JFlowTableReference(this, address, size);
+	}
+
+	/**
+	 * Scans the table for flows that have been idle or active for too long.
+	 * The scan starts at slot from and stops once the indexes array is full,
+	 * so a scan of the entire table may take several calls, each one starting
+	 * past the last index returned by the previous call. The flows are not
+	 * removed.
+	 * 
+	 * @param from
+	 *          slot to start scanning from
+	 * @param now
+	 *          current time in nanos
+	 * @param idleTimeout
+	 *          flows with no packets for this many nanos have expired, 0 for
+	 *          no idle timeout
+	 * @param activeTimeout
+	 *          flows that started this many nanos ago have expired, 0 for no
+	 *          active timeout
+	 * @param indexes
+	 *          array to receive indexes of expired flows
+	 * @return number of indexes stored in the array
+	 */
+	public native int expired(int from,
+			long now,
+			long idleTimeout,
+			long activeTimeout,
+			int[] indexes);
+
+	/**
+	 * Gets the number of times deleted slots were purged from the table.
+	 * 
+	 * @return number of purges
+	 */
+	public long getCompactCount() {
+		return getStatistic(STAT_COMPACTS);
+	}
+
+	/**
+	 * Gets the number of slots that are marked as deleted.
+	 * 
+	 * @return number of deleted slots
+	 */
+	public long getDeletedCount() {
+		return getStatistic(STAT_DELETED);
+	}
+
+	/**
+	 * Gets the number of new flows that were not added because the table was
+	 * full.
+	 * 
+	 * @return number of dropped flows
+	 */
+	public long getDropCount() {
+		return getStatistic(STAT_DROPS);
+	}
+
+	/**
+	 * Gets the number of add and lookup calls.
+	 * 
+	 * @return number of lookups
+	 */
+	public long getLookupCount() {
+		return getStatistic(STAT_LOOKUPS);
+	}
+
+	/**
+	 * Gets the number of slots examined by all add and lookup calls. The ratio
+	 * of probes to lookups is the average probe length.
+	 * 
+	 * @return number of probes
+	 */
+	public long getProbeCount() {
+		return getStatistic(STAT_PROBES);
+	}
+
+	/**
+	 * Gets the record for the flow at index. The returned record is shared
+	 * between calls to this method and the iterator.
+	 * 
+	 * @param index
+	 *          index of the flow
+	 * @return shared record peered with the flow
+	 */
+	public JFlowRecord getRecord(int index) {
+		peer(index, record);
+
+		return record;
+	}
+
+	/**
+	 * Gets a statistic counter.
+	 * 
+	 * @param which
+	 *          one of the STAT constants
+	 * @return counter value
+	 */
+	private native long getStatistic(int which);
+
+	/**
+	 * Initializes the table structure and allocates its slots.
+	 * 
+	 * @param slots
+	 *          number of slots
+	 * @param limit
+	 *          maximum number of flows
+	 */
+	private native void init(int slots, int limit);
+
+	/**
+	 * Iterates over all the flows in the table. The same shared record is
+	 * returned on every iteration. The table must not be modified while
+	 * iterating, except using the iterator's remove method.
+	 * 
+	 * @return iterator over the flows
+	 */
+	public Iterator<JFlowRecord> iterator() {
+		return new Iterator<JFlowRecord>() {
+			private int current = -1;
+
+			private int next = JFlowTable.this.next(0);
+
+			public boolean hasNext() {
+				return next != -1;
+			}
+
+			public JFlowRecord next() {
+				if (next == -1) {
+					throw new NoSuchElementException();
+				}
+
+				current = next;
+				next = JFlowTable.this.next(current + 1);
+
+				return getRecord(current);
+			}
+
+			public void remove() {
+				if (current == -1) {
+					throw new IllegalStateException();
+				}
+
+				JFlowTable.this.remove(current);
+				current = -1;
+			}
+		};
+	}
+
+	/**
+	 * Finds a flow.
+	 * 
+	 * @param key
+	 *          flow key to look for
+	 * @return index of the flow or -1 if not found
+	 */
+	public native int lookup(JFlowKey key);
+
+	/**
+	 * Finds the next occupied slot.
+	 * 
+	 * @param index
+	 *          slot to start searching from
+	 * @return index of the next flow at or after index, or -1 if none
+	 */
+	public native int next(int index);
+
+	/**
+	 * Adds the packet to the table.
+	 * 
+	 * @param packet
+	 *          the packet
+	 * @param user
+	 *          ignored
+	 * @see org.jnetpcap.packet.PcapPacketHandler#nextPacket(org.jnetpcap.packet.PcapPacket,
+	 *      java.lang.Object)
+	 */
+	public void nextPacket(PcapPacket packet, Object user) {
+		add(packet);
+	}
+
+	/**
+	 * Peers the record with the flow at index. No data is copied.
+	 * 
+	 * @param index
+	 *          index of the flow
+	 * @param record
+	 *          record to peer
+	 */
+	public void peer(int index, JFlowRecord record) {
+		peer0(index, record);
+		record.index = index;
+	}
+
+	/**
+	 * Peer0.
+	 * 
+	 * @param index
+	 *          the index
+	 * @param record
+	 *          the record
+	 */
+	private native void peer0(int index, JFlowRecord record);
+
+	/**
+	 * Removes the flow at index.
+	 * 
+	 * @param index
+	 *          index of the flow
+	 * @return true if a flow was removed, false if slot was not in use
+	 */
+	public native boolean remove(int index);
+
+	/**
+	 * Gets the number of flows currently in the table.
+	 * 
+	 * @return number of flows
+	 */
+	public native int size();
+
+	/**
+	 * Gets the total number of slots in the table.
+	 * 
+	 * @return number of slots
+	 */
+	public native int slots();
+
+	/**
+	 * Debug string.
+	 * 
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		final long lookups = getLookupCount();
+
+		return "JFlowTable[flows=" + size() + ", capacity=" + capacity
+				+ ", slots=" + slots() + ", drops=" + getDropCount() + ", probes/lookup="
+				+ ((lookups == 0) ? 0. : (double) getProbeCount() / lookups) + "]";
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import org.jnetpcap.nio.JMemoryReference;
+
+/**
+ * Cleanup reference for a {@link JFlowTable}. The slots of the table are
+ * allocated in a separate block of native memory, which is released before
+ * the flow_table_t structure itself.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JFlowTableReference extends JMemoryReference {
+
+	/**
+	 * Instantiates a new flow table reference.
+	 * 
+	 * @param referant
+	 *          the referant
+	 * @param address
+	 *          the address
+	 * @param size
+	 *          the size
+	 */
+	public JFlowTableReference(Object referant, long address, long size) {
+		super(referant, address, size);
+	}
+
+	/**
+	 * Releases the slots and then the table structure.
+	 * 
+	 * @param size
+	 *          the size
+	 * @see org.jnetpcap.nio.JMemoryReference#disposeNative(long)
+	 */
+	@Override
+	protected void disposeNative(long size) {
+		disposeEntries();
+
+		super.disposeNative(size);
+	}
+
+	/**
+	 * Releases the slots of the flow_table_t structure.
+	 */
+	private native void disposeEntries();
+}
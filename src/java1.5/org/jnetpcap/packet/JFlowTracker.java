@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jnetpcap.JCaptureHeader;
+import org.jnetpcap.util.DeadlineTimeout;
+import org.jnetpcap.util.Timeout;
+import org.jnetpcap.util.TimeoutQueue;
+
+/**
+ * Tracks flows in a {@link JFlowTable} and exports each flow once it has
+ * finished, much like a NetFlow or IPFIX exporter. A flow is finished when it
+ * has not seen any packets for the idle timeout, or when it has been running
+ * for longer than the active timeout. Long running flows are therefore
+ * exported periodically, as a series of records, and removed from the table,
+ * which keeps the number of flows in the table bounded.
+ * <p>
+ * Time is driven entirely by packet timestamps, not the system clock, so
+ * flows expire the same way whether the packets are captured live or read out
+ * of a file. The table is swept for expired flows at a regular interval, in
+ * packet time, which is scheduled on a {@link TimeoutQueue}. The sweep
+ * interval determines how late past its timeout a flow may be exported.
+ * </p>
+ * 
+ * <pre>
+ * JFlowTracker&lt;Object&gt; tracker =
+ * 		new JFlowTracker&lt;Object&gt;(new JFlowTable(1000000), 15, 1800,
+ * 				TimeUnit.SECONDS, new JFlowExportHandler&lt;Object&gt;() {
+ * 					public void exportFlow(JFlowRecord flow,
+ * 							JFlowTracker.Expiry reason, Object user) {
+ * 						System.out.println(reason + &quot; &quot; + flow);
+ * 					}
+ * 				});
+ * 
+ * pcap.loop(Pcap.LOOP_INFINITE, tracker, null);
+ * tracker.flush(null);
+ * </pre>
+ * 
+ * @param <T>
+ *          the generic user type
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JFlowTracker<T> implements PcapPacketHandler<T> {
+
+	/**
+	 * Reason a flow was exported.
+	 */
+	public enum Expiry {
+
+		/** No packets were seen for the idle timeout. */
+		IDLE,
+
+		/** Flow has been running for longer than the active timeout. */
+		ACTIVE,
+
+		/** Flow was exported by an explicit flush. */
+		FLUSH
+	}
+
+	/**
+	 * Timeout entry which triggers a sweep of the flow table.
+	 */
+	private class Sweep implements DeadlineTimeout {
+
+		/** Packet time, in millis, when sweep is due. */
+		private long deadline;
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		public int compareTo(Timeout o) {
+			final long other = ((DeadlineTimeout) o).getDeadline();
+
+			return (deadline < other) ? -1 : (deadline == other) ? 0 : 1;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see org.jnetpcap.util.DeadlineTimeout#getDeadline()
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see org.jnetpcap.util.Timeout#isTimedout(long)
+		 */
+		public boolean isTimedout(long timeInMillis) {
+			return timeInMillis >= deadline;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see org.jnetpcap.util.Timeout#timeout()
+		 */
+		public void timeout() {
+			sweep();
+
+			deadline = now / NANOS_PER_MILLI + sweepInterval;
+			queue.add(this);
+		}
+	}
+
+	/** Number of nanos in a milli. */
+	private final static long NANOS_PER_MILLI = 1000000L;
+
+	/** Number of expired flow indexes collected per native call. */
+	private final static int SWEEP_BATCH = 256;
+
+	/** Active timeout in nanos. */
+	private final long activeTimeout;
+
+	/** Number of flows exported, one counter per Expiry reason. */
+	private final long[] exported = new long[Expiry.values().length];
+
+	/** Receives finished flows. */
+	private final JFlowExportHandler<T> handler;
+
+	/** Idle timeout in nanos. */
+	private final long idleTimeout;
+
+	/** Scratch array of expired flow indexes. */
+	private final int[] indexes = new int[SWEEP_BATCH];
+
+	/** Current packet time in nanos. */
+	private long now;
+
+	/** Schedules table sweeps. */
+	private final TimeoutQueue queue = new TimeoutQueue();
+
+	/** Record used to export flows. */
+	private final JFlowRecord record = new JFlowRecord();
+
+	/** The only sweep timeout entry, null until first packet is seen. */
+	private Sweep sweep;
+
+	/** Sweep interval in millis. */
+	private long sweepInterval;
+
+	/** Flow table being tracked. */
+	private final JFlowTable table;
+
+	/** User object passed to the handler during a sweep. */
+	private T user;
+
+	/**
+	 * Creates a tracker for the table. The sweep interval defaults to a quarter
+	 * of the shorter of the 2 timeouts.
+	 * 
+	 * @param table
+	 *          flow table to track
+	 * @param idleTimeout
+	 *          idle timeout, 0 to disable
+	 * @param activeTimeout
+	 *          active timeout, 0 to disable
+	 * @param unit
+	 *          unit of the timeouts
+	 * @param handler
+	 *          receives finished flows
+	 */
+	public JFlowTracker(JFlowTable table,
+			long idleTimeout,
+			long activeTimeout,
+			TimeUnit unit,
+			JFlowExportHandler<T> handler) {
+
+		if (table == null || handler == null) {
+			throw new NullPointerException();
+		}
+
+		if (idleTimeout < 0 || activeTimeout < 0) {
+			throw new IllegalArgumentException("negative timeout");
+		}
+
+		this.table = table;
+		this.handler = handler;
+		this.idleTimeout = unit.toNanos(idleTimeout);
+		this.activeTimeout = unit.toNanos(activeTimeout);
+
+		long shortest = Long.MAX_VALUE;
+		if (this.idleTimeout > 0) {
+			shortest = this.idleTimeout;
+		}
+		if (this.activeTimeout > 0 && this.activeTimeout < shortest) {
+			shortest = this.activeTimeout;
+		}
+
+		this.sweepInterval = (shortest == Long.MAX_VALUE) ? 1000
+				: Math.max(1, shortest / NANOS_PER_MILLI / 4);
+	}
+
+	/**
+	 * Accounts for a packet in the flow table and then expires any flows that
+	 * have timed out by the packet's timestamp.
+	 * 
+	 * @param packet
+	 *          scanned packet
+	 * @param user
+	 *          user object passed to the export handler
+	 * @return index of the packet's flow or -1 if table is full
+	 */
+	public int add(JPacket packet, T user) {
+		final JCaptureHeader header = packet.getCaptureHeader();
+		final long timestamp = header.timestampInNanos();
+
+		/*
+		 * Expire first, so that room is made in the table before a new flow is
+		 * added and an expired flow is not extended by a late packet.
+		 */
+		advance(timestamp, user);
+
+		return table.add(packet.getState().getFlowKey(), timestamp, header
+				.wirelen());
+	}
+
+	/**
+	 * Advances the tracker's clock without a packet, expiring any flows which
+	 * have timed out by then. Useful during quiet periods on a live capture.
+	 * The clock never moves backwards.
+	 * 
+	 * @param timeInNanos
+	 *          current time in nanos
+	 * @param user
+	 *          user object passed to the export handler
+	 */
+	public void advance(long timeInNanos, T user) {
+		if (timeInNanos <= now) {
+			return;
+		}
+
+		now = timeInNanos;
+
+		if (sweep == null) {
+			sweep = new Sweep();
+			sweep.deadline = now / NANOS_PER_MILLI + sweepInterval;
+			queue.add(sweep);
+			return;
+		}
+
+		this.user = user;
+		try {
+			queue.timeout(now / NANOS_PER_MILLI);
+		} finally {
+			this.user = null;
+		}
+	}
+
+	/**
+	 * Exports the flow the record is peered with and removes it from the table.
+	 * 
+	 * @param reason
+	 *          reason for export
+	 * @param user
+	 *          user object passed to the handler
+	 */
+	private void export(Expiry reason, T user) {
+		final int index = record.getIndex();
+
+		try {
+			handler.exportFlow(record, reason, user);
+		} finally {
+			table.remove(index);
+			exported[reason.ordinal()]++;
+		}
+	}
+
+	/**
+	 * Exports every flow in the table, regardless of timeouts, and leaves the
+	 * table empty. Should be called at the end of a capture.
+	 * 
+	 * @param user
+	 *          user object passed to the export handler
+	 * @return number of flows exported
+	 */
+	public int flush(T user) {
+		int count = 0;
+
+		for (int i = table.next(0); i != -1; i = table.next(i + 1)) {
+			table.peer(i, record);
+			export(Expiry.FLUSH, user);
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Gets the active timeout.
+	 * 
+	 * @param unit
+	 *          unit to return timeout in
+	 * @return the active timeout
+	 */
+	public long getActiveTimeout(TimeUnit unit) {
+		return unit.convert(activeTimeout, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Gets the number of flows exported for a specific reason.
+	 * 
+	 * @param reason
+	 *          the reason
+	 * @return number of flows
+	 */
+	public long getExportCount(Expiry reason) {
+		return exported[reason.ordinal()];
+	}
+
+	/**
+	 * Gets the idle timeout.
+	 * 
+	 * @param unit
+	 *          unit to return timeout in
+	 * @return the idle timeout
+	 */
+	public long getIdleTimeout(TimeUnit unit) {
+		return unit.convert(idleTimeout, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Gets the interval between sweeps of the table.
+	 * 
+	 * @return interval in millis of packet time
+	 */
+	public long getSweepInterval() {
+		return sweepInterval;
+	}
+
+	/**
+	 * Gets the flow table being tracked.
+	 * 
+	 * @return the table
+	 */
+	public JFlowTable getTable() {
+		return table;
+	}
+
+	/**
+	 * Adds the packet to the tracker.
+	 * 
+	 * @param packet
+	 *          the packet
+	 * @param user
+	 *          user object passed to the export handler
+	 * @see org.jnetpcap.packet.PcapPacketHandler#nextPacket(org.jnetpcap.packet.PcapPacket,
+	 *      java.lang.Object)
+	 */
+	public void nextPacket(PcapPacket packet, T user) {
+		add(packet, user);
+	}
+
+	/**
+	 * Sets the interval between sweeps of the table. Shorter intervals export
+	 * flows closer to their exact timeout, at the cost of scanning the table
+	 * more often.
+	 * 
+	 * @param interval
+	 *          sweep interval
+	 * @param unit
+	 *          unit of the interval
+	 */
+	public void setSweepInterval(long interval, TimeUnit unit) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("interval must be greater than 0");
+		}
+
+		this.sweepInterval = Math.max(1, unit.toMillis(interval));
+	}
+
+	/**
+	 * Scans the entire table and exports all flows that have expired by the
+	 * current time.
+	 */
+	private void sweep() {
+		int from = 0;
+		int count;
+
+		do {
+			count = table.expired(from, now, idleTimeout, activeTimeout, indexes);
+
+			for (int i = 0; i < count; i++) {
+				table.peer(indexes[i], record);
+
+				final long age = now - record.getFirstTimestamp();
+				if (activeTimeout > 0 && age >= activeTimeout) {
+					export(Expiry.ACTIVE, user);
+				} else {
+					export(Expiry.IDLE, user);
+				}
+			}
+
+			if (count > 0) {
+				from = indexes[count - 1] + 1;
+			}
+		} while (count == indexes.length);
+	}
+}
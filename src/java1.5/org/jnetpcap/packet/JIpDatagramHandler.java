@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import org.jnetpcap.JHandler;
+
+/**
+ * A handler which receives reassembled IP datagrams from a
+ * {@link JIpReassembler}.
+ * 
+ * @param <T>
+ *          the generic user type
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface JIpDatagramHandler<T> extends JHandler<T> {
+
+	/**
+	 * Called once for every datagram that has been fully reassembled. The
+	 * datagram starts with the IP header and has already been scanned. Its data
+	 * is released back to the memory pool, and its state overwritten by the
+	 * scanner, after this method returns. If the datagram is needed for longer,
+	 * it must be deep copied, for example using
+	 * <code>new JMemoryPacket(datagram)</code>.
+	 * 
+	 * @param datagram
+	 *          reassembled and scanned datagram
+	 * @param user
+	 *          user supplied object of type <T>
+	 */
+	public void nextDatagram(JMemoryPacket datagram, T user);
+}
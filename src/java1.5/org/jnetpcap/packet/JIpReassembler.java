@@ -0,0 +1,1013 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jnetpcap.JCaptureHeader;
+import org.jnetpcap.nio.JMemory.Type;
+import org.jnetpcap.nio.JMemoryPool;
+import org.jnetpcap.protocol.network.Ip4;
+import org.jnetpcap.protocol.network.Ip6;
+
+/**
+ * Reassembles fragmented Ip4 and Ip6 datagrams. The scanner only marks
+ * fragments with {@link JHeader.State#FLAG_HEADER_FRAGMENTED} and stops
+ * decoding at the IP header, so protocols carried in large UDP datagrams, such
+ * as DNS, SIP or RADIUS, are never seen in full. The reassembler collects the
+ * fragments of each datagram, keyed on source, destination, identification and
+ * protocol, and once all of them have arrived builds a new
+ * {@link JMemoryPacket}, allocated out of a {@link JMemoryPool}, which is
+ * rescanned starting with the IP header and handed to a
+ * {@link JIpDatagramHandler}.
+ * <p>
+ * Memory held by incomplete datagrams is bounded. When the limit is reached,
+ * the oldest incomplete datagrams are evicted to make room. Datagrams which are
+ * not completed within the timeout are discarded. Time is driven by packet
+ * timestamps, not the system clock, so captures read out of a file behave the
+ * same as live ones. Since every datagram has the same timeout, measured from
+ * its first fragment, the oldest datagram is always the next one to expire.
+ * </p>
+ * <p>
+ * Fragments which overlap data already received are handled according to the
+ * {@link Overlap} policy. Fragments which are malformed in a way that teardrop
+ * style attacks rely on, such as extending past the end of the datagram or
+ * past the maximum datagram size, always cause the entire datagram to be
+ * discarded. Every such event is counted, see {@link #getCount(Counter)}.
+ * </p>
+ *
+ * <pre>
+ * final JIpReassembler&lt;Object&gt; reassembler =
+ * 		new JIpReassembler&lt;Object&gt;(new JIpDatagramHandler&lt;Object&gt;() {
+ * 			public void nextDatagram(JMemoryPacket datagram, Object user) {
+ * 				System.out.println(datagram);
+ * 			}
+ * 		});
+ *
+ * pcap.loop(Pcap.LOOP_INFINITE, new PcapPacketHandler&lt;Object&gt;() {
+ * 	public void nextPacket(PcapPacket packet, Object user) {
+ * 		if (reassembler.add(packet, user) == false) {
+ * 			// Not a fragment, process packet as is
+ * 		}
+ * 	}
+ * }, null);
+ * </pre>
+ *
+ * @param <T>
+ *          the generic user type
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JIpReassembler<T> implements PcapPacketHandler<T> {
+
+	/**
+	 * Events counted by the reassembler.
+	 */
+	public enum Counter {
+
+		/** Fragments added to the reassembler. */
+		FRAGMENTS,
+
+		/** Datagrams successfully reassembled and dispatched. */
+		DATAGRAMS,
+
+		/** Fragments which overlapped data already received. */
+		OVERLAPS,
+
+		/**
+		 * Malformed fragments which caused their datagram to be discarded, such
+		 * as a fragment extending past the end of the datagram, a second last
+		 * fragment with a different end or a datagram larger than 65535 bytes.
+		 */
+		TEARDROPS,
+
+		/** Fragments not entirely captured, which were ignored. */
+		TRUNCATED,
+
+		/** Incomplete datagrams discarded because of the timeout. */
+		TIMEOUTS,
+
+		/** Incomplete datagrams discarded because of the memory limit. */
+		EVICTIONS
+	}
+
+	/**
+	 * Policy applied to fragments which overlap data already received.
+	 */
+	public enum Overlap {
+
+		/** Data received first is kept, only the new bytes are copied. */
+		FIRST,
+
+		/** Data received last overwrites any previously received data. */
+		LAST,
+
+		/** The entire datagram is discarded, as required by RFC 5722 for Ip6. */
+		DROP
+	}
+
+	/**
+	 * Fragments of a single datagram collected so far.
+	 */
+	private static class Datagram {
+
+		/** Payload of the datagram, without the IP header. */
+		private byte[] data;
+
+		/** Packet time in nanos when the datagram is discarded. */
+		private final long deadline;
+
+		/** Length of the payload, or -1 until the last fragment is seen. */
+		private int end = -1;
+
+		/** IP header taken from the first fragment, null until it is seen. */
+		private byte[] header;
+
+		/** Key under which the datagram is stored. */
+		private final Key key;
+
+		/** Bytes of memory accounted to this datagram. */
+		private int memory;
+
+		/** Ip6 only, offset into header of the byte naming the fragment header. */
+		private int nextOffset;
+
+		/** Ip6 only, protocol which follows the fragment header. */
+		private int nextProtocol;
+
+		/** Number of entries used in ranges array. */
+		private int rangeCount;
+
+		/** Sorted and merged ranges of payload received, as start/end pairs. */
+		private int[] ranges = new int[8];
+
+		/**
+		 * Creates an empty datagram.
+		 *
+		 * @param key
+		 *          private copy of the key
+		 * @param deadline
+		 *          time in nanos when datagram times out
+		 */
+		public Datagram(Key key, long deadline) {
+			this.key = key;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Checks if every fragment of the datagram has been received.
+		 *
+		 * @return true if complete, otherwise false
+		 */
+		public boolean isComplete() {
+			return header != null && end != -1 && rangeCount == 2 && ranges[0] == 0
+					&& ranges[1] == end;
+		}
+
+		/**
+		 * Checks if the range overlaps any data already received.
+		 *
+		 * @param start
+		 *          start of range
+		 * @param stop
+		 *          end of range, exclusive
+		 * @return true if there is an overlap
+		 */
+		public boolean overlaps(int start, int stop) {
+			for (int i = 0; i < rangeCount; i += 2) {
+				if (ranges[i] < stop && ranges[i + 1] > start) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Records a range as received, merging it with any adjacent or
+		 * overlapping ranges.
+		 *
+		 * @param start
+		 *          start of range
+		 * @param stop
+		 *          end of range, exclusive
+		 */
+		public void receive(int start, int stop) {
+			int i = 0;
+			while (i < rangeCount && ranges[i + 1] < start) {
+				i += 2;
+			}
+
+			int j = i;
+			while (j < rangeCount && ranges[j] <= stop) {
+				start = Math.min(start, ranges[j]);
+				stop = Math.max(stop, ranges[j + 1]);
+				j += 2;
+			}
+
+			final int removed = j - i;
+			if (removed == 0 && rangeCount == ranges.length) {
+				final int[] n = new int[ranges.length * 2];
+				System.arraycopy(ranges, 0, n, 0, rangeCount);
+				ranges = n;
+			}
+
+			final int shift = 2 - removed;
+			System.arraycopy(ranges, j, ranges, j + shift, rangeCount - j);
+			rangeCount += shift;
+
+			ranges[i] = start;
+			ranges[i + 1] = stop;
+		}
+	}
+
+	/**
+	 * Identifies a datagram. Ip4 addresses use the lower 32 bits of the first
+	 * address word.
+	 */
+	private static class Key {
+
+		/** The destination address. */
+		private long dst0, dst1;
+
+		/** The hashcode. */
+		private int hash;
+
+		/** Identification field. */
+		private int id;
+
+		/** Protocol carried by the datagram. */
+		private int protocol;
+
+		/** The source address. */
+		private long src0, src1;
+
+		/** Ip version, 4 or 6. */
+		private int version;
+
+		/**
+		 * Copies a key.
+		 *
+		 * @return copy of this key
+		 */
+		public Key copy() {
+			final Key k = new Key();
+			k.set(version, src0, src1, dst0, dst1, id, protocol);
+
+			return k;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key == false) {
+				return false;
+			}
+
+			final Key k = (Key) obj;
+
+			return hash == k.hash && id == k.id && protocol == k.protocol
+					&& version == k.version && src0 == k.src0 && src1 == k.src1
+					&& dst0 == k.dst0 && dst1 == k.dst1;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		/**
+		 * Sets all the fields of the key.
+		 *
+		 * @param version
+		 *          ip version
+		 * @param src0
+		 *          first 8 bytes of source address
+		 * @param src1
+		 *          second 8 bytes of source address
+		 * @param dst0
+		 *          first 8 bytes of destination address
+		 * @param dst1
+		 *          second 8 bytes of destination address
+		 * @param id
+		 *          identification
+		 * @param protocol
+		 *          carried protocol
+		 */
+		public void set(int version,
+				long src0,
+				long src1,
+				long dst0,
+				long dst1,
+				int id,
+				int protocol) {
+			this.version = version;
+			this.src0 = src0;
+			this.src1 = src1;
+			this.dst0 = dst0;
+			this.dst1 = dst1;
+			this.id = id;
+			this.protocol = protocol;
+
+			long h = src0 ^ src1 ^ (dst0 * 31) ^ (dst1 * 31);
+			h = h * 31 + id;
+			h = h * 31 + protocol;
+
+			this.hash = (int) (h ^ (h >>> 32));
+		}
+	}
+
+	/** Default limit on memory held by incomplete datagrams, 4MB. */
+	public final static int DEFAULT_MAX_MEMORY = 4 * 1024 * 1024;
+
+	/** Default timeout in seconds. */
+	public final static long DEFAULT_TIMEOUT = 30;
+
+	/** Largest datagram, including the IP header, that can be reassembled. */
+	private final static int MAX_DATAGRAM = 65535;
+
+	/** Maximum number of Ip6 extension headers walked looking for a fragment. */
+	private final static int MAX_EXTENSIONS = 8;
+
+	/** Number of events counted, one counter per Counter. */
+	private final long[] counters = new long[Counter.values().length];
+
+	/** Datagrams in progress, in the order they were started. */
+	private final LinkedHashMap<Key, Datagram> datagrams =
+			new LinkedHashMap<Key, Datagram>();
+
+	/** Receives reassembled datagrams. */
+	private final JIpDatagramHandler<T> handler;
+
+	/** Scratch Ip4 header. */
+	private final Ip4 ip4 = new Ip4();
+
+	/** Scratch Ip6 header. */
+	private final Ip6 ip6 = new Ip6();
+
+	/** Scratch key used for lookups. */
+	private final Key key = new Key();
+
+	/** Limit on memory held by incomplete datagrams. */
+	private final int maxMemory;
+
+	/** Bytes of memory held by incomplete datagrams. */
+	private int memory;
+
+	/** Current packet time in nanos. */
+	private long now;
+
+	/** Packet reused for every datagram dispatched. */
+	private final JMemoryPacket packet = new JMemoryPacket(Type.POINTER);
+
+	/** Policy for overlapping fragments. */
+	private Overlap policy = Overlap.FIRST;
+
+	/** Pool out of which datagrams are allocated, null for packet's pool. */
+	private JMemoryPool pool;
+
+	/** Scanner used to rescan datagrams, null for default scanner. */
+	private JScanner scanner;
+
+	/** Timeout in nanos. */
+	private final long timeout;
+
+	/**
+	 * Creates a reassembler with {@link #DEFAULT_MAX_MEMORY} limit and
+	 * {@link #DEFAULT_TIMEOUT}.
+	 *
+	 * @param handler
+	 *          receives reassembled datagrams
+	 */
+	public JIpReassembler(JIpDatagramHandler<T> handler) {
+		this(DEFAULT_MAX_MEMORY, DEFAULT_TIMEOUT, TimeUnit.SECONDS, handler);
+	}
+
+	/**
+	 * Creates a reassembler.
+	 *
+	 * @param maxMemory
+	 *          limit in bytes on memory held by incomplete datagrams
+	 * @param timeout
+	 *          time allowed for all the fragments of a datagram to arrive
+	 * @param unit
+	 *          unit of the timeout
+	 * @param handler
+	 *          receives reassembled datagrams
+	 */
+	public JIpReassembler(int maxMemory,
+			long timeout,
+			TimeUnit unit,
+			JIpDatagramHandler<T> handler) {
+
+		if (handler == null) {
+			throw new NullPointerException();
+		}
+
+		if (maxMemory <= 0) {
+			throw new IllegalArgumentException("maxMemory must be greater than 0");
+		}
+
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("timeout must be greater than 0");
+		}
+
+		this.handler = handler;
+		this.maxMemory = maxMemory;
+		this.timeout = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Adds a packet to the reassembler. If the packet contains an Ip4 or Ip6
+	 * fragment, the fragment is copied into its datagram and the packet is no
+	 * longer needed. If the fragment completes the datagram, the datagram is
+	 * dispatched to the handler before this method returns. Any datagrams which
+	 * have timed out by the packet's timestamp are discarded.
+	 *
+	 * @param packet
+	 *          scanned packet
+	 * @param user
+	 *          user object passed to the handler
+	 * @return true if packet was a fragment and was consumed, false if the
+	 *         packet is not a fragment and should be processed as is
+	 */
+	public boolean add(JPacket packet, T user) {
+		advance(packet.getCaptureHeader().timestampInNanos());
+
+		if (packet.hasHeader(ip4)) {
+			return addIp4(packet, user);
+
+		} else if (packet.hasHeader(ip6)) {
+			return addIp6(packet, user);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds an Ip4 fragment.
+	 *
+	 * @param packet
+	 *          the packet
+	 * @param user
+	 *          the user
+	 * @return true if packet was a fragment
+	 */
+	private boolean addIp4(JPacket packet, T user) {
+		final boolean more = (ip4.flags() & Ip4.FLAG_MORE_FRAGMENTS) != 0;
+		final int offset = ip4.offset() * 8;
+
+		if (more == false && offset == 0) {
+			return false;
+		}
+
+		final int start = ip4.getOffset();
+		final int hlen = ip4.hlen() * 4;
+
+		key.set(4, ip4.sourceToInt() & 0xFFFFFFFFL, 0, ip4.destinationToInt()
+				& 0xFFFFFFFFL, 0, ip4.id(), ip4.type());
+
+		fragment(packet, start, hlen, offset, ip4.length() - hlen, more, 0, 0,
+				user);
+
+		return true;
+	}
+
+	/**
+	 * Adds an Ip6 fragment. The extension headers are walked looking for the
+	 * fragment header, which is not decoded by Ip6 header definition.
+	 *
+	 * @param packet
+	 *          the packet
+	 * @param user
+	 *          the user
+	 * @return true if packet was a fragment
+	 */
+	private boolean addIp6(JPacket packet, T user) {
+		final int start = ip6.getOffset();
+		final int size = packet.size();
+
+		int next = packet.getUByte(start + 6);
+		int nextOffset = 6;
+		int p = start + 40;
+
+		for (int i = 0; next != 44; i++) {
+			if (i == MAX_EXTENSIONS || p + 8 > size) {
+				return false;
+			}
+
+			final int len;
+			switch (next) {
+				case 0: // Hop-by-hop options
+				case 43: // Routing header
+				case 60: // Destination Options
+				case 135: // Mobility Header
+					len = (packet.getUByte(p + 1) + 1) * 8;
+					break;
+
+				case 51: // Authentication Header
+					len = (packet.getUByte(p + 1) + 2) * 4;
+					break;
+
+				default:
+					return false;
+			}
+
+			next = packet.getUByte(p);
+			nextOffset = p - start;
+			p += len;
+		}
+
+		if (p + 8 > size) {
+			return false;
+		}
+
+		final int protocol = packet.getUByte(p);
+		final int flags = packet.getUShort(p + 2);
+		final int end = start + 40 + packet.getUShort(start + 4);
+
+		key.set(6, packet.getLong(start + 8), packet.getLong(start + 16), packet
+				.getLong(start + 24), packet.getLong(start + 32), packet
+				.getInt(p + 4), protocol);
+
+		fragment(packet, start, p - start, flags & 0xFFF8, end - p - 8,
+				(flags & 1) != 0, nextOffset, protocol, user);
+
+		return true;
+	}
+
+	/**
+	 * Advances the reassembler's clock without a packet, discarding any
+	 * datagrams which have timed out by then. The clock never moves backwards.
+	 *
+	 * @param timeInNanos
+	 *          current time in nanos
+	 */
+	public void advance(long timeInNanos) {
+		if (timeInNanos <= now) {
+			return;
+		}
+
+		now = timeInNanos;
+
+		final Iterator<Datagram> i = datagrams.values().iterator();
+		while (i.hasNext()) {
+			final Datagram d = i.next();
+			if (d.deadline > now) {
+				break;
+			}
+
+			i.remove();
+			memory -= d.memory;
+			counters[Counter.TIMEOUTS.ordinal()]++;
+		}
+	}
+
+	/**
+	 * Discards all incomplete datagrams.
+	 */
+	public void clear() {
+		datagrams.clear();
+		memory = 0;
+	}
+
+	/**
+	 * Copies fragment data into the datagram.
+	 *
+	 * @param d
+	 *          datagram
+	 * @param packet
+	 *          source packet
+	 * @param src
+	 *          offset of fragment payload within the packet
+	 * @param start
+	 *          start within datagram payload
+	 * @param stop
+	 *          end within datagram payload, exclusive
+	 */
+	private void copy(Datagram d, JPacket packet, int src, int start, int stop) {
+		if (start < stop) {
+			packet.getByteArray(src, d.data, start, stop - start);
+		}
+	}
+
+	/**
+	 * Removes a datagram from the reassembler.
+	 *
+	 * @param d
+	 *          datagram to remove
+	 * @param counter
+	 *          event to count or null
+	 */
+	private void discard(Datagram d, Counter counter) {
+		datagrams.remove(d.key);
+		memory -= d.memory;
+
+		if (counter != null) {
+			counters[counter.ordinal()]++;
+		}
+	}
+
+	/**
+	 * Builds the reassembled datagram, scans it and hands it to the handler.
+	 *
+	 * @param d
+	 *          complete datagram
+	 * @param source
+	 *          packet containing the last fragment, for its timestamp
+	 * @param user
+	 *          user object
+	 */
+	private void dispatch(Datagram d, JPacket source, T user) {
+		final byte[] h = d.header;
+		final int size = h.length + d.end;
+		final int id;
+
+		if (d.key.version == 4) {
+			id = Ip4.ID;
+
+			h[2] = (byte) (size >> 8);
+			h[3] = (byte) size;
+			h[6] &= 0x40; // Keep DF, clear MF and offset
+			h[7] = 0;
+			h[10] = 0;
+			h[11] = 0;
+
+			final int sum = ip4Checksum(h);
+			h[10] = (byte) (sum >> 8);
+			h[11] = (byte) sum;
+
+		} else {
+			id = Ip6.ID;
+
+			final int plen = size - 40;
+			h[4] = (byte) (plen >> 8);
+			h[5] = (byte) plen;
+			h[d.nextOffset] = (byte) d.nextProtocol;
+		}
+
+		final JMemoryPool pool =
+				(this.pool == null) ? JPacket.getMemoryPool() : this.pool;
+		pool.allocate(size, packet);
+
+		packet.transferFrom(ByteBuffer.wrap(h), 0);
+		packet.transferFrom(ByteBuffer.wrap(d.data, 0, d.end), h.length);
+
+		final JCaptureHeader ch = source.getCaptureHeader();
+		packet.getCaptureHeader().init(size, size, ch.nanos(), ch.seconds());
+
+		try {
+			if (scanner == null) {
+				JPacket.getDefaultScanner().scan(packet, id);
+			} else {
+				scanner.scan(packet, id);
+			}
+
+			counters[Counter.DATAGRAMS.ordinal()]++;
+			handler.nextDatagram(packet, user);
+		} finally {
+			packet.release();
+		}
+	}
+
+	/**
+	 * Processes a single fragment.
+	 *
+	 * @param packet
+	 *          packet containing the fragment
+	 * @param start
+	 *          offset of the IP header within the packet
+	 * @param hlen
+	 *          length of the IP header, including any Ip6 extension headers
+	 *          which precede the fragment header
+	 * @param offset
+	 *          fragment offset in bytes
+	 * @param len
+	 *          length of fragment payload
+	 * @param more
+	 *          more fragments flag
+	 * @param nextOffset
+	 *          Ip6 offset within header of byte naming the fragment header
+	 * @param nextProtocol
+	 *          Ip6 protocol following the fragment header
+	 * @param user
+	 *          user object
+	 */
+	private void fragment(JPacket packet,
+			int start,
+			int hlen,
+			int offset,
+			int len,
+			boolean more,
+			int nextOffset,
+			int nextProtocol,
+			T user) {
+
+		counters[Counter.FRAGMENTS.ordinal()]++;
+
+		final int src = start + hlen + ((key.version == 6) ? 8 : 0);
+		if (len < 0 || src + len > packet.size()) {
+			counters[Counter.TRUNCATED.ordinal()]++;
+			return;
+		}
+
+		final int stop = offset + len;
+		Datagram d = datagrams.get(key);
+
+		/*
+		 * Every fragment but the last must carry a multiple of 8 bytes, and no
+		 * fragment may push the datagram past the maximum size or the end set by
+		 * the last fragment.
+		 */
+		boolean malformed =
+				(more && (len == 0 || (len & 7) != 0)) || hlen + stop > MAX_DATAGRAM;
+
+		if (d != null && malformed == false) {
+			if (d.end != -1) {
+				malformed = (stop > d.end) || (more == false && stop != d.end);
+
+			} else if (more == false && d.rangeCount > 0) {
+				malformed = d.ranges[d.rangeCount - 1] > stop;
+			}
+
+			if (d.header != null && d.header.length + stop > MAX_DATAGRAM) {
+				malformed = true;
+			}
+		}
+
+		if (malformed) {
+			if (d != null) {
+				discard(d, null);
+			}
+
+			counters[Counter.TEARDROPS.ordinal()]++;
+			return;
+		}
+
+		if (d == null) {
+			d = new Datagram(key.copy(), now + timeout);
+			datagrams.put(d.key, d);
+		}
+
+		if (reserve(d, stop, (offset == 0 && d.header == null) ? hlen : 0) == false) {
+			return;
+		}
+
+		if (more == false) {
+			d.end = stop;
+		}
+
+		if (offset == 0 && d.header == null) {
+			d.header = packet.getByteArray(start, hlen);
+			d.nextOffset = nextOffset;
+			d.nextProtocol = nextProtocol;
+		}
+
+		if (d.overlaps(offset, stop)) {
+			counters[Counter.OVERLAPS.ordinal()]++;
+
+			switch (policy) {
+				case DROP:
+					discard(d, null);
+					return;
+
+				case LAST:
+					copy(d, packet, src, offset, stop);
+					break;
+
+				case FIRST:
+					int pos = offset;
+					for (int i = 0; i < d.rangeCount && pos < stop; i += 2) {
+						if (d.ranges[i + 1] <= pos) {
+							continue;
+						}
+
+						final int gap = Math.min(d.ranges[i], stop);
+						copy(d, packet, src + pos - offset, pos, gap);
+						pos = Math.max(pos, d.ranges[i + 1]);
+					}
+					copy(d, packet, src + pos - offset, pos, stop);
+					break;
+			}
+
+		} else {
+			copy(d, packet, src, offset, stop);
+		}
+
+		d.receive(offset, stop);
+
+		if (d.isComplete()) {
+			discard(d, null);
+			dispatch(d, packet, user);
+		}
+	}
+
+	/**
+	 * Gets the number of times an event has occured.
+	 *
+	 * @param counter
+	 *          the event
+	 * @return the count
+	 */
+	public long getCount(Counter counter) {
+		return counters[counter.ordinal()];
+	}
+
+	/**
+	 * Gets the limit on memory held by incomplete datagrams.
+	 *
+	 * @return limit in bytes
+	 */
+	public int getMaxMemory() {
+		return maxMemory;
+	}
+
+	/**
+	 * Gets the memory currently held by incomplete datagrams.
+	 *
+	 * @return memory in bytes
+	 */
+	public int getMemory() {
+		return memory;
+	}
+
+	/**
+	 * Gets the policy for overlapping fragments.
+	 *
+	 * @return the policy
+	 */
+	public Overlap getOverlapPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Gets the timeout.
+	 *
+	 * @param unit
+	 *          unit to return timeout in
+	 * @return the timeout
+	 */
+	public long getTimeout(TimeUnit unit) {
+		return unit.convert(timeout, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Calculates the Ip4 header checksum.
+	 *
+	 * @param h
+	 *          header with checksum field set to 0
+	 * @return the checksum
+	 */
+	private static int ip4Checksum(byte[] h) {
+		int sum = 0;
+		for (int i = 0; i + 1 < h.length; i += 2) {
+			sum += ((h[i] & 0xFF) << 8) | (h[i + 1] & 0xFF);
+		}
+
+		while ((sum >> 16) != 0) {
+			sum = (sum & 0xFFFF) + (sum >> 16);
+		}
+
+		return ~sum & 0xFFFF;
+	}
+
+	/**
+	 * Adds the packet to the reassembler.
+	 *
+	 * @param packet
+	 *          the packet
+	 * @param user
+	 *          user object passed to the handler
+	 * @see #add(JPacket, Object)
+	 * @see org.jnetpcap.packet.PcapPacketHandler#nextPacket(org.jnetpcap.packet.PcapPacket,
+	 *      java.lang.Object)
+	 */
+	public void nextPacket(PcapPacket packet, T user) {
+		add(packet, user);
+	}
+
+	/**
+	 * Makes sure the datagram can hold payload up to stop plus an IP header,
+	 * evicting the oldest datagrams if the memory limit would be exceeded. If
+	 * the datagram alone exceeds the limit, it is discarded.
+	 *
+	 * @param d
+	 *          the datagram
+	 * @param stop
+	 *          end of payload
+	 * @param hlen
+	 *          length of header about to be stored, or 0
+	 * @return true if the datagram can hold the data, false if discarded
+	 */
+	private boolean reserve(Datagram d, int stop, int hlen) {
+		final int capacity = (d.data == null) ? 0 : d.data.length;
+		int grow = (stop > capacity) ? Math.max(stop, capacity * 2) : capacity;
+		grow = Math.min(grow, MAX_DATAGRAM);
+
+		final int needed = grow - capacity + hlen;
+		if (needed == 0) {
+			return true;
+		}
+
+		if (d.memory + needed > maxMemory) {
+			discard(d, Counter.EVICTIONS);
+			return false;
+		}
+
+		final Iterator<Datagram> i = datagrams.values().iterator();
+		while (memory + needed > maxMemory && i.hasNext()) {
+			final Datagram old = i.next();
+			if (old == d) {
+				continue;
+			}
+
+			i.remove();
+			memory -= old.memory;
+			counters[Counter.EVICTIONS.ordinal()]++;
+		}
+
+		if (grow > capacity) {
+			final byte[] n = new byte[grow];
+			if (d.data != null) {
+				System.arraycopy(d.data, 0, n, 0, capacity);
+			}
+			d.data = n;
+		}
+
+		d.memory += needed;
+		memory += needed;
+
+		return true;
+	}
+
+	/**
+	 * Sets the memory pool out of which reassembled datagrams are allocated.
+	 *
+	 * @param pool
+	 *          the pool, or null to use {@link JPacket#getMemoryPool()}
+	 */
+	public void setMemoryPool(JMemoryPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the policy for overlapping fragments.
+	 *
+	 * @param policy
+	 *          the policy
+	 */
+	public void setOverlapPolicy(Overlap policy) {
+		if (policy == null) {
+			throw new NullPointerException();
+		}
+
+		this.policy = policy;
+	}
+
+	/**
+	 * Sets the scanner used to rescan reassembled datagrams.
+	 *
+	 * @param scanner
+	 *          the scanner, or null to use {@link JPacket#getDefaultScanner()}
+	 */
+	public void setScanner(JScanner scanner) {
+		this.scanner = scanner;
+	}
+
+	/**
+	 * Gets the number of incomplete datagrams.
+	 *
+	 * @return number of datagrams
+	 */
+	public int size() {
+		return datagrams.size();
+	}
+}
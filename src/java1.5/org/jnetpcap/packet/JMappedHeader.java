@@ -127,28 +127,40 @@ public class JMappedHeader extends JHeader {
 	}
 
 	/**
-	 * The Class Entry.
+	 * The Class Entry. Entries are recycled between decodes of the header, so
+	 * that remapping a header to the next packet does not allocate new ones.
 	 */
 	private static class Entry {
 
 		/** The description. */
-		private final String description;
+		private String description;
 
 		/** The display. */
-		private final String display;
+		private String display;
+
+		/** The key. */
+		private String key;
 
 		/** The length. */
-		private final int length;
+		private int length;
 
 		/** The offset. */
-		private final int offset;
+		private int offset;
 
 		/** The value. */
-		private final Object value;
+		private Object value;
+
+		/** The value length or -1 if value was supplied at the time of add. */
+		private int valueLength;
+
+		/** The value offset. */
+		private int valueOffset;
 
 		/**
-		 * Instantiates a new entry.
+		 * Sets the entry to a value supplied by the caller.
 		 * 
+		 * @param key
+		 *            the mapped key
 		 * @param value
 		 *            the value
 		 * @param offset
@@ -160,13 +172,45 @@ public class JMappedHeader extends JHeader {
 		 * @param description
 		 *            the description
 		 */
-		public Entry(Object value, int offset, int length, String display,
-				String description) {
+		public void set(String key, Object value, int offset, int length,
+				String display, String description) {
+			this.key = key;
 			this.value = value;
 			this.offset = offset;
 			this.length = length;
 			this.display = display;
 			this.description = description;
+			this.valueOffset = offset;
+			this.valueLength = -1;
+		}
+
+		/**
+		 * Sets the entry to a value which is only decoded out of the header
+		 * buffer when first accessed.
+		 * 
+		 * @param key
+		 *            the mapped key
+		 * @param offset
+		 *            the offset
+		 * @param length
+		 *            the length
+		 * @param valueOffset
+		 *            offset of the value within the header
+		 * @param valueLength
+		 *            length of the value in bytes
+		 * @param display
+		 *            the display
+		 */
+		public void setLazy(String key, int offset, int length,
+				int valueOffset, int valueLength, String display) {
+			this.key = key;
+			this.value = null;
+			this.offset = offset;
+			this.length = length;
+			this.display = display;
+			this.description = null;
+			this.valueOffset = valueOffset;
+			this.valueLength = valueLength;
 		}
 
 		/**
@@ -214,13 +258,17 @@ public class JMappedHeader extends JHeader {
 		}
 
 		/**
-		 * Gets the value.
+		 * Gets the value, decoding it out of the header on first access.
 		 * 
 		 * @param mappedHeader
 		 *            the mapped header
 		 * @return the value
 		 */
 		public Object getValue(JMappedHeader mappedHeader) {
+			if (value == null && valueLength != -1) {
+				value = mappedHeader.decodeValue(valueOffset, valueLength);
+			}
+
 			return value;
 		}
 
@@ -237,13 +285,98 @@ public class JMappedHeader extends JHeader {
 		 */
 		@SuppressWarnings("unchecked")
 		public <V> V getValue(Class<V> c, JMappedHeader mappedHeader) {
-			return (V) value;
+			return (V) getValue(mappedHeader);
+		}
+
+	}
+
+	/** Fields currently in the header, first count entries are in use. */
+	private Entry[] entries = new Entry[16];
+
+	/** The number of fields currently in the header. */
+	private int count;
+
+	/** Mapped keys of enum constants, so lookups by enum don't allocate. */
+	private final Map<Enum<?>, String> enumKeys =
+			new HashMap<Enum<?>, String>();
+
+	/**
+	 * Looks up a field entry by its mapped key.
+	 * 
+	 * @param key
+	 *            the mapped key
+	 * @return the entry or null if not present
+	 */
+	private Entry lookup(String key) {
+		for (int i = 0; i < count; i++) {
+			final Entry e = entries[i];
+			if (e.key == key || e.key.equals(key)) {
+				return e;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the entry to use for a new field. An existing entry with the same
+	 * key is replaced, otherwise an unused entry is taken off the end of the
+	 * table.
+	 * 
+	 * @param key
+	 *            the mapped key
+	 * @return the entry
+	 */
+	private Entry next(String key) {
+		final Entry e = lookup(key);
+		if (e != null) {
+			return e;
+		}
+
+		if (count == entries.length) {
+			final Entry[] grown = new Entry[count * 2];
+			System.arraycopy(entries, 0, grown, 0, count);
+			entries = grown;
+		}
+
+		if (entries[count] == null) {
+			entries[count] = new Entry();
 		}
 
+		return entries[count++];
 	}
 
-	/** The field map. */
-	private final Map<String, Entry> fieldMap = new HashMap<String, Entry>(50);
+	/**
+	 * Maps an enum constant to its key and caches the result.
+	 * 
+	 * @param field
+	 *            the field
+	 * @return the mapped key
+	 */
+	private String key(Enum<? extends Enum<?>> field) {
+		String s = enumKeys.get(field);
+		if (s == null) {
+			s = map(field);
+			enumKeys.put(field, s);
+		}
+
+		return s;
+	}
+
+	/**
+	 * Decodes the value of a field that was added with only its location
+	 * within the header. The default implementation reads the bytes as an UTF8
+	 * string.
+	 * 
+	 * @param offset
+	 *            offset of the value within the header
+	 * @param length
+	 *            length of the value in bytes
+	 * @return the decoded value
+	 */
+	protected String decodeValue(int offset, int length) {
+		return super.getUTF8String(offset, length);
+	}
 
 	/**
 	 * Checks for field.
@@ -253,7 +386,7 @@ public class JMappedHeader extends JHeader {
 	 * @return true, if successful
 	 */
 	protected boolean hasField(Enum<? extends Enum<?>> field) {
-		return fieldMap.containsKey(map(field));
+		return lookup(key(field)) != null;
 	}
 
 	/**
@@ -265,7 +398,7 @@ public class JMappedHeader extends JHeader {
 	 */
 	@Dynamic(Field.Property.CHECK)
 	protected boolean hasField(String field) {
-		return fieldMap.containsKey(map(field));
+		return lookup(map(field)) != null;
 	}
 
 	/**
@@ -276,7 +409,7 @@ public class JMappedHeader extends JHeader {
 	 * @return the string
 	 */
 	protected String fieldDescription(Enum<? extends Enum<?>> field) {
-		return fieldMap.get(map(field)).getValueDescription(this);
+		return lookup(key(field)).getValueDescription(this);
 	}
 
 	/**
@@ -288,7 +421,7 @@ public class JMappedHeader extends JHeader {
 	 */
 	@Dynamic(Field.Property.DESCRIPTION)
 	protected String fieldDescription(String field) {
-		return fieldMap.get(map(field)).getValueDescription(this);
+		return lookup(map(field)).getValueDescription(this);
 	}
 
 	/**
@@ -299,7 +432,7 @@ public class JMappedHeader extends JHeader {
 	 * @return the string
 	 */
 	protected String fieldDisplay(Enum<? extends Enum<?>> field) {
-		return fieldMap.get(map(field)).getDisplay(this);
+		return lookup(key(field)).getDisplay(this);
 	}
 
 	/**
@@ -311,7 +444,7 @@ public class JMappedHeader extends JHeader {
 	 */
 	@Dynamic(Field.Property.DISPLAY)
 	protected String fieldDisplay(String field) {
-		return fieldMap.get(map(field)).getDisplay(this);
+		return lookup(map(field)).getDisplay(this);
 	}
 
 	/**
@@ -322,7 +455,7 @@ public class JMappedHeader extends JHeader {
 	 * @return the int
 	 */
 	protected int fieldLength(Enum<? extends Enum<?>> field) {
-		return fieldMap.get(map(field)).getLength(this);
+		return lookup(key(field)).getLength(this);
 	}
 
 	/**
@@ -334,7 +467,7 @@ public class JMappedHeader extends JHeader {
 	 */
 	@Dynamic(Field.Property.LENGTH)
 	protected int fieldLength(String field) {
-		return fieldMap.get(map(field)).getLength(this);
+		return lookup(map(field)).getLength(this);
 	}
 
 	/**
@@ -345,7 +478,7 @@ public class JMappedHeader extends JHeader {
 	 * @return the int
 	 */
 	protected int fieldOffset(Enum<? extends Enum<?>> field) {
-		return fieldMap.get(map(field)).getOffset(this);
+		return lookup(key(field)).getOffset(this);
 	}
 
 	/**
@@ -383,11 +516,12 @@ public class JMappedHeader extends JHeader {
 	 */
 	@Dynamic(Field.Property.OFFSET)
 	protected int fieldOffset(String field) {
-		if (fieldMap.get(map(field)) == null) {
+		final Entry entry = lookup(map(field));
+		if (entry == null) {
 			return -1;
 		}
 
-		return fieldMap.get(map(field)).getOffset(this);
+		return entry.getOffset(this);
 	}
 
 	/**
@@ -398,7 +532,7 @@ public class JMappedHeader extends JHeader {
 	 * @return the object
 	 */
 	protected Object fieldValue(Enum<? extends Enum<?>> field) {
-		return fieldMap.get(map(field)).getValue(this);
+		return lookup(key(field)).getValue(this);
 	}
 
 	/**
@@ -410,7 +544,7 @@ public class JMappedHeader extends JHeader {
 	 */
 	@Dynamic(Field.Property.VALUE)
 	protected Object fieldValue(String field) {
-		return fieldMap.get(map(field)).getValue(this);
+		return lookup(map(field)).getValue(this);
 	}
 
 	/**
@@ -425,7 +559,7 @@ public class JMappedHeader extends JHeader {
 	 * @return the v
 	 */
 	protected <V> V fieldValue(Class<V> c, Enum<? extends Enum<?>> field) {
-		Entry entry = fieldMap.get(map(field));
+		Entry entry = lookup(key(field));
 		if (entry == null) {
 			return null;
 		}
@@ -445,7 +579,7 @@ public class JMappedHeader extends JHeader {
 	 * @return the v
 	 */
 	protected <V> V fieldValue(Class<V> c, String field) {
-		return fieldMap.get(map(field)).getValue(c, this);
+		return lookup(map(field)).getValue(c, this);
 	}
 
 	/**
@@ -455,18 +589,23 @@ public class JMappedHeader extends JHeader {
 	 */
 	public String[] fieldArray() {
 
-		final String[] r = fieldMap.keySet().toArray(
-				new String[fieldMap.size()]);
+		final Entry[] sorted = new Entry[count];
+		System.arraycopy(entries, 0, sorted, 0, count);
 
-		Arrays.sort(r, new Comparator<String>() {
+		Arrays.sort(sorted, new Comparator<Entry>() {
 
-			public int compare(String o1, String o2) {
-				return fieldMap.get(o1).getOffset(JMappedHeader.this)
-						- fieldMap.get(o2).getOffset(JMappedHeader.this);
+			public int compare(Entry o1, Entry o2) {
+				return o1.getOffset(JMappedHeader.this)
+						- o2.getOffset(JMappedHeader.this);
 			}
 
 		});
 
+		final String[] r = new String[count];
+		for (int i = 0; i < count; i++) {
+			r[i] = sorted[i].key;
+		}
+
 		return r;
 	}
 
@@ -498,8 +637,8 @@ public class JMappedHeader extends JHeader {
 	 */
 	public void addField(Enum<? extends Enum<?>> field, String value,
 			int offset, int length) {
-		this.fieldMap.put(map(field),
-				new Entry(value, offset, length, field.name(), null));
+		final String key = key(field);
+		next(key).set(key, value, offset, length, field.name(), null);
 	}
 
 	/**
@@ -515,14 +654,59 @@ public class JMappedHeader extends JHeader {
 	 *            the length
 	 */
 	public void addField(String name, String value, int offset, int length) {
-		this.fieldMap.put(name, new Entry(value, offset, length, name, null));
+		next(name).set(name, value, offset, length, name, null);
+	}
+
+	/**
+	 * Adds a field whose value is the content of the field itself. The value is
+	 * not decoded until it is first accessed.
+	 * 
+	 * @param field
+	 *            the field
+	 * @param offset
+	 *            the offset
+	 * @param length
+	 *            the length
+	 * @see #decodeValue(int, int)
+	 */
+	protected void addField(Enum<? extends Enum<?>> field, int offset,
+			int length) {
+		final String key = key(field);
+		next(key).setLazy(key, offset, length, offset, length, field.name());
+	}
+
+	/**
+	 * Adds a field whose value is located at a different offset than the field
+	 * itself, such as a "name: value" pair. The value is not decoded until it
+	 * is first accessed.
+	 * 
+	 * @param name
+	 *            the mapped name
+	 * @param offset
+	 *            the offset of the field
+	 * @param length
+	 *            the length of the field
+	 * @param valueOffset
+	 *            the offset of the value
+	 * @param valueLength
+	 *            the length of the value
+	 * @see #decodeValue(int, int)
+	 */
+	protected void addField(String name, int offset, int length,
+			int valueOffset, int valueLength) {
+		next(name).setLazy(name, offset, length, valueOffset, valueLength,
+				name);
 	}
 
 	/**
 	 * Clear fields.
 	 */
 	public void clearFields() {
-		this.fieldMap.clear();
+		for (int i = 0; i < count; i++) {
+			entries[i].value = null; // Don't hold on to previous values
+		}
+
+		this.count = 0;
 	}
 
 	/**
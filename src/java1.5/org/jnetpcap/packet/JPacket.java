@@ -701,6 +701,10 @@ public abstract class JPacket extends JBuffer implements JHeaderAccessor,
 
 	/**
 	 * Replaces the default memory allocation mechanism with user supplied one.
+	 * When multiple threads copy packets at the same time, a
+	 * {@link org.jnetpcap.nio.JMemoryArenaPool} gives each thread its own
+	 * memory blocks so that the copies do not contend on a single pool lock.
+	 * The pool should be replaced before any capture threads are started.
 	 * 
 	 * @param pool
 	 *            new memory pool to use.
@@ -1370,6 +1374,24 @@ public abstract class JPacket extends JBuffer implements JHeaderAccessor,
 		}
 	}
 
+	/**
+	 * Releases the packet's state and data immediately, returning any memory
+	 * that was allocated out of the memory pool when the packet was deep copied.
+	 * Once every allocation out of a pool block has been released, the block is
+	 * recycled by the pool instead of waiting for the garbage collector. After
+	 * this call the packet is unpeered and must not be used until its peered or
+	 * copied into again.
+	 * 
+	 * @see JMemoryPool#getRecycleCount()
+	 */
+	@Override
+	public void release() {
+		memory.release();
+		state.cleanup();
+
+		super.release();
+	}
+
 	/**
 	 * Calculates the number of bytes remaining within the packet given a
 	 * specific offset.
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.jnetpcap.nio.JStruct;
+
+/**
+ * A batch of scanned packets delivered to a {@link JPacketBatchHandler} in a
+ * single upcall from native dispatcher. The class is peered with
+ * <code>struct packet_batch_t</code>
+ *
+ * <pre>
+ * typedef struct batch_entry_t {
+ * 	pcap_pkthdr *be_header;     // capture header
+ * 	u_char *be_data;            // packet data buffer
+ * 	packet_state_t *be_state;   // scanner state in JScanner ring-buffer
+ * } batch_entry_t;
+ *
+ * typedef struct packet_batch_t {
+ * 	int32_t pb_capacity;        // maximum number of entries
+ * 	int32_t pb_count;           // entries currently in the batch
+ * 	int32_t pb_data_len;        // size of the copy area
+ * 	int32_t pb_data_offset;     // next free byte in the copy area
+ * 	uint8_t *pb_data;           // copy area for savefile records
+ * 	batch_entry_t pb_entries[]; // one per packet
+ * } packet_batch_t;
+ * </pre>
+ * <p>
+ * The native dispatcher collects packets from libpcap, scans each one into the
+ * <code>JScanner</code> ring-buffer and records pointers to the capture header,
+ * data buffer and packet state in the next free entry. Once the batch fills up,
+ * or libpcap has no more packets in its buffer, the java handler is invoked
+ * only once for the entire batch. When reading from a live capture, the
+ * entries point directly into libpcap's capture buffer. When reading from a
+ * ``savefile'', libpcap reuses a single record buffer, so the records are first
+ * copied into the batch's own copy area.
+ * </p>
+ * <p>
+ * The batch is always flushed to java before the scanner ring-buffer wraps
+ * around, so all the states within a batch are valid at the same time. They
+ * remain valid until the {@link JPacketBatchHandler#nextBatch} method returns.
+ * If any packet needs to persist longer, it must be deep copied, for example
+ * using <code>new PcapPacket(batch.getPacket(i))</code>.
+ * </p>
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JPacketBatch extends JStruct implements Iterable<PcapPacket> {
+
+	/** Default number of packets collected before a java upcall is made. */
+	public final static int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * Default size of the copy area, used to hold records read from a
+	 * ``savefile''.
+	 */
+	public final static int DEFAULT_DATA_SIZE = 256 * 1024; // 256K
+
+	/** Name of the peered native structure. */
+	public final static String STRUCT_NAME = "packet_batch_t";
+
+	static {
+		try {
+			initIds();
+		} catch (Exception e) {
+			System.err.println("JPacketBatch.static: error=" + e.toString());
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Initialized JNI method and fields IDs.
+	 */
+	private native static void initIds();
+
+	/**
+	 * Size of the packet_batch_t structure including the entry table.
+	 *
+	 * @param capacity
+	 *            number of entries in the batch
+	 * @return size in bytes, not including the copy area
+	 */
+	public native static int sizeof(int capacity);
+
+	/** Maximum number of entries in this batch. */
+	private final int capacity;
+
+	/** Shared packet used by {@link #getPacket(int)} and iterator. */
+	private final PcapPacket packet = new PcapPacket(Type.POINTER);
+
+	/**
+	 * Allocates a batch using {@link #DEFAULT_CAPACITY} and
+	 * {@link #DEFAULT_DATA_SIZE}.
+	 */
+	public JPacketBatch() {
+		this(DEFAULT_CAPACITY, DEFAULT_DATA_SIZE);
+	}
+
+	/**
+	 * Allocates a batch using the specified capacity and
+	 * {@link #DEFAULT_DATA_SIZE} copy area.
+	 *
+	 * @param capacity
+	 *            maximum number of packets in a batch
+	 */
+	public JPacketBatch(int capacity) {
+		this(capacity, DEFAULT_DATA_SIZE);
+	}
+
+	/**
+	 * Allocates a batch for requested number of packets plus a copy area.
+	 *
+	 * @param capacity
+	 *            maximum number of packets in a batch
+	 * @param dataSize
+	 *            size of the copy area in bytes, used for records from a
+	 *            ``savefile''
+	 */
+	public JPacketBatch(int capacity, int dataSize) {
+		super(STRUCT_NAME, checkCapacity(capacity) + dataSize);
+
+		this.capacity = capacity;
+
+		init(capacity, dataSize);
+	}
+
+	/**
+	 * Validates capacity before native memory is allocated.
+	 *
+	 * @param capacity
+	 *            requested capacity
+	 * @return size of the structure for the capacity
+	 */
+	private static int checkCapacity(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be greater than 0");
+		}
+
+		return sizeof(capacity);
+	}
+
+	/**
+	 * Gets the maximum number of packets this batch can hold.
+	 *
+	 * @return capacity of the batch
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Resets the batch to empty.
+	 */
+	public native void clear();
+
+	/**
+	 * Gets a packet at the specified index. The returned packet is shared
+	 * between calls to this method and is simply peered with the next entry.
+	 *
+	 * @param index
+	 *            index of the packet within the batch
+	 * @return shared packet peered with the entry
+	 * @throws IndexOutOfBoundsException
+	 *             if index is out of range
+	 */
+	public PcapPacket getPacket(int index) throws IndexOutOfBoundsException {
+		peer(index, packet);
+
+		return packet;
+	}
+
+	/**
+	 * Gets the original length of the packet at index, as seen on the wire.
+	 *
+	 * @param index
+	 *            index of the packet within the batch
+	 * @return wire length in bytes
+	 */
+	public native int getWirelen(int index);
+
+	/**
+	 * Initializes the packet_batch_t structure within the allocated block.
+	 *
+	 * @param capacity
+	 *            number of entries
+	 * @param dataSize
+	 *            size of the copy area that follows the entry table
+	 */
+	private native void init(int capacity, int dataSize);
+
+	/**
+	 * Checks if the batch contains any packets.
+	 *
+	 * @return true if empty, otherwise false
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Iterates over all the packets in the batch. The same shared packet, as
+	 * used by {@link #getPacket(int)}, is returned on every iteration.
+	 *
+	 * @return iterator over the batch
+	 */
+	public Iterator<PcapPacket> iterator() {
+		return new Iterator<PcapPacket>() {
+			private int index = 0;
+
+			public boolean hasNext() {
+				return index < size();
+			}
+
+			public PcapPacket next() {
+				if (index >= size()) {
+					throw new NoSuchElementException();
+				}
+
+				return getPacket(index++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException(
+						"Invalid operation for readonly batch");
+			}
+		};
+	}
+
+	/**
+	 * Peers the supplied packet, its capture header and its state with the
+	 * entry at the specified index. No data is copied.
+	 *
+	 * @param index
+	 *            index of the packet within the batch
+	 * @param packet
+	 *            packet to peer
+	 * @throws IndexOutOfBoundsException
+	 *             if index is out of range
+	 */
+	public native void peer(int index, PcapPacket packet)
+			throws IndexOutOfBoundsException;
+
+	/**
+	 * Gets the number of packets currently in the batch.
+	 *
+	 * @return number of packets
+	 */
+	public native int size();
+
+	/**
+	 * Debug string.
+	 *
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		return "JPacketBatch[capacity=" + capacity + ", size=" + size() + "]";
+	}
+}
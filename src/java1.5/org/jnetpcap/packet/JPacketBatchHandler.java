@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import org.jnetpcap.JHandler;
+
+/**
+ * A dispatchable batch handler. The handler receives a group of fully decoded
+ * packets from libpcap library in a single callback, instead of a callback per
+ * packet. The packets are collected and scanned natively and only then handed
+ * to java space all at once.
+ *
+ * @param <T>
+ *            the generic type
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface JPacketBatchHandler<T> extends JHandler<T> {
+
+	/**
+	 * Callback function called on by libpcap and jNetPcap scanner once a batch
+	 * of packets has been collected and scanned. The batch object dispatched is
+	 * not allocated on a per call basis, but is shared between every call made.
+	 * The packets within the batch, their capture headers and their states are
+	 * only valid until this method returns. If a more persistent state is
+	 * needed, packets must be copied out of the batch into more permanent
+	 * packets.
+	 *
+	 * <pre>
+	 * public void nextBatch(JPacketBatch batch, T user) {
+	 * 	for (int i = 0; i &lt; batch.size(); i++) {
+	 * 		PcapPacket packet = batch.getPacket(i);
+	 * 		// process packet
+	 * 	}
+	 * }
+	 * </pre>
+	 *
+	 * @param batch
+	 *            a non persistent between invokations batch of decoded packets
+	 * @param user
+	 *            user supplied object of type <T>
+	 */
+	public void nextBatch(JPacketBatch batch, T user);
+
+}
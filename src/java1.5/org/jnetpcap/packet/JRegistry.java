@@ -122,7 +122,7 @@ public final class JRegistry {
 	 * private so no one outside this class knows about it. Got tired of having
 	 * to move MAX_ID_COUNT definition around after each source sort.
 	 */
-	private final static int A_MAX_ID_COUNT = 256;
+	private final static int A_MAX_ID_COUNT = 1024;
 
 	/** Number of core protocols defined by jNetPcap. */
 	public static final int CORE_ID_COUNT = JProtocol.LAST_ID;
@@ -183,9 +183,11 @@ public final class JRegistry {
 
 	/**
 	 * Maximum number of protocol header entries allowed by this implementation
-	 * of JRegistry.
+	 * of JRegistry. IDs are grouped 32 to a 64-bit header map, see
+	 * {@link JProtocol#idToGroup(int)}, so a packet's header map takes up
+	 * MAX_ID_COUNT / 32 longs.
 	 */
-	public final static int MAX_ID_COUNT = 256;
+	public final static int MAX_ID_COUNT = 1024;
 
 	/**
 	 * A constant if returned from {@link #mapDLTToId} or {@link #mapIdToDLT}
@@ -427,6 +429,11 @@ public final class JRegistry {
 	 * @return newly created entry
 	 */
 	private static Entry createNewEntry(Class<? extends JHeader> c) {
+		if (LAST_ID >= A_MAX_ID_COUNT) {
+			throw new IllegalStateException("no more protocol IDs available, "
+					+ "MAX_ID_COUNT=" + A_MAX_ID_COUNT);
+		}
+
 		int id = LAST_ID;
 		Entry e;
 		mapByClassName.put(c.getCanonicalName(), e = new Entry(id, c));
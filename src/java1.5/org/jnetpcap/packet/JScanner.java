@@ -20,6 +20,7 @@ package org.jnetpcap.packet;
 
 import org.jnetpcap.nio.JMemoryReference;
 import org.jnetpcap.nio.JStruct;
+import org.jnetpcap.protocol.JProtocol;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -135,11 +136,18 @@ public class JScanner extends JStruct {
 	public static final int MAX_ENTRY_COUNT = 64;
 
 	/** Maximum number of ID entries allowed by the scanner. */
-	public static final int MAX_ID_COUNT = 64;
+	public static final int MAX_ID_COUNT = JRegistry.MAX_ID_COUNT;
 
 	/** Name of the peered native structure. */
 	public final static String STRUCT_NAME = "scanner_t";
 
+	/** Protocols after which {@link #setStopAfterTransport()} stops the scan. */
+	private final static int[] TRANSPORT_IDS = {
+	    JProtocol.TCP_ID,
+	    JProtocol.UDP_ID,
+	    JProtocol.SCTP_ID,
+	    JProtocol.ICMP_ID, };
+
 	static {
 		try {
 			initIds();
@@ -285,6 +293,34 @@ public class JScanner extends JStruct {
 		return o;
 	}
 
+	/**
+	 * Converts protocol ids to the same format as the native packet_state_t
+	 * header map.
+	 * 
+	 * @param ids
+	 *          numerical protocol ids
+	 * @return array of MAX_MAP_COUNT 64-bit maps
+	 */
+	private static long[] toHeaderMap(int... ids) {
+		final long[] map = new long[JRegistry.MAX_ID_COUNT / 32];
+
+		for (int id : ids) {
+			if (id < 0 || id >= JRegistry.MAX_ID_COUNT) {
+				throw new IllegalArgumentException("invalid protocol id " + id);
+			}
+
+			map[id >> 5] |= ((long) (id & ~0x1F) << 27) | (1L << (id & 0x1F));
+		}
+
+		return map;
+	}
+
+	/** Ids after which the scan stops binding protocols. */
+	private int[] stopIds = new int[0];
+
+	/** Ids which once all found stop the scan. */
+	private int[] targetIds = new int[0];
+
 	/**
 	 * Allocates a default scanner using {@literal #DEFAULT_BLOCKSIZE} buffer
 	 * size.
@@ -320,6 +356,35 @@ public class JScanner extends JStruct {
 		 */
 	}
 
+	/**
+	 * Removes all scan limits. Every packet is scanned all the way to its
+	 * payload, which is the default.
+	 */
+	public void clearLimits() {
+		stopIds = new int[0];
+		targetIds = new int[0];
+
+		loadLimits(toHeaderMap(stopIds), toHeaderMap(targetIds));
+	}
+
+	/**
+	 * Gets the ids of protocols after which the scan stops.
+	 * 
+	 * @return copy of the stop ids, empty if not set
+	 */
+	public int[] getStopIds() {
+		return stopIds.clone();
+	}
+
+	/**
+	 * Gets the ids of protocols which once found stop the scan.
+	 * 
+	 * @return copy of the target ids, empty if not set
+	 */
+	public int[] getTargetIds() {
+		return targetIds.clone();
+	}
+
 	/**
 	 * Retrieves the current frame number assigned by this scanner.
 	 * 
@@ -344,6 +409,16 @@ public class JScanner extends JStruct {
 	 */
 	private native void loadFlags(int[] flags);
 
+	/**
+	 * Downloads the scan limits to the scanner's native implementation.
+	 * 
+	 * @param stop
+	 *          header map of stop ids
+	 * @param target
+	 *          header map of target ids
+	 */
+	private native void loadLimits(long[] stop, long[] target);
+
 	/**
 	 * Load scanners.
 	 * 
@@ -433,6 +508,55 @@ public class JScanner extends JStruct {
 			int id,
 			int wirelen);
 
+	/**
+	 * Stops the scan after the transport layer. Tcp, Udp, Sctp and Icmp
+	 * payloads are not checked for any application protocols, such as Http,
+	 * Sip or Rtp, and are recorded as payload.
+	 */
+	public void setStopAfterTransport() {
+		setStopIds(TRANSPORT_IDS);
+	}
+
+	/**
+	 * Sets the protocols after which the scan stops. Once any of these headers
+	 * has been found, its payload is not checked for any bindings or
+	 * heuristics and the rest of the packet is recorded as a payload header.
+	 * This is useful when a handler only looks at lower layers and would
+	 * otherwise pay for validation of text based protocols such as Http and
+	 * Sip.
+	 * <p>
+	 * Limits are set per scanner. To limit a single dispatch, pass a separately
+	 * configured scanner to one of the dispatch or loop methods that take a
+	 * scanner, instead of changing the thread local scanner.
+	 * </p>
+	 * 
+	 * @param ids
+	 *          numerical protocol ids, no ids to clear
+	 */
+	public void setStopIds(int... ids) {
+		final long[] map = toHeaderMap(ids);
+
+		stopIds = ids.clone();
+		loadLimits(map, toHeaderMap(targetIds));
+	}
+
+	/**
+	 * Sets the protocols the handler is interested in. Once every one of these
+	 * headers has been found in a packet, the scan stops the same way as
+	 * {@link #setStopIds(int...)} and the rest of the packet is recorded as
+	 * payload. Headers which are not targets and come after the last target
+	 * are not reported.
+	 * 
+	 * @param ids
+	 *          numerical protocol ids, no ids to clear
+	 */
+	public void setTargetIds(int... ids) {
+		final long[] map = toHeaderMap(ids);
+
+		targetIds = ids.clone();
+		loadLimits(toHeaderMap(stopIds), map);
+	}
+
 	/**
 	 * Sets the scanner's current frame number to user specified value. This
 	 * allows scanner's frame numbers it assigns and keeps track of to be reset
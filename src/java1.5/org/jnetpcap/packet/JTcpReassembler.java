@@ -0,0 +1,942 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jnetpcap.JCaptureHeader;
+import org.jnetpcap.nio.JBuffer;
+import org.jnetpcap.nio.JMemory.Type;
+import org.jnetpcap.nio.JMemoryPool;
+import org.jnetpcap.packet.JTcpStream.Half;
+import org.jnetpcap.packet.JTcpStream.Segment;
+import org.jnetpcap.protocol.tcpip.Tcp;
+
+/**
+ * Reassembles TCP connections into ordered byte streams, one per direction.
+ * Connections are keyed by the packet's {@link JFlowKey}, so both directions
+ * of a connection map to the same {@link JTcpStream}. Sequence numbers are
+ * tracked per direction and contiguous data is handed to a
+ * {@link JTcpStreamHandler} as soon as it arrives, straight out of the packet
+ * without copying.
+ * <p>
+ * Segments which arrive ahead of the next expected sequence number are copied
+ * into memory allocated out of a {@link JMemoryPool}, outside of the java
+ * heap, and delivered once the data before them arrives. Retransmitted data
+ * that has already been delivered is ignored and overlapping segments are
+ * trimmed, so every byte is delivered at most once with the first copy seen
+ * winning. Memory held by out of order segments is capped both per direction
+ * and for the reassembler as a whole. When a cap is reached the direction
+ * gives up on the missing data, reports a gap to the handler and moves on to
+ * the data it has buffered.
+ * </p>
+ * <p>
+ * Streams end when both directions have delivered all data up to their FIN,
+ * on a RST, when no segments have been seen for the idle timeout or when the
+ * stream is evicted to keep the number of streams within the limit. The least
+ * recently active stream is always the next to time out or be evicted. Time is
+ * driven by packet timestamps, not the system clock. Per stream state is kept
+ * small and no memory is held for connections whose data arrives in order, so
+ * the reassembler scales to millions of concurrent connections with the limit
+ * raised accordingly.
+ * </p>
+ *
+ * <pre>
+ * JTcpReassembler&lt;Object&gt; reassembler =
+ * 		new JTcpReassembler&lt;Object&gt;(new JTcpStreamHandler&lt;Object&gt;() {
+ * 			public void nextData(JTcpStream stream, boolean reverse,
+ * 					JBuffer data, int offset, int length, Object user) {
+ * 				// feed application protocol parser
+ * 			}
+ *
+ * 			public void nextGap(JTcpStream stream, boolean reverse, int length,
+ * 					Object user) {
+ * 				// resynchronize parser
+ * 			}
+ *
+ * 			public void streamClosed(JTcpStream stream,
+ * 					JTcpReassembler.Close reason, Object user) {
+ * 			}
+ * 		});
+ *
+ * pcap.loop(Pcap.LOOP_INFINITE, reassembler, null);
+ * reassembler.flush(null);
+ * </pre>
+ *
+ * @param <T>
+ *          the generic user type
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JTcpReassembler<T> implements PcapPacketHandler<T> {
+
+	/**
+	 * Reason a stream ended.
+	 */
+	public enum Close {
+
+		/** Both directions delivered all data up to their FIN. */
+		FIN,
+
+		/** A RST was seen. */
+		RESET,
+
+		/** No segments were seen for the idle timeout. */
+		TIMEOUT,
+
+		/** Stream was evicted to stay within the stream limit. */
+		EVICTED,
+
+		/** Stream was ended by an explicit flush. */
+		FLUSH
+	}
+
+	/**
+	 * Events counted by the reassembler.
+	 */
+	public enum Counter {
+
+		/** TCP segments added to the reassembler. */
+		SEGMENTS,
+
+		/** Streams started. */
+		STREAMS,
+
+		/** Segments carrying only data that was already delivered or buffered. */
+		RETRANSMISSIONS,
+
+		/** Segments partially overlapping data already delivered or buffered. */
+		OVERLAPS,
+
+		/** Segments which arrived ahead of the next expected byte. */
+		OUT_OF_ORDER,
+
+		/** Gaps reported to the handler. */
+		GAPS
+	}
+
+	/**
+	 * Identifies a connection in both directions. The pairs of the flow key are
+	 * stored in canonical orientation, the smaller of the forward and reverse
+	 * pair sequences, so both directions produce equal keys.
+	 */
+	private static class Key {
+
+		/** Number of pairs used. */
+		private int count;
+
+		/** The hashcode. */
+		private int hash;
+
+		/** Header map of the flow key. */
+		private long map;
+
+		/** Canonical pairs. */
+		private long p0, p1, p2;
+
+		/**
+		 * Copies a key.
+		 *
+		 * @return copy of this key
+		 */
+		public Key copy() {
+			final Key k = new Key();
+			k.count = count;
+			k.hash = hash;
+			k.map = map;
+			k.p0 = p0;
+			k.p1 = p1;
+			k.p2 = p2;
+
+			return k;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key == false) {
+				return false;
+			}
+
+			final Key k = (Key) obj;
+
+			return hash == k.hash && count == k.count && map == k.map
+					&& p0 == k.p0 && p1 == k.p1 && p2 == k.p2;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		/**
+		 * Sets the key from a flow key.
+		 *
+		 * @param key
+		 *          flow key of a packet
+		 * @param pairs
+		 *          scratch array with room for {@link #MAX_PAIRS}
+		 * @return true if the packet's forward pairs are the canonical ones
+		 */
+		public boolean set(JFlowKey key, long[] pairs) {
+			count = Math.min(key.getPairCount(), MAX_PAIRS);
+			map = key.getHeaderMap();
+
+			int cmp = 0;
+			for (int i = 0; i < count; i++) {
+				final long f = key.getPair(i, false);
+				final long r = (f << 32) | (f >>> 32);
+
+				pairs[i] = f;
+				if (cmp == 0 && f != r) {
+					cmp = (f < r) ? -1 : 1;
+				}
+			}
+
+			final boolean canonical = cmp <= 0;
+			if (canonical == false) {
+				for (int i = 0; i < count; i++) {
+					pairs[i] = (pairs[i] << 32) | (pairs[i] >>> 32);
+				}
+			}
+
+			p0 = (count > 0) ? pairs[0] : 0;
+			p1 = (count > 1) ? pairs[1] : 0;
+			p2 = (count > 2) ? pairs[2] : 0;
+
+			long h = map;
+			h = h * 31 + p0;
+			h = h * 31 + p1;
+			h = h * 31 + p2;
+
+			hash = (int) (h ^ (h >>> 32));
+
+			return canonical;
+		}
+	}
+
+	/** Default limit on memory held by out of order segments, 64MB. */
+	public final static int DEFAULT_MAX_MEMORY = 64 * 1024 * 1024;
+
+	/** Default limit on memory held by a single direction, 1MB. */
+	public final static int DEFAULT_MAX_MEMORY_PER_DIRECTION = 1024 * 1024;
+
+	/** Default limit on number of streams. */
+	public final static int DEFAULT_MAX_STREAMS = 1000000;
+
+	/** Default idle timeout in seconds. */
+	public final static long DEFAULT_TIMEOUT = 120;
+
+	/** Flag bit of TCP FIN. */
+	private final static int FLAG_FIN = 0x01;
+
+	/** Flag bit of TCP SYN. */
+	private final static int FLAG_SYN = 0x02;
+
+	/** Flag bit of TCP RST. */
+	private final static int FLAG_RST = 0x04;
+
+	/** Flag bit of TCP ACK. */
+	private final static int FLAG_ACK = 0x10;
+
+	/** Number of flow key pairs used, ip addresses, protocol and ports. */
+	private final static int MAX_PAIRS = 3;
+
+	/** Number of streams closed, one counter per Close reason. */
+	private final long[] closed = new long[Close.values().length];
+
+	/** Number of events counted, one counter per Counter. */
+	private final long[] counters = new long[Counter.values().length];
+
+	/** Receives stream data. */
+	private final JTcpStreamHandler<T> handler;
+
+	/** Scratch key used for lookups. */
+	private final Key key = new Key();
+
+	/** Limit on memory held by out of order segments. */
+	private final int maxMemory;
+
+	/** Limit on memory held by a single direction. */
+	private final int maxMemoryPerDirection;
+
+	/** Limit on number of streams. */
+	private final int maxStreams;
+
+	/** Bytes held in out of order segments. */
+	private int memory;
+
+	/** Serial number of the next stream. */
+	private long nextId;
+
+	/** Current packet time in nanos. */
+	private long now;
+
+	/** Scratch pair array. */
+	private final long[] pairs = new long[MAX_PAIRS];
+
+	/** Pool out of which segment memory is allocated, null for packet's pool. */
+	private JMemoryPool pool;
+
+	/** Streams in least recently active order. */
+	private final LinkedHashMap<Key, JTcpStream> streams =
+			new LinkedHashMap<Key, JTcpStream>(16, 0.75f, true);
+
+	/** Scratch Tcp header. */
+	private final Tcp tcp = new Tcp();
+
+	/** Idle timeout in nanos. */
+	private final long timeout;
+
+	/**
+	 * Creates a reassembler using the default limits and
+	 * {@link #DEFAULT_TIMEOUT}.
+	 *
+	 * @param handler
+	 *          receives stream data
+	 */
+	public JTcpReassembler(JTcpStreamHandler<T> handler) {
+		this(DEFAULT_MAX_STREAMS, DEFAULT_MAX_MEMORY,
+				DEFAULT_MAX_MEMORY_PER_DIRECTION, DEFAULT_TIMEOUT, TimeUnit.SECONDS,
+				handler);
+	}
+
+	/**
+	 * Creates a reassembler.
+	 *
+	 * @param maxStreams
+	 *          limit on number of streams tracked at the same time
+	 * @param maxMemory
+	 *          limit in bytes on memory held by out of order segments
+	 * @param maxMemoryPerDirection
+	 *          limit in bytes on memory held by a single direction of a stream
+	 * @param timeout
+	 *          idle timeout
+	 * @param unit
+	 *          unit of the timeout
+	 * @param handler
+	 *          receives stream data
+	 */
+	public JTcpReassembler(int maxStreams,
+			int maxMemory,
+			int maxMemoryPerDirection,
+			long timeout,
+			TimeUnit unit,
+			JTcpStreamHandler<T> handler) {
+
+		if (handler == null) {
+			throw new NullPointerException();
+		}
+
+		if (maxStreams <= 0 || maxMemory < 0 || maxMemoryPerDirection < 0) {
+			throw new IllegalArgumentException("invalid limit");
+		}
+
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("timeout must be greater than 0");
+		}
+
+		this.handler = handler;
+		this.maxStreams = maxStreams;
+		this.maxMemory = maxMemory;
+		this.maxMemoryPerDirection = maxMemoryPerDirection;
+		this.timeout = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Adds a packet to the reassembler. Any data the segment makes contiguous
+	 * is delivered to the handler before this method returns. Any streams which
+	 * have been idle past the timeout by the packet's timestamp are closed
+	 * first.
+	 *
+	 * @param packet
+	 *          scanned packet
+	 * @param user
+	 *          user object passed to the handler
+	 * @return true if packet contained a Tcp segment, otherwise false
+	 */
+	public boolean add(JPacket packet, T user) {
+		final JCaptureHeader header = packet.getCaptureHeader();
+		advance(header.timestampInNanos(), user);
+
+		if (packet.hasHeader(tcp) == false) {
+			return false;
+		}
+
+		counters[Counter.SEGMENTS.ordinal()]++;
+
+		final int flags = tcp.flags();
+		final int length = tcp.getPayloadLength();
+		final boolean canonical = key.set(packet.getState().getFlowKey(), pairs);
+
+		JTcpStream stream = streams.get(key);
+		if (stream == null) {
+			if ((flags & FLAG_RST) != 0
+					|| (length == 0 && (flags & (FLAG_SYN | FLAG_FIN)) == 0)) {
+				return true; // Nothing to track, pure ack or reset
+			}
+
+			final boolean synAck =
+					(flags & (FLAG_SYN | FLAG_ACK)) == (FLAG_SYN | FLAG_ACK);
+			stream = open(canonical != synAck, user);
+		}
+
+		final boolean reverse = (canonical != stream.clientCanonical);
+		final Half half = stream.half(reverse);
+
+		stream.last = now;
+
+		if ((flags & FLAG_RST) != 0) {
+			close(stream, Close.RESET, user);
+			return true;
+		}
+
+		int seq = (int) tcp.seq();
+		if ((flags & FLAG_SYN) != 0) {
+			seq++;
+		}
+
+		if (half.started == false) {
+			half.started = true;
+			half.next = seq;
+		}
+
+		/*
+		 * Bytes past the end of a truncated capture are still part of the stream
+		 * and are reported as a gap.
+		 */
+		final int truncated = Math.max(0, header.wirelen() - header.caplen());
+		final int total = (truncated > 0) ? length + truncated : length;
+
+		if (total > 0) {
+			segment(stream, half, reverse, packet, tcp.getPayloadOffset(), seq,
+					length, total - length, user);
+		}
+
+		if ((flags & FLAG_FIN) != 0 && half.fin == false) {
+			half.fin = true;
+			half.finSeq = seq + total;
+		}
+
+		if (half.fin && half.closed == false && half.finSeq - half.next <= 0) {
+			half.closed = true;
+
+			if (stream.client.closed && stream.server.closed) {
+				close(stream, Close.FIN, user);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Advances the reassembler's clock without a packet, closing any streams
+	 * which have been idle past the timeout by then. The clock never moves
+	 * backwards.
+	 *
+	 * @param timeInNanos
+	 *          current time in nanos
+	 * @param user
+	 *          user object passed to the handler
+	 */
+	public void advance(long timeInNanos, T user) {
+		if (timeInNanos <= now) {
+			return;
+		}
+
+		now = timeInNanos;
+
+		final Iterator<JTcpStream> i = streams.values().iterator();
+		while (i.hasNext()) {
+			final JTcpStream s = i.next();
+			if (s.last + timeout > now) {
+				break;
+			}
+
+			i.remove();
+			end(s, Close.TIMEOUT, user);
+		}
+	}
+
+	/**
+	 * Copies an out of order segment into pool memory and inserts it into the
+	 * direction's sorted list.
+	 *
+	 * @param half
+	 *          the direction
+	 * @param packet
+	 *          packet with the data
+	 * @param offset
+	 *          offset of data in packet
+	 * @param seq
+	 *          sequence of first byte
+	 * @param length
+	 *          bytes captured
+	 * @param missing
+	 *          bytes not captured
+	 */
+	private void buffer(Half half,
+			JPacket packet,
+			int offset,
+			int seq,
+			int length,
+			int missing) {
+
+		final int end = seq + length + missing;
+
+		Segment prev = null;
+		Segment s = half.head;
+		while (s != null && s.seq - seq <= 0) {
+			if (s.seq + s.length + s.missing - end >= 0) {
+				counters[Counter.RETRANSMISSIONS.ordinal()]++;
+				return;
+			}
+
+			prev = s;
+			s = s.next;
+		}
+
+		if ((prev != null && prev.seq + prev.length + prev.missing - seq > 0)
+				|| (s != null && s.seq - end < 0)) {
+			counters[Counter.OVERLAPS.ordinal()]++;
+		}
+
+		final Segment n = new Segment();
+		n.seq = seq;
+		n.length = length;
+		n.missing = missing;
+
+		if (length > 0) {
+			n.data = new JBuffer(Type.POINTER);
+			((pool == null) ? JPacket.getMemoryPool() : pool).allocate(length,
+					n.data);
+			packet.transferTo(n.data, offset, length, 0);
+		}
+
+		n.next = s;
+		if (prev == null) {
+			half.head = n;
+		} else {
+			prev.next = n;
+		}
+
+		half.buffered += length;
+		memory += length;
+	}
+
+	/**
+	 * Ends a stream and removes it from the reassembler.
+	 *
+	 * @param stream
+	 *          stream to close
+	 * @param reason
+	 *          why
+	 * @param user
+	 *          user object
+	 */
+	private void close(JTcpStream stream, Close reason, T user) {
+		streams.remove(stream.key);
+		end(stream, reason, user);
+	}
+
+	/**
+	 * Delivers a segment which starts at or before the next expected byte,
+	 * trimming any bytes already delivered.
+	 *
+	 * @param stream
+	 *          the stream
+	 * @param half
+	 *          the direction
+	 * @param reverse
+	 *          the direction flag
+	 * @param data
+	 *          buffer with the data
+	 * @param offset
+	 *          offset of data in buffer
+	 * @param seq
+	 *          sequence of first byte
+	 * @param length
+	 *          bytes captured
+	 * @param missing
+	 *          bytes not captured
+	 * @param user
+	 *          user object
+	 */
+	private void deliver(JTcpStream stream,
+			Half half,
+			boolean reverse,
+			JBuffer data,
+			int offset,
+			int seq,
+			int length,
+			int missing,
+			T user) {
+
+		final int skip = half.next - seq;
+		if (skip < length) {
+			half.next = seq + length;
+			half.bytes += length - skip;
+
+			handler.nextData(stream, reverse, data, offset + skip, length - skip,
+					user);
+		}
+
+		final int gap = seq + length + missing - half.next;
+		if (gap > 0) {
+			gap(stream, half, reverse, gap, user);
+		}
+	}
+
+	/**
+	 * Delivers every buffered segment which has become contiguous.
+	 *
+	 * @param stream
+	 *          the stream
+	 * @param half
+	 *          the direction
+	 * @param reverse
+	 *          the direction flag
+	 * @param user
+	 *          user object
+	 */
+	private void drain(JTcpStream stream, Half half, boolean reverse, T user) {
+		while (half.head != null && half.head.seq - half.next <= 0) {
+			final Segment s = half.head;
+			half.head = s.next;
+			half.buffered -= s.length;
+			memory -= s.length;
+
+			try {
+				deliver(stream, half, reverse, s.data, 0, s.seq, s.length, s.missing,
+						user);
+			} finally {
+				if (s.data != null) {
+					s.data.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delivers any buffered data, skipping over the gaps, releases the
+	 * stream's memory and notifies the handler.
+	 *
+	 * @param stream
+	 *          stream already removed from the map
+	 * @param reason
+	 *          why
+	 * @param user
+	 *          user object
+	 */
+	private void end(JTcpStream stream, Close reason, T user) {
+		try {
+			skipAll(stream, stream.client, false, user);
+			skipAll(stream, stream.server, true, user);
+		} finally {
+			release(stream.client);
+			release(stream.server);
+
+			closed[reason.ordinal()]++;
+		}
+
+		handler.streamClosed(stream, reason, user);
+	}
+
+	/**
+	 * Ends every stream, delivering any buffered data, and leaves the
+	 * reassembler empty. Should be called at the end of a capture.
+	 *
+	 * @param user
+	 *          user object passed to the handler
+	 * @return number of streams ended
+	 */
+	public int flush(T user) {
+		int count = 0;
+
+		final Iterator<JTcpStream> i = streams.values().iterator();
+		while (i.hasNext()) {
+			final JTcpStream s = i.next();
+			i.remove();
+
+			end(s, Close.FLUSH, user);
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Reports a gap and moves the direction past it.
+	 *
+	 * @param stream
+	 *          the stream
+	 * @param half
+	 *          the direction
+	 * @param reverse
+	 *          the direction flag
+	 * @param length
+	 *          bytes missing
+	 * @param user
+	 *          user object
+	 */
+	private void gap(JTcpStream stream,
+			Half half,
+			boolean reverse,
+			int length,
+			T user) {
+		half.next += length;
+		half.missing += length;
+		counters[Counter.GAPS.ordinal()]++;
+
+		handler.nextGap(stream, reverse, length, user);
+	}
+
+	/**
+	 * Gets the number of streams ended for a specific reason.
+	 *
+	 * @param reason
+	 *          the reason
+	 * @return number of streams
+	 */
+	public long getCloseCount(Close reason) {
+		return closed[reason.ordinal()];
+	}
+
+	/**
+	 * Gets the number of times an event has occured.
+	 *
+	 * @param counter
+	 *          the event
+	 * @return the count
+	 */
+	public long getCount(Counter counter) {
+		return counters[counter.ordinal()];
+	}
+
+	/**
+	 * Gets the memory currently held by out of order segments.
+	 *
+	 * @return memory in bytes
+	 */
+	public int getMemory() {
+		return memory;
+	}
+
+	/**
+	 * Gets the idle timeout.
+	 *
+	 * @param unit
+	 *          unit to return timeout in
+	 * @return the timeout
+	 */
+	public long getTimeout(TimeUnit unit) {
+		return unit.convert(timeout, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Adds the packet to the reassembler.
+	 *
+	 * @param packet
+	 *          the packet
+	 * @param user
+	 *          user object passed to the handler
+	 * @see org.jnetpcap.packet.PcapPacketHandler#nextPacket(org.jnetpcap.packet.PcapPacket,
+	 *      java.lang.Object)
+	 */
+	public void nextPacket(PcapPacket packet, T user) {
+		add(packet, user);
+	}
+
+	/**
+	 * Starts tracking a new stream under the current key, evicting the least
+	 * recently active stream if the limit has been reached.
+	 *
+	 * @param clientCanonical
+	 *          orientation of the client
+	 * @param user
+	 *          user object passed to the handler of an evicted stream
+	 * @return the new stream
+	 */
+	private JTcpStream open(boolean clientCanonical, T user) {
+		if (streams.size() >= maxStreams) {
+			final Iterator<JTcpStream> i = streams.values().iterator();
+			final JTcpStream oldest = i.next();
+			i.remove();
+
+			end(oldest, Close.EVICTED, user);
+		}
+
+		final Key k = key.copy();
+		final JTcpStream stream =
+				new JTcpStream(nextId++, k, clientCanonical, now);
+		streams.put(k, stream);
+
+		counters[Counter.STREAMS.ordinal()]++;
+
+		return stream;
+	}
+
+	/**
+	 * Releases all buffered segments of a direction without delivering them.
+	 *
+	 * @param half
+	 *          the direction
+	 */
+	private void release(Half half) {
+		for (Segment s = half.head; s != null; s = s.next) {
+			if (s.data != null) {
+				s.data.release();
+			}
+		}
+
+		memory -= half.buffered;
+		half.head = null;
+		half.buffered = 0;
+	}
+
+	/**
+	 * Processes the data of a segment.
+	 *
+	 * @param stream
+	 *          the stream
+	 * @param half
+	 *          the direction
+	 * @param reverse
+	 *          the direction flag
+	 * @param packet
+	 *          packet with the data
+	 * @param offset
+	 *          offset of the data within the packet
+	 * @param seq
+	 *          sequence of the first byte
+	 * @param length
+	 *          bytes captured
+	 * @param missing
+	 *          bytes not captured
+	 * @param user
+	 *          user object
+	 */
+	private void segment(JTcpStream stream,
+			Half half,
+			boolean reverse,
+			JPacket packet,
+			int offset,
+			int seq,
+			int length,
+			int missing,
+			T user) {
+
+		final int end = seq + length + missing;
+
+		if (end - half.next <= 0) {
+			counters[Counter.RETRANSMISSIONS.ordinal()]++;
+			return;
+		}
+
+		if (seq - half.next > 0) {
+			counters[Counter.OUT_OF_ORDER.ordinal()]++;
+
+			/*
+			 * Give up on missing data, oldest first, until the segment fits within
+			 * the memory limits or becomes contiguous itself.
+			 */
+			while (seq - half.next > 0
+					&& (half.buffered + length > maxMemoryPerDirection || memory
+							+ length > maxMemory)) {
+
+				final Segment head = half.head;
+				if (head == null || seq - head.seq < 0) {
+					gap(stream, half, reverse, seq - half.next, user);
+				} else {
+					gap(stream, half, reverse, head.seq - half.next, user);
+					drain(stream, half, reverse, user);
+				}
+			}
+
+			if (seq - half.next > 0) {
+				buffer(half, packet, offset, seq, length, missing);
+				return;
+			}
+
+			if (end - half.next <= 0) {
+				return; // Delivered out of the buffered segments
+			}
+
+		} else if (seq - half.next < 0) {
+			counters[Counter.OVERLAPS.ordinal()]++;
+		}
+
+		deliver(stream, half, reverse, packet, offset, seq, length, missing, user);
+		drain(stream, half, reverse, user);
+	}
+
+	/**
+	 * Sets the memory pool out of which out of order segments are allocated.
+	 *
+	 * @param pool
+	 *          the pool, or null to use {@link JPacket#getMemoryPool()}
+	 */
+	public void setMemoryPool(JMemoryPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Gets the number of streams being tracked.
+	 *
+	 * @return number of streams
+	 */
+	public int size() {
+		return streams.size();
+	}
+
+	/**
+	 * Delivers every buffered segment of a direction, reporting the gaps in
+	 * between.
+	 *
+	 * @param stream
+	 *          the stream
+	 * @param half
+	 *          the direction
+	 * @param reverse
+	 *          the direction flag
+	 * @param user
+	 *          user object
+	 */
+	private void skipAll(JTcpStream stream, Half half, boolean reverse, T user) {
+		while (half.head != null) {
+			final int gap = half.head.seq - half.next;
+			if (gap > 0) {
+				gap(stream, half, reverse, gap, user);
+			}
+
+			drain(stream, half, reverse, user);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import org.jnetpcap.nio.JBuffer;
+
+/**
+ * A TCP connection tracked by a {@link JTcpReassembler}. The client is the
+ * side which sent the initial SYN, or when the start of the connection was not
+ * captured, the sender of the first segment seen. Methods which take a
+ * <code>reverse</code> flag refer to data sent by the client when false and
+ * to data sent by the server when true, the same way as
+ * {@link JFlowRecord#getBytes(boolean)}.
+ * <p>
+ * A stream object is only handed out by the reassembler while the connection
+ * is being tracked. It may carry a user attachment, for example the state of
+ * an application protocol parser for the connection.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JTcpStream {
+
+	/**
+	 * State of one direction of the connection.
+	 */
+	static class Half {
+
+		/** Bytes delivered to the handler. */
+		long bytes;
+
+		/** Bytes held in out of order segments. */
+		int buffered;
+
+		/** True once the FIN has been reached. */
+		boolean closed;
+
+		/** True once a FIN has been seen. */
+		boolean fin;
+
+		/** Sequence number just past the last byte before the FIN. */
+		int finSeq;
+
+		/** Out of order segments, sorted by sequence number. */
+		Segment head;
+
+		/** Bytes reported as gaps. */
+		long missing;
+
+		/** Sequence number of the next byte to deliver. */
+		int next;
+
+		/** True once the first segment for this direction has been seen. */
+		boolean started;
+	}
+
+	/**
+	 * Out of order segment held in pool memory until the data before it
+	 * arrives.
+	 */
+	static class Segment {
+
+		/** Copy of the captured data, null if nothing was captured. */
+		JBuffer data;
+
+		/** Number of bytes captured. */
+		int length;
+
+		/** Number of bytes past the captured data that were not captured. */
+		int missing;
+
+		/** Next segment in the list. */
+		Segment next;
+
+		/** Sequence number of the first byte. */
+		int seq;
+	}
+
+	/** User attachment. */
+	private Object attachment;
+
+	/** Data sent by the client. */
+	final Half client = new Half();
+
+	/** True if the client sends in the canonical orientation of the key. */
+	final boolean clientCanonical;
+
+	/** Timestamp in nanos of the first segment. */
+	final long first;
+
+	/** Serial number of the stream. */
+	private final long id;
+
+	/** Key under which the stream is tracked. */
+	final Object key;
+
+	/** Timestamp in nanos of the last segment. */
+	long last;
+
+	/** Data sent by the server. */
+	final Half server = new Half();
+
+	/**
+	 * Creates a new stream.
+	 * 
+	 * @param id
+	 *          serial number
+	 * @param key
+	 *          tracking key
+	 * @param clientCanonical
+	 *          orientation of the client
+	 * @param timestamp
+	 *          timestamp of first segment in nanos
+	 */
+	JTcpStream(long id, Object key, boolean clientCanonical, long timestamp) {
+		this.id = id;
+		this.key = key;
+		this.clientCanonical = clientCanonical;
+		this.first = timestamp;
+		this.last = timestamp;
+	}
+
+	/**
+	 * Gets the user attachment.
+	 * 
+	 * @return the attachment or null
+	 */
+	public Object getAttachment() {
+		return attachment;
+	}
+
+	/**
+	 * Gets the number of bytes held in out of order segments.
+	 * 
+	 * @param reverse
+	 *          direction
+	 * @return number of bytes
+	 */
+	public int getBuffered(boolean reverse) {
+		return half(reverse).buffered;
+	}
+
+	/**
+	 * Gets the number of bytes delivered to the handler.
+	 * 
+	 * @param reverse
+	 *          direction
+	 * @return number of bytes
+	 */
+	public long getBytes(boolean reverse) {
+		return half(reverse).bytes;
+	}
+
+	/**
+	 * Gets the timestamp of the first segment.
+	 * 
+	 * @return timestamp in nanos
+	 */
+	public long getFirstTimestamp() {
+		return first;
+	}
+
+	/**
+	 * Gets the serial number of the stream, unique within its reassembler.
+	 * 
+	 * @return the id
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the timestamp of the last segment.
+	 * 
+	 * @return timestamp in nanos
+	 */
+	public long getLastTimestamp() {
+		return last;
+	}
+
+	/**
+	 * Gets the number of bytes reported as gaps.
+	 * 
+	 * @param reverse
+	 *          direction
+	 * @return number of bytes
+	 */
+	public long getMissing(boolean reverse) {
+		return half(reverse).missing;
+	}
+
+	/**
+	 * Gets the state of one direction.
+	 * 
+	 * @param reverse
+	 *          direction
+	 * @return the half
+	 */
+	Half half(boolean reverse) {
+		return (reverse) ? server : client;
+	}
+
+	/**
+	 * Checks if all the data up to the FIN has been delivered.
+	 * 
+	 * @param reverse
+	 *          direction
+	 * @return true if closed
+	 */
+	public boolean isClosed(boolean reverse) {
+		return half(reverse).closed;
+	}
+
+	/**
+	 * Attaches a user object to the stream.
+	 * 
+	 * @param attachment
+	 *          the attachment or null
+	 */
+	public void setAttachment(Object attachment) {
+		this.attachment = attachment;
+	}
+
+	/**
+	 * Debug string.
+	 * 
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		return "JTcpStream[id=" + id + ", client=" + client.bytes + "/"
+				+ client.missing + ", server=" + server.bytes + "/" + server.missing
+				+ "]";
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import org.jnetpcap.JHandler;
+import org.jnetpcap.nio.JBuffer;
+
+/**
+ * A handler which receives the reassembled byte streams of TCP connections
+ * from a {@link JTcpReassembler}. Each direction of a connection is delivered
+ * in order, as a sequence of contiguous byte ranges, with gaps reported where
+ * data was never captured or had to be given up on.
+ * 
+ * @param <T>
+ *          the generic user type
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface JTcpStreamHandler<T> extends JHandler<T> {
+
+	/**
+	 * Called with the next contiguous range of bytes in one direction of the
+	 * stream. The buffer is either the packet which carried the data or
+	 * memory which held an out of order segment, and is only valid until this
+	 * method returns.
+	 * 
+	 * @param stream
+	 *          the stream
+	 * @param reverse
+	 *          false for data sent by the client, true for data sent by the
+	 *          server
+	 * @param data
+	 *          buffer containing the data
+	 * @param offset
+	 *          offset of the data within the buffer
+	 * @param length
+	 *          number of bytes of data
+	 * @param user
+	 *          user supplied object of type <T>
+	 */
+	public void nextData(JTcpStream stream,
+			boolean reverse,
+			JBuffer data,
+			int offset,
+			int length,
+			T user);
+
+	/**
+	 * Called when bytes are missing from one direction of the stream. The
+	 * stream continues with the data which follows the gap.
+	 * 
+	 * @param stream
+	 *          the stream
+	 * @param reverse
+	 *          false for data sent by the client, true for data sent by the
+	 *          server
+	 * @param length
+	 *          number of bytes missing
+	 * @param user
+	 *          user supplied object of type <T>
+	 */
+	public void nextGap(JTcpStream stream, boolean reverse, int length, T user);
+
+	/**
+	 * Called once when the stream has ended. No more calls are made for the
+	 * stream after this one.
+	 * 
+	 * @param stream
+	 *          the stream
+	 * @param reason
+	 *          why the stream ended
+	 * @param user
+	 *          user supplied object of type <T>
+	 */
+	public void streamClosed(JTcpStream stream,
+			JTcpReassembler.Close reason,
+			T user);
+}
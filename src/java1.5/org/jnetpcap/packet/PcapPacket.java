@@ -756,6 +756,19 @@ public class PcapPacket extends JPacket {
 		return transferHeaderAndDataFrom0(header, buffer);
 	}
 
+	/**
+	 * Releases the packet's capture header, state and data immediately,
+	 * returning any pool allocated memory for reuse.
+	 * 
+	 * @see JPacket#release()
+	 */
+	@Override
+	public void release() {
+		header.release();
+
+		super.release();
+	}
+
 	/**
 	 * Transfer header and data from0.
 	 * 
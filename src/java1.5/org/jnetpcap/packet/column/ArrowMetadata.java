@@ -0,0 +1,700 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet.column;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the Arrow IPC metadata used by {@link ArrowWriter}: schema, record
+ * batch and file footer. Arrow metadata is stored as FlatBuffers. Since only a
+ * handful of tables are ever needed, they are built with a tiny FlatBuffer
+ * encoder instead of depending on the FlatBuffers and Arrow libraries.
+ * <p>
+ * Unlike the stock FlatBuffers builder, which builds back to front, this
+ * encoder writes front to back: a table's vtable immediately precedes it and
+ * every object a table refers to follows it, so all offsets are forward as the
+ * format requires. Scalars are aligned on their size relative to the start of
+ * the buffer, which the writer places on an 8 byte boundary.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+final class ArrowMetadata {
+
+	/**
+	 * FlatBuffer table under construction.
+	 */
+	static class Table {
+
+		/** The slots. */
+		private final List<Slot> slots = new ArrayList<Slot>();
+
+		/**
+		 * Adds a boolean field.
+		 * 
+		 * @param index
+		 *          field index in the schema
+		 * @param value
+		 *          the value
+		 * @return this table
+		 */
+		public Table addBoolean(int index, boolean value) {
+			return add(index, 1, value ? 1 : 0, null);
+		}
+
+		/**
+		 * Adds a byte field.
+		 * 
+		 * @param index
+		 *          field index in the schema
+		 * @param value
+		 *          the value
+		 * @return this table
+		 */
+		public Table addByte(int index, int value) {
+			return add(index, 1, value, null);
+		}
+
+		/**
+		 * Adds an int field.
+		 * 
+		 * @param index
+		 *          field index in the schema
+		 * @param value
+		 *          the value
+		 * @return this table
+		 */
+		public Table addInt(int index, int value) {
+			return add(index, 4, value, null);
+		}
+
+		/**
+		 * Adds a long field.
+		 * 
+		 * @param index
+		 *          field index in the schema
+		 * @param value
+		 *          the value
+		 * @return this table
+		 */
+		public Table addLong(int index, long value) {
+			return add(index, 8, value, null);
+		}
+
+		/**
+		 * Adds a short field.
+		 * 
+		 * @param index
+		 *          field index in the schema
+		 * @param value
+		 *          the value
+		 * @return this table
+		 */
+		public Table addShort(int index, int value) {
+			return add(index, 2, value, null);
+		}
+
+		/**
+		 * Adds a string field.
+		 * 
+		 * @param index
+		 *          field index in the schema
+		 * @param value
+		 *          the value
+		 * @return this table
+		 */
+		public Table addString(int index, String value) {
+			return add(index, 4, 0, value);
+		}
+
+		/**
+		 * Adds a vector of structs field.
+		 * 
+		 * @param index
+		 *          field index in the schema
+		 * @param value
+		 *          the encoded structs
+		 * @return this table
+		 */
+		public Table addStructs(int index, Structs value) {
+			return add(index, 4, 0, value);
+		}
+
+		/**
+		 * Adds a sub-table field.
+		 * 
+		 * @param index
+		 *          field index in the schema
+		 * @param value
+		 *          the table
+		 * @return this table
+		 */
+		public Table addTable(int index, Table value) {
+			return add(index, 4, 0, value);
+		}
+
+		/**
+		 * Adds a vector of tables field.
+		 * 
+		 * @param index
+		 *          field index in the schema
+		 * @param value
+		 *          the tables
+		 * @return this table
+		 */
+		public Table addTables(int index, Table[] value) {
+			return add(index, 4, 0, value);
+		}
+
+		/**
+		 * Adds a slot.
+		 * 
+		 * @param index
+		 *          field index
+		 * @param size
+		 *          inline size
+		 * @param value
+		 *          scalar value
+		 * @param ref
+		 *          referenced object
+		 * @return this table
+		 */
+		private Table add(int index, int size, long value, Object ref) {
+			slots.add(new Slot(index, size, value, ref));
+
+			return this;
+		}
+	}
+
+	/**
+	 * A single table field.
+	 */
+	private static class Slot {
+
+		/** Field index. */
+		private final int index;
+
+		/** Offset of the field from the start of table, set on write. */
+		private int offset;
+
+		/** Referenced object, or null for scalars. */
+		private final Object ref;
+
+		/** Inline size. */
+		private final int size;
+
+		/** Scalar value. */
+		private final long value;
+
+		/**
+		 * Instantiates a new slot.
+		 * 
+		 * @param index
+		 *          field index
+		 * @param size
+		 *          inline size
+		 * @param value
+		 *          scalar value
+		 * @param ref
+		 *          referenced object
+		 */
+		public Slot(int index, int size, long value, Object ref) {
+			this.index = index;
+			this.size = size;
+			this.value = value;
+			this.ref = ref;
+		}
+	}
+
+	/**
+	 * A vector of fixed size structs, already encoded. All Arrow structs used
+	 * are 8 byte aligned.
+	 */
+	static class Structs {
+
+		/** Number of structs. */
+		private int count;
+
+		/** Encoded structs. */
+		private final Encoder data = new Encoder(64);
+
+		/**
+		 * Appends a FieldNode or Buffer struct, both are 2 longs.
+		 * 
+		 * @param a
+		 *          first long
+		 * @param b
+		 *          second long
+		 * @return this vector
+		 */
+		public Structs add(long a, long b) {
+			data.putLong(a);
+			data.putLong(b);
+			count++;
+
+			return this;
+		}
+
+		/**
+		 * Appends a Block struct.
+		 * 
+		 * @param offset
+		 *          file offset of the message
+		 * @param metaDataLength
+		 *          length of the message metadata including its prefix
+		 * @param bodyLength
+		 *          length of the message body
+		 * @return this vector
+		 */
+		public Structs addBlock(long offset, int metaDataLength, long bodyLength) {
+			data.putLong(offset);
+			data.putInt(metaDataLength);
+			data.putInt(0); // padding
+			data.putLong(bodyLength);
+			count++;
+
+			return this;
+		}
+	}
+
+	/**
+	 * Little endian byte array writer.
+	 */
+	private static class Encoder {
+
+		/** The buffer. */
+		private byte[] b;
+
+		/** Current position, also the size. */
+		private int pos = 0;
+
+		/**
+		 * Instantiates a new encoder.
+		 * 
+		 * @param size
+		 *          initial size
+		 */
+		public Encoder(int size) {
+			b = new byte[size];
+		}
+
+		/**
+		 * Pads with zeros to an alignment.
+		 * 
+		 * @param align
+		 *          the alignment
+		 * @param skew
+		 *          position is aligned once pos + skew is
+		 */
+		public void align(int align, int skew) {
+			while (((pos + skew) & (align - 1)) != 0) {
+				putByte(0);
+			}
+		}
+
+		/**
+		 * Makes room for more bytes.
+		 * 
+		 * @param len
+		 *          number of bytes to be written
+		 */
+		private void ensure(int len) {
+			if (pos + len > b.length) {
+				final byte[] n = new byte[Math.max(b.length * 2, pos + len)];
+				System.arraycopy(b, 0, n, 0, pos);
+				b = n;
+			}
+		}
+
+		/**
+		 * Writes raw bytes.
+		 * 
+		 * @param data
+		 *          the bytes
+		 * @param offset
+		 *          offset into data
+		 * @param len
+		 *          number of bytes
+		 */
+		public void put(byte[] data, int offset, int len) {
+			ensure(len);
+			System.arraycopy(data, offset, b, pos, len);
+			pos += len;
+		}
+
+		/**
+		 * Writes a byte.
+		 * 
+		 * @param v
+		 *          the value
+		 */
+		public void putByte(int v) {
+			ensure(1);
+			b[pos++] = (byte) v;
+		}
+
+		/**
+		 * Writes an int.
+		 * 
+		 * @param v
+		 *          the value
+		 */
+		public void putInt(int v) {
+			ensure(4);
+			setInt(pos, v);
+			pos += 4;
+		}
+
+		/**
+		 * Writes a long.
+		 * 
+		 * @param v
+		 *          the value
+		 */
+		public void putLong(long v) {
+			putInt((int) v);
+			putInt((int) (v >>> 32));
+		}
+
+		/**
+		 * Writes a scalar of given size.
+		 * 
+		 * @param size
+		 *          1, 2, 4 or 8 bytes
+		 * @param v
+		 *          the value
+		 */
+		public void putScalar(int size, long v) {
+			for (int i = 0; i < size; i++) {
+				putByte((int) (v >>> (i * 8)));
+			}
+		}
+
+		/**
+		 * Writes a short.
+		 * 
+		 * @param v
+		 *          the value
+		 */
+		public void putShort(int v) {
+			putByte(v);
+			putByte(v >>> 8);
+		}
+
+		/**
+		 * Overwrites an int at an earlier position.
+		 * 
+		 * @param at
+		 *          the position
+		 * @param v
+		 *          the value
+		 */
+		public void setInt(int at, int v) {
+			b[at] = (byte) v;
+			b[at + 1] = (byte) (v >>> 8);
+			b[at + 2] = (byte) (v >>> 16);
+			b[at + 3] = (byte) (v >>> 24);
+		}
+
+		/**
+		 * Overwrites a short at an earlier position.
+		 * 
+		 * @param at
+		 *          the position
+		 * @param v
+		 *          the value
+		 */
+		public void setShort(int at, int v) {
+			b[at] = (byte) v;
+			b[at + 1] = (byte) (v >>> 8);
+		}
+
+		/**
+		 * Copy of the bytes written so far.
+		 * 
+		 * @return the bytes
+		 */
+		public byte[] toByteArray() {
+			final byte[] r = new byte[pos];
+			System.arraycopy(b, 0, r, 0, pos);
+
+			return r;
+		}
+	}
+
+	/** Schema.fbs: Type union, Int. */
+	public final static int TYPE_INT = 2;
+
+	/** Schema.fbs: Type union, FixedSizeBinary. */
+	public final static int TYPE_FIXED_SIZE_BINARY = 15;
+
+	/** Message.fbs: MessageHeader union, Schema. */
+	public final static int HEADER_SCHEMA = 1;
+
+	/** Message.fbs: MessageHeader union, RecordBatch. */
+	public final static int HEADER_RECORD_BATCH = 3;
+
+	/** Schema.fbs: MetadataVersion V5. */
+	public final static int VERSION_V5 = 4;
+
+	/**
+	 * Encodes a complete FlatBuffer with the table as its root.
+	 * 
+	 * @param root
+	 *          root table
+	 * @return the FlatBuffer
+	 */
+	public static byte[] encode(Table root) {
+		final Encoder e = new Encoder(256);
+
+		e.putInt(0); // root offset
+		e.setInt(0, writeTable(e, root));
+
+		return e.toByteArray();
+	}
+
+	/**
+	 * Schema.fbs: Field table.
+	 * 
+	 * @param name
+	 *          field name
+	 * @param typeType
+	 *          Type union code
+	 * @param type
+	 *          type table
+	 * @return the table
+	 */
+	public static Table field(String name, int typeType, Table type) {
+		return new Table().addString(0, name).addBoolean(1, true).addByte(2,
+		    typeType).addTable(3, type).addTables(5, new Table[0]);
+	}
+
+	/**
+	 * Schema.fbs: FixedSizeBinary table.
+	 * 
+	 * @param byteWidth
+	 *          bytes per value
+	 * @return the table
+	 */
+	public static Table fixedSizeBinary(int byteWidth) {
+		return new Table().addInt(0, byteWidth);
+	}
+
+	/**
+	 * File.fbs: Footer table.
+	 * 
+	 * @param schema
+	 *          the schema
+	 * @param recordBatches
+	 *          blocks of all the record batches
+	 * @return the table
+	 */
+	public static Table footer(Table schema, Structs recordBatches) {
+		return new Table().addShort(0, VERSION_V5).addTable(1, schema)
+		    .addStructs(2, new Structs()).addStructs(3, recordBatches);
+	}
+
+	/**
+	 * Schema.fbs: Int table.
+	 * 
+	 * @param bitWidth
+	 *          8, 16, 32 or 64
+	 * @param signed
+	 *          signed or unsigned
+	 * @return the table
+	 */
+	public static Table intType(int bitWidth, boolean signed) {
+		return new Table().addInt(0, bitWidth).addBoolean(1, signed);
+	}
+
+	/**
+	 * Message.fbs: Message table.
+	 * 
+	 * @param headerType
+	 *          MessageHeader union code
+	 * @param header
+	 *          the header table
+	 * @param bodyLength
+	 *          length of the message body
+	 * @return the table
+	 */
+	public static Table message(int headerType, Table header, long bodyLength) {
+		return new Table().addShort(0, VERSION_V5).addByte(1, headerType)
+		    .addTable(2, header).addLong(3, bodyLength);
+	}
+
+	/**
+	 * Message.fbs: RecordBatch table.
+	 * 
+	 * @param length
+	 *          number of rows
+	 * @param nodes
+	 *          FieldNode structs, one per column
+	 * @param buffers
+	 *          Buffer structs, two per column
+	 * @return the table
+	 */
+	public static Table recordBatch(long length, Structs nodes, Structs buffers) {
+		return new Table().addLong(0, length).addStructs(1, nodes).addStructs(2,
+		    buffers);
+	}
+
+	/**
+	 * Schema.fbs: Schema table, little endian.
+	 * 
+	 * @param fields
+	 *          field tables
+	 * @return the table
+	 */
+	public static Table schema(Table[] fields) {
+		return new Table().addShort(0, 0).addTables(1, fields);
+	}
+
+	/**
+	 * Writes a referenced object and returns its position.
+	 * 
+	 * @param e
+	 *          the encoder
+	 * @param ref
+	 *          the object
+	 * @return position of the object
+	 */
+	private static int writeRef(Encoder e, Object ref) {
+		if (ref instanceof Table) {
+			return writeTable(e, (Table) ref);
+
+		} else if (ref instanceof String) {
+			final byte[] s;
+			try {
+				s = ((String) ref).getBytes("UTF-8");
+			} catch (UnsupportedEncodingException ex) {
+				throw new IllegalStateException(ex);
+			}
+
+			e.align(4, 0);
+			final int p = e.pos;
+			e.putInt(s.length);
+			e.put(s, 0, s.length);
+			e.putByte(0);
+
+			return p;
+
+		} else if (ref instanceof Structs) {
+			final Structs s = (Structs) ref;
+
+			e.align(8, 4); // elements, not the length, are 8 byte aligned
+			final int p = e.pos;
+			e.putInt(s.count);
+			e.put(s.data.b, 0, s.data.pos);
+
+			return p;
+
+		} else {
+			final Table[] tables = (Table[]) ref;
+
+			e.align(4, 0);
+			final int p = e.pos;
+			e.putInt(tables.length);
+			for (int i = 0; i < tables.length; i++) {
+				e.putInt(0);
+			}
+
+			for (int i = 0; i < tables.length; i++) {
+				final int at = p + 4 + i * 4;
+				e.setInt(at, writeTable(e, tables[i]) - at);
+			}
+
+			return p;
+		}
+	}
+
+	/**
+	 * Writes a table, preceded by its vtable and followed by every object it
+	 * refers to.
+	 * 
+	 * @param e
+	 *          the encoder
+	 * @param t
+	 *          the table
+	 * @return position of the table
+	 */
+	private static int writeTable(Encoder e, Table t) {
+		int count = 0;
+		for (Slot s : t.slots) {
+			count = Math.max(count, s.index + 1);
+		}
+
+		/* Inline layout, largest fields first, each aligned on its size */
+		int size = 4; // soffset to vtable
+		for (int align = 8; align > 0; align >>= 1) {
+			for (Slot s : t.slots) {
+				if (s.size == align) {
+					size = (size + align - 1) & ~(align - 1);
+					s.offset = size;
+					size += align;
+				}
+			}
+		}
+
+		e.align(2, 0);
+		final int vtable = e.pos;
+		e.putShort(4 + count * 2);
+		e.putShort(size);
+		for (int i = 0; i < count; i++) {
+			e.putShort(0);
+		}
+		for (Slot s : t.slots) {
+			e.setShort(vtable + 4 + s.index * 2, s.offset);
+		}
+
+		e.align(8, 0);
+		final int table = e.pos;
+		e.putInt(table - vtable);
+		for (int i = 4; i < size; i++) {
+			e.putByte(0);
+		}
+
+		final int end = e.pos;
+		for (Slot s : t.slots) {
+			if (s.ref == null) {
+				e.pos = table + s.offset;
+				e.putScalar(s.size, s.value);
+			}
+		}
+		e.pos = end;
+
+		for (Slot s : t.slots) {
+			if (s.ref != null) {
+				final int at = table + s.offset;
+				e.setInt(at, writeRef(e, s.ref) - at);
+			}
+		}
+
+		return table;
+	}
+
+	/**
+	 * Static methods only.
+	 */
+	private ArrowMetadata() {
+	}
+}
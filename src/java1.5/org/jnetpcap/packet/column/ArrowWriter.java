@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet.column;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import org.jnetpcap.packet.column.ArrowMetadata.Structs;
+import org.jnetpcap.packet.column.ArrowMetadata.Table;
+
+/**
+ * Writes batches of extracted columns as an Apache Arrow IPC file. The file
+ * can be memory mapped and loaded by any Arrow implementation without
+ * parsing, which is many times faster than reading back formatter output.
+ * Columns map to Arrow types as follows, all nullable, with absent rows
+ * written as nulls:
+ * <ul>
+ * <li>{@link JIntColumn} - Int(32, signed)</li>
+ * <li>{@link JLongColumn} - Int(64, signed)</li>
+ * <li>{@link JBytesColumn} - FixedSizeBinary(width)</li>
+ * </ul>
+ * <p>
+ * The schema is taken from the columns of the first batch. Each batch of the
+ * extractor becomes a single record batch. The writer is a
+ * {@link JColumnHandler}, so it can be handed straight to the extractor:
+ * </p>
+ * 
+ * <pre>
+ * ArrowWriter out = new ArrowWriter(new File(&quot;packets.arrow&quot;));
+ * JColumnExtractor extractor = new JColumnExtractor(64 * 1024, out);
+ * extractor.addBytesColumn(Ip4.class, &quot;source&quot;);
+ * extractor.addBytesColumn(Ip4.class, &quot;destination&quot;);
+ * extractor.addIntColumn(Tcp.class, &quot;flags&quot;);
+ * 
+ * pcap.loop(Pcap.LOOP_INFINITE, extractor, null);
+ * extractor.flush();
+ * out.close();
+ * </pre>
+ * 
+ * <p>
+ * The metadata is encoded by {@link ArrowMetadata}, so no Arrow or FlatBuffers
+ * libraries are needed. Column bodies are copied into a direct buffer in bulk
+ * and written to the channel whenever the buffer fills up.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class ArrowWriter
+    implements JColumnHandler, Closeable, Flushable {
+
+	/** Default size of the write buffer. */
+	public final static int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	/** Magic at the start and end of an Arrow file. */
+	private final static byte[] MAGIC = {
+	    'A',
+	    'R',
+	    'R',
+	    'O',
+	    'W',
+	    '1' };
+
+	/** Encapsulated message continuation marker. */
+	private final static int CONTINUATION = 0xFFFFFFFF;
+
+	/**
+	 * Rounds up to a multiple of 8.
+	 * 
+	 * @param len
+	 *          the length
+	 * @return padded length
+	 */
+	private static long pad(long len) {
+		return (len + 7) & ~7L;
+	}
+
+	/**
+	 * Bytes per value of a column.
+	 * 
+	 * @param c
+	 *          the column
+	 * @return value width
+	 */
+	private static int valueWidth(JColumn c) {
+		if (c instanceof JIntColumn) {
+			return 4;
+		} else if (c instanceof JLongColumn) {
+			return 8;
+		} else {
+			return ((JBytesColumn) c).width();
+		}
+	}
+
+	/** Number of record batches written. */
+	private int batchCount;
+
+	/** Blocks of record batches, for the footer. */
+	private final Structs blocks = new Structs();
+
+	/** The buffer. */
+	private ByteBuffer buffer;
+
+	/** Number of bytes written to the channel so far. */
+	private long bytesWritten;
+
+	/** The channel. */
+	private final WritableByteChannel channel;
+
+	/** Columns of the first batch, the schema. */
+	private JColumn[] layout;
+
+	/** Number of rows written. */
+	private long rowCount;
+
+	/** Schema table, null until the first batch. */
+	private Table schema;
+
+	/**
+	 * Creates a new Arrow file.
+	 * 
+	 * @param file
+	 *          file to create or overwrite
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public ArrowWriter(File file) throws IOException {
+		this(new FileOutputStream(file).getChannel(), DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Writes an Arrow file to a channel, using a buffer of
+	 * {@value #DEFAULT_BUFFER_SIZE} bytes.
+	 * 
+	 * @param channel
+	 *          channel to write to
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public ArrowWriter(WritableByteChannel channel) throws IOException {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Writes an Arrow file to a channel. The buffer grows if a record batch
+	 * larger than the buffer is written.
+	 * 
+	 * @param channel
+	 *          channel to write to
+	 * @param bufferSize
+	 *          initial size of the write buffer
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public ArrowWriter(WritableByteChannel channel, int bufferSize)
+	    throws IOException {
+		if (bufferSize < 64) {
+			throw new IllegalArgumentException("buffer size too small");
+		}
+
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		buffer.put(MAGIC).putShort((short) 0);
+	}
+
+	/**
+	 * Writes the end of stream marker and the file footer, then closes the
+	 * channel. A file with no batches gets an empty schema.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void close() throws IOException {
+		try {
+			if (schema == null) {
+				layout = new JColumn[0];
+				schema = ArrowMetadata.schema(new Table[0]);
+				writeMessage(ArrowMetadata.HEADER_SCHEMA, schema, 0);
+			}
+
+			final byte[] footer =
+			    ArrowMetadata.encode(ArrowMetadata.footer(schema, blocks));
+
+			reserve(8 + footer.length + 4 + MAGIC.length);
+			buffer.putInt(CONTINUATION).putInt(0);
+			buffer.put(footer);
+			buffer.putInt(footer.length);
+			buffer.put(MAGIC);
+
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes out the buffer.
+	 * 
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				bytesWritten += channel.write(buffer);
+			}
+		} finally {
+			buffer.compact();
+		}
+	}
+
+	/**
+	 * Gets the number of record batches written.
+	 * 
+	 * @return batch count
+	 */
+	public int getBatchCount() {
+		return batchCount;
+	}
+
+	/**
+	 * Gets the number of bytes written so far, including any bytes still in the
+	 * buffer.
+	 * 
+	 * @return number of bytes
+	 */
+	public long getBytesWritten() {
+		return bytesWritten + buffer.position();
+	}
+
+	/**
+	 * Gets the total number of rows written.
+	 * 
+	 * @return row count
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Writes the extractor's batch, same as {@link #write(JColumnExtractor)}.
+	 * 
+	 * @param extractor
+	 *          the extractor
+	 * @throws IllegalStateException
+	 *           wrapping any IO errors
+	 */
+	public void nextBatch(JColumnExtractor extractor) {
+		try {
+			write(extractor);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Makes room in the buffer.
+	 * 
+	 * @param length
+	 *          number of bytes about to be written
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private void reserve(long length) throws IOException {
+		if (buffer.remaining() >= length) {
+			return;
+		}
+
+		flush();
+
+		if (buffer.remaining() < length) {
+			if (length > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("record batch too large");
+			}
+
+			final ByteBuffer b = ByteBuffer.allocateDirect((int) length);
+			b.order(buffer.order());
+			this.buffer = b;
+		}
+	}
+
+	/**
+	 * Writes the extractor's current batch as a record batch. The first batch
+	 * also writes the schema.
+	 * 
+	 * @param extractor
+	 *          the extractor
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	public void write(JColumnExtractor extractor) throws IOException {
+		write(extractor.getColumns(), extractor.size());
+	}
+
+	/**
+	 * Writes a record batch.
+	 * 
+	 * @param columns
+	 *          the columns
+	 * @param rows
+	 *          number of rows in the batch
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	void write(List<JColumn> columns, int rows) throws IOException {
+		if (rows == 0) {
+			return;
+		}
+
+		if (schema == null) {
+			writeSchema(columns);
+		} else if (columns.size() != layout.length) {
+			throw new IllegalStateException("columns differ from the schema");
+		}
+
+		final Structs nodes = new Structs();
+		final Structs buffers = new Structs();
+		long body = 0;
+
+		for (int i = 0; i < layout.length; i++) {
+			final JColumn c = columns.get(i);
+			if (c != layout[i]) {
+				throw new IllegalStateException("columns differ from the schema");
+			}
+
+			final long[] present = c.presentBitmap();
+			int nonNull = 0;
+			for (int j = 0; j < (rows + 63) >>> 6; j++) {
+				nonNull += Long.bitCount(present[j]);
+			}
+
+			final int validity = (rows + 7) >>> 3;
+			final int values = rows * valueWidth(c);
+
+			nodes.add(rows, rows - nonNull);
+			buffers.add(body, validity);
+			body += pad(validity);
+			buffers.add(body, values);
+			body += pad(values);
+		}
+
+		final Table batch = ArrowMetadata.recordBatch(rows, nodes, buffers);
+		final long offset =
+		    writeMessage(ArrowMetadata.HEADER_RECORD_BATCH, batch, body);
+
+		for (JColumn c : layout) {
+			writeValidity(c.presentBitmap(), rows);
+			writeValues(c, rows);
+		}
+
+		blocks.addBlock(offset, (int) (getBytesWritten() - body - offset), body);
+		batchCount++;
+		rowCount += rows;
+	}
+
+	/**
+	 * Writes an encapsulated message's prefix and metadata and reserves room
+	 * for its body.
+	 * 
+	 * @param headerType
+	 *          MessageHeader union code
+	 * @param header
+	 *          the header table
+	 * @param bodyLength
+	 *          length of the body that follows
+	 * @return file offset of the message
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private long writeMessage(int headerType, Table header, long bodyLength)
+	    throws IOException {
+		final byte[] meta =
+		    ArrowMetadata.encode(ArrowMetadata.message(headerType, header,
+		        bodyLength));
+		final int padded = (int) pad(meta.length);
+
+		reserve(8 + padded + bodyLength);
+		final long offset = getBytesWritten();
+
+		buffer.putInt(CONTINUATION).putInt(padded);
+		buffer.put(meta);
+		for (int i = meta.length; i < padded; i++) {
+			buffer.put((byte) 0);
+		}
+
+		return offset;
+	}
+
+	/**
+	 * Writes the schema message, from the columns of the first batch.
+	 * 
+	 * @param columns
+	 *          the columns
+	 * @throws IOException
+	 *           any IO errors
+	 */
+	private void writeSchema(List<JColumn> columns) throws IOException {
+		layout = columns.toArray(new JColumn[columns.size()]);
+
+		final Table[] fields = new Table[layout.length];
+		for (int i = 0; i < layout.length; i++) {
+			final JColumn c = layout[i];
+
+			if (c instanceof JBytesColumn) {
+				fields[i] =
+				    ArrowMetadata.field(c.getName(),
+				        ArrowMetadata.TYPE_FIXED_SIZE_BINARY, ArrowMetadata
+				            .fixedSizeBinary(((JBytesColumn) c).width()));
+			} else {
+				fields[i] =
+				    ArrowMetadata.field(c.getName(), ArrowMetadata.TYPE_INT,
+				        ArrowMetadata.intType(valueWidth(c) * 8, true));
+			}
+		}
+
+		schema = ArrowMetadata.schema(fields);
+		writeMessage(ArrowMetadata.HEADER_SCHEMA, schema, 0);
+	}
+
+	/**
+	 * Writes a validity bitmap, LSB first, padded to 8 bytes.
+	 * 
+	 * @param present
+	 *          the column's present bitmap
+	 * @param rows
+	 *          number of rows
+	 */
+	private void writeValidity(long[] present, int rows) {
+		final int len = (rows + 7) >>> 3;
+
+		for (int i = 0; i < len; i++) {
+			buffer.put((byte) (present[i >>> 3] >>> ((i & 7) * 8)));
+		}
+
+		writePadding(len);
+	}
+
+	/**
+	 * Writes zeros up to a multiple of 8 bytes.
+	 * 
+	 * @param len
+	 *          length of the buffer just written
+	 */
+	private void writePadding(int len) {
+		for (long i = len; i < pad(len); i++) {
+			buffer.put((byte) 0);
+		}
+	}
+
+	/**
+	 * Writes the column values, padded to 8 bytes.
+	 * 
+	 * @param c
+	 *          the column
+	 * @param rows
+	 *          number of rows
+	 */
+	private void writeValues(JColumn c, int rows) {
+		final int len = rows * valueWidth(c);
+
+		if (c instanceof JIntColumn) {
+			buffer.asIntBuffer().put(((JIntColumn) c).values(), 0, rows);
+		} else if (c instanceof JLongColumn) {
+			buffer.asLongBuffer().put(((JLongColumn) c).values(), 0, rows);
+		} else {
+			buffer.duplicate().put(((JBytesColumn) c).data(), 0, len);
+		}
+
+		buffer.position(buffer.position() + len);
+		writePadding(len);
+	}
+}
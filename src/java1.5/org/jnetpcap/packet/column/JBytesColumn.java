@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet.column;
+
+import java.util.Arrays;
+
+import org.jnetpcap.packet.JHeader;
+import org.jnetpcap.packet.structure.AnnotatedFieldMethod;
+
+/**
+ * A column of fixed width byte values, such as addresses. The bytes are copied
+ * straight out of the header, using the field's offset and length, into a
+ * single array holding <code>width</code> bytes per row. Fields shorter than
+ * the width are zero padded and their actual length recorded, fields longer
+ * than the width are cut off. Fields that do not start on a byte boundary are
+ * copied starting with the byte that contains their first bit.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public final class JBytesColumn
+    extends JColumn {
+
+	/** Value bytes, width bytes per row. */
+	private final byte[] data;
+
+	/** Field's LENGTH property, in bits. */
+	private final AnnotatedFieldMethod length;
+
+	/** Number of bytes copied per row. */
+	private final int[] lengths;
+
+	/** Field's OFFSET property, in bits. */
+	private final AnnotatedFieldMethod offset;
+
+	/** Bytes per row. */
+	private final int width;
+
+	/**
+	 * Instantiates a new bytes column.
+	 * 
+	 * @param name
+	 *          column name
+	 * @param field
+	 *          name of the field within its header
+	 * @param check
+	 *          field's CHECK property
+	 * @param offset
+	 *          field's OFFSET property
+	 * @param length
+	 *          field's LENGTH property
+	 * @param width
+	 *          bytes per row
+	 * @param capacity
+	 *          maximum number of rows
+	 */
+	JBytesColumn(String name, String field, AnnotatedFieldMethod check,
+	    AnnotatedFieldMethod offset, AnnotatedFieldMethod length, int width,
+	    int capacity) {
+		super(name, field, check, capacity);
+
+		this.offset = offset;
+		this.length = length;
+		this.width = width;
+		this.data = new byte[width * capacity];
+		this.lengths = new int[capacity];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetpcap.packet.column.JColumn#clear(int)
+	 */
+	@Override
+	void clear(int row) {
+		Arrays.fill(data, row * width, (row + 1) * width, (byte) 0);
+		lengths[row] = 0;
+	}
+
+	/**
+	 * Gets the column's own value storage, <code>width()</code> bytes per row.
+	 * 
+	 * @return the data
+	 */
+	public byte[] data() {
+		return data;
+	}
+
+	/**
+	 * Copies the value at row into a user buffer.
+	 * 
+	 * @param row
+	 *          the row
+	 * @param dst
+	 *          destination array
+	 * @param offset
+	 *          offset into destination
+	 * @return number of bytes copied, 0 if absent
+	 */
+	public int get(int row, byte[] dst, int offset) {
+		final int len = lengths[row];
+		System.arraycopy(data, row * width, dst, offset, len);
+
+		return len;
+	}
+
+	/**
+	 * Gets the number of bytes copied for the row.
+	 * 
+	 * @param row
+	 *          the row
+	 * @return length in bytes, 0 if absent
+	 */
+	public int length(int row) {
+		return lengths[row];
+	}
+
+	/**
+	 * Gets the column's own length storage, one entry per row.
+	 * 
+	 * @return the lengths
+	 */
+	public int[] lengths() {
+		return lengths;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetpcap.packet.column.JColumn#read(org.jnetpcap.packet.JHeader,
+	 * int)
+	 */
+	@Override
+	void read(JHeader header, int row) {
+		final int start = offset.intMethod(header, field) / 8;
+		final int bits = length.intMethod(header, field);
+		int len = Math.min((bits + 7) / 8, width);
+
+		/* Do not read past the end of a truncated header */
+		if (start + len > header.size()) {
+			len = Math.max(0, header.size() - start);
+		}
+
+		final int o = row * width;
+		if (len > 0) {
+			header.getByteArray(start, data, o, len);
+		}
+
+		if (len < width) {
+			Arrays.fill(data, o + len, o + width, (byte) 0);
+		}
+
+		lengths[row] = len;
+	}
+
+	/**
+	 * Gets the number of bytes reserved per row.
+	 * 
+	 * @return the width
+	 */
+	public int width() {
+		return width;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet.column;
+
+import java.util.Arrays;
+
+import org.jnetpcap.packet.JHeader;
+import org.jnetpcap.packet.structure.AnnotatedFieldMethod;
+
+/**
+ * A single column of field values extracted by {@link JColumnExtractor}. Each
+ * row corresponds to one packet in the current batch. Values are stored in
+ * primitive arrays, owned by the typed subclasses, which are reused from batch
+ * to batch. A row for which the packet did not contain the header, or the
+ * header did not contain the field, is marked as absent and its value is
+ * zeroed.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public abstract class JColumn {
+
+	/** Field's CHECK property, tells if field exists in a header. */
+	private final AnnotatedFieldMethod check;
+
+	/** Name of the field within its header. */
+	protected final String field;
+
+	/** Column name, in <code>nicname.field</code> form. */
+	private final String name;
+
+	/** Bitmap of rows that have a value. */
+	private final long[] present;
+
+	/** Maximum number of rows. */
+	protected final int capacity;
+
+	/**
+	 * Instantiates a new column.
+	 * 
+	 * @param name
+	 *          column name
+	 * @param field
+	 *          name of the field within its header
+	 * @param check
+	 *          field's CHECK property
+	 * @param capacity
+	 *          maximum number of rows
+	 */
+	JColumn(String name, String field, AnnotatedFieldMethod check, int capacity) {
+		this.name = name;
+		this.field = field;
+		this.check = check;
+		this.capacity = capacity;
+		this.present = new long[(capacity + 63) >>> 6];
+	}
+
+	/**
+	 * Marks the row as absent.
+	 * 
+	 * @param row
+	 *          the row
+	 */
+	final void absent(int row) {
+		present[row >>> 6] &= ~(1L << row);
+		clear(row);
+	}
+
+	/**
+	 * Gets the maximum number of rows.
+	 * 
+	 * @return the capacity
+	 */
+	public final int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Zeroes out the value at row.
+	 * 
+	 * @param row
+	 *          the row
+	 */
+	abstract void clear(int row);
+
+	/**
+	 * Marks all rows as absent.
+	 */
+	final void clearAll() {
+		Arrays.fill(present, 0L);
+	}
+
+	/**
+	 * Extracts the field value from a header into a row. The header is already
+	 * peered with the packet.
+	 * 
+	 * @param header
+	 *          the header
+	 * @param row
+	 *          the row
+	 */
+	final void extract(JHeader header, int row) {
+		if (check.booleanMethod(header, field)) {
+			present[row >>> 6] |= (1L << row);
+			read(header, row);
+		} else {
+			absent(row);
+		}
+	}
+
+	/**
+	 * Gets the field name within its header.
+	 * 
+	 * @return the field name
+	 */
+	public final String getFieldName() {
+		return field;
+	}
+
+	/**
+	 * Gets the column name, in <code>nicname.field</code> form, followed by
+	 * <code>[instance]</code> for any header instance other than the first.
+	 * 
+	 * @return the column name
+	 */
+	public final String getName() {
+		return name;
+	}
+
+	/**
+	 * Checks if the row has a value.
+	 * 
+	 * @param row
+	 *          the row
+	 * @return true if the packet had the field, otherwise false
+	 */
+	public final boolean isPresent(int row) {
+		return (present[row >>> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * Gets the bitmap of rows that have a value, 64 rows per long. The array is
+	 * the column's own storage.
+	 * 
+	 * @return the present bitmap
+	 */
+	public final long[] presentBitmap() {
+		return present;
+	}
+
+	/**
+	 * Reads the field value from a header into a row.
+	 * 
+	 * @param header
+	 *          the header
+	 * @param row
+	 *          the row
+	 */
+	abstract void read(JHeader header, int row);
+
+	/**
+	 * Debug string.
+	 * 
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + name + "]";
+	}
+}
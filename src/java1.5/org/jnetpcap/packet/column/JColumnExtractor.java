@@ -0,0 +1,702 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet.column;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jnetpcap.packet.JHeader;
+import org.jnetpcap.packet.JPacket;
+import org.jnetpcap.packet.JPacketHandler;
+import org.jnetpcap.packet.JRegistry;
+import org.jnetpcap.packet.JSubHeader;
+import org.jnetpcap.packet.annotate.Field;
+import org.jnetpcap.packet.structure.AnnotatedField;
+import org.jnetpcap.packet.structure.AnnotatedFieldAccessor;
+import org.jnetpcap.packet.structure.AnnotatedFieldMethod;
+import org.jnetpcap.packet.structure.AnnotatedHeader;
+
+/**
+ * Extracts protocol header fields from a stream of decoded packets into
+ * primitive column buffers, one row per packet. Columns are declared up front
+ * by header class and field name, the same names used by the formatters:
+ * 
+ * <pre>
+ * JColumnExtractor extractor = new JColumnExtractor(1024, handler);
+ * JBytesColumn src = extractor.addBytesColumn(Ip4.class, &quot;source&quot;);
+ * JLongColumn seq = extractor.addLongColumn(Tcp.class, &quot;seq&quot;);
+ * JIntColumn flags = extractor.addIntColumn(Tcp.class, &quot;flags&quot;);
+ * 
+ * pcap.loop(Pcap.LOOP_INFINITE, extractor, null);
+ * extractor.flush();
+ * </pre>
+ * 
+ * <p>
+ * The extractor keeps a single header instance per header class and instance
+ * number, which it peers with each packet, so the columns of one header cost a
+ * single {@link JPacket#hasHeader(JHeader, int)} lookup. Values are read through
+ * the field's compiled getter, see {@link AnnotatedFieldAccessor}, or for byte
+ * columns copied directly out of the header. Nothing is allocated per packet.
+ * </p>
+ * <p>
+ * When a batch fills up, the {@link JColumnHandler}, if any, is handed the
+ * extractor and the batch is cleared when it returns. Without a handler,
+ * {@link #extract(JPacket)} returns true once the batch is full and the caller
+ * must consume the columns and {@link #clear()} the batch before extracting
+ * further packets.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class JColumnExtractor implements JPacketHandler<Object> {
+
+	/**
+	 * Columns that share a header instance.
+	 */
+	private static class Group {
+
+		/** The columns. */
+		private JColumn[] columns = new JColumn[0];
+
+		/** Header instance peered with each packet. */
+		private final JHeader header;
+
+		/** Header instance number within the packet. */
+		private final int instance;
+
+		/**
+		 * Instantiates a new group.
+		 * 
+		 * @param header
+		 *          the header
+		 * @param instance
+		 *          the instance
+		 */
+		public Group(JHeader header, int instance) {
+			this.header = header;
+			this.instance = instance;
+		}
+
+		/**
+		 * Adds a column.
+		 * 
+		 * @param column
+		 *          the column
+		 */
+		public void add(JColumn column) {
+			final JColumn[] c = new JColumn[columns.length + 1];
+			System.arraycopy(columns, 0, c, 0, columns.length);
+			c[columns.length] = column;
+
+			columns = c;
+		}
+	}
+
+	/**
+	 * Getter accessor used when a getter can not be compiled. Boxes every value.
+	 */
+	private static class ReflectedAccessor
+	    extends AnnotatedFieldAccessor {
+
+		/** The getter. */
+		private final Method method;
+
+		/** Getter takes the field name. */
+		private final boolean mapped;
+
+		/**
+		 * Instantiates a new reflected accessor.
+		 * 
+		 * @param method
+		 *          the getter
+		 */
+		public ReflectedAccessor(Method method) {
+			this.method = method;
+			this.mapped = method.getParameterTypes().length == 1;
+
+			method.setAccessible(true);
+		}
+
+		/**
+		 * Invokes the getter.
+		 * 
+		 * @param header
+		 *          the header
+		 * @param name
+		 *          the field name
+		 * @return the value
+		 */
+		private Number invoke(JHeader header, String name) {
+			try {
+				return (Number) ((mapped) ? method.invoke(header, name) : method
+				    .invoke(header));
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see
+		 * org.jnetpcap.packet.structure.AnnotatedFieldAccessor#intValue(org.jnetpcap
+		 * .packet.JHeader, java.lang.String)
+		 */
+		@Override
+		public int intValue(JHeader header, String name) {
+			return invoke(header, name).intValue();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see
+		 * org.jnetpcap.packet.structure.AnnotatedFieldAccessor#longValue(org.jnetpcap
+		 * .packet.JHeader, java.lang.String)
+		 */
+		@Override
+		public long longValue(JHeader header, String name) {
+			return invoke(header, name).longValue();
+		}
+	}
+
+	/**
+	 * Finds a field, or sub-field, by name.
+	 * 
+	 * @param fields
+	 *          fields to search
+	 * @param name
+	 *          field name
+	 * @return the field or null if not found
+	 */
+	private static AnnotatedField findField(
+	    List<AnnotatedField> fields,
+	    String name) {
+		for (AnnotatedField f : fields) {
+			if (f.getName().equals(name)) {
+				return f;
+			}
+
+			final AnnotatedField s = findField(f.getSubFields(), name);
+			if (s != null) {
+				return s;
+			}
+		}
+
+		return null;
+	}
+
+	/** Maximum number of rows per batch. */
+	private final int capacity;
+
+	/** All columns, in order added. */
+	private final List<JColumn> columns = new ArrayList<JColumn>();
+
+	/** Column groups by header. */
+	private Group[] groups = new Group[0];
+
+	/** Optional batch handler. */
+	private final JColumnHandler handler;
+
+	/** Rows in the current batch. */
+	private int size = 0;
+
+	/**
+	 * Creates an extractor without a handler. The caller consumes and clears
+	 * full batches.
+	 * 
+	 * @param capacity
+	 *          maximum number of rows per batch
+	 */
+	public JColumnExtractor(int capacity) {
+		this(capacity, null);
+	}
+
+	/**
+	 * Creates an extractor which hands full batches to a handler.
+	 * 
+	 * @param capacity
+	 *          maximum number of rows per batch
+	 * @param handler
+	 *          batch handler
+	 */
+	public JColumnExtractor(int capacity, JColumnHandler handler) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be greater than 0");
+		}
+
+		this.capacity = capacity;
+		this.handler = handler;
+	}
+
+	/**
+	 * Adds a column of fixed width byte values, for the first instance of the
+	 * header. The width is taken from the field's static length.
+	 * 
+	 * @param c
+	 *          header class
+	 * @param field
+	 *          field name
+	 * @return the column
+	 * @throws IllegalArgumentException
+	 *           if the field is not found or has no static length
+	 */
+	public JBytesColumn addBytesColumn(Class<? extends JHeader> c, String field)
+	    throws IllegalArgumentException {
+
+		final AnnotatedField f = lookupField(c, field);
+		if (f.getLength() <= 0) {
+			throw new IllegalArgumentException("field " + field
+			    + " has no static length, specify column width");
+		}
+
+		return addBytesColumn(c, field, 0, (f.getLength() + 7) / 8);
+	}
+
+	/**
+	 * Adds a column of fixed width byte values.
+	 * 
+	 * @param c
+	 *          header class
+	 * @param field
+	 *          field name
+	 * @param instance
+	 *          header instance within the packet, 0 for first
+	 * @param width
+	 *          bytes reserved per row
+	 * @return the column
+	 * @throws IllegalArgumentException
+	 *           if the field is not found
+	 */
+	public JBytesColumn addBytesColumn(
+	    Class<? extends JHeader> c,
+	    String field,
+	    int instance,
+	    int width) throws IllegalArgumentException {
+
+		if (width <= 0) {
+			throw new IllegalArgumentException("width must be greater than 0");
+		}
+
+		final AnnotatedField f = lookupField(c, field);
+		final JBytesColumn column =
+		    new JBytesColumn(columnName(c, field, instance), field, property(f,
+		        Field.Property.CHECK), property(f, Field.Property.OFFSET),
+		        property(f, Field.Property.LENGTH), width, capacity);
+
+		add(c, instance, column);
+
+		return column;
+	}
+
+	/**
+	 * Adds a column of int values, for the first instance of the header.
+	 * 
+	 * @param c
+	 *          header class
+	 * @param field
+	 *          field name
+	 * @return the column
+	 * @throws IllegalArgumentException
+	 *           if the field is not found or its getter does not return an int
+	 */
+	public JIntColumn addIntColumn(Class<? extends JHeader> c, String field)
+	    throws IllegalArgumentException {
+		return addIntColumn(c, field, 0);
+	}
+
+	/**
+	 * Adds a column of int values.
+	 * 
+	 * @param c
+	 *          header class
+	 * @param field
+	 *          field name
+	 * @param instance
+	 *          header instance within the packet, 0 for first
+	 * @return the column
+	 * @throws IllegalArgumentException
+	 *           if the field is not found or its getter does not return an int
+	 */
+	public JIntColumn addIntColumn(
+	    Class<? extends JHeader> c,
+	    String field,
+	    int instance) throws IllegalArgumentException {
+
+		final AnnotatedField f = lookupField(c, field);
+		final Method getter = getter(f, int.class);
+
+		final JIntColumn column =
+		    new JIntColumn(columnName(c, field, instance), field, property(f,
+		        Field.Property.CHECK), accessor(getter, int.class), capacity);
+
+		add(c, instance, column);
+
+		return column;
+	}
+
+	/**
+	 * Adds a column of long values, for the first instance of the header.
+	 * 
+	 * @param c
+	 *          header class
+	 * @param field
+	 *          field name
+	 * @return the column
+	 * @throws IllegalArgumentException
+	 *           if the field is not found or its getter does not return a long
+	 *           or an int
+	 */
+	public JLongColumn addLongColumn(Class<? extends JHeader> c, String field)
+	    throws IllegalArgumentException {
+		return addLongColumn(c, field, 0);
+	}
+
+	/**
+	 * Adds a column of long values.
+	 * 
+	 * @param c
+	 *          header class
+	 * @param field
+	 *          field name
+	 * @param instance
+	 *          header instance within the packet, 0 for first
+	 * @return the column
+	 * @throws IllegalArgumentException
+	 *           if the field is not found or its getter does not return a long
+	 *           or an int
+	 */
+	public JLongColumn addLongColumn(
+	    Class<? extends JHeader> c,
+	    String field,
+	    int instance) throws IllegalArgumentException {
+
+		final AnnotatedField f = lookupField(c, field);
+		final Method getter = f.getMethod();
+		final boolean widen =
+		    (getter != null && getter.getReturnType() == int.class);
+		final Class<?> type = (widen) ? int.class : long.class;
+
+		final JLongColumn column =
+		    new JLongColumn(columnName(c, field, instance), field, property(f,
+		        Field.Property.CHECK), accessor(getter(f, type), type), widen,
+		        capacity);
+
+		add(c, instance, column);
+
+		return column;
+	}
+
+	/**
+	 * Adds a column to its header group.
+	 * 
+	 * @param c
+	 *          header class
+	 * @param instance
+	 *          header instance
+	 * @param column
+	 *          the column
+	 */
+	private void add(Class<? extends JHeader> c, int instance, JColumn column) {
+		if (size != 0) {
+			throw new IllegalStateException(
+			    "columns can only be added to an empty batch");
+		}
+
+		Group group = null;
+		for (Group g : groups) {
+			if (g.header.getClass() == c && g.instance == instance) {
+				group = g;
+				break;
+			}
+		}
+
+		if (group == null) {
+			group = new Group(newHeader(c), instance);
+
+			final Group[] n = new Group[groups.length + 1];
+			System.arraycopy(groups, 0, n, 0, groups.length);
+			n[groups.length] = group;
+			groups = n;
+		}
+
+		group.add(column);
+		columns.add(column);
+	}
+
+	/**
+	 * Gets a typed accessor for the getter, compiled if possible.
+	 * 
+	 * @param getter
+	 *          the getter
+	 * @param type
+	 *          return type
+	 * @return the accessor
+	 */
+	private AnnotatedFieldAccessor accessor(Method getter, Class<?> type) {
+		final AnnotatedFieldAccessor a =
+		    AnnotatedFieldAccessor.compile(getter, type);
+
+		return (a == null) ? new ReflectedAccessor(getter) : a;
+	}
+
+	/**
+	 * Gets the maximum number of rows per batch.
+	 * 
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Empties the batch, all column rows are marked absent.
+	 */
+	public void clear() {
+		for (JColumn c : columns) {
+			c.clearAll();
+		}
+
+		size = 0;
+	}
+
+	/**
+	 * Makes up a column name.
+	 * 
+	 * @param c
+	 *          header class
+	 * @param field
+	 *          field name
+	 * @param instance
+	 *          header instance
+	 * @return the name
+	 */
+	private String columnName(
+	    Class<? extends JHeader> c,
+	    String field,
+	    int instance) {
+		final String n = JRegistry.lookupAnnotatedHeader(c).getNicname();
+
+		return n + "." + field + ((instance == 0) ? "" : "[" + instance + "]");
+	}
+
+	/**
+	 * Extracts all the columns from a packet into the next row.
+	 * 
+	 * @param packet
+	 *          the packet
+	 * @return true if the batch is now full, in which case it has already been
+	 *         handed to the handler and cleared, or without a handler, it must be
+	 *         consumed and cleared by the caller
+	 * @throws IllegalStateException
+	 *           if the batch was already full
+	 */
+	public boolean extract(JPacket packet) throws IllegalStateException {
+		if (size == capacity) {
+			throw new IllegalStateException("batch is full");
+		}
+
+		final int row = size;
+		for (Group g : groups) {
+			final JColumn[] c = g.columns;
+
+			if (packet.hasHeader(g.header, g.instance)) {
+				for (int i = 0; i < c.length; i++) {
+					c[i].extract(g.header, row);
+				}
+			} else {
+				for (int i = 0; i < c.length; i++) {
+					c[i].absent(row);
+				}
+			}
+		}
+
+		if (++size == capacity) {
+			flush();
+
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Hands a partially filled batch to the handler and clears it. Does nothing
+	 * if there is no handler, or the batch is empty.
+	 */
+	public void flush() {
+		if (handler == null || size == 0) {
+			return;
+		}
+
+		handler.nextBatch(this);
+		clear();
+	}
+
+	/**
+	 * Gets a column by the order it was added.
+	 * 
+	 * @param index
+	 *          the index
+	 * @return the column
+	 */
+	public JColumn getColumn(int index) {
+		return columns.get(index);
+	}
+
+	/**
+	 * Gets the number of columns.
+	 * 
+	 * @return the column count
+	 */
+	public int getColumnCount() {
+		return columns.size();
+	}
+
+	/**
+	 * Gets all the columns in the order they were added.
+	 * 
+	 * @return read-only list of columns
+	 */
+	public List<JColumn> getColumns() {
+		return Collections.unmodifiableList(columns);
+	}
+
+	/**
+	 * Checks the getter of a field.
+	 * 
+	 * @param f
+	 *          the field
+	 * @param type
+	 *          required return type
+	 * @return the getter
+	 */
+	private Method getter(AnnotatedField f, Class<?> type) {
+		final Method m = f.getMethod();
+		if (m == null || m.getReturnType() != type) {
+			throw new IllegalArgumentException("field " + f.getName()
+			    + " getter does not return " + type.getName());
+		}
+
+		return m;
+	}
+
+	/**
+	 * Looks up a field definition.
+	 * 
+	 * @param c
+	 *          header class
+	 * @param field
+	 *          field name
+	 * @return the field
+	 */
+	private AnnotatedField lookupField(Class<? extends JHeader> c, String field) {
+		if (JSubHeader.class.isAssignableFrom(c)) {
+			throw new IllegalArgumentException("sub-header fields not supported "
+			    + c.getSimpleName());
+		}
+
+		JRegistry.lookupId(c);
+		final AnnotatedHeader header = JRegistry.lookupAnnotatedHeader(c);
+
+		final List<AnnotatedField> fields = new ArrayList<AnnotatedField>();
+		Collections.addAll(fields, header.getFields());
+
+		final AnnotatedField f = findField(fields, field);
+		if (f == null) {
+			throw new IllegalArgumentException("field " + field + " not found in "
+			    + header.getName());
+		}
+
+		return f;
+	}
+
+	/**
+	 * Allocates the header that is peered with each packet.
+	 * 
+	 * @param c
+	 *          header class
+	 * @return the header
+	 */
+	private JHeader newHeader(Class<? extends JHeader> c) {
+		try {
+			return c.getConstructor().newInstance();
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(e);
+		} catch (InstantiationException e) {
+			throw new IllegalArgumentException(e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException(e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalArgumentException(e.getCause());
+		}
+	}
+
+	/**
+	 * Same as {@link #extract(JPacket)}, so the extractor can be used as the
+	 * handler of a pcap dispatch or loop.
+	 * 
+	 * @param packet
+	 *          the packet
+	 * @param user
+	 *          ignored
+	 */
+	public void nextPacket(JPacket packet, Object user) {
+		extract(packet);
+	}
+
+	/**
+	 * Gets a field property function.
+	 * 
+	 * @param f
+	 *          the field
+	 * @param p
+	 *          the property
+	 * @return the function
+	 */
+	private AnnotatedFieldMethod property(AnnotatedField f, Field.Property p) {
+		return f.getRuntime().getFunctionMap().get(p);
+	}
+
+	/**
+	 * Gets the number of rows in the current batch.
+	 * 
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Debug string.
+	 * 
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		return "JColumnExtractor[columns=" + columns + ", size=" + size
+		    + ", capacity=" + capacity + "]";
+	}
+}
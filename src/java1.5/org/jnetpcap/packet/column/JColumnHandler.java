@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet.column;
+
+/**
+ * Receives batches of extracted columns from a {@link JColumnExtractor}.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface JColumnHandler {
+
+	/**
+	 * Called once a batch fills up, or on {@link JColumnExtractor#flush()} with
+	 * a partial batch. The column arrays are reused for the next batch as soon as
+	 * this method returns, so their contents must be consumed or copied before
+	 * then.
+	 * 
+	 * @param extractor
+	 *          the extractor, {@link JColumnExtractor#size()} rows long
+	 */
+	public void nextBatch(JColumnExtractor extractor);
+}
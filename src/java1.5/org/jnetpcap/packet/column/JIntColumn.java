@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet.column;
+
+import org.jnetpcap.packet.JHeader;
+import org.jnetpcap.packet.structure.AnnotatedFieldAccessor;
+import org.jnetpcap.packet.structure.AnnotatedFieldMethod;
+
+/**
+ * A column of <code>int</code> values, read through the field's
+ * <code>int</code> getter method.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public final class JIntColumn
+    extends JColumn {
+
+	/** Field getter. */
+	private final AnnotatedFieldAccessor accessor;
+
+	/** The values. */
+	private final int[] values;
+
+	/**
+	 * Instantiates a new int column.
+	 * 
+	 * @param name
+	 *          column name
+	 * @param field
+	 *          name of the field within its header
+	 * @param check
+	 *          field's CHECK property
+	 * @param accessor
+	 *          field getter
+	 * @param capacity
+	 *          maximum number of rows
+	 */
+	JIntColumn(String name, String field, AnnotatedFieldMethod check,
+	    AnnotatedFieldAccessor accessor, int capacity) {
+		super(name, field, check, capacity);
+
+		this.accessor = accessor;
+		this.values = new int[capacity];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetpcap.packet.column.JColumn#clear(int)
+	 */
+	@Override
+	void clear(int row) {
+		values[row] = 0;
+	}
+
+	/**
+	 * Gets the value at row.
+	 * 
+	 * @param row
+	 *          the row
+	 * @return the value, 0 if absent
+	 */
+	public int get(int row) {
+		return values[row];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.jnetpcap.packet.column.JColumn#read(org.jnetpcap.packet.JHeader,
+	 * int)
+	 */
+	@Override
+	void read(JHeader header, int row) {
+		values[row] = accessor.intValue(header, field);
+	}
+
+	/**
+	 * Gets the column's own value storage. Only the first
+	 * {@link JColumnExtractor#size()} entries belong to the current batch.
+	 * 
+	 * @return the values
+	 */
+	public int[] values() {
+		return values;
+	}
+}
@@ -0,0 +1,668 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet.structure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.jnetpcap.packet.JHeader;
+
+/**
+ * A compiled accessor for an annotated header method. Instead of going through
+ * <code>Method.invoke</code> on every field value, a tiny subclass is
+ * generated at header registration time, whose body is a direct
+ * <code>invokevirtual</code> of the annotated method:
+ * 
+ * <pre>
+ * public int intValue(JHeader header, String name) {
+ * 	return ((Ip4) header).hlenOffset(name);
+ * }
+ * </pre>
+ * 
+ * <p>
+ * There are no argument arrays to allocate, no access checks and primitive
+ * return values are only boxed for the object accessor, where reflection would
+ * have boxed them as well. The class files are emitted directly, so there is no
+ * dependency on a bytecode library, and target the 1.5 class file format.
+ * </p>
+ * <p>
+ * Only public, non-static methods declared in public classes can be compiled.
+ * For anything else, or when class definition fails for any reason (security
+ * manager, class loader visibility), {@link #compile} returns null and the
+ * caller falls back on reflection. Compilation can be turned off entirely by
+ * setting the system property {@value #COMPILE_PROPERTY} to false.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public abstract class AnnotatedFieldAccessor {
+
+	/**
+	 * A class loader for generated accessors. One is created per header class
+	 * loader so that the generated classes can see the headers they call on.
+	 */
+	private static class AccessorLoader
+	    extends ClassLoader {
+
+		/**
+		 * Instantiates a new accessor loader.
+		 * 
+		 * @param parent
+		 *          class loader of the header classes
+		 */
+		public AccessorLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		/**
+		 * Defines a generated accessor class.
+		 * 
+		 * @param name
+		 *          binary name of the class
+		 * @param b
+		 *          class file
+		 * @return the defined class
+		 */
+		public Class<?> define(String name, byte[] b) {
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+
+	/**
+	 * Constant pool and class file writer for a single generated accessor.
+	 */
+	private static class ClassWriter {
+
+		/** The constant pool. */
+		private final ByteArrayOutputStream poolBytes =
+		    new ByteArrayOutputStream(256);
+
+		/** The pool. */
+		private final DataOutputStream pool = new DataOutputStream(poolBytes);
+
+		/** Last constant pool index used. */
+		private int index = 0;
+
+		/**
+		 * Adds a class constant.
+		 * 
+		 * @param name
+		 *          internal name of the class
+		 * @return constant pool index
+		 * @throws IOException
+		 *           Signals that an I/O exception has occurred.
+		 */
+		public int classRef(String name) throws IOException {
+			final int u = utf8(name);
+
+			pool.writeByte(7);
+			pool.writeShort(u);
+
+			return ++index;
+		}
+
+		/**
+		 * Adds a method reference constant.
+		 * 
+		 * @param owner
+		 *          internal name of the declaring class
+		 * @param name
+		 *          the method name
+		 * @param desc
+		 *          the method descriptor
+		 * @return constant pool index
+		 * @throws IOException
+		 *           Signals that an I/O exception has occurred.
+		 */
+		public int methodRef(String owner, String name, String desc)
+		    throws IOException {
+			final int c = classRef(owner);
+			final int n = utf8(name);
+			final int d = utf8(desc);
+
+			pool.writeByte(12);
+			pool.writeShort(n);
+			pool.writeShort(d);
+			final int nt = ++index;
+
+			pool.writeByte(10);
+			pool.writeShort(c);
+			pool.writeShort(nt);
+
+			return ++index;
+		}
+
+		/**
+		 * Adds a UTF8 constant.
+		 * 
+		 * @param s
+		 *          the string
+		 * @return constant pool index
+		 * @throws IOException
+		 *           Signals that an I/O exception has occurred.
+		 */
+		public int utf8(String s) throws IOException {
+			pool.writeByte(1);
+			pool.writeUTF(s);
+
+			return ++index;
+		}
+
+		/**
+		 * Writes out the entire class file.
+		 * 
+		 * @param thisClass
+		 *          constant pool index of this class
+		 * @param superClass
+		 *          constant pool index of the super class
+		 * @param methods
+		 *          the already encoded method_info structures
+		 * @param methodCount
+		 *          number of methods
+		 * @return the class file
+		 * @throws IOException
+		 *           Signals that an I/O exception has occurred.
+		 */
+		public byte[] toByteArray(
+		    int thisClass,
+		    int superClass,
+		    byte[] methods,
+		    int methodCount) throws IOException {
+
+			final ByteArrayOutputStream b = new ByteArrayOutputStream(512);
+			final DataOutputStream out = new DataOutputStream(b);
+
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0); // minor
+			out.writeShort(49); // major, java 1.5
+
+			pool.flush();
+			out.writeShort(index + 1);
+			poolBytes.writeTo(out);
+
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+
+			out.writeShort(methodCount);
+			out.write(methods);
+
+			out.writeShort(0); // attributes
+			out.flush();
+
+			return b.toByteArray();
+		}
+	}
+
+	/** Class file access flag. */
+	private final static int ACC_FINAL = 0x0010;
+
+	/** Class file access flag. */
+	private final static int ACC_PUBLIC = 0x0001;
+
+	/** Class file access flag. */
+	private final static int ACC_SUPER = 0x0020;
+
+	/** Opcode. */
+	private final static int ALOAD_0 = 0x2A;
+
+	/** Opcode. */
+	private final static int ALOAD_1 = 0x2B;
+
+	/** Opcode. */
+	private final static int ALOAD_2 = 0x2C;
+
+	/** Opcode. */
+	private final static int ARETURN = 0xB0;
+
+	/** Opcode. */
+	private final static int CHECKCAST = 0xC0;
+
+	/**
+	 * System property which enables or disables accessor compilation. Defaults
+	 * to true.
+	 */
+	public final static String COMPILE_PROPERTY = "org.jnetpcap.structure.compile";
+
+	/** Internal name of the accessor superclass. */
+	private final static String ACCESSOR_NAME =
+	    "org/jnetpcap/packet/structure/AnnotatedFieldAccessor";
+
+	/** Package for the generated accessors. */
+	private final static String ACCESSOR_PACKAGE =
+	    "org/jnetpcap/packet/structure/accessor/";
+
+	/** Flag set from {@link #COMPILE_PROPERTY}. */
+	private final static boolean enabled =
+	    Boolean.parseBoolean(System.getProperty(COMPILE_PROPERTY, "true"));
+
+	/** Opcode. */
+	private final static int INVOKESPECIAL = 0xB7;
+
+	/** Opcode. */
+	private final static int INVOKESTATIC = 0xB8;
+
+	/** Opcode. */
+	private final static int INVOKEVIRTUAL = 0xB6;
+
+	/** Opcode. */
+	private final static int IRETURN = 0xAC;
+
+	/** Opcode. */
+	private final static int LRETURN = 0xAD;
+
+	/** Opcode. */
+	private final static int RETURN = 0xB1;
+
+	/** Number of accessors generated so far, used to make up unique names. */
+	private static int count = 0;
+
+	/** Accessor loaders keyed by header class loader. */
+	private final static Map<ClassLoader, WeakReference<AccessorLoader>> loaders =
+	    new WeakHashMap<ClassLoader, WeakReference<AccessorLoader>>();
+
+	/**
+	 * Compiles an accessor for the annotated method. The accessor's typed value
+	 * method, selected by <code>type</code>, directly calls on the method,
+	 * passing it the field name if the method takes one.
+	 * 
+	 * @param method
+	 *          the annotated header method
+	 * @param type
+	 *          return type of the accessor, one of <code>boolean</code>,
+	 *          <code>int</code>, <code>long</code>, <code>String</code> or
+	 *          <code>Object</code>. Except for <code>Object</code>, which boxes
+	 *          primitives, the method must return exactly this type
+	 * @return the accessor or null if the method can not be compiled, in which
+	 *         case the caller should use reflection
+	 */
+	public synchronized static AnnotatedFieldAccessor compile(
+	    Method method,
+	    Class<?> type) {
+
+		if (enabled == false) {
+			return null;
+		}
+
+		final Class<?> c = method.getDeclaringClass();
+		final int modifiers = method.getModifiers();
+		if (Modifier.isPublic(modifiers) == false
+		    || Modifier.isStatic(modifiers)
+		    || Modifier.isPublic(c.getModifiers()) == false
+		    || c.isInterface()) {
+			return null;
+		}
+
+		final Class<?>[] sig = method.getParameterTypes();
+		if (sig.length > 1 || (sig.length == 1 && sig[0] != String.class)) {
+			return null;
+		}
+
+		final Class<?> r = method.getReturnType();
+		if (r == void.class || (type != Object.class && r != type)) {
+			return null;
+		}
+
+		final ClassLoader parent = c.getClassLoader();
+		if (parent == null) {
+			return null;
+		}
+
+		try {
+			/*
+			 * The generated class extends us, so it must be visible through the
+			 * header's class loader as the very same class.
+			 */
+			final Class<?> visible =
+			    Class.forName(ACCESSOR_NAME.replace('/', '.'), false, parent);
+			if (visible != AnnotatedFieldAccessor.class) {
+				return null;
+			}
+
+			final String name =
+			    ACCESSOR_PACKAGE + "Accessor" + (++count) + "_" + method.getName();
+			final byte[] b = generate(name, method, type);
+
+			final Class<?> g = getLoader(parent).define(name.replace('/', '.'), b);
+
+			return (AnnotatedFieldAccessor) g.getConstructor().newInstance();
+
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (InstantiationException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the JVM descriptor of a type.
+	 * 
+	 * @param c
+	 *          the type
+	 * @return the descriptor
+	 */
+	private static String descriptor(Class<?> c) {
+		if (c == boolean.class) {
+			return "Z";
+		} else if (c == byte.class) {
+			return "B";
+		} else if (c == char.class) {
+			return "C";
+		} else if (c == short.class) {
+			return "S";
+		} else if (c == int.class) {
+			return "I";
+		} else if (c == long.class) {
+			return "J";
+		} else if (c == float.class) {
+			return "F";
+		} else if (c == double.class) {
+			return "D";
+		} else if (c == void.class) {
+			return "V";
+		} else if (c.isArray()) {
+			return c.getName().replace('.', '/');
+		} else {
+			return "L" + c.getName().replace('.', '/') + ";";
+		}
+	}
+
+	/**
+	 * Generates the accessor class file.
+	 * 
+	 * @param name
+	 *          internal name of the generated class
+	 * @param method
+	 *          the method to call on
+	 * @param type
+	 *          accessor return type
+	 * @return the class file
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	private static byte[] generate(String name, Method method, Class<?> type)
+	    throws IOException {
+
+		final ClassWriter cw = new ClassWriter();
+		final Class<?> r = method.getReturnType();
+		final boolean mapped = method.getParameterTypes().length == 1;
+
+		final int thisClass = cw.classRef(name);
+		final int superInit = cw.methodRef(ACCESSOR_NAME, "<init>", "()V");
+		final int superClass = cw.classRef(ACCESSOR_NAME);
+		final int code = cw.utf8("Code");
+		final int init = cw.utf8("<init>");
+		final int initDesc = cw.utf8("()V");
+
+		final String owner = method.getDeclaringClass().getName().replace('.', '/');
+		final int ownerClass = cw.classRef(owner);
+		final int target =
+		    cw.methodRef(owner, method.getName(), (mapped ? "(Ljava/lang/String;)"
+		        : "()")
+		        + descriptor(r));
+
+		int box = 0;
+		if (type == Object.class && r.isPrimitive()) {
+			final String wrapper = wrapperOf(r);
+			box =
+			    cw.methodRef(wrapper, "valueOf", "(" + descriptor(r) + ")L"
+			        + wrapper + ";");
+		}
+
+		final int valueName = cw.utf8(valueMethodName(type));
+		final int valueDesc =
+		    cw.utf8("(Lorg/jnetpcap/packet/JHeader;Ljava/lang/String;)"
+		        + descriptor(type));
+
+		final ByteArrayOutputStream b = new ByteArrayOutputStream(128);
+		final DataOutputStream out = new DataOutputStream(b);
+
+		/*
+		 * Constructor: aload_0, invokespecial super.<init>, return
+		 */
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(init);
+		out.writeShort(initDesc);
+		out.writeShort(1); // attributes
+		out.writeShort(code);
+		out.writeInt(12 + 5);
+		out.writeShort(1); // max_stack
+		out.writeShort(1); // max_locals
+		out.writeInt(5);
+		out.writeByte(ALOAD_0);
+		out.writeByte(INVOKESPECIAL);
+		out.writeShort(superInit);
+		out.writeByte(RETURN);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+
+		/*
+		 * Value method: aload_1, checkcast owner, [aload_2], invokevirtual target,
+		 * [invokestatic box], xreturn
+		 */
+		final int len = 4 + (mapped ? 1 : 0) + 3 + (box != 0 ? 3 : 0) + 1;
+
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(valueName);
+		out.writeShort(valueDesc);
+		out.writeShort(1); // attributes
+		out.writeShort(code);
+		out.writeInt(12 + len);
+		out.writeShort(2); // max_stack
+		out.writeShort(3); // max_locals
+		out.writeInt(len);
+		out.writeByte(ALOAD_1);
+		out.writeByte(CHECKCAST);
+		out.writeShort(ownerClass);
+		if (mapped) {
+			out.writeByte(ALOAD_2);
+		}
+		out.writeByte(INVOKEVIRTUAL);
+		out.writeShort(target);
+		if (box != 0) {
+			out.writeByte(INVOKESTATIC);
+			out.writeShort(box);
+		}
+		out.writeByte(returnOpcode(type));
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+
+		out.flush();
+
+		return cw.toByteArray(thisClass, superClass, b.toByteArray(), 2);
+	}
+
+	/**
+	 * Gets or creates the accessor loader for a header class loader.
+	 * 
+	 * @param parent
+	 *          the header class loader
+	 * @return the accessor loader
+	 */
+	private static AccessorLoader getLoader(ClassLoader parent) {
+		final WeakReference<AccessorLoader> ref = loaders.get(parent);
+		AccessorLoader loader = (ref == null) ? null : ref.get();
+		if (loader == null) {
+			loader = new AccessorLoader(parent);
+			loaders.put(parent, new WeakReference<AccessorLoader>(loader));
+		}
+
+		return loader;
+	}
+
+	/**
+	 * Return opcode for the accessor type.
+	 * 
+	 * @param type
+	 *          the accessor type
+	 * @return the opcode
+	 */
+	private static int returnOpcode(Class<?> type) {
+		if (type == boolean.class || type == int.class) {
+			return IRETURN;
+		} else if (type == long.class) {
+			return LRETURN;
+		} else {
+			return ARETURN;
+		}
+	}
+
+	/**
+	 * Name of the accessor value method for the type.
+	 * 
+	 * @param type
+	 *          the accessor type
+	 * @return the method name
+	 */
+	private static String valueMethodName(Class<?> type) {
+		if (type == boolean.class) {
+			return "booleanValue";
+		} else if (type == int.class) {
+			return "intValue";
+		} else if (type == long.class) {
+			return "longValue";
+		} else if (type == String.class) {
+			return "stringValue";
+		} else if (type == Object.class) {
+			return "objectValue";
+		} else {
+			throw new IllegalArgumentException("unsupported accessor type "
+			    + type.getName());
+		}
+	}
+
+	/**
+	 * Internal name of the wrapper class for a primitive.
+	 * 
+	 * @param c
+	 *          the primitive type
+	 * @return internal name of the wrapper
+	 */
+	private static String wrapperOf(Class<?> c) {
+		if (c == boolean.class) {
+			return "java/lang/Boolean";
+		} else if (c == byte.class) {
+			return "java/lang/Byte";
+		} else if (c == char.class) {
+			return "java/lang/Character";
+		} else if (c == short.class) {
+			return "java/lang/Short";
+		} else if (c == int.class) {
+			return "java/lang/Integer";
+		} else if (c == long.class) {
+			return "java/lang/Long";
+		} else if (c == float.class) {
+			return "java/lang/Float";
+		} else {
+			return "java/lang/Double";
+		}
+	}
+
+	/**
+	 * Gets a boolean value.
+	 * 
+	 * @param header
+	 *          the header
+	 * @param name
+	 *          the field name
+	 * @return the value
+	 */
+	public boolean booleanValue(JHeader header, String name) {
+		throw new UnsupportedOperationException(
+		    "this return type is invalid for this accessor");
+	}
+
+	/**
+	 * Gets an int value.
+	 * 
+	 * @param header
+	 *          the header
+	 * @param name
+	 *          the field name
+	 * @return the value
+	 */
+	public int intValue(JHeader header, String name) {
+		throw new UnsupportedOperationException(
+		    "this return type is invalid for this accessor");
+	}
+
+	/**
+	 * Gets a long value.
+	 * 
+	 * @param header
+	 *          the header
+	 * @param name
+	 *          the field name
+	 * @return the value
+	 */
+	public long longValue(JHeader header, String name) {
+		throw new UnsupportedOperationException(
+		    "this return type is invalid for this accessor");
+	}
+
+	/**
+	 * Gets an object value, primitives are boxed.
+	 * 
+	 * @param header
+	 *          the header
+	 * @param name
+	 *          the field name
+	 * @return the value
+	 */
+	public Object objectValue(JHeader header, String name) {
+		throw new UnsupportedOperationException(
+		    "this return type is invalid for this accessor");
+	}
+
+	/**
+	 * Gets a string value.
+	 * 
+	 * @param header
+	 *          the header
+	 * @param name
+	 *          the field name
+	 * @return the value
+	 */
+	public String stringValue(JHeader header, String name) {
+		throw new UnsupportedOperationException(
+		    "this return type is invalid for this accessor");
+	}
+}
@@ -76,6 +76,8 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 			super(method, function);
 
 			method.setAccessible(true);
+
+			this.accessor = AnnotatedFieldAccessor.compile(method, boolean.class);
 		}
 
 		/*
@@ -142,6 +144,14 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 				return this.value;
 			}
 
+			if (accessor != null) {
+				try {
+					return accessor.booleanValue(header, name);
+				} catch (RuntimeException e) {
+					throw new AnnotatedMethodException(declaringClass, e);
+				}
+			}
+
 			try {
 				if (isMapped) {
 					return (Boolean) method.invoke(header, name);
@@ -229,6 +239,8 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 			super(method, function);
 
 			method.setAccessible(true);
+
+			this.accessor = AnnotatedFieldAccessor.compile(method, int.class);
 		}
 
 		/**
@@ -283,6 +295,14 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 				return this.value;
 			}
 
+			if (accessor != null) {
+				try {
+					return accessor.intValue(header, name);
+				} catch (RuntimeException e) {
+					throw new AnnotatedMethodException(declaringClass, e);
+				}
+			}
+
 			try {
 				if (isMapped) {
 					return (Integer) method.invoke(header, name);
@@ -393,6 +413,8 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 			super(method, function);
 
 			method.setAccessible(true);
+
+			this.accessor = AnnotatedFieldAccessor.compile(method, long.class);
 		}
 
 		/**
@@ -441,6 +463,14 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 				return this.value;
 			}
 
+			if (accessor != null) {
+				try {
+					return accessor.longValue(header, name);
+				} catch (RuntimeException e) {
+					throw new AnnotatedMethodException(declaringClass, e);
+				}
+			}
+
 			try {
 				if (isMapped) {
 					return (Long) method.invoke(header, name);
@@ -509,6 +539,9 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 			super(field, fuction, field.getMethod());
 
 			field.getMethod().setAccessible(true);
+
+			this.accessor =
+					AnnotatedFieldAccessor.compile(field.getMethod(), Object.class);
 		}
 
 		/**
@@ -523,6 +556,8 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 			super(method, function);
 
 			method.setAccessible(true);
+
+			this.accessor = AnnotatedFieldAccessor.compile(method, Object.class);
 		}
 
 		/**
@@ -567,6 +602,14 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 		 */
 		public Object execute(JHeader header, String name) {
 
+			if (accessor != null) {
+				try {
+					return accessor.objectValue(header, name);
+				} catch (RuntimeException e) {
+					throw new AnnotatedMethodException(declaringClass, e.getMessage(), e);
+				}
+			}
+
 			try {
 				if (isMapped) {
 					return method.invoke(header, name);
@@ -646,6 +689,8 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 			super(method, function);
 
 			method.setAccessible(true);
+
+			this.accessor = AnnotatedFieldAccessor.compile(method, String.class);
 		}
 
 		/**
@@ -710,6 +755,14 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 				return this.value;
 			}
 
+			if (accessor != null) {
+				try {
+					return accessor.stringValue(header, name);
+				} catch (RuntimeException e) {
+					throw new AnnotatedMethodException(declaringClass, e);
+				}
+			}
+
 			try {
 				if (isMapped) {
 					return (String) method.invoke(header, name);
@@ -932,6 +985,12 @@ public abstract class AnnotatedFieldMethod extends AnnotatedMethod {
 		}
 	}
 
+	/**
+	 * Compiled accessor for the method, or null if there is no method or it
+	 * could not be compiled, in which case the method is invoked reflectively.
+	 */
+	protected AnnotatedFieldAccessor accessor;
+
 	/** The field. */
 	protected final String field;
 
@@ -303,35 +303,38 @@ public class Http
 		return new Chunk[0];
 	}
 
+	/** Offset and length pairs of the first line's tokens. */
+	private final int[] tokens = new int[6];
+
 	/**
 	 * Decode first line.
 	 * 
-	 * @param line
-	 *          the line
-	 * @see org.jnetpcap.packet.AbstractMessageHeader#decodeFirstLine(java.lang.String)
+	 * @param offset
+	 *          offset of the line
+	 * @param length
+	 *          length of the line
+	 * @see org.jnetpcap.packet.AbstractMessageHeader#decodeFirstLine(int, int)
 	 */
 	@Override
-	protected void decodeFirstLine(String line) {
-		// System.out.printf("#%d Http::decodeFirstLine line=%s\n", getPacket()
-		// .getFrameNumber(), line);
-		String[] c = line.split(" ");
-		if (c.length < 3) {
+	protected void decodeFirstLine(int offset, int length) {
+		final int[] t = tokens;
+		if (tokenize(offset, length, t) < 3) {
 			return; // Can't parse it
 		}
 
-		if (c[0].startsWith("HTTP")) {
+		if (startsWith(t[0], t[1], "HTTP")) {
 			super.setMessageType(MessageType.RESPONSE);
 
-			super.addField(Response.RequestVersion, c[0], line.indexOf(c[0]));
-			super.addField(Response.ResponseCode, c[1], line.indexOf(c[1]));
-			super.addField(Response.ResponseCodeMsg, c[2], line.indexOf(c[2]));
+			super.addField(Response.RequestVersion, t[0], t[1]);
+			super.addField(Response.ResponseCode, t[2], t[3]);
+			super.addField(Response.ResponseCodeMsg, t[4], t[5]);
 
 		} else {
 			super.setMessageType(MessageType.REQUEST);
 
-			super.addField(Request.RequestMethod, c[0], line.indexOf(c[0]));
-			super.addField(Request.RequestUrl, c[1], line.indexOf(c[1]));
-			super.addField(Request.RequestVersion, c[2], line.indexOf(c[2]));
+			super.addField(Request.RequestMethod, t[0], t[1]);
+			super.addField(Request.RequestUrl, t[2], t[3]);
+			super.addField(Request.RequestVersion, t[4], t[5]);
 		}
 	}
 
@@ -412,6 +415,6 @@ public class Http
 	 * @return original raw header
 	 */
 	public String header() {
-		return super.rawHeader;
+		return super.getRawHeader();
 	}
 }
@@ -574,8 +574,15 @@ public class Sip extends AbstractMessageHeader {
 
 	/** Constant numerial ID for this protocol's header. */
 	public static int ID = JProtocol.SIP_ID;
+
+	/** All the methods, values() returns a new copy each time. */
+	private final static Method[] METHODS = Method.values();
+
 	private Method method;
 
+	/** Offset and length pairs of tokens on the current line. */
+	private final int[] tokens = new int[8];
+
 	/**
 	 * Returns the value of the Content_Length field if present.
 	 * 
@@ -609,63 +616,82 @@ public class Sip extends AbstractMessageHeader {
 		return ContentType.parseContentType(contentType());
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see
-	 * org.jnetpcap.packet.AbstractMessageHeader#decodeFirstLine(java.lang.String
-	 * )
-	 */
 	/**
 	 * Decode first line.
 	 * 
-	 * @param line
-	 *            the line
-	 * @see org.jnetpcap.packet.AbstractMessageHeader#decodeFirstLine(java.lang.String)
+	 * @param offset
+	 *            offset of the line
+	 * @param length
+	 *            length of the line
+	 * @see org.jnetpcap.packet.AbstractMessageHeader#decodeFirstLine(int, int)
 	 */
 	@Override
-	protected void decodeFirstLine(final String line) {
-		final String[] c = line.split(" ");
-		if (c.length < 3) {
+	protected void decodeFirstLine(int offset, int length) {
+		final int[] t = tokens;
+		if (tokenize(offset, length, t) < 3) {
 			return; // Can't parse it
 		}
 
-		if (c[0].startsWith("SIP")) {
+		if (startsWith(t[0], t[1], "SIP")) {
 			super.setMessageType(MessageType.RESPONSE);
 
-			super.addField(Response.RequestVersion, c[0], line.indexOf(c[0]));
-			super.addField(Response.ResponseCode, c[1], line.indexOf(c[1]));
-			super.addField(Response.ResponseCodeMsg, c[2], line.indexOf(c[2]));
+			super.addField(Response.RequestVersion, t[0], t[1]);
+			super.addField(Response.ResponseCode, t[2], t[3]);
+			super.addField(Response.ResponseCodeMsg, t[4], t[5]);
 
 			setMethod(null); // Reset
 
 		} else {
 			super.setMessageType(MessageType.REQUEST);
 
-			super.addField(Request.RequestMethod, c[0], line.indexOf(c[0]));
-			super.addField(Request.RequestUrl, c[1], line.indexOf(c[1]));
-			super.addField(Request.RequestVersion, c[2], line.indexOf(c[2]));
+			super.addField(Request.RequestMethod, t[0], t[1]);
+			super.addField(Request.RequestUrl, t[2], t[3]);
+			super.addField(Request.RequestVersion, t[4], t[5]);
 
-			final Method method = Method.valueOf(c[0]);
-			setMethod(method);
+			setMethod(lookupMethod(t[0], t[1]));
 		}
 	}
 
+	/**
+	 * Decodes the header. For responses, the method is taken from the last
+	 * token of the CSeq field, which is matched directly against the header
+	 * bytes.
+	 * 
+	 * @see org.jnetpcap.packet.AbstractMessageHeader#decodeHeader()
+	 */
 	@Override
 	protected void decodeHeader() {
 		super.decodeHeader();
-		
-		if (getMessageType() == MessageType.RESPONSE) {
-			String value = fieldValue(Fields.CSeq);
-			if (value != null) {
-				String[] c = value.trim().split(" ");
-				if (c.length == 2) {
-					setMethod(Method.valueOf(c[1]));
-				}
+
+		if (getMessageType() == MessageType.RESPONSE && hasField(Fields.CSeq)) {
+			final int[] t = tokens;
+			final int c = tokenize(fieldOffset(Fields.CSeq),
+					fieldLength(Fields.CSeq), t);
+			if (c >= 2) {
+				setMethod(lookupMethod(t[c * 2 - 2], t[c * 2 - 1]));
 			}
 		}
 	}
 
+	/**
+	 * Looks up a method by its name within the header.
+	 * 
+	 * @param offset
+	 *            offset of the method name
+	 * @param length
+	 *            length of the method name
+	 * @return the method or null if not recognized
+	 */
+	private Method lookupMethod(int offset, int length) {
+		for (Method m : METHODS) {
+			if (matches(offset, length, m.name())) {
+				return m;
+			}
+		}
+
+		return null;
+	}
+
 	/**
 	 * Sets the method for this sip message
 	 * 
@@ -766,7 +792,7 @@ public class Sip extends AbstractMessageHeader {
 	 * @return original raw header
 	 */
 	public String header() {
-		return super.rawHeader;
+		return super.getRawHeader();
 	}
 
 	/**
@@ -18,8 +18,10 @@
  */
 package org.jnetpcap.util;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -37,6 +39,9 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public abstract class BlockingQueuePump<T> implements BlockingQueue<T> {
 
+	/** Maximum number of elements drained from the queue at a time. */
+	private final static int DISPATCH_BATCH = 64;
+
 	/** The name. */
 	private final String name;
 
@@ -74,6 +79,27 @@ public abstract class BlockingQueuePump<T> implements BlockingQueue<T> {
 		start();
 	}
 
+	/**
+	 * Uses the supplied queue. Any {@link BlockingQueue} implementation can be
+	 * used, for example a {@link RingBlockingQueue} which avoids allocating a
+	 * node per element and locking on every operation.
+	 * 
+	 * @param name
+	 *          name to use for the worker thread
+	 * @param queue
+	 *          queue to pump elements from
+	 */
+	public BlockingQueuePump(String name, BlockingQueue<T> queue) {
+		if (queue == null) {
+			throw new NullPointerException();
+		}
+
+		this.queue = queue;
+		this.name = name;
+
+		start();
+	}
+
 	/**
 	 * Adds the.
 	 * 
@@ -380,9 +406,23 @@ public abstract class BlockingQueuePump<T> implements BlockingQueue<T> {
 	public Runnable dispatchQueue = new Runnable() {
 
 		public void run() {
+			final List<T> batch = new ArrayList<T>(DISPATCH_BATCH);
+
 			try {
 				while (thread.get() != null) {
 					dispatch(take());
+
+					/*
+					 * Dispatch anything else that is already waiting without going
+					 * through the blocking take() for every element
+					 */
+					if (queue.drainTo(batch, DISPATCH_BATCH) != 0) {
+						for (T data : batch) {
+							dispatch(data);
+						}
+
+						batch.clear();
+					}
 				}
 
 				if (thread.get() != null) {
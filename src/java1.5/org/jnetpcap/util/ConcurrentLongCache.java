@@ -0,0 +1,790 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrent cache of values keyed by primitive long values. Each entry
+ * carries its own expiration time and the total number of entries is bounded.
+ * When the bound is reached, entries are evicted using the CLOCK algorithm: a
+ * hand sweeps the table giving entries that have been read since the last
+ * sweep a second chance, and evicting the first expired or unreferenced entry
+ * it finds.
+ * <p>
+ * The cache is split into segments. Reads never lock: a lookup probes the
+ * segment's open addressed table directly and only retries under the
+ * segment's lock if it missed while the segment was being restructured.
+ * Writes lock only the segment the key hashes to. Keys are never boxed.
+ * </p>
+ * <p>
+ * Expired entries are not returned by lookups and are removed either when
+ * found by a lookup, by the CLOCK hand or by a call to {@link #expire()}.
+ * </p>
+ * 
+ * @param <V>
+ *          value type
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class ConcurrentLongCache<V> {
+
+	/**
+	 * Receives entries being iterated over.
+	 * 
+	 * @param <V>
+	 *          value type
+	 * @author Mark Bednarczyk
+	 * @author Sly Technologies, Inc.
+	 */
+	public interface EntryHandler<V> {
+
+		/**
+		 * Called once for each entry in the cache.
+		 * 
+		 * @param key
+		 *          the key
+		 * @param value
+		 *          the value
+		 * @param expiration
+		 *          time in millis when the entry expires
+		 */
+		public void nextEntry(long key, V value, long expiration);
+	}
+
+	/**
+	 * An immutable mapping, other than its reference bit.
+	 * 
+	 * @param <V>
+	 *          value type
+	 */
+	private static final class Entry<V> {
+
+		/** The expiration. */
+		private final long expiration;
+
+		/** The key. */
+		private final long key;
+
+		/** Set when read, cleared by the CLOCK hand. */
+		private volatile boolean referenced;
+
+		/** The value. */
+		private final V value;
+
+		/**
+		 * Instantiates a new entry.
+		 * 
+		 * @param key
+		 *          the key
+		 * @param value
+		 *          the value
+		 * @param expiration
+		 *          the expiration
+		 */
+		public Entry(long key, V value, long expiration) {
+			this.key = key;
+			this.value = value;
+			this.expiration = expiration;
+		}
+	}
+
+	/**
+	 * A linear probing table guarded by its own lock. Entries are removed by
+	 * shifting the rest of their probe sequence back, so the table never
+	 * contains tombstones.
+	 * 
+	 * @param <V>
+	 *          value type
+	 */
+	@SuppressWarnings("serial")
+	private static final class Segment<V> extends ReentrantLock {
+
+		/** Number of entries, only modified under lock. */
+		private volatile int count;
+
+		/** Position of the CLOCK hand. */
+		private int hand;
+
+		/** Maximum number of entries in this segment. */
+		private int max;
+
+		/** The table. */
+		private volatile AtomicReferenceArray<Entry<V>> table;
+
+		/** Odd while the table is being restructured. */
+		private volatile int version;
+
+		/**
+		 * Instantiates a new segment.
+		 * 
+		 * @param max
+		 *          maximum number of entries
+		 */
+		public Segment(int max) {
+			this.max = max;
+			this.table = new AtomicReferenceArray<Entry<V>>(tableSize(max));
+		}
+
+		/**
+		 * Removes all entries.
+		 */
+		public void clear() {
+			lock();
+			try {
+				version++;
+				table = new AtomicReferenceArray<Entry<V>>(tableSize(max));
+				count = 0;
+				hand = 0;
+				version++;
+			} finally {
+				unlock();
+			}
+		}
+
+		/**
+		 * Removes the entry at index, shifting back any entries further along
+		 * the same probe sequence. Must be called with the lock held.
+		 * 
+		 * @param t
+		 *          the table
+		 * @param i
+		 *          index of entry to remove
+		 */
+		private void delete(AtomicReferenceArray<Entry<V>> t, int i) {
+			final int mask = t.length() - 1;
+
+			version++;
+			for (int j = i;;) {
+				j = (j + 1) & mask;
+				final Entry<V> e = t.get(j);
+				if (e == null) {
+					break;
+				}
+
+				/*
+				 * The entry can move into the hole at i, unless its home slot lies
+				 * cyclically within (i, j].
+				 */
+				final int k = hash(e.key) & mask;
+				if ((i <= j) ? (i < k && k <= j) : (i < k || k <= j)) {
+					continue;
+				}
+
+				t.set(i, e);
+				i = j;
+			}
+
+			t.set(i, null);
+			count--;
+			version++;
+		}
+
+		/**
+		 * Evicts a single entry using the CLOCK algorithm. Must be called with
+		 * the lock held.
+		 * 
+		 * @param now
+		 *          current time in millis
+		 */
+		private void evict(long now) {
+			final AtomicReferenceArray<Entry<V>> t = table;
+			final int mask = t.length() - 1;
+
+			/*
+			 * After one full turn every reference bit has been cleared, so the
+			 * second turn is guaranteed to find a victim.
+			 */
+			for (int n = 0; n < 2 * t.length(); n++) {
+				final int i = hand;
+				hand = (hand + 1) & mask;
+
+				final Entry<V> e = t.get(i);
+				if (e == null) {
+					continue;
+				}
+
+				if (e.expiration <= now || e.referenced == false) {
+					delete(t, i);
+					return;
+				}
+
+				e.referenced = false;
+			}
+		}
+
+		/**
+		 * Removes all expired entries.
+		 * 
+		 * @param now
+		 *          current time in millis
+		 * @return number of entries removed
+		 */
+		public int expire(long now) {
+			lock();
+			try {
+				final AtomicReferenceArray<Entry<V>> t = table;
+				int removed = 0;
+				for (int i = 0; i < t.length(); i++) {
+					Entry<V> e;
+					while ((e = t.get(i)) != null && e.expiration <= now) {
+						delete(t, i);
+						removed++;
+					}
+				}
+
+				return removed;
+			} finally {
+				unlock();
+			}
+		}
+
+		/**
+		 * Looks up an entry without locking, unless the table was being
+		 * restructured while it was probed.
+		 * 
+		 * @param key
+		 *          the key
+		 * @param h
+		 *          hash of the key
+		 * @return the entry or null
+		 */
+		public Entry<V> find(long key, int h) {
+			final int v = version;
+			final AtomicReferenceArray<Entry<V>> t = table;
+			final int i = indexOf(t, key, h);
+			if (i != -1) {
+				final Entry<V> e = t.get(i);
+				if (e != null && e.key == key) {
+					return e;
+				}
+			}
+
+			if ((v & 1) == 0 && v == version) {
+				return null;
+			}
+
+			lock();
+			try {
+				final AtomicReferenceArray<Entry<V>> l = table;
+				final int j = indexOf(l, key, h);
+				return (j == -1) ? null : l.get(j);
+			} finally {
+				unlock();
+			}
+		}
+
+		/**
+		 * Finds the index of the key.
+		 * 
+		 * @param t
+		 *          the table
+		 * @param key
+		 *          the key
+		 * @param h
+		 *          hash of the key
+		 * @return index or -1 if not found
+		 */
+		private int indexOf(AtomicReferenceArray<Entry<V>> t, long key, int h) {
+			final int mask = t.length() - 1;
+			for (int i = h & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+				final Entry<V> e = t.get(i);
+				if (e == null) {
+					return -1;
+				}
+
+				if (e.key == key) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+
+		/**
+		 * Adds or replaces an entry.
+		 * 
+		 * @param key
+		 *          the key
+		 * @param h
+		 *          hash of the key
+		 * @param value
+		 *          the value
+		 * @param expiration
+		 *          the expiration
+		 * @param now
+		 *          current time in millis
+		 */
+		public void put(long key, int h, V value, long expiration, long now) {
+			final Entry<V> entry = new Entry<V>(key, value, expiration);
+
+			lock();
+			try {
+				final AtomicReferenceArray<Entry<V>> t = table;
+				final int i = indexOf(t, key, h);
+				if (i != -1) {
+					t.set(i, entry); // Replace in place, readers see old or new
+					return;
+				}
+
+				if (count >= max) {
+					evict(now);
+				}
+
+				final int mask = t.length() - 1;
+				int j = h & mask;
+				while (t.get(j) != null) {
+					j = (j + 1) & mask;
+				}
+
+				t.set(j, entry);
+				count++;
+			} finally {
+				unlock();
+			}
+		}
+
+		/**
+		 * Removes an entry if it is still mapped.
+		 * 
+		 * @param key
+		 *          the key
+		 * @param h
+		 *          hash of the key
+		 * @param entry
+		 *          entry to remove or null for any entry with the key
+		 * @return true if removed
+		 */
+		public boolean remove(long key, int h, Entry<V> entry) {
+			lock();
+			try {
+				final AtomicReferenceArray<Entry<V>> t = table;
+				final int i = indexOf(t, key, h);
+				if (i == -1 || (entry != null && t.get(i) != entry)) {
+					return false;
+				}
+
+				delete(t, i);
+				return true;
+			} finally {
+				unlock();
+			}
+		}
+
+		/**
+		 * Changes the maximum number of entries and rebuilds the table to
+		 * match. Entries that no longer fit are dropped.
+		 * 
+		 * @param max
+		 *          the new maximum
+		 * @param now
+		 *          current time in millis
+		 */
+		public void resize(int max, long now) {
+			lock();
+			try {
+				final AtomicReferenceArray<Entry<V>> old = table;
+				final AtomicReferenceArray<Entry<V>> t =
+						new AtomicReferenceArray<Entry<V>>(tableSize(max));
+				final int mask = t.length() - 1;
+
+				int c = 0;
+				for (int i = 0; i < old.length() && c < max; i++) {
+					final Entry<V> e = old.get(i);
+					if (e == null || e.expiration <= now) {
+						continue;
+					}
+
+					int j = hash(e.key) & mask;
+					while (t.get(j) != null) {
+						j = (j + 1) & mask;
+					}
+
+					t.set(j, e);
+					c++;
+				}
+
+				version++;
+				this.max = max;
+				this.table = t;
+				this.count = c;
+				this.hand = 0;
+				version++;
+			} finally {
+				unlock();
+			}
+		}
+
+		/**
+		 * Calls on handler for every unexpired entry.
+		 * 
+		 * @param handler
+		 *          the handler
+		 * @param now
+		 *          current time in millis
+		 * @return number of entries visited
+		 */
+		public int visit(EntryHandler<V> handler, long now) {
+			lock();
+			try {
+				final AtomicReferenceArray<Entry<V>> t = table;
+				int c = 0;
+				for (int i = 0; i < t.length(); i++) {
+					final Entry<V> e = t.get(i);
+					if (e != null && e.expiration > now) {
+						handler.nextEntry(e.key, e.value, e.expiration);
+						c++;
+					}
+				}
+
+				return c;
+			} finally {
+				unlock();
+			}
+		}
+	}
+
+	/** The Constant DEFAULT_SEGMENTS. */
+	public static final int DEFAULT_SEGMENTS = 16;
+
+	/**
+	 * Scrambles the bits of a key. Keys such as IP addresses differ mostly in
+	 * a few bits.
+	 * 
+	 * @param key
+	 *          the key
+	 * @return the hash
+	 */
+	private static int hash(long key) {
+		final long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Table size for a segment, which keeps the load factor at or below 0.5.
+	 * 
+	 * @param max
+	 *          maximum number of entries
+	 * @return power of 2 table size
+	 */
+	private static int tableSize(int max) {
+		int size = 4;
+		while (size < max * 2) {
+			size <<= 1;
+		}
+
+		return size;
+	}
+
+	/** Maximum number of entries. */
+	private volatile int maxEntries;
+
+	/** Shift applied to the hash to select a segment. */
+	private final int segmentShift;
+
+	/** The segments. */
+	private final Segment<V>[] segments;
+
+	/**
+	 * Allocates the segment table. Generic arrays can not be created directly,
+	 * so the wildcard array is cast to the element type.
+	 * 
+	 * @param <V>
+	 *          value type
+	 * @param n
+	 *          number of segments
+	 * @return empty segment table
+	 */
+	@SuppressWarnings("unchecked")
+	private static <V> Segment<V>[] newSegments(int n) {
+		return (Segment<V>[]) new Segment<?>[n];
+	}
+
+	/**
+	 * Creates a cache with a bound on the number of entries.
+	 * 
+	 * @param maxEntries
+	 *          maximum number of entries; the bound is spread evenly over the
+	 *          segments, so the actual number held may be off slightly
+	 */
+	public ConcurrentLongCache(int maxEntries) {
+		this(maxEntries, DEFAULT_SEGMENTS);
+	}
+
+	/**
+	 * Creates a cache with a bound on the number of entries and a specific
+	 * level of concurrency.
+	 * 
+	 * @param maxEntries
+	 *          maximum number of entries
+	 * @param concurrency
+	 *          upper limit on number of segments; small caches use fewer
+	 */
+	public ConcurrentLongCache(int maxEntries, int concurrency) {
+		if (maxEntries <= 0 || concurrency <= 0) {
+			throw new IllegalArgumentException(
+					"maxEntries and concurrency must be positive");
+		}
+
+		/*
+		 * Keep at least 8 entries per segment, otherwise the CLOCK has too little
+		 * history to work with.
+		 */
+		int n = 1;
+		while (n * 2 <= concurrency && n * 2 * 8 <= maxEntries) {
+			n *= 2;
+		}
+
+		int bits = 0;
+		while ((1 << bits) < n) {
+			bits++;
+		}
+
+		this.segmentShift = 32 - bits;
+		this.segments = newSegments(n);
+		this.maxEntries = maxEntries;
+
+		for (int i = 0; i < n; i++) {
+			segments[i] = new Segment<V>(perSegment(maxEntries));
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		for (Segment<V> s : segments) {
+			s.clear();
+		}
+	}
+
+	/**
+	 * Checks if an unexpired entry exists for the key.
+	 * 
+	 * @param key
+	 *          the key
+	 * @return true if key is cached
+	 */
+	public boolean containsKey(long key) {
+		final int h = hash(key);
+		final Entry<V> e = segmentFor(h).find(key, h);
+
+		return e != null && e.expiration > currentTimeMillis();
+	}
+
+	/**
+	 * Time source for expiration. Defaults to system's clock.
+	 * 
+	 * @return current time in millis
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Removes all expired entries.
+	 * 
+	 * @return number of entries removed
+	 */
+	public int expire() {
+		final long now = currentTimeMillis();
+
+		int removed = 0;
+		for (Segment<V> s : segments) {
+			removed += s.expire(now);
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Looks up a value. The entry is marked as recently used.
+	 * 
+	 * @param key
+	 *          the key
+	 * @return value or null if not cached or expired
+	 */
+	public V get(long key) {
+		final int h = hash(key);
+		final Segment<V> s = segmentFor(h);
+		final Entry<V> e = s.find(key, h);
+		if (e == null) {
+			return null;
+		}
+
+		if (e.expiration <= currentTimeMillis()) {
+
+			/*
+			 * Only clean up if nobody else is writing, readers never wait
+			 */
+			if (s.tryLock()) {
+				try {
+					s.remove(key, h, e);
+				} finally {
+					s.unlock();
+				}
+			}
+
+			return null;
+		}
+
+		if (e.referenced == false) {
+			e.referenced = true; // Avoid a write when already set
+		}
+
+		return e.value;
+	}
+
+	/**
+	 * Gets the maximum number of entries.
+	 * 
+	 * @return the maximum number of entries
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Maximum number of entries in each segment.
+	 * 
+	 * @param max
+	 *          maximum for the entire cache
+	 * @return maximum for a segment
+	 */
+	private int perSegment(int max) {
+		return (max + segments.length - 1) / segments.length;
+	}
+
+	/**
+	 * Adds or replaces a value. If the cache is full, an entry is evicted.
+	 * 
+	 * @param key
+	 *          the key
+	 * @param value
+	 *          the value, may not be null
+	 * @param ttl
+	 *          time to live in millis
+	 */
+	public void put(long key, V value, long ttl) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+
+		final long now = currentTimeMillis();
+		final long expiration =
+				(ttl >= Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + ttl;
+
+		final int h = hash(key);
+		segmentFor(h).put(key, h, value, expiration, now);
+	}
+
+	/**
+	 * Removes an entry.
+	 * 
+	 * @param key
+	 *          the key
+	 * @return true if an entry was removed
+	 */
+	public boolean remove(long key) {
+		final int h = hash(key);
+		return segmentFor(h).remove(key, h, null);
+	}
+
+	/**
+	 * Selects a segment using the high bits of the hash. The low bits select
+	 * the slot within the segment.
+	 * 
+	 * @param h
+	 *          hash of the key
+	 * @return the segment
+	 */
+	private Segment<V> segmentFor(int h) {
+		return (segments.length == 1) ? segments[0]
+				: segments[h >>> segmentShift];
+	}
+
+	/**
+	 * Changes the maximum number of entries. If the cache holds more entries
+	 * than the new maximum, entries are dropped.
+	 * 
+	 * @param maxEntries
+	 *          the new maximum
+	 */
+	public void setMaxEntries(int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+
+		this.maxEntries = maxEntries;
+
+		final long now = currentTimeMillis();
+		for (Segment<V> s : segments) {
+			s.resize(perSegment(maxEntries), now);
+		}
+	}
+
+	/**
+	 * Number of entries in the cache, including any expired entries that have
+	 * not been removed yet.
+	 * 
+	 * @return number of entries
+	 */
+	public int size() {
+		int c = 0;
+		for (Segment<V> s : segments) {
+			c += s.count;
+		}
+
+		return c;
+	}
+
+	/**
+	 * Calls on the handler for every unexpired entry. Each segment is locked
+	 * while it is being iterated over.
+	 * 
+	 * @param handler
+	 *          the handler
+	 * @return number of entries visited
+	 */
+	public int visit(EntryHandler<V> handler) {
+		final long now = currentTimeMillis();
+
+		int c = 0;
+		for (Segment<V> s : segments) {
+			c += s.visit(handler, now);
+		}
+
+		return c;
+	}
+
+	/**
+	 * To string.
+	 * 
+	 * @return the string
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("size=%d, max=%d, segments=%d",
+				size(),
+				maxEntries,
+				segments.length);
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+/**
+ * A timeout which knows the exact time it expires at. Timing wheel based
+ * queues, such as {@link TimingWheelQueue}, need the expiration time up front
+ * in order to place the entry into the proper slot. Plain {@link Timeout}
+ * entries can still be added to such queues, but they are kept in a slower
+ * priority queue.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public interface DeadlineTimeout extends Timeout {
+
+	/**
+	 * Gets the time at which this entry times out. The value must not change
+	 * while the entry is on a queue.
+	 * 
+	 * @return expiration time in millis
+	 */
+	public long getDeadline();
+}
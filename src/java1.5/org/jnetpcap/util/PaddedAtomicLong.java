@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An atomic long padded out to fill its own cache line. Used for counters
+ * which are written by one thread and read by another at a high rate, so that
+ * a write to one counter does not invalidate the cache line holding another.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+@SuppressWarnings("serial")
+class PaddedAtomicLong extends AtomicLong {
+
+	/** Padding. */
+	long p1, p2, p3, p4, p5, p6, p7;
+
+	/**
+	 * Creates a counter initialized to 0.
+	 */
+	PaddedAtomicLong() {
+		super();
+	}
+}
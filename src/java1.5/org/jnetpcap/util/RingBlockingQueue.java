@@ -0,0 +1,626 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, preallocated ring buffer which implements {@link BlockingQueue}
+ * for a single consumer thread and either a single or multiple producer
+ * threads. Unlike {@link java.util.concurrent.LinkedBlockingQueue} no node is
+ * allocated per element and no lock is taken on either side. Each slot carries
+ * a sequence number which tells both sides if the slot is ready to be written
+ * or read. In single producer mode the producer claims slots with a plain
+ * write, in multi producer mode with a compare-and-set on the tail counter.
+ * <p>
+ * How a thread waits on an empty or full ring is determined by the
+ * {@link WaitStrategy}. {@link WaitStrategy#BUSY_SPIN} gives the lowest
+ * latency at the cost of a fully used core, {@link WaitStrategy#PARK} uses no
+ * CPU while idle, but has to wake up the consumer when an element arrives.
+ * </p>
+ * <p>
+ * Elements should be removed in batches using {@link #drainTo(Collection)} or
+ * {@link #drainTo(Collection, int)}, which release all the slots to the
+ * producers at once. All remove operations ({@link #poll()}, {@link #take()},
+ * drainTo etc...) must only be called by one thread at a time. Removing an
+ * arbitrary element, either with {@link #remove(Object)} or through the
+ * iterator, is not supported. The iterator and {@link #size()} are only
+ * estimates while the queue is in use.
+ * </p>
+ * 
+ * @param <E>
+ *          type of element in the queue
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class RingBlockingQueue<E> extends AbstractQueue<E> implements
+    BlockingQueue<E> {
+
+	/**
+	 * How a thread waits for an element or for free space in the ring.
+	 */
+	public enum WaitStrategy {
+		/**
+		 * Spins without giving up the CPU. Lowest latency, but keeps a core busy
+		 * while waiting.
+		 */
+		BUSY_SPIN,
+
+		/**
+		 * Spins for a short while, then yields the CPU to other threads between
+		 * checks.
+		 */
+		YIELD,
+
+		/**
+		 * Spins and yields for a short while, then parks the thread. The consumer
+		 * is unparked by the producer, producers waiting on a full ring park for
+		 * short periods of time.
+		 */
+		PARK
+	}
+
+	/** Default wait strategy. */
+	public final static WaitStrategy DEFAULT_WAIT_STRATEGY = WaitStrategy.PARK;
+
+	/**
+	 * Spinning and yielding only delays the other side when there is only a
+	 * single CPU, so waiting threads go straight to yielding or parking.
+	 */
+	private final static boolean MULTI_CPU =
+	    Runtime.getRuntime().availableProcessors() > 1;
+
+	/** Number of times a thread spins before yielding. */
+	private final static int SPIN_TRIES = MULTI_CPU ? 100 : 0;
+
+	/** Number of times a thread yields before parking. */
+	private final static int YIELD_TRIES = MULTI_CPU ? 100 + SPIN_TRIES : 0;
+
+	/** How long a producer parks while waiting for space. */
+	private final static long PRODUCER_PARK_NANOS = 10000L;
+
+	/** The elements. */
+	private final Object[] buffer;
+
+	/** Next sequence to read, written only by the consumer. */
+	private final PaddedAtomicLong head = new PaddedAtomicLong();
+
+	/** Mask used to turn a sequence into an index. */
+	private final int mask;
+
+	/** True if multiple threads may add elements at the same time. */
+	private final boolean multiProducer;
+
+	/**
+	 * Sequence of each slot. A slot whose sequence equals the tail is free to
+	 * write, one whose sequence is one past the head is ready to read.
+	 */
+	private final AtomicLongArray sequences;
+
+	/** How threads wait. */
+	private final WaitStrategy strategy;
+
+	/** Next sequence to write. */
+	private final PaddedAtomicLong tail = new PaddedAtomicLong();
+
+	/** Consumer thread parked waiting for an element or null. */
+	private volatile Thread waiter;
+
+	/**
+	 * Creates a single producer queue using {@link #DEFAULT_WAIT_STRATEGY}.
+	 * 
+	 * @param capacity
+	 *          minimum capacity, rounded up to a power of 2
+	 */
+	public RingBlockingQueue(int capacity) {
+		this(capacity, false, DEFAULT_WAIT_STRATEGY);
+	}
+
+	/**
+	 * Creates a queue.
+	 * 
+	 * @param capacity
+	 *          minimum capacity, rounded up to a power of 2
+	 * @param multiProducer
+	 *          true if more than one thread will add elements, false if only a
+	 *          single thread will
+	 * @param strategy
+	 *          how threads wait on an empty or full queue
+	 */
+	public RingBlockingQueue(int capacity, boolean multiProducer,
+	    WaitStrategy strategy) {
+		if (capacity <= 0 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("invalid capacity " + capacity);
+		}
+
+		if (strategy == null) {
+			throw new NullPointerException();
+		}
+
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+
+		this.buffer = new Object[size];
+		this.mask = size - 1;
+		this.multiProducer = multiProducer;
+		this.strategy = strategy;
+		this.sequences = new AtomicLongArray(size);
+
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Gets the capacity of the ring.
+	 * 
+	 * @return maximum number of elements
+	 */
+	public int capacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * Removes all available elements and adds them to the collection.
+	 * 
+	 * @param c
+	 *          collection to add elements to
+	 * @return number of elements removed
+	 * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+	 */
+	public int drainTo(Collection<? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Removes up to maxElements elements and adds them to the collection. All
+	 * the slots are released to the producers at once at the end of the drain.
+	 * 
+	 * @param c
+	 *          collection to add elements to
+	 * @param maxElements
+	 *          maximum number of elements to remove
+	 * @return number of elements removed
+	 * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection, int)
+	 */
+	@SuppressWarnings("unchecked")
+	public int drainTo(Collection<? super E> c, int maxElements) {
+		if (c == null) {
+			throw new NullPointerException();
+		}
+
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+
+		final long h = head.get();
+		long next = h;
+
+		try {
+			while (next - h < maxElements) {
+				final int index = (int) next & mask;
+				if (sequences.get(index) != next + 1) {
+					break;
+				}
+
+				final E e = (E) buffer[index];
+				buffer[index] = null;
+				sequences.lazySet(index, next + buffer.length);
+				next++;
+
+				c.add(e);
+			}
+		} finally {
+			if (next != h) {
+				head.lazySet(next);
+			}
+		}
+
+		return (int) (next - h);
+	}
+
+	/**
+	 * Checks if the queue is empty. Only an estimate, unless called by the
+	 * consumer with no active producers.
+	 * 
+	 * @return true if empty
+	 * @see java.util.AbstractCollection#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Checks if the queue is in multi producer mode.
+	 * 
+	 * @return true if multiple threads may add elements at the same time
+	 */
+	public boolean isMultiProducer() {
+		return multiProducer;
+	}
+
+	/**
+	 * Weakly consistent iterator over a snapshot of the elements. Elements
+	 * added or removed after the iterator is created may or may not be seen.
+	 * The iterator does not support {@link Iterator#remove()}.
+	 * 
+	 * @return iterator over the elements
+	 * @see java.util.AbstractCollection#iterator()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public Iterator<E> iterator() {
+		final List<E> snapshot = new ArrayList<E>();
+		final long t = tail.get();
+
+		for (long s = head.get(); s < t; s++) {
+			final int index = (int) s & mask;
+			final Object e = buffer[index];
+			if (e != null && sequences.get(index) == s + 1) {
+				snapshot.add((E) e);
+			}
+		}
+
+		final Iterator<E> i = snapshot.iterator();
+		return new Iterator<E>() {
+
+			public boolean hasNext() {
+				return i.hasNext();
+			}
+
+			public E next() {
+				return i.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException(
+				    "Invalid operation for ring buffer");
+			}
+		};
+	}
+
+	/**
+	 * Adds an element if there is free space.
+	 * 
+	 * @param e
+	 *          element to add, not null
+	 * @return true if added, false if the ring is full
+	 * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object)
+	 */
+	public boolean offer(E e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+
+		long t;
+		int index;
+
+		if (multiProducer) {
+			while (true) {
+				t = tail.get();
+				index = (int) t & mask;
+
+				final long s = sequences.get(index);
+				if (s < t) {
+					return false; // Full
+				}
+
+				if (s == t && tail.compareAndSet(t, t + 1)) {
+					break;
+				}
+			}
+
+		} else {
+			t = tail.get();
+			index = (int) t & mask;
+
+			if (sequences.get(index) != t) {
+				return false; // Full
+			}
+
+			tail.lazySet(t + 1);
+		}
+
+		buffer[index] = e;
+
+		if (strategy == WaitStrategy.PARK) {
+			/*
+			 * Full fence so that the check for a parked consumer below can not be
+			 * reordered with publishing the element.
+			 */
+			sequences.set(index, t + 1);
+
+			final Thread w = waiter;
+			if (w != null) {
+				LockSupport.unpark(w);
+			}
+		} else {
+			sequences.lazySet(index, t + 1); // Publishes the element
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds an element, waiting for free space up to the specified wait time.
+	 * 
+	 * @param e
+	 *          element to add
+	 * @param timeout
+	 *          how long to wait
+	 * @param unit
+	 *          unit of timeout
+	 * @return true if added, false if timed out
+	 * @throws InterruptedException
+	 *           if interrupted while waiting
+	 * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long,
+	 *      java.util.concurrent.TimeUnit)
+	 */
+	public boolean offer(E e, long timeout, TimeUnit unit)
+	    throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		for (int tries = 0; offer(e) == false; tries++) {
+			if (System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+
+			waitForSpace(tries);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Looks at the element at the head of the queue without removing it.
+	 * 
+	 * @return head element or null if empty
+	 * @see java.util.Queue#peek()
+	 */
+	@SuppressWarnings("unchecked")
+	public E peek() {
+		final long h = head.get();
+		final int index = (int) h & mask;
+
+		if (sequences.get(index) != h + 1) {
+			return null;
+		}
+
+		return (E) buffer[index];
+	}
+
+	/**
+	 * Removes the element at the head of the queue.
+	 * 
+	 * @return head element or null if empty
+	 * @see java.util.Queue#poll()
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		final long h = head.get();
+		final int index = (int) h & mask;
+
+		if (sequences.get(index) != h + 1) {
+			return null;
+		}
+
+		final E e = (E) buffer[index];
+		buffer[index] = null;
+		sequences.lazySet(index, h + buffer.length); // Frees the slot
+		head.lazySet(h + 1);
+
+		return e;
+	}
+
+	/**
+	 * Removes the element at the head of the queue, waiting up to the specified
+	 * wait time for one to arrive.
+	 * 
+	 * @param timeout
+	 *          how long to wait
+	 * @param unit
+	 *          unit of timeout
+	 * @return head element or null if timed out
+	 * @throws InterruptedException
+	 *           if interrupted while waiting
+	 * @see java.util.concurrent.BlockingQueue#poll(long,
+	 *      java.util.concurrent.TimeUnit)
+	 */
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		E e;
+		for (int tries = 0; (e = poll()) == null; tries++) {
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return null;
+			}
+
+			waitForElement(tries, remaining);
+		}
+
+		return e;
+	}
+
+	/**
+	 * Adds an element, waiting for free space if necessary.
+	 * 
+	 * @param e
+	 *          element to add
+	 * @throws InterruptedException
+	 *           if interrupted while waiting
+	 * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+	 */
+	public void put(E e) throws InterruptedException {
+		for (int tries = 0; offer(e) == false; tries++) {
+			waitForSpace(tries);
+		}
+	}
+
+	/**
+	 * Gets the number of free slots. Only an estimate while the queue is in use.
+	 * 
+	 * @return number of elements that can be added without waiting
+	 * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+	 */
+	public int remainingCapacity() {
+		return buffer.length - size();
+	}
+
+	/**
+	 * Removing arbitrary elements is not supported.
+	 * 
+	 * @param o
+	 *          the element
+	 * @return never returns
+	 * @throws UnsupportedOperationException
+	 *           always
+	 * @see java.util.AbstractCollection#remove(java.lang.Object)
+	 */
+	@Override
+	public boolean remove(Object o) {
+		throw new UnsupportedOperationException(
+		    "Invalid operation for ring buffer");
+	}
+
+	/**
+	 * Gets the number of elements in the queue. Only an estimate while the
+	 * queue is in use.
+	 * 
+	 * @return number of elements
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		final long h = head.get();
+		final long t = tail.get();
+
+		return (int) Math.max(0, Math.min(t - h, buffer.length));
+	}
+
+	/**
+	 * Removes the element at the head of the queue, waiting for one to arrive if
+	 * necessary.
+	 * 
+	 * @return head element
+	 * @throws InterruptedException
+	 *           if interrupted while waiting
+	 * @see java.util.concurrent.BlockingQueue#take()
+	 */
+	public E take() throws InterruptedException {
+		E e;
+		for (int tries = 0; (e = poll()) == null; tries++) {
+			waitForElement(tries, 0);
+		}
+
+		return e;
+	}
+
+	/**
+	 * Debug string.
+	 * 
+	 * @return the string
+	 * @see java.util.AbstractCollection#toString()
+	 */
+	@Override
+	public String toString() {
+		return "RingBlockingQueue[capacity=" + buffer.length + ", size=" + size()
+		    + ", multiProducer=" + multiProducer + ", strategy=" + strategy + "]";
+	}
+
+	/**
+	 * Waits for an element to arrive, according to the wait strategy.
+	 * 
+	 * @param tries
+	 *          number of times the consumer has already waited
+	 * @param nanos
+	 *          maximum time to park or 0 for no limit
+	 * @throws InterruptedException
+	 *           if interrupted
+	 */
+	private void waitForElement(int tries, long nanos)
+	    throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+
+		if (strategy == WaitStrategy.BUSY_SPIN || tries < SPIN_TRIES) {
+			return;
+		}
+
+		if (strategy == WaitStrategy.YIELD || tries < YIELD_TRIES) {
+			Thread.yield();
+			return;
+		}
+
+		/*
+		 * Publish ourselves as the waiter, then check the ring once more before
+		 * parking so that an element added in between is not missed. The
+		 * producer always checks for a waiter after publishing an element.
+		 */
+		waiter = Thread.currentThread();
+		try {
+			if (peek() == null) {
+				if (nanos > 0) {
+					LockSupport.parkNanos(this, nanos);
+				} else {
+					LockSupport.park(this);
+				}
+			}
+		} finally {
+			waiter = null;
+		}
+	}
+
+	/**
+	 * Waits for free space, according to the wait strategy.
+	 * 
+	 * @param tries
+	 *          number of times the producer has already waited
+	 * @throws InterruptedException
+	 *           if interrupted
+	 */
+	private void waitForSpace(int tries) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+
+		if (strategy == WaitStrategy.BUSY_SPIN || tries < SPIN_TRIES) {
+			return;
+		}
+
+		if (strategy == WaitStrategy.YIELD || tries < YIELD_TRIES) {
+			Thread.yield();
+			return;
+		}
+
+		LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+	}
+}
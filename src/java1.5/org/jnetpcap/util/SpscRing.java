@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+/**
+ * A bounded, lock-free ring buffer for exactly one producer and one consumer
+ * thread. The producer only ever writes the tail counter and the consumer only
+ * ever writes the head counter, so neither {@link #offer(Object)} nor
+ * {@link #poll()} uses locks or CAS operations. Each side also keeps a cached
+ * copy of the other side's counter and only rereads the shared one when the
+ * cached value says the ring is full or empty.
+ * <p>
+ * The ring is not a general purpose queue. Calling {@link #offer(Object)} from
+ * more than one thread, or {@link #poll()} from more than one thread, at the
+ * same time will corrupt the ring.
+ * </p>
+ * 
+ * @param <T>
+ *          type of element in the ring
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class SpscRing<T> {
+
+	/** The elements. */
+	private final Object[] buffer;
+
+	/** Next index to read, written only by consumer. */
+	private final PaddedAtomicLong head = new PaddedAtomicLong();
+
+	/** Consumer's cached copy of tail. */
+	private long tailCache;
+
+	/** Mask used to turn a counter into an index. */
+	private final int mask;
+
+	/** Next index to write, written only by producer. */
+	private final PaddedAtomicLong tail = new PaddedAtomicLong();
+
+	/** Producer's cached copy of head. */
+	private long headCache;
+
+	/**
+	 * Creates a ring with room for at least the requested number of elements.
+	 * Capacity is rounded up to the next power of 2.
+	 * 
+	 * @param capacity
+	 *          minimum number of elements
+	 */
+	public SpscRing(int capacity) {
+		if (capacity <= 0 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("invalid capacity " + capacity);
+		}
+
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+
+		this.buffer = new Object[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Gets the capacity of the ring.
+	 * 
+	 * @return maximum number of elements
+	 */
+	public int capacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * Checks if the ring is empty. The result is only a snapshot when called
+	 * by a thread other than the consumer.
+	 * 
+	 * @return true if empty
+	 */
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+
+	/**
+	 * Adds an element at the tail of the ring. Must only be called by the
+	 * producer thread.
+	 * 
+	 * @param e
+	 *          element to add, not null
+	 * @return true if added, false if the ring is full
+	 */
+	public boolean offer(T e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+
+		final long t = tail.get();
+		if (t - headCache >= buffer.length) {
+			headCache = head.get();
+
+			if (t - headCache >= buffer.length) {
+				return false;
+			}
+		}
+
+		buffer[(int) t & mask] = e;
+		tail.lazySet(t + 1); // Publishes the element
+
+		return true;
+	}
+
+	/**
+	 * Removes an element from the head of the ring. Must only be called by the
+	 * consumer thread.
+	 * 
+	 * @return the element or null if the ring is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		final long h = head.get();
+		if (h >= tailCache) {
+			tailCache = tail.get();
+
+			if (h >= tailCache) {
+				return null;
+			}
+		}
+
+		final int index = (int) h & mask;
+		final T e = (T) buffer[index];
+		buffer[index] = null;
+		head.lazySet(h + 1); // Frees the slot for the producer
+
+		return e;
+	}
+
+	/**
+	 * Gets the number of elements in the ring. The result is only a snapshot
+	 * when the ring is in use by other threads.
+	 * 
+	 * @return number of elements
+	 */
+	public int size() {
+		final long h = head.get();
+		final long t = tail.get();
+
+		return (int) Math.max(0, Math.min(t - h, buffer.length));
+	}
+}
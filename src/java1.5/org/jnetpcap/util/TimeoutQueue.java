@@ -18,14 +18,16 @@
  */
 package org.jnetpcap.util;
 
-import java.util.Iterator;
 import java.util.PriorityQueue;
 import java.util.Queue;
 
 
-// TODO: Auto-generated Javadoc
 /**
- * The Class TimeoutQueue.
+ * A queue of time constrained entries, which are timed out in order of their
+ * expiration. Time is supplied by the user, usually from packet timestamps.
+ * This implementation keeps entries in a priority queue, which makes add and
+ * expiry O(log n) and remove O(n). {@link TimingWheelQueue} provides the same
+ * API with O(1) operations for large numbers of entries.
  * 
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
@@ -55,15 +57,14 @@ public class TimeoutQueue {
 			return;
 		}
 
-		for (Iterator<Timeout> i = timeoutQueue.iterator(); i.hasNext();) {
-			Timeout entry = i.next();
-			if (entry.isTimedout(timeInMillis)) {
-				i.remove();
-				entry.timeout();
-
-			} else {
-				break;
-			}
+		/*
+		 * PriorityQueue's iterator does not return entries in priority order, so
+		 * always take the head of the queue. Entries may add new entries to the
+		 * queue from within their timeout() method.
+		 */
+		while (timeoutQueue.isEmpty() == false
+		    && timeoutQueue.peek().isTimedout(timeInMillis)) {
+			timeoutQueue.poll().timeout();
 		}
 	}
 
@@ -89,6 +90,15 @@ public class TimeoutQueue {
 		return timeoutQueue.isEmpty();
 	}
 
+	/**
+	 * Gets the number of entries on the queue.
+	 * 
+	 * @return number of entries
+	 */
+	public int size() {
+		return timeoutQueue.size();
+	}
+
 	/**
 	 * Adds the.
 	 * 
@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A timeout queue implemented as a hierarchical timing wheel. Time is divided
+ * into ticks of fixed length. The lowest wheel has a slot for each of the next
+ * 256 ticks, the next wheel a slot for each of the next 256 rotations of the
+ * lowest wheel and so on, for 4 wheels. Entries are placed in a slot of the
+ * lowest wheel that can hold their deadline and are moved down to lower wheels
+ * as time advances. This makes adding and removing an entry O(1) and expiry
+ * amortized O(1) per entry, regardless of how many entries are on the queue.
+ * <p>
+ * Entries expire at the end of the tick their deadline falls into, so they may
+ * time out up to 1 tick late, but never early. Entries which expire within the
+ * same tick are timed out in no particular order. Only {@link DeadlineTimeout}
+ * entries are placed on the wheel. Any other {@link Timeout} entries are kept
+ * in the regular priority queue inherited from {@link TimeoutQueue}.
+ * </p>
+ * <p>
+ * This class is not thread safe, same as {@link TimeoutQueue}.
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TimingWheelQueue extends TimeoutQueue {
+
+	/**
+	 * A wheel entry. Nodes are kept in doubly linked lists, one per slot.
+	 */
+	private static class Node {
+
+		/** Deadline in ticks. */
+		long tick;
+
+		/** The entry. */
+		DeadlineTimeout entry;
+
+		/** Set once the node has been removed from the queue. */
+		boolean removed;
+
+		/** Next node in slot. */
+		Node next;
+
+		/** Previous node in slot. */
+		Node prev;
+
+		/** Slot list this node is linked into, null if not linked. */
+		Node[] slots;
+
+		/** Index of the slot within slots. */
+		int slot;
+	}
+
+	/** Number of bits of tick per wheel. */
+	private final static int BITS = 8;
+
+	/** Default tick length in millis. */
+	public final static long DEFAULT_TICK = 1;
+
+	/** Number of wheels. */
+	private final static int LEVELS = 4;
+
+	/** Mask for a slot within a wheel. */
+	private final static int MASK = (1 << BITS) - 1;
+
+	/** Number of slots per wheel. */
+	private final static int SLOTS = 1 << BITS;
+
+	/** Number of nodes on each wheel. */
+	private final int[] counts = new int[LEVELS];
+
+	/** Last tick that was processed. */
+	private long current = Long.MIN_VALUE;
+
+	/** Entries that were already due when added. */
+	private Node[] due = new Node[1];
+
+	/** Finds node for entry on remove. */
+	private final Map<DeadlineTimeout, Node> nodes =
+			new IdentityHashMap<DeadlineTimeout, Node>();
+
+	/** Length of a tick in millis. */
+	private final long tick;
+
+	/** The wheels, level 0 is the lowest. */
+	private final Node[][] wheels = new Node[LEVELS][SLOTS];
+
+	/**
+	 * Creates a timing wheel with {@link #DEFAULT_TICK} resolution.
+	 */
+	public TimingWheelQueue() {
+		this(DEFAULT_TICK);
+	}
+
+	/**
+	 * Creates a timing wheel with the specified tick length. The wheel covers
+	 * 2^32 ticks ahead, entries that are further out than that are cycled
+	 * through the top wheel until they come into range.
+	 * 
+	 * @param tickInMillis
+	 *          resolution of the wheel in millis
+	 */
+	public TimingWheelQueue(long tickInMillis) {
+		if (tickInMillis <= 0) {
+			throw new IllegalArgumentException("tick must be greater than 0");
+		}
+
+		this.tick = tickInMillis;
+	}
+
+	/**
+	 * Adds an entry. {@link DeadlineTimeout} entries go on the wheel, others
+	 * on the priority queue.
+	 * 
+	 * @param o
+	 *          the entry
+	 * @return true
+	 * @see org.jnetpcap.util.TimeoutQueue#add(org.jnetpcap.util.Timeout)
+	 */
+	@Override
+	public boolean add(Timeout o) {
+		if ((o instanceof DeadlineTimeout) == false) {
+			return super.add(o);
+		}
+
+		final DeadlineTimeout entry = (DeadlineTimeout) o;
+		final Node node = new Node();
+		node.entry = entry;
+		node.tick = ticks(entry.getDeadline());
+
+		final Node old = nodes.put(entry, node);
+		if (old != null) {
+			unlink(old);
+			old.removed = true;
+		}
+
+		place(node);
+
+		return true;
+	}
+
+	/**
+	 * Moves all entries in a slot of a higher wheel down to lower wheels.
+	 * 
+	 * @param level
+	 *          wheel level
+	 * @param slot
+	 *          slot in the wheel
+	 */
+	private void cascade(int level, int slot) {
+		Node n = wheels[level][slot];
+		wheels[level][slot] = null;
+
+		while (n != null) {
+			final Node next = n.next;
+			n.next = n.prev = null;
+			n.slots = null;
+			counts[level]--;
+
+			place(n);
+			n = next;
+		}
+	}
+
+	/**
+	 * Times out every node in a detached list.
+	 * 
+	 * @param n
+	 *          first node of the list
+	 */
+	private void fire(Node n) {
+		while (n != null) {
+			final Node next = n.next;
+			n.next = n.prev = null;
+
+			if (n.removed == false) {
+				n.removed = true;
+				nodes.remove(n.entry);
+				n.entry.timeout();
+			}
+
+			n = next;
+		}
+	}
+
+	/**
+	 * Times out all entries that were due when added.
+	 */
+	private void fireDue() {
+		while (due[0] != null) {
+			final Node n = due[0];
+			due[0] = null;
+
+			for (Node i = n; i != null; i = i.next) {
+				i.slots = null;
+			}
+
+			fire(n);
+		}
+	}
+
+	/**
+	 * Checks if both the wheel and the priority queue are empty.
+	 * 
+	 * @return true if empty
+	 * @see org.jnetpcap.util.TimeoutQueue#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return nodes.isEmpty() && super.isEmpty();
+	}
+
+	/**
+	 * Links node into a slot list.
+	 * 
+	 * @param slots
+	 *          slot array
+	 * @param slot
+	 *          index of the slot
+	 * @param n
+	 *          node to link
+	 */
+	private void link(Node[] slots, int slot, Node n) {
+		n.slots = slots;
+		n.slot = slot;
+		n.prev = null;
+		n.next = slots[slot];
+		if (n.next != null) {
+			n.next.prev = n;
+		}
+		slots[slot] = n;
+	}
+
+	/**
+	 * Places a node on the wheel that covers its deadline.
+	 * 
+	 * @param n
+	 *          node to place
+	 */
+	private void place(Node n) {
+		final long delta = n.tick - current;
+
+		if (delta <= 0 || current == Long.MIN_VALUE) {
+			link(due, 0, n);
+			return;
+		}
+
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= (1L << (BITS * (level + 1)))) {
+			level++;
+		}
+
+		final int slot = (int) ((n.tick >>> (BITS * level)) & MASK);
+		link(wheels[level], slot, n);
+		counts[level]++;
+	}
+
+	/**
+	 * Removes an entry without timing it out.
+	 * 
+	 * @param o
+	 *          the entry
+	 * @return true if entry was on the queue
+	 * @see org.jnetpcap.util.TimeoutQueue#remove(org.jnetpcap.util.Timeout)
+	 */
+	@Override
+	public boolean remove(Timeout o) {
+		if ((o instanceof DeadlineTimeout) == false) {
+			return super.remove(o);
+		}
+
+		final Node n = nodes.remove(o);
+		if (n == null) {
+			return false;
+		}
+
+		unlink(n);
+		n.removed = true;
+
+		return true;
+	}
+
+	/**
+	 * Gets the number of entries on the wheel and the priority queue.
+	 * 
+	 * @return number of entries
+	 * @see org.jnetpcap.util.TimeoutQueue#size()
+	 */
+	@Override
+	public int size() {
+		return nodes.size() + super.size();
+	}
+
+	/**
+	 * Gets the tick length.
+	 * 
+	 * @return tick in millis
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Converts a time to ticks, rounding up so that entries never expire early.
+	 * 
+	 * @param timeInMillis
+	 *          time in millis
+	 * @return ticks
+	 */
+	private long ticks(long timeInMillis) {
+		final long t = timeInMillis / tick;
+
+		return (t * tick < timeInMillis) ? t + 1 : t;
+	}
+
+	/**
+	 * Advances the wheel to the specified time, timing out every entry whose
+	 * deadline has passed.
+	 * 
+	 * @param timeInMillis
+	 *          current time
+	 * @see org.jnetpcap.util.TimeoutQueue#timeout(long)
+	 */
+	@Override
+	public void timeout(long timeInMillis) {
+		super.timeout(timeInMillis);
+
+		final long target = timeInMillis / tick;
+
+		if (current == Long.MIN_VALUE) {
+			/* First call establishes the wheel's starting position */
+			current = target;
+
+			final Node n = due[0];
+			due[0] = null;
+			for (Node i = n, next; i != null; i = next) {
+				next = i.next;
+				i.next = i.prev = null;
+				i.slots = null;
+				place(i);
+			}
+		}
+
+		fireDue();
+
+		while (current < target) {
+
+			/*
+			 * When the lower wheels are empty, skip ahead to the last tick before
+			 * the next slot of the lowest non-empty wheel is due.
+			 */
+			int level = 0;
+			while (level < LEVELS && counts[level] == 0) {
+				level++;
+			}
+
+			if (level == LEVELS) {
+				current = target;
+				break;
+			}
+
+			if (level > 0) {
+				final long span = 1L << (BITS * level);
+				final long skip = (current | (span - 1));
+				if (skip > current) {
+					current = Math.min(target, skip);
+					if (current == target) {
+						break;
+					}
+				}
+			}
+
+			current++;
+
+			/* Cascade from the top, so entries can fall through several wheels */
+			for (int l = LEVELS - 1; l > 0; l--) {
+				final long lower = (1L << (BITS * l)) - 1;
+				if ((current & lower) == 0) {
+					cascade(l, (int) ((current >>> (BITS * l)) & MASK));
+				}
+			}
+
+			final int slot = (int) (current & MASK);
+			final Node n = wheels[0][slot];
+			if (n != null) {
+				wheels[0][slot] = null;
+				for (Node i = n; i != null; i = i.next) {
+					i.slots = null;
+					counts[0]--;
+				}
+
+				fire(n);
+			}
+
+			fireDue();
+		}
+	}
+
+	/**
+	 * Times out the entry immediately and removes it from the queue.
+	 * 
+	 * @param entry
+	 *          the entry
+	 * @return true if entry was on the queue
+	 * @see org.jnetpcap.util.TimeoutQueue#timeout(org.jnetpcap.util.Timeout)
+	 */
+	@Override
+	public boolean timeout(Timeout entry) {
+		final boolean removed = remove(entry);
+		entry.timeout();
+
+		return removed;
+	}
+
+	/**
+	 * Unlinks a node from its slot list, if linked.
+	 * 
+	 * @param n
+	 *          node to unlink
+	 */
+	private void unlink(Node n) {
+		if (n.slots == null) {
+			return; // Detached for firing, removed flag takes care of it
+		}
+
+		if (n.prev != null) {
+			n.prev.next = n.next;
+		} else {
+			n.slots[n.slot] = n.next;
+		}
+
+		if (n.next != null) {
+			n.next.prev = n.prev;
+		}
+
+		if (n.slots != due) {
+			for (int l = 0; l < LEVELS; l++) {
+				if (n.slots == wheels[l]) {
+					counts[l]--;
+					break;
+				}
+			}
+		}
+
+		n.next = n.prev = null;
+		n.slots = null;
+	}
+}
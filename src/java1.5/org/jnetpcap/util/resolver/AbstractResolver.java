@@ -30,16 +30,10 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.URL;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jnetpcap.util.ConcurrentLongCache;
 import org.jnetpcap.util.JEvent;
 import org.jnetpcap.util.config.JConfig;
 
@@ -47,7 +41,8 @@ import org.jnetpcap.util.config.JConfig;
 /**
  * Default adaptor class for Resovler interface. This abstract class provides
  * the default caching mechanism for positive and negative resolver lookups. It
- * also provides a timeout mechanism to time out lookup results.
+ * also provides a timeout mechanism to time out lookup results. The cache is
+ * safe to share between threads and cached lookups do not lock.
  * 
  * @author Mark Bednarczyk
  * @author Sly Technologies, Inc.
@@ -55,39 +50,6 @@ import org.jnetpcap.util.config.JConfig;
 public abstract class AbstractResolver implements Resolver,
 		PropertyChangeListener {
 
-	/**
-	 * Internal class that keeps track of timeout and which key to time out. Key
-	 * is hash of the address that was cached.
-	 * 
-	 * @author Mark Bednarczyk
-	 * @author Sly Technologies, Inc.
-	 */
-	private static class TimeoutEntry {
-
-		/** The hash. */
-		public final long hash;
-
-		/** The timeout. */
-		public final long timeout;
-
-		/**
-		 * Instantiates a new timeout entry.
-		 * 
-		 * @param key
-		 *          the key
-		 * @param timeout
-		 *          the timeout
-		 */
-		public TimeoutEntry(long key, long timeout) {
-			this.hash = key;
-			this.timeout = System.currentTimeMillis() + timeout;
-
-			if (this.timeout < 0 || (this.timeout - System.currentTimeMillis()) < 0) {
-				throw new IllegalStateException("timeout overflow " + timeout);
-			}
-		}
-	}
-
 	/** The Constant DEFAULT_BACKOFF. */
 	private static final int DEFAULT_BACKOFF = 10;
 
@@ -155,28 +117,40 @@ public abstract class AbstractResolver implements Resolver,
 	/** The Constant PROPERTY_SAVE_CACHE. */
 	private static final String PROPERTY_SAVE_CACHE = "resolver.%ssave";
 
-	/** Percentage of how many oldest entries to remove from cache. */
+	/**
+	 * Cached in place of null for failed lookups, since the cache does not hold
+	 * null values. Compared by reference.
+	 */
+	private static final String NO_NAME = new String();
+
+	/**
+	 * Percentage of how many oldest entries to remove from cache. No longer
+	 * used, the cache evicts one entry at a time, but the property is still
+	 * accepted.
+	 */
+	@SuppressWarnings("unused")
 	private int backoff = DEFAULT_BACKOFF;
 
 	/**
-	 * Main cache map. The timeout is maintaned using a priority queue, that
-	 * removes timedout entries from this map.
+	 * Main cache. Each entry carries its own timeout and the cache evicts
+	 * entries on its own once it is full.
 	 */
-	private Map<Long, String> cache;
+	private volatile ConcurrentLongCache<String> cache;
 
 	/**
-	 * Just an initial map size.
+	 * Minimum number of entries the cache can hold. The cache holds the larger
+	 * of this and maxentries.
 	 */
 	private int cacheCapacity = 100;
 
-	/** The cache load factor. */
+	/** The cache load factor. No longer used. */
 	private float cacheLoadFactor = 0.75f;
 
 	/**
 	 * Flag used to mark if any changes have been made to the cache that need to
 	 * be saved.
 	 */
-	private boolean isModified = false;
+	private volatile boolean isModified = false;
 
 	/**
 	 * Logger is supplied from subclass. This allows Abstract logger to log
@@ -186,8 +160,8 @@ public abstract class AbstractResolver implements Resolver,
 
 	/**
 	 * Hard limit on how many entries can be stored in a cache. When this limit is
-	 * reached, backoff percentage is used to calculate the number of oldest
-	 * entries to remove to make room for new entries.
+	 * reached, the cache evicts entries that have not been looked up recently to
+	 * make room for new entries.
 	 */
 	private int maxentries = DEFAULT_MAX_ENTRIES;
 
@@ -217,9 +191,6 @@ public abstract class AbstractResolver implements Resolver,
 	/** The save cache. */
 	private boolean saveCache = DEFAULT_SAVE_CACHE;
 
-	/** The timeout queue. */
-	private Queue<AbstractResolver.TimeoutEntry> timeoutQueue;
-
 	/**
 	 * Instantiates a new abstract resolver.
 	 * 
@@ -280,33 +251,15 @@ public abstract class AbstractResolver implements Resolver,
 	 */
 	public void addToCache(long hash, String name, long timeout) {
 
-		if (cache.containsKey(hash)) {
-			logger.finest(String.format("[%d] replacing %X", cache.size(), hash));
-			cache.remove(hash);
-		} else {
-			if (logger.isLoggable(Level.FINEST)) {
-				logger.finest(String.format("[%d] adding %X %s",
-						cache.size(),
-						hash,
-						String.valueOf(name)));
-			}
+		if (logger.isLoggable(Level.FINEST)) {
+			logger.finest(String.format("[%d] adding %X %s",
+					cache.size(),
+					hash,
+					String.valueOf(name)));
 		}
 
 		isModified = true;
-		cache.put(hash, name);
-
-		TimeoutEntry e;
-		timeoutQueue.add(e = new TimeoutEntry(hash, timeout));
-
-		if (cache.size() >= maxentries) {
-			timeoutCacheOldest(maxentries * 100 / backoff);
-		}
-
-		long d = e.timeout - System.currentTimeMillis();
-		if (d != timeout) {
-			logger.finest(String.format("invalid timeout %d != %d", d, timeout));
-		}
-
+		cache.put(hash, (name == null) ? NO_NAME : name, timeout);
 	}
 
 	/*
@@ -334,31 +287,22 @@ public abstract class AbstractResolver implements Resolver,
 			cache.clear();
 			isModified = true;
 		}
-
-		if (timeoutQueue != null) {
-			timeoutQueue.clear();
-			isModified = true;
-		}
 	}
 
 	/**
 	 * Creates the cache.
 	 */
 	private void createCache() {
-		cache =
-				Collections.synchronizedMap(new HashMap<Long, String>(cacheCapacity,
-						cacheLoadFactor));
-		timeoutQueue =
-				new PriorityQueue<AbstractResolver.TimeoutEntry>(cacheCapacity,
-						new Comparator<AbstractResolver.TimeoutEntry>() {
-
-							public int compare(AbstractResolver.TimeoutEntry o1,
-									AbstractResolver.TimeoutEntry o2) {
-								return (int) (o1.timeout - o2.timeout);
-							}
-
-						});
+		cache = new ConcurrentLongCache<String>(cacheSize());
+	}
 
+	/**
+	 * Number of entries the cache is allowed to hold.
+	 * 
+	 * @return the cache size
+	 */
+	private int cacheSize() {
+		return Math.max(maxentries, cacheCapacity);
 	}
 
 	/**
@@ -520,6 +464,21 @@ public abstract class AbstractResolver implements Resolver,
 		return this.cache.containsKey(toHashCode(address));
 	}
 
+	/**
+	 * Looks up the cache only and never calls on resolveToName. A failed lookup
+	 * that was cached is returned as an empty string.
+	 * 
+	 * @param hash
+	 *          hash of the address
+	 * @return cached name, empty string for a cached failure or null if not
+	 *         cached
+	 */
+	String getCached(long hash) {
+		final String s = cache.get(hash);
+
+		return (s == NO_NAME) ? "" : s;
+	}
+
 	/**
 	 * Load cache entries using default mechanism.
 	 * 
@@ -558,48 +517,46 @@ public abstract class AbstractResolver implements Resolver,
 			cache.clear();
 		}
 
-		synchronized (cache) {
-			try {
-				boolean m = isModified; // Save the state flag
-
-				String line;
-				while ((line = in.readLine()) != null) {
-					String[] c = line.split(":", 3);
-					if (c.length != 3) {
-						isModified = true;
-						logger.fine("corrupt entry in cache file");
-						continue;
-					}
-					long hash = Long.parseLong(c[0], 16);
-					long timeout = 0;
-					try {
-
-						timeout = Long.parseLong(c[1], 16);
-					} catch (NumberFormatException e) {
-						m = true; // Modify flag to allow update to this cache file
-						continue;
-					}
-
-					String v = (c[2].length() == 0) ? null : c[2];
-
-					if (timeout <= time) {
-						logger.fine(String.format("on load timeout, skipping %x %d\n",
-								hash,
-								((timeout - time) / 1000)));
-						isModified = true;
-						continue; // Already timedout
-					}
+		try {
+			boolean m = isModified; // Save the state flag
+
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] c = line.split(":", 3);
+				if (c.length != 3) {
+					isModified = true;
+					logger.fine("corrupt entry in cache file");
+					continue;
+				}
+				long hash = Long.parseLong(c[0], 16);
+				long timeout = 0;
+				try {
+
+					timeout = Long.parseLong(c[1], 16);
+				} catch (NumberFormatException e) {
+					m = true; // Modify flag to allow update to this cache file
+					continue;
+				}
 
-					addToCache(hash, v, timeout - time);
+				String v = (c[2].length() == 0) ? null : c[2];
 
-					count++;
+				if (timeout <= time) {
+					logger.fine(String.format("on load timeout, skipping %x %d\n",
+							hash,
+							((timeout - time) / 1000)));
+					isModified = true;
+					continue; // Already timedout
 				}
 
-				isModified = m;
+				addToCache(hash, v, timeout - time);
 
-			} finally {
-				in.close();
+				count++;
 			}
+
+			isModified = m;
+
+		} finally {
+			in.close();
 		}
 
 		return count;
@@ -678,8 +635,8 @@ public abstract class AbstractResolver implements Resolver,
 		} else if (String.format(PROPERTY_MAX_ENTRIES, "")
 				.equals(evt.getPropertyName())) {
 			maxentries = JEvent.intValue(evt);
-			if (cache.size() > maxentries) {
-				timeoutCacheOldest(maxentries * 100 / backoff);
+			if (cache != null) {
+				cache.setMaxEntries(cacheSize());
 			}
 
 		} else if (String.format(PROPERTY_BACKOFF, "")
@@ -711,11 +668,10 @@ public abstract class AbstractResolver implements Resolver,
 		} else if (String.format(PROPERTY_MAX_ENTRIES, this.name + ".")
 				.equals(evt.getPropertyName())) {
 			maxentries = JEvent.intValue(evt);
-
-			if (cache.size() > maxentries) {
-				timeoutCacheOldest(maxentries * 100 / backoff);
-
+			if (cache != null) {
+				cache.setMaxEntries(cacheSize());
 			}
+
 		} else if (String.format(PROPERTY_BACKOFF, this.name + ".")
 				.equals(evt.getPropertyName())) {
 			backoff = JEvent.intValue(evt);
@@ -741,11 +697,10 @@ public abstract class AbstractResolver implements Resolver,
 	 */
 	public final String resolve(byte[] address) {
 
-		timeoutCache();
-
-		long hash = toHashCode(address);
-		if (cache.containsKey(hash)) {
-			return cache.get(hash);
+		final long hash = toHashCode(address);
+		final String cached = cache.get(hash);
+		if (cached != null) {
+			return (cached == NO_NAME) ? null : cached;
 		}
 
 		String s = resolveToName(address, hash);
@@ -792,9 +747,12 @@ public abstract class AbstractResolver implements Resolver,
 	 *           Signals that an I/O exception has occurred.
 	 */
 	public int saveCache() throws IOException {
-		timeoutCache();
+		if (cache == null || saveCache == false || isModified == false) {
+			return 0;
+		}
 
-		if (saveCache == false || isModified == false || timeoutQueue.isEmpty()) {
+		cache.expire();
+		if (cache.size() == 0) {
 			return 0;
 		}
 
@@ -842,38 +800,33 @@ public abstract class AbstractResolver implements Resolver,
 	 *          the out
 	 * @return the int
 	 */
-	private int saveCache(PrintWriter out) {
+	private int saveCache(final PrintWriter out) {
 		int count = 0;
 
 		logger.finer(String.format("saving %d entries", cache.size()));
 
-		synchronized (cache) {
-			try {
-				/*
-				 * We use the timeout queue to save the cache. All entries in cache are
-				 * also in the timeout queue.
-				 */
-				for (Iterator<AbstractResolver.TimeoutEntry> i =
-						timeoutQueue.iterator(); i.hasNext();) {
-					final AbstractResolver.TimeoutEntry e = i.next();
-					String v = cache.get(e.hash);
+		try {
+			count = cache.visit(new ConcurrentLongCache.EntryHandler<String>() {
 
+				public void nextEntry(long hash, String v, long timeout) {
 					if (logger.isLoggable(Level.FINEST)) {
 						logger.finest(String.format("saving %X %X\n",
-								e.hash,
-								(e.timeout - System.currentTimeMillis())));
+								hash,
+								(timeout - System.currentTimeMillis())));
 					}
 
-					out.format("%X:%d:%s" + NEWLINE_SEPARATOR,
-							e.hash,
-							e.timeout,
-							(v == null) ? "" : v);
-					count++;
+					/*
+					 * Timeout is written in hex, which is how loadCache reads it back
+					 */
+					out.format("%X:%X:%s" + NEWLINE_SEPARATOR,
+							hash,
+							timeout,
+							(v == NO_NAME) ? "" : v);
 				}
+			});
 
-			} finally {
-				out.close();
-			}
+		} finally {
+			out.close();
 		}
 
 		return count;
@@ -949,55 +902,6 @@ public abstract class AbstractResolver implements Resolver,
 				Long.toString(positiveTimeout));
 	}
 
-	/**
-	 * Timeout cache.
-	 */
-	private void timeoutCache() {
-		final long t = System.currentTimeMillis();
-
-		synchronized (cache) {
-			for (Iterator<AbstractResolver.TimeoutEntry> i = timeoutQueue.iterator(); i
-					.hasNext();) {
-				AbstractResolver.TimeoutEntry e = i.next();
-				if (e.timeout < t) {
-					System.out.printf("%s: %s %s\n",
-							"timeout()",
-							logger,
-							logger.getLevel());
-					logger.finest(String.format("timedout %s\n", cache.get(e.hash)));
-					cache.remove(e.hash);
-					i.remove();
-				} else {
-					break;
-				}
-			}
-		}
-	}
-
-	/**
-	 * Removes count oldest entries from the timeout cache, presumably to make
-	 * room for newer entries.
-	 * 
-	 * @param count
-	 *          the count
-	 */
-	private void timeoutCacheOldest(int count) {
-		synchronized (cache) {
-			for (Iterator<AbstractResolver.TimeoutEntry> i = timeoutQueue.iterator(); i
-					.hasNext();) {
-				AbstractResolver.TimeoutEntry e = i.next();
-				if (count-- > 0) {
-					logger.finest(String.format("removed due to backoff %s \n",
-							cache.get(e.hash)));
-					cache.remove(e.hash);
-					i.remove();
-				} else {
-					break;
-				}
-			}
-		}
-	}
-
 	/**
 	 * To hash code.
 	 * 
@@ -1027,10 +931,10 @@ public abstract class AbstractResolver implements Resolver,
 	@Override
 	public String toString() {
 		StringBuilder out = new StringBuilder();
-		out.append(String.format("cache[count=%d], "
-				+ "timeout[count=%d, positive=%d, negative=%d], ",
+		out.append(String.format("cache[count=%d, max=%d], "
+				+ "timeout[positive=%d, negative=%d], ",
 				cache.size(),
-				timeoutQueue.size(),
+				cache.getMaxEntries(),
 				positiveTimeout,
 				negativeTimeout));
 		return out.toString();
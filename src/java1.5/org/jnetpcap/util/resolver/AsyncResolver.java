@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util.resolver;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A resolver that never blocks the caller on a lookup. An address that is not
+ * already in the cache of the underlying resolver is queued to a small pool of
+ * worker threads and <code>null</code> is returned immediately. The workers
+ * store their results in the underlying resolver's cache, where they are picked
+ * up by later calls to {@link #resolve(byte[])}. A lookup which is still in
+ * progress is reported by {@link #isCached(byte[])} returning false, which
+ * allows a formatter to print the address in its numeric form instead of as a
+ * failed lookup.
+ * <p>
+ * The lookup queue is bounded. When it is full, new addresses are dropped and
+ * are simply queued again the next time they are resolved. To have all
+ * formatters use an asynchronous IP resolver, register it with the registry:
+ * 
+ * <pre>
+ * Resolver ip = JRegistry.getResolver(ResolverType.IP);
+ * JRegistry.registerResolver(ResolverType.IP, new AsyncResolver(
+ * 		(AbstractResolver) ip));
+ * </pre>
+ * 
+ * </p>
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class AsyncResolver implements Resolver {
+
+	/**
+	 * Counters maintained by the resolver.
+	 */
+	public enum Counter {
+
+		/** Lookups queued to the workers. */
+		QUEUED,
+
+		/** Lookups that produced a name. */
+		RESOLVED,
+
+		/** Lookups that failed to produce a name. */
+		FAILED,
+
+		/** Lookups dropped because the queue was full. */
+		DROPPED,
+	}
+
+	/**
+	 * Source of names used by the workers. The default source calls on the
+	 * underlying resolver, which does the actual, possibly blocking, lookup. A
+	 * different source can be supplied to resolve from a local table, such as
+	 * during testing.
+	 * 
+	 * @author Mark Bednarczyk
+	 * @author Sly Technologies, Inc.
+	 */
+	public interface Lookup {
+
+		/**
+		 * Looks up a name for an address. Called on a worker thread.
+		 * 
+		 * @param address
+		 *          address to resolve
+		 * @return the name or null if address could not be resolved
+		 */
+		public String lookup(byte[] address);
+	}
+
+	/** The Constant DEFAULT_QUEUE_SIZE. */
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+	/** The Constant DEFAULT_THREADS. */
+	public static final int DEFAULT_THREADS = 4;
+
+	/** Counters indexed by Counter ordinal. */
+	private final AtomicLongArray counters = new AtomicLongArray(Counter
+			.values().length);
+
+	/** The executor. */
+	private final ThreadPoolExecutor executor;
+
+	/** The lookup source. */
+	private final Lookup lookup;
+
+	/** Hashes of addresses that have been queued and not yet resolved. */
+	private final ConcurrentHashMap<Long, Boolean> pending =
+			new ConcurrentHashMap<Long, Boolean>();
+
+	/** The resolver whose cache holds the results. */
+	private final AbstractResolver resolver;
+
+	/**
+	 * Creates an asynchronous resolver with default number of threads and queue
+	 * size.
+	 * 
+	 * @param resolver
+	 *          resolver which does the lookups and caches the results
+	 */
+	public AsyncResolver(AbstractResolver resolver) {
+		this(resolver, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * Creates an asynchronous resolver.
+	 * 
+	 * @param resolver
+	 *          resolver which does the lookups and caches the results
+	 * @param threads
+	 *          number of worker threads
+	 * @param queueSize
+	 *          maximum number of lookups waiting for a worker
+	 */
+	public AsyncResolver(final AbstractResolver resolver, int threads,
+			int queueSize) {
+		this(resolver, new Lookup() {
+
+			public String lookup(byte[] address) {
+				return resolver.resolveToName(address, resolver.toHashCode(address));
+			}
+
+		}, threads, queueSize);
+	}
+
+	/**
+	 * Creates an asynchronous resolver using a custom lookup source.
+	 * 
+	 * @param resolver
+	 *          resolver whose cache holds the results
+	 * @param lookup
+	 *          source of names
+	 * @param threads
+	 *          number of worker threads
+	 * @param queueSize
+	 *          maximum number of lookups waiting for a worker
+	 */
+	public AsyncResolver(AbstractResolver resolver, Lookup lookup, int threads,
+			int queueSize) {
+		if (resolver == null || lookup == null) {
+			throw new NullPointerException();
+		}
+
+		if (threads <= 0 || queueSize <= 0) {
+			throw new IllegalArgumentException(
+					"threads and queue size must be positive");
+		}
+
+		this.resolver = resolver;
+		this.lookup = lookup;
+		this.executor =
+				new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+						new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+							private int count = 0;
+
+							public Thread newThread(Runnable r) {
+								Thread t = new Thread(r, "resolver-" + (count++));
+								t.setDaemon(true);
+								return t;
+							}
+						});
+	}
+
+	/**
+	 * Waits until all queued lookups have completed.
+	 * 
+	 * @param timeout
+	 *          maximum time to wait in milliseconds
+	 * @return true if there are no more pending lookups, false if timed out
+	 * @throws InterruptedException
+	 *           if interrupted while waiting
+	 */
+	public boolean await(long timeout) throws InterruptedException {
+		final long end = System.currentTimeMillis() + timeout;
+
+		synchronized (pending) {
+			long left;
+			while (pending.isEmpty() == false
+					&& (left = end - System.currentTimeMillis()) > 0) {
+				pending.wait(left);
+			}
+
+			return pending.isEmpty();
+		}
+	}
+
+	/**
+	 * Checks if the address is cached or is about to be. The lookup is queued if
+	 * the address is not cached.
+	 * 
+	 * @param address
+	 *          the address
+	 * @return true if address has a name in the cache
+	 * @see org.jnetpcap.util.resolver.Resolver#canBeResolved(byte[])
+	 */
+	public boolean canBeResolved(byte[] address) {
+		return resolve(address) != null;
+	}
+
+	/**
+	 * Clears the cache of the underlying resolver. Lookups already in progress
+	 * will still store their results.
+	 * 
+	 * @see org.jnetpcap.util.resolver.Resolver#clearCache()
+	 */
+	public void clearCache() {
+		resolver.clearCache();
+	}
+
+	/**
+	 * Gets the value of a counter.
+	 * 
+	 * @param counter
+	 *          the counter
+	 * @return the count
+	 */
+	public long getCount(Counter counter) {
+		return counters.get(counter.ordinal());
+	}
+
+	/**
+	 * Gets the number of lookups queued or in progress.
+	 * 
+	 * @return number of pending lookups
+	 */
+	public int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Initializes the underlying resolver.
+	 * 
+	 * @see org.jnetpcap.util.resolver.Resolver#initializeIfNeeded()
+	 */
+	public void initializeIfNeeded() {
+		resolver.initializeIfNeeded();
+	}
+
+	/**
+	 * Checks if a positive or negative lookup result is cached. An address whose
+	 * lookup is still pending is not cached.
+	 * 
+	 * @param address
+	 *          the address
+	 * @return true, if is cached
+	 * @see org.jnetpcap.util.resolver.Resolver#isCached(byte[])
+	 */
+	public boolean isCached(byte[] address) {
+		return resolver.isCached(address);
+	}
+
+	/**
+	 * Checks if a lookup for the address has been queued and not completed.
+	 * 
+	 * @param address
+	 *          the address
+	 * @return true if lookup is pending
+	 */
+	public boolean isPending(byte[] address) {
+		return pending.containsKey(resolver.toHashCode(address));
+	}
+
+	/**
+	 * Load cache.
+	 * 
+	 * @param url
+	 *          the url
+	 * @return the int
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 * @see org.jnetpcap.util.resolver.Resolver#loadCache(java.net.URL)
+	 */
+	public int loadCache(URL url) throws IOException {
+		return resolver.loadCache(url);
+	}
+
+	/**
+	 * Queues lookups for a group of addresses ahead of them being formatted.
+	 * Addresses already cached or pending are skipped.
+	 * 
+	 * @param addresses
+	 *          addresses to resolve
+	 * @return number of lookups queued
+	 */
+	public int prefetch(byte[]... addresses) {
+		int count = 0;
+		for (byte[] address : addresses) {
+			if (resolver.isCached(address) == false && submit(address)) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns the cached name of the address. If the address is not in the
+	 * cache, a lookup is queued and null is returned without waiting for it.
+	 * 
+	 * @param address
+	 *          the address
+	 * @return cached name or null if not cached or cached as a failed lookup
+	 * @see org.jnetpcap.util.resolver.Resolver#resolve(byte[])
+	 */
+	public String resolve(byte[] address) {
+		final String cached = resolver.getCached(resolver.toHashCode(address));
+		if (cached != null) {
+			return (cached.length() == 0) ? null : cached;
+		}
+
+		submit(address);
+
+		return null;
+	}
+
+	/**
+	 * Save cache.
+	 * 
+	 * @return the int
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 * @see org.jnetpcap.util.resolver.Resolver#saveCache()
+	 */
+	public int saveCache() throws IOException {
+		return resolver.saveCache();
+	}
+
+	/**
+	 * Stops the worker threads. Lookups still in the queue are discarded.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+
+		synchronized (pending) {
+			pending.clear();
+			pending.notifyAll();
+		}
+	}
+
+	/**
+	 * Queues a lookup unless one is already pending for the address.
+	 * 
+	 * @param address
+	 *          the address
+	 * @return true if queued
+	 */
+	private boolean submit(byte[] address) {
+		final Long hash = resolver.toHashCode(address);
+		if (pending.putIfAbsent(hash, Boolean.TRUE) != null) {
+			return false;
+		}
+
+		final byte[] copy = address.clone(); // Caller may reuse its array
+
+		try {
+			executor.execute(new Runnable() {
+
+				public void run() {
+					String name = null;
+					try {
+						name = lookup.lookup(copy);
+					} finally {
+						resolver.addToCache(hash, name);
+						counters.incrementAndGet((name == null) ? Counter.FAILED
+								.ordinal() : Counter.RESOLVED.ordinal());
+						done(hash);
+					}
+				}
+
+			});
+		} catch (RejectedExecutionException e) {
+			counters.incrementAndGet(Counter.DROPPED.ordinal());
+			done(hash);
+			return false;
+		}
+
+		counters.incrementAndGet(Counter.QUEUED.ordinal());
+
+		return true;
+	}
+
+	/**
+	 * Removes a lookup from the pending set and wakes up any waiters once
+	 * nothing is pending.
+	 * 
+	 * @param hash
+	 *          hash of the address
+	 */
+	private void done(Long hash) {
+		pending.remove(hash);
+
+		if (pending.isEmpty()) {
+			synchronized (pending) {
+				pending.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * To string.
+	 * 
+	 * @return the string
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("async[pending=%d, queued=%d, dropped=%d], %s",
+				pending.size(),
+				getCount(Counter.QUEUED),
+				getCount(Counter.DROPPED),
+				resolver.toString());
+	}
+}
@@ -85,11 +85,15 @@ public class IEEEOuiPrefixResolver extends AbstractResolver {
 	 */
 	@Override
 	public void initializeIfNeeded() {
+		/*
+		 * There are over 12,000 entries in the db. Needed for saved cache files as
+		 * well, otherwise the cache would start evicting prefixes on load.
+		 */
+		setCacheCapacity(13000);
+
 		if (initialized == false && hasCacheFile() == false) {
 			initialized = true;
 
-			setCacheCapacity(13000); // There are over 12,000 entries in the db
-
 			super.initializeIfNeeded(); // Allow the baseclass to prep cache
 
 			setPositiveTimeout(INFINITE_TIMEOUT); // Never
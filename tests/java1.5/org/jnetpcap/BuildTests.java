@@ -19,16 +19,25 @@
 package org.jnetpcap;
 
 import org.jnetpcap.format.TestFormatter;
+import org.jnetpcap.header.TestAnnotatedFieldAccessor;
 import org.jnetpcap.header.TestHttp;
 import org.jnetpcap.header.TestIcmp;
 import org.jnetpcap.header.TestIpv6;
 import org.jnetpcap.header.TestSubHeader;
 import org.jnetpcap.nio.TestJBuffer;
 import org.jnetpcap.nio.TestJMemory;
+import org.jnetpcap.nio.TestJMemoryArenaPool;
 import org.jnetpcap.packet.JHandlerTest;
+import org.jnetpcap.packet.TestArrowWriter;
 import org.jnetpcap.packet.TestHeaderState;
+import org.jnetpcap.packet.TestJColumnExtractor;
+import org.jnetpcap.packet.TestJFastScanner;
+import org.jnetpcap.packet.TestJFlowTable;
+import org.jnetpcap.packet.TestJFlowTracker;
 import org.jnetpcap.packet.TestJHeader;
+import org.jnetpcap.packet.TestJIpReassembler;
 import org.jnetpcap.packet.TestJScanner;
+import org.jnetpcap.packet.TestJTcpReassembler;
 import org.jnetpcap.packet.TestNoSystemOutOutput;
 import org.jnetpcap.packet.TestPcapPacket;
 import org.jnetpcap.packet.TestPcapUtils;
@@ -38,8 +47,14 @@ import org.jnetpcap.protocol.TestSctp;
 import org.jnetpcap.protocol.TestSip;
 import org.jnetpcap.protocol.TestTcpIp;
 import org.jnetpcap.protocol.TestVoip;
+import org.jnetpcap.util.TestConcurrentLongCache;
 import org.jnetpcap.util.TestExpandableString;
 import org.jnetpcap.util.TestSearchPaths;
+import org.jnetpcap.util.TestRingBlockingQueue;
+import org.jnetpcap.util.TestSpscRing;
+import org.jnetpcap.util.TestTimeoutQueue;
+import org.jnetpcap.util.TestTimingWheelQueue;
+import org.jnetpcap.util.resolver.TestAsyncResolver;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -63,15 +78,32 @@ public class BuildTests {
 			// $JUnit-BEGIN$
 			suite.addTestSuite(TestPcapUtils.class);
 			suite.addTestSuite(TestPcapPacket.class);
+			suite.addTestSuite(TestMappedPcapReader.class);
+			suite.addTestSuite(TestParallelPcapReader.class);
+			suite.addTestSuite(TestPcapNg.class);
+			suite.addTestSuite(TestAsyncPcapDumper.class);
+			suite.addTestSuite(TestRotatingPcapDumper.class);
+			suite.addTestSuite(TestIndexedPcapReader.class);
 			// suite.addTestSuite(TestPcapDumper.class);
 			suite.addTestSuite(JHandlerTest.class);
 			// suite.addTestSuite(TestJRegistry.class);
 			suite.addTestSuite(TestJScanner.class);
+			suite.addTestSuite(TestJFastScanner.class);
+			suite.addTestSuite(TestJFlowTable.class);
+			suite.addTestSuite(TestJFlowTracker.class);
+			suite.addTestSuite(TestJColumnExtractor.class);
+			suite.addTestSuite(TestArrowWriter.class);
+			suite.addTestSuite(TestJIpReassembler.class);
+			suite.addTestSuite(TestJTcpReassembler.class);
+			suite.addTestSuite(TestAsyncResolver.class);
+			suite.addTestSuite(TestConcurrentLongCache.class);
 			suite.addTestSuite(TestPcapUtils.class);
 			suite.addTestSuite(TestSubHeader.class);
+			suite.addTestSuite(TestAnnotatedFieldAccessor.class);
 			suite.addTestSuite(TestIcmp.class);
 			suite.addTestSuite(TestJBuffer.class);
 			suite.addTestSuite(TestJMemory.class);
+			suite.addTestSuite(TestJMemoryArenaPool.class);
 			suite.addTestSuite(TestFormatter.class);
 			/*
 			 * suite.addTestSuite(TestPcapDispatchers.class);
@@ -80,6 +112,10 @@ public class BuildTests {
 			suite.addTestSuite(TestIpv6.class);
 			suite.addTestSuite(TestExpandableString.class);
 			suite.addTestSuite(TestSearchPaths.class);
+			suite.addTestSuite(TestRingBlockingQueue.class);
+			suite.addTestSuite(TestSpscRing.class);
+			suite.addTestSuite(TestTimeoutQueue.class);
+			suite.addTestSuite(TestTimingWheelQueue.class);
 			suite.addTestSuite(TestJHeader.class);
 			suite.addTestSuite(TestVoip.class);
 			suite.addTestSuite(TestSctp.class);
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.PcapPacketHandler;
+import org.jnetpcap.packet.TestUtils;
+
+/**
+ * Dumps packets with AsyncPcapDumper and reads them back with libpcap.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestAsyncPcapDumper
+    extends TestCase {
+
+	/**
+	 * A channel which holds up every write until it is opened.
+	 */
+	private static class GatedChannel
+	    implements WritableByteChannel {
+
+		/** The channel. */
+		private final FileChannel channel;
+
+		/** The gate. */
+		private final CountDownLatch gate = new CountDownLatch(1);
+
+		/**
+		 * Creates the channel.
+		 */
+		public GatedChannel(File file) throws IOException {
+			this.channel = new FileOutputStream(file).getChannel();
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		/**
+		 * Lets all writes through.
+		 */
+		public void open() {
+			gate.countDown();
+		}
+
+		public int write(ByteBuffer src) throws IOException {
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e.toString());
+			}
+
+			return channel.write(src);
+		}
+	}
+
+	/** Snaplen big enough for all the test packets. */
+	private final static int SNAPLEN = 2048;
+
+	/** Buffers smaller than the test file, so several are used. */
+	private final static int BUFFER_SIZE = 8192;
+
+	/** Temporary file. */
+	private File file;
+
+	/** Packets as read by libpcap. */
+	private List<PcapPacket> expected;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		expected = read(TestUtils.HTTP);
+		file = File.createTempFile("TestAsyncPcapDumper", ".pcap");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	/**
+	 * Reads all packets from a file using libpcap.
+	 */
+	private static List<PcapPacket> read(String file) {
+		final List<PcapPacket> list = new ArrayList<PcapPacket>();
+		final Pcap pcap = TestUtils.openOffline(file);
+		pcap.loop(Pcap.LOOP_INFINITE, new PcapPacketHandler<String>() {
+
+			public void nextPacket(PcapPacket packet, String user) {
+				list.add(new PcapPacket(packet));
+			}
+
+		}, "");
+		pcap.close();
+
+		return list;
+	}
+
+	/**
+	 * Asserts that a packet has the same header and data as the expected one.
+	 */
+	private static void assertPacket(PcapPacket e, PcapPacket p) {
+		assertEquals(e.getCaptureHeader().hdr_sec(), p.getCaptureHeader()
+		    .hdr_sec());
+		assertEquals(e.getCaptureHeader().hdr_usec(), p.getCaptureHeader()
+		    .hdr_usec());
+		assertEquals(e.getCaptureHeader().caplen(), p.getCaptureHeader()
+		    .caplen());
+		assertEquals(e.getCaptureHeader().wirelen(), p.getCaptureHeader()
+		    .wirelen());
+		assertTrue(Arrays.equals(e.getByteArray(0, e.size()), p.getByteArray(0, p
+		    .size())));
+	}
+
+	/**
+	 * A blocking dumper writes every record, in order.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testBlocking() throws IOException {
+		final AsyncPcapDumper dumper =
+		    new AsyncPcapDumper(new FileOutputStream(file).getChannel(),
+		        PcapDLT.EN10MB.value, SNAPLEN, BUFFER_SIZE, 2);
+		dumper.setBlocking(true);
+
+		for (PcapPacket packet : expected) {
+			assertTrue(dumper.dump(packet));
+		}
+		dumper.close();
+
+		assertEquals(expected.size(), dumper.getRecordCount());
+		assertEquals(0, dumper.getDroppedCount());
+		assertEquals(file.length(), dumper.getBytesWritten());
+
+		final List<PcapPacket> actual = read(file.getPath());
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertPacket(expected.get(i), actual.get(i));
+		}
+	}
+
+	/**
+	 * A non blocking dumper drops records while the writer is stuck and keeps
+	 * every record it accepted.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testDropsWhileWriterStalls() throws IOException {
+		final GatedChannel channel = new GatedChannel(file);
+		final AsyncPcapDumper dumper =
+		    new AsyncPcapDumper(channel, PcapDLT.EN10MB.value, SNAPLEN,
+		        BUFFER_SIZE, 2);
+
+		final List<PcapPacket> accepted = new ArrayList<PcapPacket>();
+		for (PcapPacket packet : expected) {
+			if (dumper.dump(packet)) {
+				accepted.add(packet);
+			}
+		}
+
+		assertTrue(dumper.getDroppedCount() > 0);
+		assertTrue(dumper.getQueueDepth() >= 1);
+		assertEquals(expected.size(), dumper.getRecordCount()
+		    + dumper.getDroppedCount());
+
+		channel.open();
+		dumper.close();
+
+		final List<PcapPacket> actual = read(file.getPath());
+		assertEquals(accepted.size(), actual.size());
+		for (int i = 0; i < accepted.size(); i++) {
+			assertPacket(accepted.get(i), actual.get(i));
+		}
+	}
+
+	/**
+	 * Records are truncated to the snaplen.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testSnaplen() throws IOException {
+		final AsyncPcapDumper dumper = new AsyncPcapDumper(file,
+		    PcapDLT.EN10MB.value, 64);
+		for (PcapPacket packet : expected) {
+			dumper.dump(packet);
+		}
+		dumper.close();
+
+		final List<PcapPacket> actual = read(file.getPath());
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(Math.min(64, expected.get(i).size()), actual.get(i).size());
+			assertEquals(expected.get(i).getCaptureHeader().wirelen(), actual
+			    .get(i).getCaptureHeader().wirelen());
+		}
+	}
+}
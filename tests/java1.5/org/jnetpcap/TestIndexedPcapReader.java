@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.TestUtils;
+
+/**
+ * Seeks by time using indexes of various granularities and checks that the
+ * index is persisted and reused.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestIndexedPcapReader
+    extends TestCase {
+
+	/** Copy of the test file, so that its sidecar goes to a temp directory. */
+	private File file;
+
+	/** Timestamps of all records in micros. */
+	private long[] timestamps;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		file = File.createTempFile("TestIndexedPcapReader", ".pcap");
+
+		final FileChannel in = new FileInputStream(TestUtils.HTTP).getChannel();
+		final FileChannel out = new FileOutputStream(file).getChannel();
+		in.transferTo(0, in.size(), out);
+		in.close();
+		out.close();
+
+		final MappedPcapReader reader = new MappedPcapReader(file);
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+		final PcapIndex all = PcapIndex.build(file, 0);
+		timestamps = new long[all.size()];
+
+		int i = 0;
+		while (reader.next(packet)) {
+			timestamps[i++] = packet.getCaptureHeader().timestampInMicros();
+		}
+		reader.close();
+
+		assertEquals(timestamps.length, i);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		PcapIndex.getIndexFile(file).delete();
+		file.delete();
+	}
+
+	/**
+	 * Index of first record at or after the time, by linear search.
+	 */
+	private int expected(long timestamp) {
+		for (int i = 0; i < timestamps.length; i++) {
+			if (timestamps[i] >= timestamp) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Seeks to every record's time, and just past it, and compares with a
+	 * linear search.
+	 */
+	private void checkSeek(long granularity) throws IOException {
+		PcapIndex.getIndexFile(file).delete();
+
+		final IndexedPcapReader reader = new IndexedPcapReader(file, granularity);
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+
+		try {
+			for (int i = 0; i < timestamps.length; i++) {
+				for (long t : new long[] {
+				    timestamps[i],
+				    timestamps[i] + 1
+				}) {
+					final int e = expected(t);
+					assertEquals(e != -1, reader.seekTime(t));
+
+					if (e != -1) {
+						assertTrue(reader.next(packet));
+						assertEquals(timestamps[e], packet.getCaptureHeader()
+						    .timestampInMicros());
+					}
+				}
+			}
+
+			assertTrue(reader.seekTime(0));
+			assertTrue(reader.next(packet));
+			assertEquals(timestamps[0], packet.getCaptureHeader()
+			    .timestampInMicros());
+
+			/* Streaming continues from the seek */
+			int count = 1;
+			while (reader.next(packet)) {
+				count++;
+			}
+			assertEquals(timestamps.length, count);
+
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Test every record indexed.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testEveryRecord() throws IOException {
+		checkSeek(0);
+	}
+
+	/**
+	 * Test 100ms granularity.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testCoarse() throws IOException {
+		checkSeek(100000);
+	}
+
+	/**
+	 * Test a granularity larger than the whole file.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testSingleEntry() throws IOException {
+		checkSeek(Long.MAX_VALUE / 2);
+	}
+
+	/**
+	 * Index is saved next to the file and reused by the next reader.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testPersisted() throws IOException {
+		final File sidecar = PcapIndex.getIndexFile(file);
+		assertFalse(sidecar.exists());
+
+		new IndexedPcapReader(file, 0).close();
+		assertTrue(sidecar.isFile());
+		assertEquals(timestamps.length, PcapIndex.read(sidecar).size());
+
+		/* Granularity only matters when building, existing index is reused */
+		final IndexedPcapReader reader = new IndexedPcapReader(file, 1000000000L);
+		assertEquals(timestamps.length, reader.getIndex().size());
+		reader.close();
+	}
+
+	/**
+	 * An index of a different file size is rebuilt.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testStaleIndexRebuilt() throws IOException {
+		final PcapIndex stale = new PcapIndex();
+		stale.add(0, 24, 0);
+		stale.setFileSize(file.length() + 1);
+		stale.write(PcapIndex.getIndexFile(file));
+
+		final PcapIndex index = PcapIndex.open(file, 0);
+		assertEquals(file.length(), index.getFileSize());
+		assertEquals(timestamps.length, index.size());
+		assertEquals(timestamps.length, PcapIndex.read(
+		    PcapIndex.getIndexFile(file)).size());
+	}
+
+	/**
+	 * Rewrites the test file as a single section pcapng file with 3 interfaces.
+	 * The second and third interfaces are described a third and two thirds of
+	 * the way through the section, and all the packets after each description
+	 * use it. The third interface uses nano second timestamps.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	private void writePcapNg() throws IOException {
+		final List<byte[]> data = new ArrayList<byte[]>();
+		final List<long[]> headers = new ArrayList<long[]>();
+		final MappedPcapReader reader = new MappedPcapReader(file);
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+		try {
+			while (reader.next(packet)) {
+				final PcapHeader h = packet.getCaptureHeader();
+				data.add(packet.getByteArray(0, packet.size()));
+				headers.add(new long[] {
+				    h.timestampInMicros(),
+				    h.wirelen()
+				});
+			}
+		} finally {
+			reader.close();
+		}
+
+		final ByteBuffer buf = ByteBuffer.allocate((int) file.length() * 2 + 1024);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+
+		buf.putInt(MappedPcapReader.PCAPNG_SHB).putInt(28);
+		buf.putInt(MappedPcapReader.PCAPNG_BYTE_ORDER_MAGIC);
+		buf.putShort((short) 1).putShort((short) 0).putLong(-1L).putInt(28);
+
+		int iface = -1;
+		for (int i = 0; i < data.size(); i++) {
+			if (i == 0 || i == data.size() / 3 || i == data.size() * 2 / 3) {
+				iface++;
+
+				if (iface < 2) {
+					buf.putInt(MappedPcapReader.PCAPNG_IDB).putInt(20);
+					buf.putShort((short) PcapDLT.EN10MB.value).putShort((short) 0);
+					buf.putInt(65535).putInt(20);
+				} else {
+					buf.putInt(MappedPcapReader.PCAPNG_IDB).putInt(32);
+					buf.putShort((short) PcapDLT.EN10MB.value).putShort((short) 0);
+					buf.putInt(65535);
+					buf.putShort((short) 9).putShort((short) 1).put((byte) 9).put(
+					    new byte[3]);
+					buf.putInt(0);
+					buf.putInt(32);
+				}
+			}
+
+			final byte[] d = data.get(i);
+			final long ts = (iface < 2)
+			    ? headers.get(i)[0]
+			    : headers.get(i)[0] * 1000L + 999;
+			final int padded = (d.length + 3) & ~3;
+			final int len = 32 + padded;
+
+			buf.putInt(MappedPcapReader.PCAPNG_EPB).putInt(len).putInt(iface);
+			buf.putInt((int) (ts >>> 32)).putInt((int) ts);
+			buf.putInt(d.length).putInt((int) headers.get(i)[1]).put(d);
+			buf.put(new byte[padded - d.length]);
+			buf.putInt(len);
+		}
+
+		buf.flip();
+		final FileChannel out = new FileOutputStream(file).getChannel();
+		try {
+			out.write(buf);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Seeking a pcapng file with interfaces described part way through the
+	 * section, both forward past descriptions not read yet and back in front of
+	 * descriptions already read.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testPcapNgInterfacesInMiddleOfSection() throws IOException {
+		writePcapNg();
+
+		checkSeek(0);
+		checkSeek(100000);
+
+		PcapIndex.getIndexFile(file).delete();
+		final IndexedPcapReader reader = new IndexedPcapReader(file, 0);
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+		try {
+			final int last = timestamps.length - 1;
+			final int middle = timestamps.length / 2;
+
+			/* Straight past both descriptions */
+			assertTrue(reader.seekTime(timestamps[last]));
+			assertTrue(reader.next(packet));
+			assertEquals(timestamps[expected(timestamps[last])], packet
+			    .getCaptureHeader().timestampInMicros());
+
+			/* Back in front of the last description */
+			assertTrue(reader.seekTime(timestamps[middle]));
+			assertTrue(reader.next(packet));
+			assertEquals(timestamps[expected(timestamps[middle])], packet
+			    .getCaptureHeader().timestampInMicros());
+
+			/* Back to start and stream through every description again */
+			assertTrue(reader.seekTime(0));
+			int count = 0;
+			while (reader.next(packet)) {
+				assertEquals(timestamps[count], packet.getCaptureHeader()
+				    .timestampInMicros());
+				count++;
+			}
+			assertEquals(timestamps.length, count);
+
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.PcapPacketHandler;
+import org.jnetpcap.packet.TestUtils;
+import org.jnetpcap.protocol.network.Ip4;
+
+/**
+ * Compares packets read by MappedPcapReader from classic, nano second and
+ * pcapng files with packets read by libpcap.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestMappedPcapReader
+    extends TestCase {
+
+	/**
+	 * A raw record read from a classic file.
+	 */
+	private static class Record {
+
+		/** The seconds. */
+		long seconds;
+
+		/** The micros. */
+		int micros;
+
+		/** The wirelen. */
+		int wirelen;
+
+		/** The data. */
+		byte[] data;
+	}
+
+	/** Temporary file. */
+	private File file;
+
+	/** Packets as read by libpcap. */
+	private List<PcapPacket> expected;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		expected = new ArrayList<PcapPacket>();
+		final Pcap pcap = TestUtils.openOffline(TestUtils.HTTP);
+		pcap.loop(Pcap.LOOP_INFINITE, new PcapPacketHandler<String>() {
+
+			public void nextPacket(PcapPacket packet, String user) {
+				expected.add(new PcapPacket(packet));
+			}
+
+		}, "");
+		pcap.close();
+
+		file = File.createTempFile("TestMappedPcapReader", ".pcap");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	/**
+	 * Reads all records from the classic test file, which is in native byte
+	 * order of the machine it was captured on.
+	 * 
+	 * @return the records
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	private List<Record> readRecords() throws IOException {
+		final File f = new File(TestUtils.HTTP);
+		final byte[] b = new byte[(int) f.length()];
+		final DataInputStream in = new DataInputStream(new FileInputStream(f));
+		in.readFully(b);
+		in.close();
+
+		ByteBuffer buf = ByteBuffer.wrap(b);
+		if (buf.getInt(0) != MappedPcapReader.MAGIC_MICROS) {
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		buf.position(MappedPcapReader.FILE_HEADER_LENGTH);
+
+		List<Record> list = new ArrayList<Record>();
+		while (buf.hasRemaining()) {
+			Record r = new Record();
+			r.seconds = buf.getInt() & 0xffffffffL;
+			r.micros = buf.getInt();
+			r.data = new byte[buf.getInt()];
+			r.wirelen = buf.getInt();
+			buf.get(r.data);
+			list.add(r);
+		}
+
+		return list;
+	}
+
+	/**
+	 * Writes the buffer to the temporary file.
+	 */
+	private void write(ByteBuffer buf) throws IOException {
+		buf.flip();
+		FileOutputStream out = new FileOutputStream(file);
+		out.getChannel().write(buf);
+		out.close();
+	}
+
+	/**
+	 * Writes a classic file using specified byte order and timestamp precision.
+	 */
+	private void writeClassic(ByteOrder order, boolean nanos) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate((int) new File(TestUtils.HTTP).length());
+		buf.order(order);
+		buf.putInt(nanos ? MappedPcapReader.MAGIC_NANOS
+		    : MappedPcapReader.MAGIC_MICROS);
+		buf.putShort((short) 2).putShort((short) 4).putInt(0).putInt(0);
+		buf.putInt(65535).putInt(PcapDLT.EN10MB.value);
+
+		for (Record r : readRecords()) {
+			buf.putInt((int) r.seconds);
+			buf.putInt(nanos ? r.micros * 1000 + 999 : r.micros);
+			buf.putInt(r.data.length).putInt(r.wirelen).put(r.data);
+		}
+
+		write(buf);
+	}
+
+	/**
+	 * Writes a pcapng file with 2 interfaces, the second one using nano second
+	 * resolution. Packets alternate between interfaces.
+	 */
+	private void writePcapNg(ByteOrder order) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4 * 1024 * 1024);
+		buf.order(order);
+
+		/* SHB */
+		buf.putInt(MappedPcapReader.PCAPNG_SHB).putInt(28);
+		buf.putInt(MappedPcapReader.PCAPNG_BYTE_ORDER_MAGIC);
+		buf.putShort((short) 1).putShort((short) 0).putLong(-1L).putInt(28);
+
+		/* IDB 0, default micro second resolution */
+		buf.putInt(MappedPcapReader.PCAPNG_IDB).putInt(20);
+		buf.putShort((short) PcapDLT.EN10MB.value).putShort((short) 0);
+		buf.putInt(65535).putInt(20);
+
+		/* IDB 1, if_tsresol=9 and opt_endofopt */
+		buf.putInt(MappedPcapReader.PCAPNG_IDB).putInt(32);
+		buf.putShort((short) PcapDLT.EN10MB.value).putShort((short) 0);
+		buf.putInt(65535);
+		buf.putShort((short) 9).putShort((short) 1).put((byte) 9).put(
+		    new byte[3]);
+		buf.putInt(0);
+		buf.putInt(32);
+
+		int i = 0;
+		for (Record r : readRecords()) {
+			final int iface = i++ % 2;
+			final int padded = (r.data.length + 3) & ~3;
+			final int len = 32 + padded;
+			final long ts = (iface == 0)
+			    ? r.seconds * 1000000L + r.micros
+			    : r.seconds * 1000000000L + r.micros * 1000L + 999;
+
+			buf.putInt(MappedPcapReader.PCAPNG_EPB).putInt(len).putInt(iface);
+			buf.putInt((int) (ts >>> 32)).putInt((int) ts);
+			buf.putInt(r.data.length).putInt(r.wirelen).put(r.data);
+			buf.put(new byte[padded - r.data.length]);
+			buf.putInt(len);
+		}
+
+		write(buf);
+	}
+
+	/**
+	 * Reads the temporary file and compares every packet with libpcap.
+	 */
+	private void compare(int windowSize) throws IOException {
+		final MappedPcapReader reader = new MappedPcapReader(file, windowSize);
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+		final Ip4 ip1 = new Ip4();
+		final Ip4 ip2 = new Ip4();
+
+		try {
+			int count = reader.loop(0, new PcapPacketHandler<List<PcapPacket>>() {
+				int i = 0;
+
+				public void nextPacket(PcapPacket packet, List<PcapPacket> expected) {
+					PcapPacket e = expected.get(i++);
+					PcapHeader h1 = e.getCaptureHeader();
+					PcapHeader h2 = packet.getCaptureHeader();
+
+					assertEquals(h1.hdr_sec(), h2.hdr_sec());
+					assertEquals(h1.hdr_usec(), h2.hdr_usec());
+					assertEquals(h1.caplen(), h2.caplen());
+					assertEquals(h1.wirelen(), h2.wirelen());
+					assertTrue(Arrays.equals(e.getByteArray(0, e.size()), packet
+					    .getByteArray(0, packet.size())));
+
+					assertEquals(e.hasHeader(ip1), packet.hasHeader(ip2));
+				}
+
+			}, expected);
+
+			assertEquals(expected.size(), count);
+			assertFalse(reader.next(packet));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Test big endian micro second file.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testBigEndianMicros() throws IOException {
+		writeClassic(ByteOrder.BIG_ENDIAN, false);
+		compare(MappedPcapReader.DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Test little endian nano second file, with a window so small that it is
+	 * remapped for nearly every record.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testLittleEndianNanosSmallWindow() throws IOException {
+		writeClassic(ByteOrder.LITTLE_ENDIAN, true);
+
+		MappedPcapReader reader = new MappedPcapReader(file);
+		assertTrue(reader.isNanosecond());
+		assertEquals(ByteOrder.LITTLE_ENDIAN, reader.getByteOrder());
+		assertEquals(PcapDLT.EN10MB.value, reader.getLinktype());
+		reader.close();
+
+		compare(4096);
+	}
+
+	/**
+	 * Test pcapng files in both byte orders.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testPcapNg() throws IOException {
+		writePcapNg(ByteOrder.BIG_ENDIAN);
+		compare(MappedPcapReader.DEFAULT_WINDOW_SIZE);
+
+		writePcapNg(ByteOrder.LITTLE_ENDIAN);
+		MappedPcapReader reader = new MappedPcapReader(file);
+		assertTrue(reader.isPcapNg());
+		assertEquals(PcapDLT.EN10MB.value, reader.getLinktype());
+		reader.close();
+
+		compare(8192);
+	}
+
+	/**
+	 * A packet block whose caplen is so large that adding it to the data offset
+	 * overflows must be rejected as corrupt, not peered.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testPcapNgOversizedCaplen() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(1024);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+
+		buf.putInt(MappedPcapReader.PCAPNG_SHB).putInt(28);
+		buf.putInt(MappedPcapReader.PCAPNG_BYTE_ORDER_MAGIC);
+		buf.putShort((short) 1).putShort((short) 0).putLong(-1L).putInt(28);
+
+		buf.putInt(MappedPcapReader.PCAPNG_IDB).putInt(20);
+		buf.putShort((short) PcapDLT.EN10MB.value).putShort((short) 0);
+		buf.putInt(65535).putInt(20);
+
+		buf.putInt(MappedPcapReader.PCAPNG_EPB).putInt(96).putInt(0);
+		buf.putInt(0).putInt(0);
+		buf.putInt(0x7FFFFFF0).putInt(64).put(new byte[64]);
+		buf.putInt(96);
+		write(buf);
+
+		MappedPcapReader reader = new MappedPcapReader(file);
+		try {
+			reader.next(new PcapPacket(JMemory.POINTER));
+			fail("oversized caplen accepted");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().indexOf("corrupt") != -1);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Timestamp resolutions with more units per second than fit in a long are
+	 * rejected instead of wrapping to 0.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testPcapNgTimestampResolutionTooLarge() throws IOException {
+		final int[] resolutions = {
+		    19,
+		    0x80 | 63
+		};
+
+		for (int resolution : resolutions) {
+			ByteBuffer buf = ByteBuffer.allocate(1024);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+
+			buf.putInt(MappedPcapReader.PCAPNG_SHB).putInt(28);
+			buf.putInt(MappedPcapReader.PCAPNG_BYTE_ORDER_MAGIC);
+			buf.putShort((short) 1).putShort((short) 0).putLong(-1L).putInt(28);
+
+			buf.putInt(MappedPcapReader.PCAPNG_IDB).putInt(32);
+			buf.putShort((short) PcapDLT.EN10MB.value).putShort((short) 0);
+			buf.putInt(65535);
+			buf.putShort((short) 9).putShort((short) 1).put((byte) resolution).put(
+			    new byte[3]);
+			buf.putInt(0);
+			buf.putInt(32);
+			write(buf);
+
+			try {
+				new MappedPcapReader(file).close();
+				fail("resolution 0x" + Integer.toHexString(resolution) + " accepted");
+			} catch (IOException e) {
+				// Expected
+			}
+		}
+	}
+
+	/**
+	 * Record positions can be used to seek back to a record.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testSeek() throws IOException {
+		writeClassic(ByteOrder.BIG_ENDIAN, false);
+
+		MappedPcapReader reader = new MappedPcapReader(file);
+		PcapPacket packet = new PcapPacket(JMemory.POINTER);
+
+		reader.next(packet);
+		long second = reader.position();
+		reader.next(packet);
+		int caplen = packet.getCaptureHeader().caplen();
+		reader.next(packet);
+
+		reader.seek(second);
+		assertTrue(reader.next(packet));
+		assertEquals(caplen, packet.getCaptureHeader().caplen());
+		reader.close();
+	}
+}
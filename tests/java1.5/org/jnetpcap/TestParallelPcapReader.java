@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.ParallelPcapReader.Chunk;
+import org.jnetpcap.ParallelPcapReader.ChunkListener;
+import org.jnetpcap.ParallelPcapReader.ResultFactory;
+import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.PcapPacketHandler;
+import org.jnetpcap.packet.TestUtils;
+import org.jnetpcap.protocol.network.Ip4;
+
+/**
+ * Checks that a file processed in parallel chunks yields the same packets, in
+ * the same order, as a sequential read.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestParallelPcapReader
+    extends TestCase {
+
+	/** Records timestamp and length of every packet, plus an ip4 count. */
+	private final static PcapPacketHandler<List<long[]>> HANDLER =
+	    new PcapPacketHandler<List<long[]>>() {
+		    private final ThreadLocal<Ip4> ip = new ThreadLocal<Ip4>() {
+
+			    @Override
+			    protected Ip4 initialValue() {
+				    return new Ip4();
+			    }
+		    };
+
+		    public void nextPacket(PcapPacket packet, List<long[]> list) {
+			    list.add(new long[] {
+			        packet.getCaptureHeader().timestampInMicros(),
+			        packet.getCaptureHeader().caplen(),
+			        packet.hasHeader(ip.get()) ? 1 : 0
+			    });
+		    }
+	    };
+
+	/** Creates an empty list for each chunk. */
+	private final static ResultFactory<List<long[]>> FACTORY =
+	    new ResultFactory<List<long[]>>() {
+
+		    public List<long[]> newResult(Chunk chunk) {
+			    return new ArrayList<long[]>();
+		    }
+	    };
+
+	/** The file. */
+	private final File file = new File(TestUtils.HTTP);
+
+	/**
+	 * Reads the file sequentially.
+	 * 
+	 * @return records of all packets
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	private List<long[]> sequential() throws IOException {
+		return sequential(file);
+	}
+
+	/**
+	 * Reads a file sequentially.
+	 * 
+	 * @param file
+	 *          the file
+	 * @return records of all packets
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	private List<long[]> sequential(File file) throws IOException {
+		final List<long[]> list = new ArrayList<long[]>();
+		final MappedPcapReader reader = new MappedPcapReader(file);
+		try {
+			reader.loop(0, HANDLER, list);
+		} finally {
+			reader.close();
+		}
+
+		return list;
+	}
+
+	/**
+	 * Asserts that 2 lists of records are the same.
+	 */
+	private static void assertRecords(List<long[]> expected, List<long[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			for (int j = 0; j < 3; j++) {
+				assertEquals("packet #" + i, expected.get(i)[j], actual.get(i)[j]);
+			}
+		}
+	}
+
+	/**
+	 * Chunks must be contiguous and cover the entire file.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testSplit() throws IOException {
+		ParallelPcapReader reader = new ParallelPcapReader(file, 2);
+		List<Chunk> chunks = reader.split(7);
+
+		assertEquals(7, chunks.size());
+		assertEquals(MappedPcapReader.FILE_HEADER_LENGTH, chunks.get(0).getStart());
+		assertEquals(file.length(), chunks.get(chunks.size() - 1).getEnd());
+
+		for (int i = 0; i < chunks.size(); i++) {
+			assertEquals(i, chunks.get(i).getIndex());
+			assertTrue(chunks.get(i).getStart() < chunks.get(i).getEnd());
+			if (i > 0) {
+				assertEquals(chunks.get(i - 1).getEnd(), chunks.get(i).getStart());
+			}
+		}
+	}
+
+	/**
+	 * Results merged in chunk order are identical to a sequential read.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testOrderedMerge() throws IOException {
+		final List<long[]> expected = sequential();
+
+		ParallelPcapReader reader = new ParallelPcapReader(file, 3);
+		reader.setWindowSize(4096);
+		reader.split(10);
+
+		List<long[]> merged = new ArrayList<long[]>();
+		for (List<long[]> result : reader.process(HANDLER, FACTORY)) {
+			merged.addAll(result);
+		}
+
+		assertRecords(expected, merged);
+	}
+
+	/**
+	 * Unordered delivery still delivers every chunk exactly once.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testUnordered() throws IOException {
+		final int total = sequential().size();
+		final ParallelPcapReader reader = new ParallelPcapReader(file, 4);
+		final boolean[] seen = new boolean[reader.getChunks().size()];
+		final int[] count = new int[1];
+
+		reader.process(HANDLER, FACTORY, new ChunkListener<List<long[]>>() {
+
+			public void chunkCompleted(Chunk chunk, List<long[]> result) {
+				assertFalse(seen[chunk.getIndex()]);
+				seen[chunk.getIndex()] = true;
+				count[0] += result.size();
+			}
+
+		}, false);
+
+		assertEquals(total, count[0]);
+		for (boolean b : seen) {
+			assertTrue(b);
+		}
+	}
+
+	/**
+	 * Writes the packets of the test file into a single section pcapng file.
+	 * The second interface is only described half way through the section and
+	 * is used by all the packets that follow it.
+	 * 
+	 * @param out
+	 *          file to write
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	private void writePcapNg(File out) throws IOException {
+		final ByteBuffer buf =
+		    ByteBuffer.allocate((int) file.length() * 2 + 1024);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+
+		/* SHB */
+		buf.putInt(MappedPcapReader.PCAPNG_SHB).putInt(28);
+		buf.putInt(MappedPcapReader.PCAPNG_BYTE_ORDER_MAGIC);
+		buf.putShort((short) 1).putShort((short) 0).putLong(-1L).putInt(28);
+
+		final List<byte[]> data = new ArrayList<byte[]>();
+		final List<long[]> headers = new ArrayList<long[]>();
+		final MappedPcapReader reader = new MappedPcapReader(file);
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+		try {
+			while (reader.next(packet)) {
+				final PcapHeader h = packet.getCaptureHeader();
+				data.add(packet.getByteArray(0, packet.size()));
+				headers.add(new long[] {
+				    h.timestampInMicros(),
+				    h.wirelen()
+				});
+			}
+		} finally {
+			reader.close();
+		}
+
+		for (int i = 0; i < data.size(); i++) {
+			final int iface = (i < data.size() / 2) ? 0 : 1;
+
+			if (i == 0 || i == data.size() / 2) {
+				buf.putInt(MappedPcapReader.PCAPNG_IDB).putInt(20);
+				buf.putShort((short) PcapDLT.EN10MB.value).putShort((short) 0);
+				buf.putInt(65535).putInt(20);
+			}
+
+			final byte[] d = data.get(i);
+			final long ts = headers.get(i)[0];
+			final int padded = (d.length + 3) & ~3;
+			final int len = 32 + padded;
+
+			buf.putInt(MappedPcapReader.PCAPNG_EPB).putInt(len).putInt(iface);
+			buf.putInt((int) (ts >>> 32)).putInt((int) ts);
+			buf.putInt(d.length).putInt((int) headers.get(i)[1]).put(d);
+			buf.put(new byte[padded - d.length]);
+			buf.putInt(len);
+		}
+
+		buf.flip();
+		final FileOutputStream os = new FileOutputStream(out);
+		try {
+			os.getChannel().write(buf);
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Chunks which start after an interface described in the middle of a pcapng
+	 * section must still know about that interface.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testPcapNgInterfaceInMiddleOfSection() throws IOException {
+		final File ng = File.createTempFile("TestParallelPcapReader", ".pcapng");
+		try {
+			writePcapNg(ng);
+
+			final List<long[]> expected = sequential(ng);
+			assertRecords(sequential(), expected);
+
+			ParallelPcapReader reader = new ParallelPcapReader(ng, 3);
+			reader.setWindowSize(4096);
+			assertEquals(8, reader.split(8).size());
+
+			List<long[]> merged = new ArrayList<long[]>();
+			for (List<long[]> result : reader.process(HANDLER, FACTORY)) {
+				merged.addAll(result);
+			}
+
+			assertRecords(expected, merged);
+		} finally {
+			ng.delete();
+		}
+	}
+}
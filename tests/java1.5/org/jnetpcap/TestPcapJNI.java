@@ -33,6 +33,12 @@ import org.jnetpcap.nio.JBuffer;
 import org.jnetpcap.nio.JMemory;
 import org.jnetpcap.nio.JNumber;
 import org.jnetpcap.nio.JNumber.Type;
+import org.jnetpcap.packet.JPacket;
+import org.jnetpcap.packet.JPacketBatch;
+import org.jnetpcap.packet.JPacketBatchHandler;
+import org.jnetpcap.packet.JPacketHandler;
+import org.jnetpcap.packet.JRegistry;
+import org.jnetpcap.packet.PcapPacket;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -859,6 +865,142 @@ public class TestPcapJNI
 		pcap.close();
 	}
 
+	/**
+	 * Counts the packets in the test file using the per packet dispatcher.
+	 * 
+	 * @return number of packets in the file
+	 */
+	private int countPackets() {
+		final Pcap pcap = Pcap.openOffline(fname, errbuf);
+		assertNotNull(errbuf.toString(), pcap);
+
+		final AtomicInteger count = new AtomicInteger();
+		try {
+			assertEquals(OK, pcap.loop(Pcap.LOOP_INFINATE,
+			    new JPacketHandler<String>() {
+
+				    public void nextPacket(JPacket packet, String user) {
+					    count.incrementAndGet();
+				    }
+
+			    }, ""));
+		} finally {
+			pcap.close();
+		}
+
+		return count.get();
+	}
+
+	/**
+	 * Test a new batch is empty and rejects bad capacities.
+	 */
+	public void testJPacketBatchEmpty() {
+		JPacketBatch batch = new JPacketBatch(4, 1024);
+
+		assertEquals(4, batch.capacity());
+		assertEquals(0, batch.size());
+		assertTrue(batch.isEmpty());
+		assertFalse(batch.iterator().hasNext());
+
+		try {
+			batch.getPacket(0);
+			fail("Expected an IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException e) {
+			// OK
+		}
+
+		try {
+			new JPacketBatch(0);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	/**
+	 * Test dispatch of packets in batches, reusing a single batch for every
+	 * call, delivers the same packets as the per packet dispatcher.
+	 */
+	public void testDispatchBatch() {
+		final int expected = countPackets();
+		final JPacketBatch batch = new JPacketBatch(4);
+		final AtomicInteger count = new AtomicInteger();
+		final AtomicInteger batches = new AtomicInteger();
+
+		JPacketBatchHandler<String> handler = new JPacketBatchHandler<String>() {
+
+			public void nextBatch(JPacketBatch b, String user) {
+				assertSame(batch, b);
+				assertTrue(b.size() > 0 && b.size() <= b.capacity());
+
+				for (PcapPacket packet : b) {
+					assertTrue(packet.getCaptureHeader().caplen() > 0);
+					assertTrue(packet.getHeaderCount() > 0);
+					count.incrementAndGet();
+				}
+
+				batches.incrementAndGet();
+			}
+
+		};
+
+		Pcap pcap = Pcap.openOffline(fname, errbuf);
+		assertNotNull(errbuf.toString(), pcap);
+		try {
+			int total = 0;
+			int r;
+			while ((r = pcap.dispatch(10, handler, "", batch)) > 0) {
+				total += r;
+			}
+
+			assertEquals(0, r);
+			assertEquals(expected, total);
+		} finally {
+			pcap.close();
+		}
+
+		assertEquals(expected, count.get());
+		assertTrue(batches.get() >= (expected + 3) / 4);
+	}
+
+	/**
+	 * Test loop of packets in batches delivers every packet in the file.
+	 */
+	public void testLoopBatch() {
+		final int expected = countPackets();
+		final JPacketBatch batch = new JPacketBatch();
+		final AtomicInteger count = new AtomicInteger();
+
+		JPacketBatchHandler<String> handler = new JPacketBatchHandler<String>() {
+
+			public void nextBatch(JPacketBatch b, String user) {
+				assertSame(batch, b);
+				count.addAndGet(b.size());
+			}
+
+		};
+
+		Pcap pcap = Pcap.openOffline(fname, errbuf);
+		assertNotNull(errbuf.toString(), pcap);
+		try {
+			assertEquals(OK, pcap.loop(Pcap.LOOP_INFINATE, handler, "", batch));
+			assertEquals(expected, count.get());
+		} finally {
+			pcap.close();
+		}
+
+		/* Same batch reused on a new handle, stopping after 3 packets */
+		count.set(0);
+		pcap = Pcap.openOffline(fname, errbuf);
+		try {
+			final int id = JRegistry.mapDLTToId(pcap.datalink());
+			assertEquals(OK, pcap.loop(3, id, handler, "", batch));
+			assertEquals(3, count.get());
+		} finally {
+			pcap.close();
+		}
+	}
+
 	/**
 	 * Test open offline and next.
 	 */
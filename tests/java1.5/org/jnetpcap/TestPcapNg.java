@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.PcapPacketHandler;
+import org.jnetpcap.packet.TestUtils;
+import org.jnetpcap.protocol.network.Ip4;
+
+/**
+ * Writes pcapng files with PcapNgWriter and reads them back with PcapNgReader
+ * and MappedPcapReader.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestPcapNg
+    extends TestCase {
+
+	/** Temporary file. */
+	private File file;
+
+	/** Packets as read by libpcap. */
+	private List<PcapPacket> expected;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		expected = new ArrayList<PcapPacket>();
+		final Pcap pcap = TestUtils.openOffline(TestUtils.HTTP);
+		pcap.loop(Pcap.LOOP_INFINITE, new PcapPacketHandler<String>() {
+
+			public void nextPacket(PcapPacket packet, String user) {
+				expected.add(new PcapPacket(packet));
+			}
+
+		}, "");
+		pcap.close();
+
+		file = File.createTempFile("TestPcapNg", ".pcapng");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	/**
+	 * Timestamp of the expected packet in nanos, with extra nanos added to odd
+	 * packets so that the nano second interface is exercised.
+	 */
+	private long timestamp(int i) {
+		final PcapHeader h = expected.get(i).getCaptureHeader();
+		return h.hdr_sec() * 1000000000L + h.hdr_usec() * 1000L
+		    + (((i & 1) == 1) ? 789 : 0);
+	}
+
+	/**
+	 * Writes expected packets alternating between a micro and a nano second
+	 * interface, with a comment on every third packet and statistics at the
+	 * end.
+	 */
+	private void write() throws IOException {
+		final PcapNgWriter writer = new PcapNgWriter(new FileOutputStream(
+		    file).getChannel(), 4096);
+
+		final PcapNgInterface eth0 = new PcapNgInterface(PcapDLT.EN10MB, 65535);
+		final PcapNgInterface eth1 = new PcapNgInterface(PcapDLT.EN10MB, 0);
+		eth1.setName("eth1");
+		eth1.setDescription("nano second interface");
+		eth1.setResolution(PcapNgInterface.RESOLUTION_NANOS);
+
+		assertEquals(0, writer.addInterface(eth0));
+		assertEquals(1, writer.addInterface(eth1));
+
+		for (int i = 0; i < expected.size(); i++) {
+			final PcapPacket p = expected.get(i);
+			final String comment = (i % 3 == 0) ? "packet #" + i : null;
+
+			if ((i & 1) == 0) {
+				writer.writePacket(0, p, comment);
+			} else {
+				writer.writePacket(1, timestamp(i), p.getCaptureHeader().wirelen(),
+				    p, comment);
+			}
+		}
+
+		writer.writeStatistics(1, timestamp(expected.size() - 1),
+		    expected.size() / 2, 7);
+		writer.close();
+	}
+
+	/**
+	 * Packets, timestamps, interfaces and comments survive a round trip, using
+	 * a read buffer which has to grow.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testRoundTrip() throws IOException {
+		write();
+
+		final PcapNgReader reader = new PcapNgReader(new FileInputStream(
+		    file).getChannel(), 64);
+		final Ip4 ip1 = new Ip4();
+		final Ip4 ip2 = new Ip4();
+
+		try {
+			int count = reader.loop(0, new PcapPacketHandler<List<PcapPacket>>() {
+				int i = 0;
+
+				public void nextPacket(PcapPacket packet, List<PcapPacket> expected) {
+					PcapPacket e = expected.get(i);
+					PcapHeader h1 = e.getCaptureHeader();
+					PcapHeader h2 = packet.getCaptureHeader();
+
+					assertEquals(h1.hdr_sec(), h2.hdr_sec());
+					assertEquals(h1.hdr_usec(), h2.hdr_usec());
+					assertEquals(h1.caplen(), h2.caplen());
+					assertEquals(h1.wirelen(), h2.wirelen());
+					assertTrue(Arrays.equals(e.getByteArray(0, e.size()), packet
+					    .getByteArray(0, packet.size())));
+					assertEquals(e.hasHeader(ip1), packet.hasHeader(ip2));
+
+					assertEquals(timestamp(i), reader.getTimestampInNanos());
+					assertEquals(i & 1, reader.getInterface().getIndex());
+					assertEquals((i % 3 == 0) ? "packet #" + i : null, reader
+					    .getComment());
+					i++;
+				}
+
+			}, expected);
+
+			assertEquals(expected.size(), count);
+			assertFalse(reader.next(new PcapPacket(JMemory.POINTER)));
+
+			PcapNgInterface eth1 = reader.getInterfaces().get(1);
+			assertEquals("eth1", eth1.getName());
+			assertEquals("nano second interface", eth1.getDescription());
+			assertEquals(PcapNgInterface.RESOLUTION_NANOS, eth1.getResolution());
+			assertEquals(expected.size() / 2, eth1.getReceived());
+			assertEquals(7, eth1.getDropped());
+			assertEquals(timestamp(expected.size() - 1), eth1
+			    .getStatisticsTimestamp());
+			assertEquals(PcapNgInterface.UNKNOWN, reader.getInterfaces().get(0)
+			    .getReceived());
+			assertEquals(ByteOrder.nativeOrder(), reader.getByteOrder());
+			assertEquals(file.length(), reader.position());
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Files written are readable by the mapped reader.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testMappedReader() throws IOException {
+		write();
+
+		final MappedPcapReader reader = new MappedPcapReader(file);
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+
+		try {
+			assertTrue(reader.isPcapNg());
+
+			int count = 0;
+			while (reader.next(packet)) {
+				assertEquals(expected.get(count).getCaptureHeader().caplen(), packet
+				    .getCaptureHeader().caplen());
+				assertEquals(count & 1, reader.getInterfaceId());
+				count++;
+			}
+
+			assertEquals(expected.size(), count);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Simple packet blocks are truncated to the snaplen of interface 0.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testSimplePackets() throws IOException {
+		final PcapNgWriter writer = new PcapNgWriter(file);
+		writer.addInterface(new PcapNgInterface(PcapDLT.EN10MB, 100));
+
+		for (PcapPacket p : expected) {
+			writer.writeSimplePacket(p.getCaptureHeader().wirelen(), p);
+		}
+		writer.close();
+
+		final PcapNgReader reader = new PcapNgReader(file);
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+
+		try {
+			for (PcapPacket e : expected) {
+				assertTrue(reader.next(packet));
+
+				final int caplen = Math.min(100, e.size());
+				assertEquals(caplen, packet.size());
+				assertEquals(e.getCaptureHeader().wirelen(), reader
+				    .getCaptureHeader().wirelen());
+				assertTrue(Arrays.equals(e.getByteArray(0, caplen), packet
+				    .getByteArray(0, caplen)));
+				assertEquals(0, reader.getTimestampInNanos());
+			}
+
+			assertFalse(reader.next(packet));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Builds a little endian stream with a section header and one interface,
+	 * followed by the supplied block.
+	 * 
+	 * @param block
+	 *          block to append
+	 * @return reader of the stream
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	private PcapNgReader corrupt(ByteBuffer block) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(1024);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+
+		buf.putInt(PcapNgReader.BLOCK_SHB).putInt(28);
+		buf.putInt(PcapNgReader.BYTE_ORDER_MAGIC);
+		buf.putShort((short) 1).putShort((short) 0).putLong(-1L).putInt(28);
+
+		buf.putInt(PcapNgReader.BLOCK_IDB).putInt(20);
+		buf.putShort((short) PcapDLT.EN10MB.value).putShort((short) 0);
+		buf.putInt(65535).putInt(20);
+
+		block.flip();
+		buf.put(block);
+		buf.flip();
+
+		final byte[] b = new byte[buf.remaining()];
+		buf.get(b);
+
+		return new PcapNgReader(Channels.newChannel(new ByteArrayInputStream(b)));
+	}
+
+	/**
+	 * Asserts that reading the next packet fails with a corrupt block error.
+	 */
+	private static void assertCorrupt(PcapNgReader reader) throws IOException {
+		try {
+			reader.next(new PcapPacket(JMemory.POINTER));
+			fail("corrupt block accepted");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().indexOf("corrupt") != -1);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * A packet block whose caplen overflows when added to the data offset is
+	 * rejected.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testOversizedCaplen() throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(96).order(ByteOrder.LITTLE_ENDIAN);
+		block.putInt(PcapNgReader.BLOCK_EPB).putInt(96).putInt(0);
+		block.putInt(0).putInt(0);
+		block.putInt(0x7FFFFFF0).putInt(64).put(new byte[64]);
+		block.putInt(96);
+
+		assertCorrupt(corrupt(block));
+	}
+
+	/**
+	 * A garbage block length is rejected as corrupt, before any buffer is
+	 * allocated to hold it.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testHugeBlockLength() throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		block.putInt(PcapNgReader.BLOCK_EPB).putInt(0x7FFFFFF0).putInt(0);
+
+		assertCorrupt(corrupt(block));
+	}
+
+	/**
+	 * Option values which do not fit in the 16-bit option length are rejected,
+	 * instead of being written with a truncated length.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testOptionTooLong() throws IOException {
+		final PcapNgWriter writer = new PcapNgWriter(new FileOutputStream(
+		    file).getChannel(), 4096);
+
+		final char[] c = new char[PcapNgWriter.MAX_OPTION_LENGTH + 1];
+		Arrays.fill(c, 'x');
+
+		try {
+			final PcapNgInterface eth0 = new PcapNgInterface(PcapDLT.EN10MB, 0);
+			eth0.setDescription(new String(c));
+			writer.addInterface(eth0);
+			fail("long description accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+
+		final int id = writer.addInterface(new PcapNgInterface(PcapDLT.EN10MB, 0));
+		try {
+			writer.writePacket(id, expected.get(0), new String(c));
+			fail("long comment accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+
+		writer.writePacket(id, expected.get(0), new String(c, 0,
+		    PcapNgWriter.MAX_OPTION_LENGTH));
+		writer.close();
+
+		final PcapNgReader reader = new PcapNgReader(file);
+		try {
+			assertTrue(reader.next(new PcapPacket(JMemory.POINTER)));
+			assertEquals(PcapNgWriter.MAX_OPTION_LENGTH, reader.getComment()
+			    .length());
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Anything other than a pcapng stream is rejected.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testNotPcapNg() throws IOException {
+		try {
+			new PcapNgReader(new File(TestUtils.HTTP));
+			fail("classic pcap file accepted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.PcapPacketHandler;
+import org.jnetpcap.packet.TestUtils;
+
+/**
+ * Measures PcapNgWriter and PcapNgReader throughput against raw channel IO of
+ * the same number of bytes and against libpcap's dumper. Not part of the
+ * regular build tests, run manually to see the numbers.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestPcapNgPerformance
+    extends TestCase {
+
+	/** Number of packets written per run. */
+	private final static int COUNT = 1000000;
+
+	/** Temporary file. */
+	private File file;
+
+	/** Packets to write, repeated until COUNT is reached. */
+	private List<PcapPacket> packets;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		packets = new ArrayList<PcapPacket>();
+		final Pcap pcap = TestUtils.openOffline(TestUtils.HTTP);
+		pcap.loop(Pcap.LOOP_INFINITE, new PcapPacketHandler<String>() {
+
+			public void nextPacket(PcapPacket packet, String user) {
+				packets.add(new PcapPacket(packet));
+			}
+
+		}, "");
+		pcap.close();
+
+		file = File.createTempFile("TestPcapNgPerformance", ".pcapng");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	/**
+	 * Prints a result line.
+	 */
+	private static void report(String name, long bytes, long nanos) {
+		System.out.printf("%-24s %8.1f MB/s %10.0f pps%n", name, bytes * 1000.0
+		    / nanos, COUNT * 1000000000.0 / nanos);
+	}
+
+	/**
+	 * Write and read throughput compared to the disk.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testThroughput() throws IOException {
+
+		/* pcapng writer */
+		long ts = System.nanoTime();
+		final PcapNgWriter writer = new PcapNgWriter(file);
+		final int id =
+		    writer.addInterface(new PcapNgInterface(PcapDLT.EN10MB, 65535));
+		for (int i = 0; i < COUNT; i++) {
+			writer.writePacket(id, packets.get(i % packets.size()));
+		}
+		writer.close();
+		final long written = file.length();
+		report("PcapNgWriter", written, System.nanoTime() - ts);
+
+		/* libpcap dumper, classic format */
+		final File classic = File.createTempFile("TestPcapNgPerformance", ".pcap");
+		try {
+			ts = System.nanoTime();
+			final Pcap dead = Pcap.openDead(PcapDLT.EN10MB.value, 65535);
+			final PcapDumper dumper = dead.dumpOpen(classic.getPath());
+			for (int i = 0; i < COUNT; i++) {
+				dumper.dump(packets.get(i % packets.size()));
+			}
+			dumper.close();
+			dead.close();
+			report("PcapDumper", classic.length(), System.nanoTime() - ts);
+		} finally {
+			classic.delete();
+		}
+
+		/* raw channel write of the same number of bytes */
+		final File raw = File.createTempFile("TestPcapNgPerformance", ".raw");
+		try {
+			final ByteBuffer b =
+			    ByteBuffer.allocateDirect(PcapNgWriter.DEFAULT_BUFFER_SIZE);
+			ts = System.nanoTime();
+			final FileChannel out = new FileOutputStream(raw).getChannel();
+			for (long left = written; left > 0; left -= b.capacity()) {
+				b.clear();
+				b.limit((int) Math.min(left, b.capacity()));
+				while (b.hasRemaining()) {
+					out.write(b);
+				}
+			}
+			out.close();
+			report("FileChannel write", written, System.nanoTime() - ts);
+		} finally {
+			raw.delete();
+		}
+
+		/* pcapng reader, peer only */
+		ts = System.nanoTime();
+		final PcapNgReader reader = new PcapNgReader(file);
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+		int count = 0;
+		while (reader.next(packet)) {
+			count++;
+		}
+		reader.close();
+		report("PcapNgReader", written, System.nanoTime() - ts);
+		assertEquals(COUNT, count);
+
+		/* raw channel read */
+		ts = System.nanoTime();
+		final FileChannel in = new FileInputStream(file).getChannel();
+		final ByteBuffer b =
+		    ByteBuffer.allocateDirect(PcapNgReader.DEFAULT_BUFFER_SIZE);
+		while (in.read(b) != -1) {
+			b.clear();
+		}
+		in.close();
+		report("FileChannel read", written, System.nanoTime() - ts);
+	}
+}
@@ -21,9 +21,19 @@ package org.jnetpcap;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
+import org.jnetpcap.packet.JFlowKey;
+import org.jnetpcap.packet.JMemoryPacket;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.PcapPacketHandler;
+import org.jnetpcap.packet.TestUtils;
+import org.jnetpcap.protocol.JProtocol;
+
 // TODO: Auto-generated Javadoc
 /**
  * @author Mark Bednarczyk
@@ -72,6 +82,96 @@ public class TestPcapUtils
 		}
 	}
 	
+	/**
+	 * A flow key and the key of the reply, with addresses and ports swapped,
+	 * must produce the same symmetric hash. Fan-out relies on this to deliver
+	 * both directions of a flow to the same worker.
+	 */
+	public void testSymmetricHashOfReversedKey() {
+		final JMemoryPacket forward = new JMemoryPacket(JProtocol.ETHERNET_ID,
+		    "00107b8124450007e91478a20800450000280001000040060000c0a8010a"
+		        + "0a0000019c40005000000001000000005010200000000000");
+		final JMemoryPacket reverse = new JMemoryPacket(JProtocol.ETHERNET_ID,
+		    "0007e91478a200107b81244508004500002800010000400600000a000001"
+		        + "c0a8010a00509c4000000001000000005010200000000000");
+		final JMemoryPacket other = new JMemoryPacket(JProtocol.ETHERNET_ID,
+		    "00107b8124450007e91478a20800450000280001000040060000c0a8010a"
+		        + "0a0000019c41005000000001000000005010200000000000");
+
+		assertTrue(forward.hasHeader(JProtocol.TCP_ID));
+		assertTrue(reverse.hasHeader(JProtocol.TCP_ID));
+
+		final JFlowKey key = forward.getFlowKey();
+		final JFlowKey reversed = reverse.getFlowKey();
+
+		assertEquals(-1, key.match(reversed));
+		assertEquals(key.symmetricHash(), reversed.symmetricHash());
+		assertEquals(key.symmetricHash(), forward.getFlowKey().symmetricHash());
+
+		assertTrue(key.symmetricHash() != other.getFlowKey().symmetricHash());
+	}
+
+	/**
+	 * Fans packets from a file out to several workers and checks that all the
+	 * packets of a flow, in both directions, were handled by the same worker
+	 * thread and in capture order.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testFanoutKeepsFlowsOnOneWorker() throws InterruptedException {
+		final Pcap pcap = TestUtils.openOffline(TestUtils.HTTP);
+		final Map<Integer, Thread> owners = new ConcurrentHashMap<Integer, Thread>();
+		final Map<Integer, Long> last = new ConcurrentHashMap<Integer, Long>();
+		final AtomicInteger count = new AtomicInteger();
+		final List<String> errors = new ArrayList<String>();
+
+		PcapFanoutTask<String> task =
+		    PcapUtils.fanoutInBackground(pcap, 0, 4,
+		        new PcapPacketHandler<String>() {
+
+			        public void nextPacket(PcapPacket packet, String user) {
+				        final Integer hash = packet.getFlowKey().symmetricHash();
+				        final long ts = packet.getCaptureHeader().timestampInNanos();
+
+				        final Thread owner = owners.get(hash);
+				        if (owner == null) {
+					        owners.put(hash, Thread.currentThread());
+				        } else if (owner != Thread.currentThread()) {
+					        synchronized (errors) {
+						        errors.add("flow on 2 workers " + hash);
+					        }
+				        }
+
+				        final Long previous = last.put(hash, ts);
+				        if (previous != null && previous > ts) {
+					        synchronized (errors) {
+						        errors.add("flow out of order " + hash);
+					        }
+				        }
+
+				        count.incrementAndGet();
+			        }
+
+		        }, "fanout");
+
+		task.start();
+		while (task.isAlive()) {
+			Thread.sleep(10);
+		}
+		pcap.close();
+
+		assertTrue(errors.toString(), errors.isEmpty());
+
+		long total = 0;
+		for (int i = 0; i < task.getWorkerCount(); i++) {
+			total += task.getPacketCount(i);
+		}
+
+		assertTrue(count.get() > 0);
+		assertEquals(count.get(), total);
+	}
+
 	/**
 	 * As string.
 	 * 
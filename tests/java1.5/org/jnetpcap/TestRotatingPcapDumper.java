@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.PcapPacketHandler;
+import org.jnetpcap.packet.TestUtils;
+
+/**
+ * Rotates files by packets, bytes and time and checks the sidecar indexes.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestRotatingPcapDumper
+    extends TestCase {
+
+	/** Temporary directory. */
+	private File directory;
+
+	/** Packets as read by libpcap. */
+	private List<PcapPacket> expected;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		expected = read(new File(TestUtils.HTTP));
+
+		directory = File.createTempFile("TestRotatingPcapDumper", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		for (File f : directory.listFiles()) {
+			f.delete();
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Reads all packets from a file using libpcap.
+	 */
+	private static List<PcapPacket> read(File file) {
+		final List<PcapPacket> list = new ArrayList<PcapPacket>();
+		final Pcap pcap = TestUtils.openOffline(file.getPath());
+		pcap.loop(Pcap.LOOP_INFINITE, new PcapPacketHandler<String>() {
+
+			public void nextPacket(PcapPacket packet, String user) {
+				list.add(new PcapPacket(packet));
+			}
+
+		}, "");
+		pcap.close();
+
+		return list;
+	}
+
+	/**
+	 * Dumps all expected packets.
+	 */
+	private void dumpAll(RotatingPcapDumper dumper) throws IOException {
+		for (PcapPacket packet : expected) {
+			dumper.dump(packet);
+		}
+		dumper.close();
+	}
+
+	/**
+	 * Rotation by packet count keeps only the last files.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testMaxPacketsAndFiles() throws IOException {
+		final RotatingPcapDumper dumper =
+		    new RotatingPcapDumper(directory, "test", PcapDLT.EN10MB.value, 65535);
+		dumper.setMaxPackets(100);
+		dumper.setMaxFiles(3);
+		dumpAll(dumper);
+
+		final List<File> files = dumper.getFiles();
+		final int total = (expected.size() + 99) / 100;
+		assertEquals(Math.min(3, total), files.size());
+		assertEquals(Math.min(3, total), directory.listFiles().length);
+		assertEquals(String.format("test-%06d.pcap", total - 1), files.get(
+		    files.size() - 1).getName());
+
+		/* The files kept hold the last packets, in order */
+		int i = (total - files.size()) * 100;
+		for (File f : files) {
+			for (PcapPacket p : read(f)) {
+				assertEquals(expected.get(i++).getCaptureHeader().timestampInMicros(),
+				    p.getCaptureHeader().timestampInMicros());
+			}
+		}
+		assertEquals(expected.size(), i);
+	}
+
+	/**
+	 * Rotation by size never exceeds the limit and loses no packets.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testMaxBytes() throws IOException {
+		final RotatingPcapDumper dumper =
+		    new RotatingPcapDumper(directory, "test", PcapDLT.EN10MB.value, 65535);
+		dumper.setMaxBytes(16 * 1024);
+		dumpAll(dumper);
+
+		int count = 0;
+		for (File f : dumper.getFiles()) {
+			assertTrue(f.getName(), f.length() <= 16 * 1024);
+			count += read(f).size();
+		}
+
+		assertEquals(expected.size(), count);
+	}
+
+	/**
+	 * Rotation by time keeps each file within the time span.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testMaxSeconds() throws IOException {
+		final RotatingPcapDumper dumper =
+		    new RotatingPcapDumper(directory, "test", PcapDLT.EN10MB.value, 65535);
+		dumper.setMaxSeconds(1);
+		dumpAll(dumper);
+
+		int count = 0;
+		for (File f : dumper.getFiles()) {
+			final List<PcapPacket> packets = read(f);
+			final long first = packets.get(0).getCaptureHeader().hdr_sec();
+			for (PcapPacket p : packets) {
+				assertTrue(p.getCaptureHeader().hdr_sec() - first < 1);
+			}
+			count += packets.size();
+		}
+
+		assertEquals(expected.size(), count);
+	}
+
+	/**
+	 * Index entries point at the records they describe and carry flow hashes.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testIndex() throws IOException {
+		final RotatingPcapDumper dumper =
+		    new RotatingPcapDumper(directory, "test", PcapDLT.EN10MB.value, 65535);
+		dumper.setMaxPackets(100);
+		dumper.setIndexInterval(10);
+
+		dumpAll(dumper); // Packets copied from libpcap are already scanned
+
+		final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+		int hashes = 0;
+
+		for (File f : dumper.getFiles()) {
+			final PcapIndex index = PcapIndex.read(PcapIndex.getIndexFile(f));
+			assertEquals(f.length(), index.getFileSize());
+			assertEquals((read(f).size() + 9) / 10, index.size());
+
+			final MappedPcapReader reader = new MappedPcapReader(f);
+			try {
+				for (int i = 0; i < index.size(); i++) {
+					reader.seek(index.getOffset(i));
+					assertTrue(reader.next(packet));
+					assertEquals(index.getTimestamp(i), packet.getCaptureHeader()
+					    .timestampInMicros());
+
+					hashes += (index.getFlowHash(i) != 0) ? 1 : 0;
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		assertTrue(hashes > 0);
+	}
+
+	/**
+	 * Changing the index interval, even to 0, only takes effect with the next
+	 * file and leaves the index of the current file intact.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testIndexIntervalChangedMidFile() throws IOException {
+		final RotatingPcapDumper dumper =
+		    new RotatingPcapDumper(directory, "test", PcapDLT.EN10MB.value, 65535);
+		dumper.setMaxPackets(100);
+		dumper.setIndexInterval(10);
+
+		for (int i = 0; i < expected.size(); i++) {
+			if (i == 50) {
+				dumper.setIndexInterval(0);
+			}
+			dumper.dump(expected.get(i));
+		}
+		dumper.close();
+
+		final List<File> files = dumper.getFiles();
+		assertTrue(files.size() > 1);
+
+		final PcapIndex index =
+		    PcapIndex.read(PcapIndex.getIndexFile(files.get(0)));
+		assertEquals(10, index.size());
+
+		for (File f : files.subList(1, files.size())) {
+			assertFalse(PcapIndex.getIndexFile(f).exists());
+		}
+	}
+}
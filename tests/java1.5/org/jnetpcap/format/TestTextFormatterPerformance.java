@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.format;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.packet.PcapPacketHandler;
+import org.jnetpcap.packet.TestUtils;
+import org.jnetpcap.packet.format.TextFormatter;
+import org.jnetpcap.packet.structure.AnnotatedFieldAccessor;
+import org.jnetpcap.protocol.network.Ip4;
+
+/**
+ * Measures TextFormatter throughput and the cost of a single field access
+ * through a compiled accessor versus <code>Method.invoke</code>. Not part of
+ * the regular build tests, run manually to see the numbers. To compare
+ * TextFormatter before and after, run once as is and once with
+ * <code>-Dorg.jnetpcap.structure.compile=false</code>, which makes every
+ * header definition fall back on reflection.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestTextFormatterPerformance
+    extends TestCase {
+
+	/** Number of packets formatted per run. */
+	private final static int COUNT = 100000;
+
+	/** Number of single field accesses per run. */
+	private final static int CALLS = 10000000;
+
+	/** Packets to format, repeated until COUNT is reached. */
+	private List<PcapPacket> packets;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		packets = new ArrayList<PcapPacket>();
+		final Pcap pcap = TestUtils.openOffline(TestUtils.HTTP);
+		pcap.loop(Pcap.LOOP_INFINITE, new PcapPacketHandler<String>() {
+
+			public void nextPacket(PcapPacket packet, String user) {
+				packets.add(new PcapPacket(packet));
+			}
+
+		}, "");
+		pcap.close();
+	}
+
+	/**
+	 * Full TextFormatter output of every header and field.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testTextFormatter() throws IOException {
+		final TextFormatter out = new TextFormatter(TestUtils.DEV_NULL);
+
+		/* warm up */
+		for (PcapPacket packet : packets) {
+			out.format(packet);
+		}
+
+		final long ts = System.nanoTime();
+		for (int i = 0; i < COUNT; i++) {
+			out.format(packets.get(i % packets.size()));
+		}
+		final long nanos = System.nanoTime() - ts;
+
+		System.out.printf("TextFormatter %s=%s %10.0f pps%n",
+		    AnnotatedFieldAccessor.COMPILE_PROPERTY, System.getProperty(
+		        AnnotatedFieldAccessor.COMPILE_PROPERTY, "true"), COUNT
+		        * 1000000000.0 / nanos);
+	}
+
+	/**
+	 * A single object field value through reflection and compiled accessor.
+	 * 
+	 * @throws Exception
+	 *           the exception
+	 */
+	public void testFieldAccess() throws Exception {
+		final Ip4 ip = new Ip4();
+		assertTrue(packets.get(5).hasHeader(ip));
+
+		final Method method = Ip4.class.getMethod("ttl");
+		final AnnotatedFieldAccessor accessor =
+		    AnnotatedFieldAccessor.compile(method, Object.class);
+		assertNotNull(accessor);
+
+		long sum = 0;
+
+		long ts = System.nanoTime();
+		for (int i = 0; i < CALLS; i++) {
+			sum += (Integer) method.invoke(ip);
+		}
+		final long reflect = System.nanoTime() - ts;
+
+		ts = System.nanoTime();
+		for (int i = 0; i < CALLS; i++) {
+			sum += (Integer) accessor.objectValue(ip, "ttl");
+		}
+		final long compiled = System.nanoTime() - ts;
+
+		System.out.printf("Method.invoke %6.1f ns/call%n", (double) reflect
+		    / CALLS);
+		System.out.printf("accessor      %6.1f ns/call (sum=%d)%n",
+		    (double) compiled / CALLS, sum);
+	}
+}
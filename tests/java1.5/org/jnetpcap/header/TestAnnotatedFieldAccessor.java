@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.header;
+
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.packet.JHeader;
+import org.jnetpcap.packet.JPacket;
+import org.jnetpcap.packet.TestUtils;
+import org.jnetpcap.packet.structure.AnnotatedFieldAccessor;
+import org.jnetpcap.protocol.JProtocol;
+import org.jnetpcap.protocol.network.Ip4;
+
+/**
+ * Compiled accessors must return the same values as calling on the header
+ * methods directly, and refuse to compile methods they can not call.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestAnnotatedFieldAccessor
+    extends TestCase {
+
+	/**
+	 * A header with a mapped method, one that takes the field name. It is never
+	 * registered, so it does not use the annotated definition constructor.
+	 */
+	public static class MappedHeader
+	    extends JHeader {
+
+		/**
+		 * Instantiates a new mapped header.
+		 */
+		public MappedHeader() {
+			super(JProtocol.PAYLOAD_ID, "mapped");
+		}
+
+		/**
+		 * Length of the named field, the length of the name for the test.
+		 * 
+		 * @param name
+		 *          field name
+		 * @return the int
+		 */
+		public int fieldLength(String name) {
+			return name.length();
+		}
+
+		/**
+		 * A static method which can not be compiled.
+		 * 
+		 * @return the int
+		 */
+		public static int staticLength() {
+			return 0;
+		}
+	}
+
+	/**
+	 * A non public header class which can not be compiled.
+	 */
+	static class HiddenHeader
+	    extends JHeader {
+
+		/**
+		 * Instantiates a new hidden header.
+		 */
+		public HiddenHeader() {
+			super(JProtocol.PAYLOAD_ID, "hidden");
+		}
+
+		/**
+		 * Value.
+		 * 
+		 * @return the int
+		 */
+		public int value() {
+			return 0;
+		}
+	}
+
+	/** Ip4 header peered with a packet. */
+	private Ip4 ip;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		final JPacket packet = TestUtils.getPcapPacket(TestUtils.HTTP, 5);
+
+		ip = new Ip4();
+		assertTrue(packet.hasHeader(ip));
+	}
+
+	/**
+	 * Int accessor calls on the header.
+	 * 
+	 * @throws Exception
+	 *           the exception
+	 */
+	public void testIntAccessor() throws Exception {
+		final AnnotatedFieldAccessor a =
+		    AnnotatedFieldAccessor.compile(Ip4.class.getMethod("hlen"), int.class);
+
+		assertNotNull(a);
+		assertEquals(ip.hlen(), a.intValue(ip, "hlen"));
+	}
+
+	/**
+	 * Object accessor boxes primitive return values.
+	 * 
+	 * @throws Exception
+	 *           the exception
+	 */
+	public void testObjectAccessorBoxes() throws Exception {
+		final AnnotatedFieldAccessor a =
+		    AnnotatedFieldAccessor.compile(Ip4.class.getMethod("ttl"),
+		        Object.class);
+
+		assertNotNull(a);
+		assertEquals(Integer.valueOf(ip.ttl()), a.objectValue(ip, "ttl"));
+	}
+
+	/**
+	 * String accessor calls on the header.
+	 * 
+	 * @throws Exception
+	 *           the exception
+	 */
+	public void testStringAccessor() throws Exception {
+		final AnnotatedFieldAccessor a =
+		    AnnotatedFieldAccessor.compile(
+		        Ip4.class.getMethod("checksumDescription"), String.class);
+
+		assertNotNull(a);
+		assertEquals(ip.checksumDescription(), a.stringValue(ip, "checksum"));
+	}
+
+	/**
+	 * Mapped method receives the field name.
+	 * 
+	 * @throws Exception
+	 *           the exception
+	 */
+	public void testMappedAccessor() throws Exception {
+		final Method m = MappedHeader.class.getMethod("fieldLength", String.class);
+		final AnnotatedFieldAccessor a =
+		    AnnotatedFieldAccessor.compile(m, int.class);
+
+		assertNotNull(a);
+		assertEquals(4, a.intValue(new MappedHeader(), "abcd"));
+	}
+
+	/**
+	 * Methods the accessor can not call, or return types that do not match, are
+	 * left to reflection.
+	 * 
+	 * @throws Exception
+	 *           the exception
+	 */
+	public void testNotCompiled() throws Exception {
+		assertNull(AnnotatedFieldAccessor.compile(MappedHeader.class
+		    .getMethod("staticLength"), int.class));
+
+		assertNull(AnnotatedFieldAccessor.compile(HiddenHeader.class
+		    .getMethod("value"), int.class));
+
+		assertNull(AnnotatedFieldAccessor.compile(Ip4.class.getMethod("hlen"),
+		    long.class));
+	}
+
+	/**
+	 * Accessor of a different type throws.
+	 * 
+	 * @throws Exception
+	 *           the exception
+	 */
+	public void testWrongValueMethod() throws Exception {
+		final AnnotatedFieldAccessor a =
+		    AnnotatedFieldAccessor.compile(Ip4.class.getMethod("hlen"), int.class);
+
+		try {
+			a.longValue(ip, "hlen");
+			fail("expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+}
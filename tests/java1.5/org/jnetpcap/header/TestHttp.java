@@ -20,6 +20,8 @@ package org.jnetpcap.header;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 
 import junit.framework.TestCase;
@@ -79,6 +81,47 @@ public class TestHttp
 		assertTrue(JRegistry.lookupId(Http.class) > 12);
 	}
 
+	/**
+	 * Compares fields indexed directly in the header buffer against values
+	 * split out of the raw header string.
+	 */
+	public void testFieldValues() {
+		int count = 0;
+		for (PcapPacket packet : TestUtils.getIterable(TestUtils.HTTP)) {
+			if (packet.hasHeader(http) == false) {
+				continue;
+			}
+
+			final String[] lines = http.header().split("\r\n|\n");
+			final Map<String, String> expected = new HashMap<String, String>();
+			for (int i = 1; i < lines.length; i++) {
+				final int colon = lines[i].indexOf(':');
+				if (colon > 0 && lines[i].charAt(0) != ' '
+						&& lines[i].charAt(0) != '\t') {
+					expected.put(lines[i].substring(0, colon).trim().toUpperCase(),
+							lines[i].substring(colon + 1).trim());
+				}
+			}
+
+			for (Map.Entry<String, String> e : expected.entrySet()) {
+				assertTrue(e.getKey(), http.hasAVP(e.getKey()));
+				assertEquals(e.getKey(), e.getValue(), http.getAVP(e.getKey()));
+			}
+
+			final String first = lines[0].split(" ")[0];
+			if (http.isResponse()) {
+				assertEquals(first, http.fieldValue(Http.Response.RequestVersion));
+			} else {
+				assertEquals(first, http.fieldValue(Http.Request.RequestMethod));
+			}
+
+			assertEquals(expected.size() + 3, http.fieldArray().length);
+			count++;
+		}
+
+		assertTrue("no http headers found", count > 0);
+	}
+
 	/**
 	 * Test http formatting with resolve address disabled.
 	 * 
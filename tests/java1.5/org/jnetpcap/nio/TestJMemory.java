@@ -26,7 +26,9 @@ import junit.framework.TestCase;
 
 import org.jnetpcap.nio.JNumber.Type;
 import org.jnetpcap.packet.JMemoryPacket;
+import org.jnetpcap.packet.JPacket;
 import org.jnetpcap.packet.PeeringException;
+import org.jnetpcap.protocol.JProtocol;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -167,4 +169,103 @@ public class TestJMemory extends TestCase {
 
 	}
 
+	/**
+	 * Releasing every allocation out of a retired block puts the block on the
+	 * free list, and the next block is served from the free list.
+	 */
+	public void testPoolRecyclesReleasedBlock() {
+		JMemoryPool pool = new JMemoryPool(64);
+
+		JBuffer b1 = new JBuffer(JMemory.POINTER);
+		JBuffer b2 = new JBuffer(JMemory.POINTER);
+		pool.allocate(40, b1);
+		JMemoryPool.Block first = pool.getBlock(0);
+
+		pool.allocate(40, b2); // Doesn't fit, retires first block
+		assertNotSame(first, pool.getBlock(0));
+		assertEquals(0, pool.getRecycleCount());
+
+		b1.release();
+		assertFalse(b1.isInitialized());
+		assertEquals(1, pool.getRecycleCount());
+		assertEquals(1, pool.getRecycledBlocks());
+
+		JBuffer b3 = new JBuffer(JMemory.POINTER);
+		pool.allocate(40, b3); // Doesn't fit, reuses first block
+		assertSame(first, pool.getBlock(0));
+		assertEquals(1, pool.getReuseCount());
+		assertEquals(3, pool.getBlockCount());
+	}
+
+	/**
+	 * Memory merely peered with a pool allocation does not return it to the
+	 * pool.
+	 */
+	public void testReleaseOfPeerDoesNotFreePoolMemory() {
+		JMemoryPool pool = new JMemoryPool(64);
+
+		JBuffer b1 = new JBuffer(JMemory.POINTER);
+		JBuffer b2 = new JBuffer(JMemory.POINTER);
+		pool.allocate(40, b1);
+		b2.peer(b1);
+
+		pool.allocate(40, new JBuffer(JMemory.POINTER));
+		b2.release();
+
+		assertTrue(b1.isInitialized());
+		assertEquals(0, pool.getRecycleCount());
+	}
+
+	/**
+	 * Allocating again into the same memory returns its previous allocation
+	 * to the pool, so that retired blocks are recycled.
+	 */
+	public void testReallocationFreesPreviousAllocation() {
+		JMemoryPool pool = new JMemoryPool(64);
+
+		JBuffer b1 = new JBuffer(JMemory.POINTER);
+		pool.allocate(40, b1);
+		JMemoryPool.Block first = pool.getBlock(0);
+
+		pool.allocate(40, b1); // Retires first block and frees it
+		assertNotSame(first, pool.getBlock(0));
+		assertEquals(1, pool.getRecycleCount());
+
+		JBuffer b2 = new JBuffer(16);
+		b1.peer(b2); // Frees allocation out of second block
+		pool.allocate(40, new JBuffer(JMemory.POINTER));
+		assertEquals(2, pool.getRecycleCount());
+	}
+
+	/**
+	 * One packet reused for many copies keeps recycling the same few blocks,
+	 * instead of pinning every block it has ever been copied into.
+	 */
+	public void testPacketReusedForManyCopiesRecyclesBlocks() {
+		JMemoryPacket src = new JMemoryPacket(JProtocol.ETHERNET_ID,
+				"0007e914 78a20010 7b812445 080045c0"
+						+ "00280005 0000ff11 70e7c0a8 62dec0a8"
+						+ "65e90f02 0f020014 0a700000 00000000"
+						+ "000000000000");
+
+		final JMemoryPool old = JPacket.getMemoryPool();
+		final JMemoryPool pool = new JMemoryPool(4 * 1024);
+		JPacket.setMemoryPool(pool);
+		try {
+			JMemoryPacket dst = new JMemoryPacket(JMemory.POINTER);
+			for (int i = 0; i < 1000; i++) {
+				dst.transferStateAndDataFrom(src);
+				assertEquals(src.size(), dst.size());
+			}
+
+			assertTrue("recycled=" + pool.getRecycleCount(),
+					pool.getRecycleCount() > 0);
+			assertTrue("reused=" + pool.getReuseCount(), pool.getReuseCount() > 0);
+			assertTrue("new blocks=" + (pool.getBlockCount() - pool.getReuseCount()),
+					pool.getBlockCount() - pool.getReuseCount() <= 3);
+		} finally {
+			JPacket.setMemoryPool(old);
+		}
+	}
+
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.nio;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.nio.JMemory.Type;
+
+/**
+ * Tests per thread arena allocations of JMemoryArenaPool.
+ */
+public class TestJMemoryArenaPool extends TestCase {
+
+	/**
+	 * Allocations by the same thread are served out of the same block.
+	 */
+	public void testSameThreadSharesBlock() {
+		JMemoryArenaPool pool = new JMemoryArenaPool(1024);
+
+		JBuffer b1 = new JBuffer(Type.POINTER);
+		JBuffer b2 = new JBuffer(Type.POINTER);
+		pool.allocate(16, b1);
+		pool.allocate(16, b2);
+
+		assertEquals(16, b1.size());
+		assertEquals(16, b2.size());
+		assertEquals(1, pool.getArenaCount());
+		assertEquals(1, pool.getBlockCount());
+		assertEquals(2, pool.getAllocationCount());
+		assertEquals(0, pool.getContentionCount());
+	}
+
+	/**
+	 * Each thread gets its own arena and block.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testThreadsGetSeparateArenas() throws InterruptedException {
+		final JMemoryArenaPool pool = new JMemoryArenaPool(1024);
+		final int threads = 4;
+		final CountDownLatch done = new CountDownLatch(threads);
+		final JMemoryPool.Block[] blocks = new JMemoryPool.Block[threads];
+
+		for (int i = 0; i < threads; i++) {
+			final int index = i;
+			new Thread() {
+				public void run() {
+					JBuffer b = new JBuffer(Type.POINTER);
+					pool.allocate(32, b);
+					blocks[index] = pool.getBlock(0);
+					done.countDown();
+				}
+			}.start();
+		}
+
+		done.await();
+
+		assertEquals(threads, pool.getBlockCount());
+		assertEquals(threads, pool.getAllocationCount());
+		for (int i = 1; i < threads; i++) {
+			assertNotSame(blocks[0], blocks[i]);
+		}
+	}
+
+	/**
+	 * Releasing an arena starts a new block on next allocation.
+	 */
+	public void testReleaseArena() {
+		JMemoryArenaPool pool = new JMemoryArenaPool(1024);
+
+		JBuffer b = new JBuffer(Type.POINTER);
+		pool.allocate(16, b);
+		JMemoryPool.Block first = pool.getBlock(0);
+
+		pool.releaseArena();
+		pool.allocate(16, b);
+
+		assertNotSame(first, pool.getBlock(0));
+		assertEquals(2, pool.getBlockCount());
+	}
+}
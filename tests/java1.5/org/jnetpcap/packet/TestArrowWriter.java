@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.packet.column.ArrowWriter;
+import org.jnetpcap.packet.column.JColumnExtractor;
+import org.jnetpcap.protocol.JProtocol;
+import org.jnetpcap.protocol.network.Ip4;
+import org.jnetpcap.protocol.tcpip.Tcp;
+
+/**
+ * Writes the columns of a capture file as an Arrow file and decodes it, the
+ * flatbuffer metadata through its vtables, the same way an Arrow reader
+ * would, without relying on the layout chosen by the writer.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestArrowWriter
+    extends TestCase {
+
+	/** Rows per record batch. */
+	private final static int BATCH = 16;
+
+	/** Arp request, neither ip nor tcp. */
+	private final static String ARP =
+	    "ffff ffff ffff 0010 db22 32c8 0806 0001 0800 0604 0001 0010 db22 32c8"
+	        + " c0a8 0101 0000 0000 0000 c0a8 0102";
+
+	/** MetadataVersion.V5. */
+	private final static int ARROW_V5 = 4;
+
+	/** MessageHeader.Schema. */
+	private final static int HEADER_SCHEMA = 1;
+
+	/** MessageHeader.RecordBatch. */
+	private final static int HEADER_RECORD_BATCH = 3;
+
+	/** Type.Int. */
+	private final static int TYPE_INT = 2;
+
+	/** Type.FixedSizeBinary. */
+	private final static int TYPE_FIXED_SIZE_BINARY = 15;
+
+	/** Temporary file. */
+	private File file;
+
+	/** Column names, set by {@link #write(List, List, List)}. */
+	private String[] names;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		file = File.createTempFile("TestArrowWriter", ".arrow");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	/**
+	 * Reads the entire file.
+	 * 
+	 * @return file contents, little endian
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	private ByteBuffer readFile() throws IOException {
+		final RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			final byte[] b = new byte[(int) in.length()];
+			in.readFully(b);
+
+			return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks the magic at offset.
+	 * 
+	 * @param b
+	 *          file contents
+	 * @param offset
+	 *          the offset
+	 */
+	private void assertMagic(ByteBuffer b, int offset) {
+		final byte[] magic = new byte[6];
+		final ByteBuffer d = b.duplicate();
+		d.position(offset);
+		d.get(magic);
+
+		assertEquals("ARROW1", new String(magic));
+	}
+
+	/**
+	 * Locates a field of a flatbuffer table through the table's vtable.
+	 * 
+	 * @param b
+	 *          file contents
+	 * @param table
+	 *          offset of the table
+	 * @param index
+	 *          field index within the table
+	 * @return offset of the field or -1 if the field is absent
+	 */
+	private static int field(ByteBuffer b, int table, int index) {
+		final int vtable = table - b.getInt(table);
+		final int vsize = b.getShort(vtable);
+		assertTrue(b.getShort(vtable + 2) >= 4);
+
+		if (4 + index * 2 >= vsize) {
+			return -1;
+		}
+
+		final int offset = b.getShort(vtable + 4 + index * 2);
+
+		return (offset == 0) ? -1 : table + offset;
+	}
+
+	/**
+	 * Follows the offset stored in a table field to a table, vector or string.
+	 * 
+	 * @param b
+	 *          file contents
+	 * @param table
+	 *          offset of the table
+	 * @param index
+	 *          field index within the table
+	 * @return offset of the referenced object
+	 */
+	private static int ref(ByteBuffer b, int table, int index) {
+		final int at = field(b, table, index);
+		assertTrue("missing field " + index, at != -1);
+
+		return at + b.getInt(at);
+	}
+
+	/**
+	 * Offset of the root table of a flatbuffer.
+	 * 
+	 * @param b
+	 *          file contents
+	 * @param start
+	 *          start of the flatbuffer
+	 * @return offset of the root table
+	 */
+	private static int root(ByteBuffer b, int start) {
+		return start + b.getInt(start);
+	}
+
+	/**
+	 * Reads a string referenced by a table field.
+	 * 
+	 * @param b
+	 *          file contents
+	 * @param table
+	 *          offset of the table
+	 * @param index
+	 *          field index within the table
+	 * @return the string
+	 */
+	private static String string(ByteBuffer b, int table, int index) {
+		final int at = ref(b, table, index);
+		final byte[] s = new byte[b.getInt(at)];
+		final ByteBuffer d = b.duplicate();
+		d.position(at + 4);
+		d.get(s);
+		assertEquals(0, b.get(at + 4 + s.length));
+
+		return new String(s);
+	}
+
+	/**
+	 * Writes the columns of the test file, the same columns as used by
+	 * {@link TestJColumnExtractor}, and records the expected values. The test
+	 * file is all tcp over ip, so an arp packet is extracted every few rows to
+	 * get nulls in every column. A row without a value is recorded as null.
+	 * 
+	 * @param sources
+	 *          receives ip source addresses
+	 * @param ttls
+	 *          receives ip ttls
+	 * @param seqs
+	 *          receives tcp sequence numbers
+	 * @return the writer, already closed
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	private ArrowWriter write(List<byte[]> sources,
+	    List<Integer> ttls,
+	    List<Long> seqs) throws IOException {
+		final ArrowWriter out = new ArrowWriter(file);
+		final JColumnExtractor extractor = new JColumnExtractor(BATCH, out);
+		names = new String[] {
+		    extractor.addBytesColumn(Ip4.class, "source").getName(),
+		    extractor.addIntColumn(Ip4.class, "ttl").getName(),
+		    extractor.addLongColumn(Tcp.class, "seq").getName()
+		};
+
+		final JMemoryPacket arp = new JMemoryPacket(JProtocol.ETHERNET_ID, ARP);
+		final Ip4 ip = new Ip4();
+		final Tcp tcp = new Tcp();
+		int i = 0;
+		for (JPacket packet : TestUtils.getIterable(TestUtils.HTTP)) {
+			if (i++ % 5 == 0) {
+				packet = arp;
+			}
+
+			extractor.extract(packet);
+
+			final boolean hasIp = packet.hasHeader(ip);
+			sources.add(hasIp ? ip.source() : null);
+			ttls.add(hasIp ? ip.ttl() : null);
+			seqs.add(packet.hasHeader(tcp) ? tcp.seq() : null);
+		}
+		extractor.flush();
+		out.close();
+
+		return out;
+	}
+
+	/**
+	 * Walks the messages from the start of the file to the end of stream
+	 * marker, which must be immediately followed by the footer. Each message
+	 * is decoded far enough to find its body length, and the footer's blocks
+	 * must point at the record batches.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testFileFraming() throws IOException {
+		final List<byte[]> sources = new ArrayList<byte[]>();
+		final ArrowWriter out =
+		    write(sources, new ArrayList<Integer>(), new ArrayList<Long>());
+		final int count = sources.size();
+
+		assertEquals(count, out.getRowCount());
+		assertEquals((count + BATCH - 1) / BATCH, out.getBatchCount());
+		assertEquals(file.length(), out.getBytesWritten());
+
+		final ByteBuffer b = readFile();
+		final int size = b.limit();
+		assertMagic(b, 0);
+		assertMagic(b, size - 6);
+
+		final int footer = b.getInt(size - 10);
+		assertTrue(footer > 0);
+
+		/* Schema first, without a body */
+		final int schema = root(b, 16);
+		assertEquals(ARROW_V5, b.getShort(field(b, schema, 0)));
+		assertEquals(HEADER_SCHEMA, b.get(field(b, schema, 1)));
+		assertEquals(0L, b.getLong(field(b, schema, 3)));
+
+		/* Then one message per batch, each 8 byte aligned */
+		final List<Integer> batches = new ArrayList<Integer>();
+		int offset = 8 + 8 + b.getInt(12);
+		while (b.getInt(offset + 4) != 0) {
+			assertEquals(0xFFFFFFFF, b.getInt(offset));
+			assertEquals(0, offset % 8);
+
+			final int meta = b.getInt(offset + 4);
+			assertEquals(0, meta % 8);
+
+			final int message = root(b, offset + 8);
+			assertEquals(ARROW_V5, b.getShort(field(b, message, 0)));
+			assertEquals(HEADER_RECORD_BATCH, b.get(field(b, message, 1)));
+
+			final long body = b.getLong(field(b, message, 3));
+			assertEquals(0, body % 8);
+
+			batches.add(offset);
+			offset += 8 + meta + (int) body;
+		}
+
+		assertEquals(out.getBatchCount(), batches.size());
+		assertEquals(size - 10 - footer, offset + 8);
+
+		/* Footer blocks match the messages just walked */
+		final int root = root(b, offset + 8);
+		assertEquals(ARROW_V5, b.getShort(field(b, root, 0)));
+		assertEquals(names.length, b.getInt(ref(b, ref(b, root, 1), 1)));
+		assertEquals(0, b.getInt(ref(b, root, 2)));
+
+		final int blocks = ref(b, root, 3);
+		assertEquals(batches.size(), b.getInt(blocks));
+		for (int i = 0; i < batches.size(); i++) {
+			final int block = blocks + 4 + i * 24;
+			final int at = batches.get(i);
+			final int meta = b.getInt(at + 4);
+
+			assertEquals(0, block % 8);
+			assertEquals(at, b.getLong(block));
+			assertEquals(8 + meta, b.getInt(block + 8));
+			assertEquals(b.getLong(field(b, root(b, at + 8), 3)), b
+			    .getLong(block + 16));
+		}
+	}
+
+	/**
+	 * Decodes the schema message: field names, nullability and types.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testSchema() throws IOException {
+		write(new ArrayList<byte[]>(), new ArrayList<Integer>(),
+		    new ArrayList<Long>());
+
+		final ByteBuffer b = readFile();
+		final int message = root(b, 16);
+		assertEquals(HEADER_SCHEMA, b.get(field(b, message, 1)));
+
+		final int schema = ref(b, message, 2);
+		assertEquals(0, b.getShort(field(b, schema, 0))); // little endian
+
+		final int fields = ref(b, schema, 1);
+		assertEquals(3, b.getInt(fields));
+
+		final int[] f = new int[3];
+		for (int i = 0; i < f.length; i++) {
+			final int at = fields + 4 + i * 4;
+			f[i] = at + b.getInt(at);
+
+			assertEquals(names[i], string(b, f[i], 0));
+			assertEquals(1, b.get(field(b, f[i], 1))); // nullable
+			assertEquals(0, b.getInt(ref(b, f[i], 5))); // no children
+		}
+
+		/* Ip4.source: FixedSizeBinary(4) */
+		assertEquals(TYPE_FIXED_SIZE_BINARY, b.get(field(b, f[0], 2)));
+		assertEquals(4, b.getInt(field(b, ref(b, f[0], 3), 0)));
+
+		/* Ip4.ttl: Int(32, signed) */
+		assertEquals(TYPE_INT, b.get(field(b, f[1], 2)));
+		assertEquals(32, b.getInt(field(b, ref(b, f[1], 3), 0)));
+		assertEquals(1, b.get(field(b, ref(b, f[1], 3), 1)));
+
+		/* Tcp.seq: Int(64, signed) */
+		assertEquals(TYPE_INT, b.get(field(b, f[2], 2)));
+		assertEquals(64, b.getInt(field(b, ref(b, f[2], 3), 0)));
+		assertEquals(1, b.get(field(b, ref(b, f[2], 3), 1)));
+	}
+
+	/**
+	 * Decodes every record batch: field nodes, buffer layout and then every
+	 * null bit and value through the buffers.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testRecordBatches() throws IOException {
+		final List<byte[]> sources = new ArrayList<byte[]>();
+		final List<Integer> ttls = new ArrayList<Integer>();
+		final List<Long> seqs = new ArrayList<Long>();
+		write(sources, ttls, seqs);
+
+		final ByteBuffer b = readFile();
+		int offset = 8 + 8 + b.getInt(12); // skip schema
+		int row = 0;
+		int nulls = 0;
+
+		while (b.getInt(offset + 4) != 0) {
+			final int message = root(b, offset + 8);
+			assertEquals(HEADER_RECORD_BATCH, b.get(field(b, message, 1)));
+
+			final int batch = ref(b, message, 2);
+			final int rows = (int) b.getLong(field(b, batch, 0));
+			assertEquals(Math.min(BATCH, sources.size() - row), rows);
+
+			final int body = offset + 8 + b.getInt(offset + 4);
+			final long bodyLength = b.getLong(field(b, message, 3));
+
+			final int nodes = ref(b, batch, 1);
+			final int buffers = ref(b, batch, 2);
+			assertEquals(3, b.getInt(nodes));
+			assertEquals(6, b.getInt(buffers));
+
+			final List<?>[] expected = {
+			    sources,
+			    ttls,
+			    seqs
+			};
+			final int[] widths = {
+			    4,
+			    4,
+			    8
+			};
+
+			for (int c = 0; c < 3; c++) {
+				final int node = nodes + 4 + c * 16;
+				final int validity = buffers + 4 + c * 32;
+				final int values = validity + 16;
+
+				assertEquals(0, node % 8);
+				assertEquals(rows, b.getLong(node));
+				assertEquals((rows + 7) / 8, b.getLong(validity + 8));
+				assertEquals(rows * widths[c], b.getLong(values + 8));
+				assertEquals(0, b.getLong(validity) % 8);
+				assertEquals(0, b.getLong(values) % 8);
+				assertTrue(b.getLong(values) + b.getLong(values + 8) <= bodyLength);
+
+				final int bits = body + (int) b.getLong(validity);
+				final int data = body + (int) b.getLong(values);
+				int nullCount = 0;
+
+				for (int i = 0; i < rows; i++) {
+					final Object v = expected[c].get(row + i);
+					final boolean valid = ((b.get(bits + i / 8) >> (i % 8)) & 1) != 0;
+					assertEquals("column " + c + " row " + (row + i), v != null, valid);
+
+					if (v == null) {
+						nullCount++;
+						continue;
+					}
+
+					if (c == 0) {
+						final byte[] a = new byte[4];
+						final ByteBuffer d = b.duplicate();
+						d.position(data + i * 4);
+						d.get(a);
+						assertTrue(Arrays.equals((byte[]) v, a));
+					} else if (c == 1) {
+						assertEquals(v, b.getInt(data + i * 4));
+					} else {
+						assertEquals(v, b.getLong(data + i * 8));
+					}
+				}
+
+				assertEquals(nullCount, b.getLong(node + 8));
+				nulls += nullCount;
+			}
+
+			row += rows;
+			offset += 8 + b.getInt(offset + 4) + (int) bodyLength;
+		}
+
+		assertEquals(sources.size(), row);
+		assertEquals(3 * ((sources.size() + 4) / 5), nulls);
+	}
+
+	/**
+	 * A file without any batches still has a schema and footer.
+	 * 
+	 * @throws IOException
+	 *           Signals that an I/O exception has occurred.
+	 */
+	public void testEmptyFile() throws IOException {
+		final ArrowWriter out = new ArrowWriter(file);
+		out.close();
+
+		assertEquals(0, out.getBatchCount());
+
+		final ByteBuffer b = readFile();
+		assertMagic(b, 0);
+		assertMagic(b, b.limit() - 6);
+	}
+}
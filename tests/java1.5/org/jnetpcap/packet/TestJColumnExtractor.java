@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.packet.column.JBytesColumn;
+import org.jnetpcap.packet.column.JColumnExtractor;
+import org.jnetpcap.packet.column.JColumnHandler;
+import org.jnetpcap.packet.column.JIntColumn;
+import org.jnetpcap.packet.column.JLongColumn;
+import org.jnetpcap.protocol.network.Ip4;
+import org.jnetpcap.protocol.tcpip.Tcp;
+
+/**
+ * Columns must hold the same values as the header getters, row by row, and
+ * mark rows of packets without the header as absent.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestJColumnExtractor
+    extends TestCase {
+
+	/** Packets of the test capture. */
+	private List<PcapPacket> packets;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		packets = new ArrayList<PcapPacket>();
+		for (PcapPacket packet : TestUtils.getIterable(TestUtils.HTTP)) {
+			packets.add(new PcapPacket(packet));
+		}
+	}
+
+	/**
+	 * Every column value matches its getter.
+	 */
+	public void testValuesMatchGetters() {
+		final JColumnExtractor extractor = new JColumnExtractor(packets.size());
+		final JBytesColumn source = extractor.addBytesColumn(Ip4.class, "source");
+		final JIntColumn ttl = extractor.addIntColumn(Ip4.class, "ttl");
+		final JLongColumn seq = extractor.addLongColumn(Tcp.class, "seq");
+		final JLongColumn port = extractor.addLongColumn(Tcp.class, "source");
+
+		assertEquals(4, source.width());
+		assertEquals("ip4.source", source.getName());
+
+		for (PcapPacket packet : packets) {
+			extractor.extract(packet);
+		}
+
+		assertEquals(packets.size(), extractor.size());
+
+		final Ip4 ip = new Ip4();
+		final Tcp tcp = new Tcp();
+		final byte[] b = new byte[4];
+
+		for (int row = 0; row < packets.size(); row++) {
+			final PcapPacket packet = packets.get(row);
+
+			if (packet.hasHeader(ip)) {
+				assertTrue(source.isPresent(row));
+				assertEquals(4, source.get(row, b, 0));
+				assertTrue(Arrays.equals(ip.source(), b));
+				assertEquals(ip.ttl(), ttl.get(row));
+			} else {
+				assertFalse(source.isPresent(row));
+				assertEquals(0, source.length(row));
+			}
+
+			if (packet.hasHeader(tcp)) {
+				assertTrue(seq.isPresent(row));
+				assertEquals(tcp.seq(), seq.get(row));
+				assertEquals(tcp.source(), port.get(row));
+			} else {
+				assertFalse(seq.isPresent(row));
+				assertEquals(0L, seq.get(row));
+			}
+		}
+	}
+
+	/**
+	 * Handler receives full batches, then the partial batch on flush.
+	 */
+	public void testHandlerBatches() {
+		final int[] rows = new int[1];
+		final JColumnExtractor extractor =
+		    new JColumnExtractor(7, new JColumnHandler() {
+
+			    public void nextBatch(JColumnExtractor extractor) {
+				    assertTrue(extractor.size() > 0);
+				    rows[0] += extractor.size();
+			    }
+		    });
+		extractor.addIntColumn(Ip4.class, "ttl");
+
+		for (PcapPacket packet : packets) {
+			extractor.nextPacket(packet, null);
+		}
+		extractor.flush();
+
+		assertEquals(packets.size(), rows[0]);
+		assertEquals(0, extractor.size());
+	}
+
+	/**
+	 * Without a handler, a full batch must be cleared first.
+	 */
+	public void testFullBatch() {
+		final JColumnExtractor extractor = new JColumnExtractor(1);
+		extractor.addIntColumn(Ip4.class, "ttl");
+
+		assertTrue(extractor.extract(packets.get(0)));
+
+		try {
+			extractor.extract(packets.get(1));
+			fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		extractor.clear();
+		assertTrue(extractor.extract(packets.get(1)));
+	}
+
+	/**
+	 * Unknown fields and getters of the wrong type are rejected.
+	 */
+	public void testInvalidColumns() {
+		final JColumnExtractor extractor = new JColumnExtractor(1);
+
+		try {
+			extractor.addIntColumn(Ip4.class, "nosuchfield");
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		try {
+			extractor.addIntColumn(Ip4.class, "source");
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.packet.format.FormatUtils;
+import org.jnetpcap.protocol.JProtocol;
+
+/**
+ * Tests the pure java scanner against header layouts produced by the native
+ * scanner.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestJFastScanner
+    extends TestCase {
+
+	private final static String ETHERNET = "000102030405 0a0b0c0d0e0f";
+
+	private final static String IP4_SRC = "c0a80001";
+
+	private final static String IP4_DST = "c0a80002";
+
+	private JFastScanner scanner;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		scanner = new JFastScanner();
+	}
+
+	private static String hex16(int value) {
+		return String.format("%04x", value);
+	}
+
+	private static String ip4(int totLen, int fragOff, int proto, String src,
+	    String dst) {
+		return "4500" + hex16(totLen) + "0000" + hex16(fragOff) + "40"
+		    + String.format("%02x", proto) + "0000" + src + dst;
+	}
+
+	private static String tcp(int sport, int dport) {
+		return hex16(sport) + hex16(dport) + "00000001 00000000 5010ffff 00000000";
+	}
+
+	private static String udp(int sport, int dport, int len) {
+		return hex16(sport) + hex16(dport) + hex16(len) + "0000";
+	}
+
+	private static ByteBuffer wrap(String hex) {
+		return ByteBuffer.wrap(FormatUtils.toByteArray(hex));
+	}
+
+	private void assertHeader(int index, int id, int offset, int length,
+	    int payload) {
+		assertEquals("id", id, scanner.getHeaderIdByIndex(index));
+		assertEquals("offset", offset, scanner.getHeaderOffsetByIndex(index));
+		assertEquals("length", length, scanner.getHeaderLengthByIndex(index));
+		assertEquals("payload", payload, scanner.getHeaderPayloadByIndex(index));
+	}
+
+	/**
+	 * Ethernet/Ip4/Tcp to a well known port ends without a payload header, and
+	 * the Ethernet trailer is recorded as Ethernet postfix.
+	 */
+	public void testEthernetIp4TcpWithTrailer() {
+		ByteBuffer b =
+		    wrap(ETHERNET + "0800" + ip4(44, 0, 6, IP4_SRC, IP4_DST)
+		        + tcp(40000, 22) + "01020304" + "aabbccdd");
+
+		assertTrue(scanner.scan(b, JProtocol.ETHERNET_ID));
+		assertEquals(JScan.END_OF_HEADERS_ID, scanner.getNextId());
+		assertEquals(3, scanner.getHeaderCount());
+
+		assertHeader(0, JProtocol.ETHERNET_ID, 0, 14, 44);
+		assertEquals(4, scanner.getHeaderPostfixByIndex(0));
+		assertHeader(1, JProtocol.IP4_ID, 14, 20, 24);
+		assertHeader(2, JProtocol.TCP_ID, 34, 20, 4);
+
+		assertTrue(scanner.hasHeader(JProtocol.TCP_ID));
+		assertFalse(scanner.hasHeader(JProtocol.UDP_ID));
+		assertEquals((1L << JProtocol.ETHERNET_ID) | (1L << JProtocol.IP4_ID)
+		    | (1L << JProtocol.TCP_ID), scanner.get64BitHeaderMap(0));
+		assertEquals(0, scanner.getFlags());
+		assertEquals(0, b.position());
+	}
+
+	/**
+	 * Flow key is built from Ip4 addresses, protocol and ports and is the same
+	 * for both directions.
+	 */
+	public void testFlowKey() {
+		assertTrue(scanner.scan(wrap(ETHERNET + "0800"
+		    + ip4(40, 0, 6, IP4_SRC, IP4_DST) + tcp(40000, 22)),
+		    JProtocol.ETHERNET_ID));
+
+		assertEquals(3, scanner.getFlowKeyPairCount());
+		assertEquals(0xc0a80001, scanner.getFlowKeyPairP1(0, false));
+		assertEquals(0xc0a80002, scanner.getFlowKeyPairP2(0, false));
+		assertEquals(6, scanner.getFlowKeyPairP1(1, false));
+		assertEquals(40000, scanner.getFlowKeyPairP1(2, false));
+		assertEquals(22, scanner.getFlowKeyPairP2(2, false));
+		assertEquals(22, scanner.getFlowKeyPairP1(2, true));
+		assertEquals(JProtocol.IP4_ID, scanner.getFlowKeyId(0));
+		assertEquals(JProtocol.TCP_ID, scanner.getFlowKeyId(2));
+		assertEquals(JFlowKey.FLAG_REVERSABLE, scanner.getFlowKeyFlags());
+
+		final int hash = scanner.getFlowKeyHash();
+		final int symmetric = scanner.getFlowKeySymmetricHash();
+
+		assertTrue(scanner.scan(wrap(ETHERNET + "0800"
+		    + ip4(40, 0, 6, IP4_DST, IP4_SRC) + tcp(22, 40000)),
+		    JProtocol.ETHERNET_ID));
+
+		assertEquals(hash, scanner.getFlowKeyHash());
+		assertEquals(symmetric, scanner.getFlowKeySymmetricHash());
+
+		assertTrue(scanner.scan(wrap(ETHERNET + "0800"
+		    + ip4(40, 0, 6, IP4_DST, IP4_SRC) + tcp(23, 40000)),
+		    JProtocol.ETHERNET_ID));
+
+		assertFalse(symmetric == scanner.getFlowKeySymmetricHash());
+	}
+
+	/**
+	 * Vlan tagged Ip6 with a hop-by-hop extension header folded into Ip6.
+	 */
+	public void testVlanIp6Udp() {
+		String ip6 =
+		    "60000000" + hex16(8 + 8) + "00" + "40"
+		        + "20010db8000000000000000000000001"
+		        + "20010db8000000000000000000000002";
+
+		ByteBuffer b =
+		    wrap(ETHERNET + "8100" + "0064" + "86dd" + ip6 + "1100000000000000"
+		        + udp(40000, 53, 8));
+
+		assertTrue(scanner.scan(b, JProtocol.ETHERNET_ID));
+		assertEquals(4, scanner.getHeaderCount());
+		assertHeader(0, JProtocol.ETHERNET_ID, 0, 14, 4 + 48 + 8);
+		assertHeader(1, JProtocol.IEEE_802DOT1Q_ID, 14, 4, 48 + 8);
+		assertHeader(2, JProtocol.IP6_ID, 18, 48, 8);
+		assertHeader(3, JProtocol.UDP_ID, 66, 8, 0);
+		assertEquals(3, scanner.getFlowKeyPairCount());
+		assertEquals(JProtocol.UDP_ID, scanner.getFlowKeyId(2));
+	}
+
+	/**
+	 * Non initial Ip4 fragment binds to payload and flags remaining headers as
+	 * fragmented.
+	 */
+	public void testIp4Fragment() {
+		ByteBuffer b =
+		    wrap(ETHERNET + "0800" + ip4(28, 0x0010, 17, IP4_SRC, IP4_DST)
+		        + "0102030405060708");
+
+		assertTrue(scanner.scan(b, JProtocol.ETHERNET_ID));
+		assertEquals(3, scanner.getHeaderCount());
+		assertHeader(1, JProtocol.IP4_ID, 14, 20, 8);
+		assertHeader(2, JProtocol.PAYLOAD_ID, 34, 8, 0);
+
+		assertEquals(0, scanner.getHeaderFlagsByIndex(0)
+		    & JHeader.State.FLAG_HEADER_FRAGMENTED);
+		assertTrue((scanner.getHeaderFlagsByIndex(1)
+		    & JHeader.State.FLAG_HEADER_FRAGMENTED) != 0);
+		assertTrue((scanner.getHeaderFlagsByIndex(2)
+		    & JHeader.State.FLAG_HEADER_FRAGMENTED) != 0);
+	}
+
+	/**
+	 * Protocols not decoded in java stop the scan with the next protocol id.
+	 */
+	public void testFallback() {
+		assertFalse(scanner.scan(ByteBuffer
+		    .wrap(VariousInMemoryPackets.PACKET_1), JProtocol.ETHERNET_ID));
+		assertEquals(JProtocol.L2TP_ID, scanner.getNextId());
+		assertEquals(3, scanner.getHeaderCount());
+		assertHeader(2, JProtocol.UDP_ID, 34, 8, 12);
+
+		assertFalse(scanner.scan(ByteBuffer
+		    .wrap(VariousInMemoryPackets.PACKET_2), JProtocol.ETHERNET_ID));
+		assertEquals(JProtocol.ETHERNET_ID, scanner.getNextId());
+		assertEquals(0, scanner.getHeaderCount());
+
+		assertFalse(scanner.scan(wrap(ETHERNET + "0806" + "0001"),
+		    JProtocol.ETHERNET_ID));
+		assertEquals(JProtocol.ARP_ID, scanner.getNextId());
+
+		assertFalse(scanner.scan(wrap("00"), JProtocol.SLL_ID));
+		assertEquals(JProtocol.SLL_ID, scanner.getNextId());
+		assertFalse(JFastScanner.isSupported(JProtocol.SLL_ID));
+		assertTrue(JFastScanner.isSupported(JProtocol.IP6_ID));
+	}
+
+	/**
+	 * Tcp payload on unknown ports is left for native heuristics unless they
+	 * are disabled.
+	 */
+	public void testHeuristics() {
+		ByteBuffer b =
+		    wrap(ETHERNET + "0800" + ip4(44, 0, 6, IP4_SRC, IP4_DST)
+		        + tcp(40000, 40001) + "01020304");
+
+		assertFalse(scanner.scan(b, JProtocol.ETHERNET_ID));
+		assertEquals(JProtocol.PAYLOAD_ID, scanner.getNextId());
+		assertEquals(3, scanner.getHeaderCount());
+
+		scanner.setHeuristics(false);
+		assertTrue(scanner.scan(b, JProtocol.ETHERNET_ID));
+		assertEquals(4, scanner.getHeaderCount());
+		assertHeader(3, JProtocol.PAYLOAD_ID, 54, 4, 0);
+	}
+
+	/**
+	 * Truncated packet, with the buffer starting in the middle of a larger
+	 * buffer.
+	 */
+	public void testTruncated() {
+		ByteBuffer b =
+		    wrap("ffffffff" + ETHERNET + "0800" + ip4(1040, 0, 17, IP4_SRC, IP4_DST)
+		        + udp(53, 40000, 1020) + "0102");
+		b.position(4);
+
+		assertTrue(scanner.scan(b, JProtocol.ETHERNET_ID, 1054));
+		assertEquals(JPacket.State.FLAG_TRUNCATED, scanner.getFlags());
+		assertEquals(1054, scanner.getWirelen());
+		assertEquals(3, scanner.getHeaderCount());
+		assertHeader(1, JProtocol.IP4_ID, 14, 20, 10);
+		assertTrue((scanner.getHeaderFlagsByIndex(1)
+		    & JHeader.State.FLAG_PAYLOAD_TRUNCATED) != 0);
+		assertHeader(2, JProtocol.UDP_ID, 34, 8, 2);
+		assertEquals(4, b.position());
+	}
+}
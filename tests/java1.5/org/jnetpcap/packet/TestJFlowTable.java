@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.protocol.tcpip.Tcp;
+
+/**
+ * Accounts the packets of the http-jpeg capture in a native flow table.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestJFlowTable
+    extends TestCase {
+
+	/**
+	 * A table for 10 million flows needs more than 2GB, which must not
+	 * overflow the size calculation.
+	 */
+	public void testSizeOfLargeTable() {
+		final int slots = JFlowTable.slotsFor(10000000);
+		assertEquals(1 << 24, slots);
+
+		final long size = JFlowTable.sizeof(slots);
+		assertTrue("size=" + size, size > Integer.MAX_VALUE);
+		assertEquals(size - JFlowTable.sizeof(0), (long) slots
+		    * JFlowRecord.sizeof());
+	}
+
+	/**
+	 * Too many flows.
+	 */
+	public void testTooManyFlows() {
+		try {
+			new JFlowTable(Integer.MAX_VALUE);
+			fail("table with too many slots created");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+
+		try {
+			new JFlowTable(0);
+			fail("empty table created");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Every packet is counted in exactly one flow.
+	 */
+	public void testCountsEveryPacket() {
+		final JFlowTable table = new JFlowTable(1000);
+		long packets = 0;
+		long bytes = 0;
+
+		for (PcapPacket packet : TestUtils.getIterable(TestUtils.HTTP)) {
+			assertTrue(table.add(packet) != -1);
+
+			packets++;
+			bytes += packet.getCaptureHeader().wirelen();
+		}
+
+		long p = 0;
+		long b = 0;
+		for (JFlowRecord record : table) {
+			p += record.getTotalPackets();
+			b += record.getTotalBytes();
+
+			assertTrue(record.getFirstTimestamp() <= record.getLastTimestamp());
+		}
+
+		assertEquals(packets, p);
+		assertEquals(bytes, b);
+		assertTrue(table.size() > 0);
+		assertEquals(0, table.getDropCount());
+		assertEquals(packets, table.getLookupCount());
+	}
+
+	/**
+	 * Both directions of a tcp connection end up in the same flow.
+	 */
+	public void testBothDirectionsInOneFlow() {
+		final JFlowTable table = new JFlowTable(1000);
+		final JFlowKey key = new JFlowKey();
+		final Tcp tcp = new Tcp();
+
+		for (PcapPacket packet : TestUtils.getIterable(TestUtils.HTTP)) {
+			final int index = table.add(packet);
+
+			assertEquals(index, table.lookup(packet.getFlowKey()));
+
+			if (packet.hasHeader(tcp)) {
+				final JFlowRecord record = table.getRecord(index);
+				final int direction = record.getKey(key).match(packet.getFlowKey());
+
+				assertTrue(direction != 0);
+				assertTrue(record.getPackets(direction == -1) > 0);
+			}
+		}
+
+		int bidirectional = 0;
+		for (JFlowRecord record : table) {
+			if (record.isBidirectional()) {
+				bidirectional++;
+			}
+		}
+
+		assertTrue(bidirectional > 0);
+	}
+
+	/**
+	 * New flows are dropped once the table is full.
+	 */
+	public void testDropsWhenFull() {
+		final JFlowTable table = new JFlowTable(1);
+
+		for (PcapPacket packet : TestUtils.getIterable(TestUtils.HTTP)) {
+			table.add(packet);
+		}
+
+		assertEquals(1, table.size());
+		assertTrue(table.getDropCount() > 0);
+	}
+
+	/**
+	 * Remove and clear.
+	 */
+	public void testRemoveAndClear() {
+		final JFlowTable table = new JFlowTable(1000);
+
+		for (PcapPacket packet : TestUtils.getIterable(TestUtils.HTTP)) {
+			table.add(packet);
+		}
+
+		final int size = table.size();
+		final Iterator<JFlowRecord> i = table.iterator();
+		final int index = i.next().getIndex();
+		i.remove();
+
+		assertEquals(size - 1, table.size());
+		assertFalse(table.remove(index));
+
+		table.clear();
+		assertEquals(0, table.size());
+		assertEquals(-1, table.next(0));
+		assertEquals(0, table.getLookupCount());
+	}
+}
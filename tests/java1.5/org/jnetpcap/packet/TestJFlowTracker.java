@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tracks the flows of the http-jpeg capture, which lasts about 11 seconds and
+ * has flows that last up to 2 seconds, and checks what is exported and why.
+ *
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestJFlowTracker
+    extends TestCase {
+
+	/**
+	 * Collects exported flows and totals them up per reason.
+	 */
+	private static class Collector
+	    implements JFlowExportHandler<String> {
+
+		/** Flows exported per reason. */
+		private final long[] flows = new long[JFlowTracker.Expiry.values().length];
+
+		/** Packets exported per reason. */
+		private final long[] packets =
+		    new long[JFlowTracker.Expiry.values().length];
+
+		/** Bytes exported, all reasons. */
+		private long bytes;
+
+		/**
+		 * Total number of flows exported for all reasons.
+		 */
+		public long flows() {
+			long total = 0;
+			for (long f : flows) {
+				total += f;
+			}
+
+			return total;
+		}
+
+		/**
+		 * Total number of packets exported for all reasons.
+		 */
+		public long packets() {
+			long total = 0;
+			for (long p : packets) {
+				total += p;
+			}
+
+			return total;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.jnetpcap.packet.JFlowExportHandler#exportFlow(org.jnetpcap.packet.JFlowRecord,
+		 *      org.jnetpcap.packet.JFlowTracker.Expiry, java.lang.Object)
+		 */
+		public void exportFlow(JFlowRecord flow,
+		    JFlowTracker.Expiry reason,
+		    String user) {
+			assertEquals(USER, user);
+			assertTrue(flow.getTotalPackets() > 0);
+			assertTrue(flow.getFirstTimestamp() <= flow.getLastTimestamp());
+
+			flows[reason.ordinal()]++;
+			packets[reason.ordinal()] += flow.getTotalPackets();
+			bytes += flow.getTotalBytes();
+		}
+	}
+
+	/** User object passed through to the handler. */
+	private final static String USER = "user";
+
+	/** Handler under test. */
+	private Collector collector;
+
+	/** Number of packets in the capture. */
+	private long packets;
+
+	/** Number of bytes on the wire in the capture. */
+	private long bytes;
+
+	/** Number of flows in the capture, when none are expired. */
+	private int flows;
+
+	/** Timestamp of the last packet in nanos. */
+	private long last;
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		collector = new Collector();
+
+		final JFlowTable table = new JFlowTable(1000);
+		for (PcapPacket packet : TestUtils.getIterable(TestUtils.HTTP)) {
+			assertTrue(table.add(packet) != -1);
+
+			packets++;
+			bytes += packet.getCaptureHeader().wirelen();
+			last = packet.getCaptureHeader().timestampInNanos();
+		}
+
+		flows = table.size();
+	}
+
+	/**
+	 * Adds every packet of the capture to the tracker.
+	 */
+	private void track(JFlowTracker<String> tracker) {
+		for (PcapPacket packet : TestUtils.getIterable(TestUtils.HTTP)) {
+			assertTrue(tracker.add(packet, USER) != -1);
+		}
+	}
+
+	/**
+	 * Checks that every packet was exported exactly once, that the tracker's
+	 * counters agree with what the handler received and that the table is
+	 * empty.
+	 */
+	private void checkExported(JFlowTracker<String> tracker) {
+		assertEquals(0, tracker.getTable().size());
+		assertEquals(packets, collector.packets());
+		assertEquals(bytes, collector.bytes);
+
+		for (JFlowTracker.Expiry reason : JFlowTracker.Expiry.values()) {
+			assertEquals(reason.toString(), collector.flows[reason.ordinal()],
+			    tracker.getExportCount(reason));
+		}
+	}
+
+	/**
+	 * Flows are exported once idle for the timeout, and not before.
+	 */
+	public void testIdleExpiry() {
+		final JFlowTracker<String> tracker =
+		    new JFlowTracker<String>(new JFlowTable(1000), 60, 0,
+		        TimeUnit.SECONDS, collector);
+		tracker.setSweepInterval(1, TimeUnit.SECONDS);
+
+		track(tracker);
+		assertEquals(0, collector.flows());
+		assertEquals(flows, tracker.getTable().size());
+
+		/* Just short of the timeout since the last packet */
+		tracker.advance(last + TimeUnit.SECONDS.toNanos(59), USER);
+		assertEquals(flows, tracker.getTable().size());
+
+		tracker.advance(last + TimeUnit.SECONDS.toNanos(61), USER);
+		assertEquals(flows, collector.flows[JFlowTracker.Expiry.IDLE.ordinal()]);
+		assertEquals(flows, collector.flows());
+		checkExported(tracker);
+
+		assertEquals(0, tracker.flush(USER));
+	}
+
+	/**
+	 * Long flows are exported repeatedly, as a series of records, while the
+	 * packets are still arriving.
+	 */
+	public void testActiveExpiry() {
+		final JFlowTracker<String> tracker =
+		    new JFlowTracker<String>(new JFlowTable(1000), 0, 500,
+		        TimeUnit.MILLISECONDS, collector);
+		assertEquals(125, tracker.getSweepInterval());
+
+		track(tracker);
+		assertTrue(collector.flows() > 0);
+
+		tracker.advance(last + TimeUnit.SECONDS.toNanos(1), USER);
+		assertEquals(0, tracker.getExportCount(JFlowTracker.Expiry.IDLE));
+		assertEquals(0, tracker.getExportCount(JFlowTracker.Expiry.FLUSH));
+		assertTrue(tracker.getExportCount(JFlowTracker.Expiry.ACTIVE) > flows);
+		checkExported(tracker);
+	}
+
+	/**
+	 * The idle timeout applies to quiet flows while the active timeout splits
+	 * up busy ones.
+	 */
+	public void testIdleAndActiveExpiry() {
+		final JFlowTracker<String> tracker =
+		    new JFlowTracker<String>(new JFlowTable(1000), 1, 2,
+		        TimeUnit.SECONDS, collector);
+
+		track(tracker);
+		tracker.advance(last + TimeUnit.SECONDS.toNanos(3), USER);
+
+		assertTrue(tracker.getExportCount(JFlowTracker.Expiry.IDLE) > 0);
+		assertEquals(0, tracker.getExportCount(JFlowTracker.Expiry.FLUSH));
+		assertTrue(collector.flows() >= flows);
+		checkExported(tracker);
+	}
+
+	/**
+	 * Flush exports every flow regardless of timeouts.
+	 */
+	public void testFlush() {
+		final JFlowTracker<String> tracker =
+		    new JFlowTracker<String>(new JFlowTable(1000), 0, 0,
+		        TimeUnit.SECONDS, collector);
+
+		track(tracker);
+		tracker.advance(last + TimeUnit.DAYS.toNanos(1), USER);
+		assertEquals(0, collector.flows());
+
+		assertEquals(flows, tracker.flush(USER));
+		assertEquals(flows, tracker.getExportCount(JFlowTracker.Expiry.FLUSH));
+		assertEquals(flows, collector.flows());
+		checkExported(tracker);
+
+		assertEquals(0, tracker.flush(USER));
+		assertEquals(flows, tracker.getExportCount(JFlowTracker.Expiry.FLUSH));
+	}
+
+	/**
+	 * The clock does not move backwards, so an earlier time expires nothing.
+	 */
+	public void testClockNeverMovesBackwards() {
+		final JFlowTracker<String> tracker =
+		    new JFlowTracker<String>(new JFlowTable(1000), 60, 0,
+		        TimeUnit.SECONDS, collector);
+		tracker.setSweepInterval(1, TimeUnit.SECONDS);
+
+		track(tracker);
+		tracker.advance(last + TimeUnit.SECONDS.toNanos(30), USER);
+		tracker.advance(0, USER);
+		assertEquals(flows, tracker.getTable().size());
+
+		tracker.advance(last + TimeUnit.SECONDS.toNanos(61), USER);
+		assertEquals(flows, tracker.getExportCount(JFlowTracker.Expiry.IDLE));
+		checkExported(tracker);
+	}
+
+	/**
+	 * Bad arguments.
+	 */
+	public void testBadArguments() {
+		try {
+			new JFlowTracker<String>(new JFlowTable(1), -1, 0, TimeUnit.SECONDS,
+			    collector);
+			fail("negative timeout accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+
+		final JFlowTracker<String> tracker =
+		    new JFlowTracker<String>(new JFlowTable(1), 0, 0, TimeUnit.SECONDS,
+		        collector);
+		try {
+			tracker.setSweepInterval(0, TimeUnit.SECONDS);
+			fail("0 sweep interval accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
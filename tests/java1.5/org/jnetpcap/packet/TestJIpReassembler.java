@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.protocol.network.Icmp;
+import org.jnetpcap.protocol.JProtocol;
+import org.jnetpcap.protocol.network.Ip4;
+import org.jnetpcap.protocol.network.Ip6;
+import org.jnetpcap.protocol.tcpip.Udp;
+
+/**
+ * Reassembles the 5 fragmented 2056 byte ICMP echo datagrams of the
+ * reassembly capture, each of which is split into 2 fragments, and Ip6 UDP
+ * datagrams built in memory.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestJIpReassembler
+    extends TestCase {
+
+	/** Size of each reassembled datagram. */
+	private final static int DATAGRAM_SIZE = 20 + 2056;
+
+	/** Ip6 next header value of a fragment header. */
+	private final static int IP6_FRAGMENT = 44;
+
+	/** Ip6 next header value of a hop-by-hop options header. */
+	private final static int IP6_HOP_BY_HOP = 0;
+
+	/** Ip6 next header value of udp. */
+	private final static int IP6_UDP = 17;
+
+	/** Size of the udp datagram carried in Ip6 fragments. */
+	private final static int UDP_SIZE = 8 + 1000;
+
+	/** Packets of the test capture, first and last fragment pairs. */
+	private List<PcapPacket> packets;
+
+	/** Sizes of datagrams dispatched. */
+	private List<Integer> sizes;
+
+	/** Handler which checks every datagram and records its size. */
+	private JIpDatagramHandler<Object> handler;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		packets = new ArrayList<PcapPacket>();
+		for (PcapPacket packet : TestUtils.getIterable(TestUtils.REASEMBLY)) {
+			packets.add(new PcapPacket(packet));
+		}
+
+		sizes = new ArrayList<Integer>();
+		handler = new JIpDatagramHandler<Object>() {
+
+			public void nextDatagram(JMemoryPacket datagram, Object user) {
+				final Ip4 ip = datagram.getHeader(new Ip4());
+
+				assertNotNull(ip);
+				assertFalse(ip.isFragmented());
+				assertTrue(ip.isChecksumValid());
+				assertEquals(datagram.size(), ip.length());
+				assertTrue(datagram.hasHeader(Icmp.ID));
+
+				sizes.add(datagram.size());
+			}
+		};
+	}
+
+	/**
+	 * Every pair of fragments produces one datagram.
+	 */
+	public void testReassembleCapture() {
+		final JIpReassembler<Object> reassembler =
+		    new JIpReassembler<Object>(handler);
+
+		for (PcapPacket packet : packets) {
+			assertTrue(reassembler.add(packet, null));
+		}
+
+		assertEquals(5, sizes.size());
+		assertEquals(DATAGRAM_SIZE, sizes.get(0).intValue());
+		assertEquals(10, reassembler.getCount(JIpReassembler.Counter.FRAGMENTS));
+		assertEquals(5, reassembler.getCount(JIpReassembler.Counter.DATAGRAMS));
+		assertEquals(0, reassembler.size());
+		assertEquals(0, reassembler.getMemory());
+	}
+
+	/**
+	 * Last fragment arriving first still produces the datagram.
+	 */
+	public void testOutOfOrder() {
+		final JIpReassembler<Object> reassembler =
+		    new JIpReassembler<Object>(handler);
+
+		for (int i = 0; i < packets.size(); i += 2) {
+			reassembler.add(packets.get(i + 1), null);
+			assertEquals(1, reassembler.size());
+			reassembler.add(packets.get(i), null);
+		}
+
+		assertEquals(5, sizes.size());
+		assertEquals(DATAGRAM_SIZE, sizes.get(4).intValue());
+	}
+
+	/**
+	 * A duplicate fragment is counted as an overlap and, with the default
+	 * policy, does not prevent reassembly.
+	 */
+	public void testOverlapFirst() {
+		final JIpReassembler<Object> reassembler =
+		    new JIpReassembler<Object>(handler);
+
+		reassembler.add(packets.get(0), null);
+		reassembler.add(packets.get(0), null);
+		reassembler.add(packets.get(1), null);
+
+		assertEquals(1, reassembler.getCount(JIpReassembler.Counter.OVERLAPS));
+		assertEquals(1, sizes.size());
+	}
+
+	/**
+	 * With DROP policy an overlap discards the entire datagram.
+	 */
+	public void testOverlapDrop() {
+		final JIpReassembler<Object> reassembler =
+		    new JIpReassembler<Object>(handler);
+		reassembler.setOverlapPolicy(JIpReassembler.Overlap.DROP);
+
+		reassembler.add(packets.get(0), null);
+		reassembler.add(packets.get(0), null);
+		assertEquals(0, reassembler.size());
+
+		reassembler.add(packets.get(1), null);
+
+		assertEquals(1, reassembler.getCount(JIpReassembler.Counter.OVERLAPS));
+		assertEquals(0, sizes.size());
+		assertEquals(1, reassembler.size());
+	}
+
+	/**
+	 * A last fragment which disagrees with the end already set discards the
+	 * datagram.
+	 */
+	public void testTeardrop() {
+		final JIpReassembler<Object> reassembler =
+		    new JIpReassembler<Object>(handler);
+
+		final JMemoryPacket bad = new JMemoryPacket(packets.get(1));
+		bad.getHeader(new Ip4()).offset((1480 + 8) / 8);
+
+		reassembler.add(packets.get(1), null);
+		reassembler.add(bad, null);
+
+		assertEquals(1, reassembler.getCount(JIpReassembler.Counter.TEARDROPS));
+		assertEquals(0, reassembler.size());
+		assertEquals(0, reassembler.getMemory());
+
+		reassembler.add(packets.get(0), null);
+		assertEquals(0, sizes.size());
+	}
+
+	/**
+	 * Datagrams missing their last fragment time out in packet time.
+	 */
+	public void testTimeout() {
+		final JIpReassembler<Object> reassembler =
+		    new JIpReassembler<Object>(JIpReassembler.DEFAULT_MAX_MEMORY, 500,
+		        TimeUnit.MILLISECONDS, handler);
+
+		for (int i = 0; i < packets.size(); i += 2) {
+			reassembler.add(packets.get(i), null);
+		}
+
+		assertEquals(4, reassembler.getCount(JIpReassembler.Counter.TIMEOUTS));
+		assertEquals(1, reassembler.size());
+	}
+
+	/**
+	 * Oldest incomplete datagrams are evicted to stay within the memory limit.
+	 */
+	public void testMemoryLimit() {
+		final JIpReassembler<Object> reassembler =
+		    new JIpReassembler<Object>(2 * 1500, 60, TimeUnit.SECONDS, handler);
+
+		for (int i = 0; i < packets.size(); i += 2) {
+			reassembler.add(packets.get(i), null);
+			assertTrue(reassembler.getMemory() <= reassembler.getMaxMemory());
+		}
+
+		assertEquals(3, reassembler.getCount(JIpReassembler.Counter.EVICTIONS));
+		assertEquals(2, reassembler.size());
+
+		/* Most recent datagram is still there and completes */
+		reassembler.add(packets.get(packets.size() - 1), null);
+		assertEquals(1, sizes.size());
+	}
+
+	/**
+	 * Builds the udp datagram carried in Ip6 fragments.
+	 * 
+	 * @return udp header and payload
+	 */
+	private static byte[] udp() {
+		final ByteBuffer b = ByteBuffer.allocate(UDP_SIZE);
+		b.putShort((short) 1234).putShort((short) 5678);
+		b.putShort((short) UDP_SIZE).putShort((short) 0);
+		for (int i = 8; i < UDP_SIZE; i++) {
+			b.put((byte) i);
+		}
+
+		return b.array();
+	}
+
+	/**
+	 * Builds an ethernet frame with an Ip6 packet, optionally with a hop-by-hop
+	 * options header in front of the fragment header. The 2 reserved bits of
+	 * the fragment header are set, which must not be mistaken for part of the
+	 * fragment offset.
+	 * 
+	 * @param hopByHop
+	 *          add a hop-by-hop options header
+	 * @param fragment
+	 *          add a fragment header
+	 * @param offset
+	 *          offset of the fragment in bytes, multiple of 8
+	 * @param length
+	 *          length of the fragment
+	 * @param more
+	 *          more fragments flag
+	 * @return scanned packet
+	 */
+	private static JMemoryPacket ip6(boolean hopByHop,
+	    boolean fragment,
+	    int offset,
+	    int length,
+	    boolean more) {
+		final int ext = (hopByHop ? 8 : 0) + (fragment ? 8 : 0);
+		final ByteBuffer b = ByteBuffer.allocate(14 + 40 + ext + length);
+
+		b.put(new byte[] {
+		    0,
+		    1,
+		    2,
+		    3,
+		    4,
+		    5,
+		    0,
+		    1,
+		    2,
+		    3,
+		    4,
+		    6 });
+		b.putShort((short) 0x86DD);
+
+		final int next = (fragment) ? IP6_FRAGMENT : IP6_UDP;
+		b.putInt(0x60000000);
+		b.putShort((short) (ext + length));
+		b.put((byte) (hopByHop ? IP6_HOP_BY_HOP : next)).put((byte) 64);
+		b.putLong(0x20010DB800000000L).putLong(1L); // source 2001:db8::1
+		b.putLong(0x20010DB800000000L).putLong(2L); // destination 2001:db8::2
+
+		if (hopByHop) {
+			b.put((byte) next).put((byte) 0); // 8 bytes long
+			b.put((byte) 1).put((byte) 4).putInt(0); // PadN
+		}
+
+		if (fragment) {
+			b.put((byte) IP6_UDP).put((byte) 0);
+			b.putShort((short) (offset | 0x0006 | (more ? 1 : 0)));
+			b.putInt(0x12345678);
+		}
+
+		b.put(udp(), offset, length);
+
+		return new JMemoryPacket(JProtocol.ETHERNET_ID, b.array());
+	}
+
+	/**
+	 * Reassembles the udp datagram from 2 Ip6 fragments, in either order, and
+	 * checks that the extension headers in front of the fragment header are
+	 * kept, the fragment header is removed from the chain and the payload
+	 * length covers the entire datagram.
+	 * 
+	 * @param hopByHop
+	 *          fragments have a hop-by-hop options header
+	 * @param reverse
+	 *          last fragment first
+	 */
+	private void checkIp6(boolean hopByHop, boolean reverse) {
+		final int half = 504; // Multiple of 8
+		final JMemoryPacket first = ip6(hopByHop, true, 0, half, true);
+		final JMemoryPacket last =
+		    ip6(hopByHop, true, half, UDP_SIZE - half, false);
+		assertTrue(first.hasHeader(Ip6.ID));
+
+		final List<JMemoryPacket> datagrams = new ArrayList<JMemoryPacket>();
+		final JIpReassembler<Object> reassembler =
+		    new JIpReassembler<Object>(new JIpDatagramHandler<Object>() {
+
+			    public void nextDatagram(JMemoryPacket datagram, Object user) {
+				    datagrams.add(new JMemoryPacket(datagram));
+			    }
+		    });
+
+		assertTrue(reassembler.add(reverse ? last : first, null));
+		assertEquals(1, reassembler.size());
+		assertEquals(0, datagrams.size());
+		assertTrue(reassembler.add(reverse ? first : last, null));
+
+		assertEquals(1, datagrams.size());
+		assertEquals(2, reassembler.getCount(JIpReassembler.Counter.FRAGMENTS));
+		assertEquals(1, reassembler.getCount(JIpReassembler.Counter.DATAGRAMS));
+		assertEquals(0, reassembler.size());
+		assertEquals(0, reassembler.getMemory());
+
+		final JMemoryPacket datagram = datagrams.get(0);
+		final int ext = (hopByHop) ? 8 : 0;
+		assertEquals(40 + ext + UDP_SIZE, datagram.size());
+		assertTrue(datagram.hasHeader(Ip6.ID));
+
+		/* Payload length fixed up, fragment header gone from the chain */
+		assertEquals(ext + UDP_SIZE, datagram.getUShort(4));
+		if (hopByHop) {
+			assertEquals(IP6_HOP_BY_HOP, datagram.getUByte(6));
+			assertEquals(IP6_UDP, datagram.getUByte(40));
+			assertEquals(4, datagram.getUByte(43)); // PadN kept
+		} else {
+			assertEquals(IP6_UDP, datagram.getUByte(6));
+			assertTrue(datagram.hasHeader(Udp.ID));
+		}
+
+		final byte[] udp = udp();
+		for (int i = 0; i < UDP_SIZE; i++) {
+			assertEquals("byte " + i, udp[i], datagram.getByte(40 + ext + i));
+		}
+	}
+
+	/**
+	 * Ip6 fragments with the fragment header right after the Ip6 header.
+	 */
+	public void testIp6() {
+		checkIp6(false, false);
+		checkIp6(false, true);
+	}
+
+	/**
+	 * Ip6 fragments with a hop-by-hop options header in front of the fragment
+	 * header, which is walked to find the fragment header and whose next
+	 * header is rewritten in the datagram.
+	 */
+	public void testIp6ExtensionHeaders() {
+		checkIp6(true, false);
+		checkIp6(true, true);
+	}
+
+	/**
+	 * Ip6 packets without a fragment header, or with an extension header that
+	 * can not be walked, are not consumed.
+	 */
+	public void testIp6NotFragment() {
+		final JIpReassembler<Object> reassembler =
+		    new JIpReassembler<Object>(handler);
+
+		assertFalse(reassembler.add(ip6(false, false, 0, UDP_SIZE, false), null));
+		assertFalse(reassembler.add(ip6(true, false, 0, UDP_SIZE, false), null));
+		assertEquals(0, reassembler.getCount(JIpReassembler.Counter.FRAGMENTS));
+		assertEquals(0, reassembler.size());
+	}
+}
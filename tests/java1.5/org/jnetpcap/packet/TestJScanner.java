@@ -28,6 +28,9 @@ import org.jnetpcap.PcapHeader;
 import org.jnetpcap.header.MyHeader;
 import org.jnetpcap.nio.JBuffer;
 import org.jnetpcap.nio.JMemory.Type;
+import org.jnetpcap.packet.annotate.Bind;
+import org.jnetpcap.packet.annotate.Field;
+import org.jnetpcap.packet.annotate.Header;
 import org.jnetpcap.packet.format.TextFormatter;
 import org.jnetpcap.protocol.JProtocol;
 import org.jnetpcap.protocol.lan.Ethernet;
@@ -326,6 +329,118 @@ public class TestJScanner
 		assertTrue(packet.hasHeader(JProtocol.HTTP_ID));
 	}
 
+	/**
+	 * Stop ids skip application protocols and record the rest as payload.
+	 */
+	public void testStopAfterTransport() {
+		PcapPacket packet = new PcapPacket(getPcapPacket(HTTP, 5));
+		assertTrue(packet.hasHeader(JProtocol.HTTP_ID));
+
+		JScanner scanner = new JScanner();
+		scanner.setStopAfterTransport();
+		scanner.scan(packet, JProtocol.ETHERNET_ID);
+
+		assertTrue(packet.hasHeader(JProtocol.TCP_ID));
+		assertFalse(packet.hasHeader(JProtocol.HTTP_ID));
+		assertTrue(packet.hasHeader(JProtocol.PAYLOAD_ID));
+
+		scanner.clearLimits();
+		scanner.scan(packet, JProtocol.ETHERNET_ID);
+		assertTrue(packet.hasHeader(JProtocol.HTTP_ID));
+	}
+
+	/**
+	 * Scan stops once all target ids have been found.
+	 */
+	public void testTargetIds() {
+		PcapPacket packet = new PcapPacket(getPcapPacket(HTTP, 5));
+
+		JScanner scanner = new JScanner();
+		scanner.setTargetIds(JProtocol.ETHERNET_ID, JProtocol.IP4_ID);
+		assertEquals(2, scanner.getTargetIds().length);
+		scanner.scan(packet, JProtocol.ETHERNET_ID);
+
+		assertTrue(packet.hasHeader(JProtocol.IP4_ID));
+		assertFalse(packet.hasHeader(JProtocol.TCP_ID));
+		assertEquals(3, packet.getHeaderCount());
+	}
+
+	/**
+	 * A header registered by the test past the 8-bit id range. Binds to an
+	 * Ethernet type from the IEEE local experimental range.
+	 */
+	@Header(length = 4)
+	public static class HighIdHeader extends JHeader {
+
+		/** Ethernet type the header is bound to. */
+		public final static int TYPE = 0x88B5;
+
+		/**
+		 * Bind to ethernet.
+		 * 
+		 * @param packet
+		 *          the packet
+		 * @param eth
+		 *          the eth
+		 * @return true, if successful
+		 */
+		@Bind(to = Ethernet.class)
+		public static boolean bindToEthernet(JPacket packet, Ethernet eth) {
+			return eth.type() == TYPE;
+		}
+
+		/**
+		 * Value.
+		 * 
+		 * @return the long
+		 */
+		@Field(offset = 0, length = 32)
+		public long value() {
+			return super.getUInt(0);
+		}
+	}
+
+	/**
+	 * Registers a header with an id above 255 and checks that the scanner
+	 * reports the same id back, not one truncated to 8 bits.
+	 * 
+	 * @throws Exception
+	 *           the exception
+	 */
+	public void testRegisterAndScanPastId255() throws Exception {
+
+		/*
+		 * Skip over the ids not used by other headers, instead of registering
+		 * a couple of hundred header classes first.
+		 */
+		java.lang.reflect.Field last = JRegistry.class.getDeclaredField("LAST_ID");
+		last.setAccessible(true);
+		if (last.getInt(null) <= 256) {
+			last.setInt(null, 300);
+		}
+
+		final int id = JRegistry.register(HighIdHeader.class);
+		assertTrue("id=" + id, id > 255);
+		assertEquals(id, JRegistry.lookupId(HighIdHeader.class));
+
+		JPacket.getDefaultScanner().reloadAll();
+
+		JMemoryPacket packet = new JMemoryPacket(JProtocol.ETHERNET_ID,
+				"0005 9a3c 7800 0010 db22 32c8 88b5 0102 0304");
+
+		final HighIdHeader high = new HighIdHeader();
+		assertTrue("header not found", packet.hasHeader(high));
+		assertEquals(id, high.getId());
+		assertEquals(0x01020304L, high.value());
+
+		assertEquals(2, packet.getHeaderCount());
+		assertEquals(id, packet.getHeaderIdByIndex(1));
+		assertEquals(1, packet.getState().findHeaderIndex(id));
+		assertFalse(packet.hasHeader(id & 0xFF));
+
+		assertTrue(packet.getFlowKey().hasHeader(Ethernet.ID));
+	}
+
 	/**
 	 * Test packet state.
 	 */
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.packet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.nio.JBuffer;
+import org.jnetpcap.protocol.tcpip.Tcp;
+
+/**
+ * Reassembles the HTTP connections of the http-jpeg capture. Connection from
+ * client port 3188 carries a 4601 byte response in 4 segments, which are
+ * reordered and duplicated by some of the tests.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestJTcpReassembler
+    extends TestCase {
+
+	/**
+	 * Collects the stream contents of every stream.
+	 */
+	private static class Collector implements JTcpStreamHandler<Object> {
+
+		/** Close reasons in order streams closed. */
+		private final List<JTcpReassembler.Close> closed =
+		    new ArrayList<JTcpReassembler.Close>();
+
+		/** Number of gap bytes reported. */
+		private long gaps;
+
+		/** Client and server data of each stream, by stream id. */
+		private final Map<Long, ByteArrayOutputStream[]> streams =
+		    new HashMap<Long, ByteArrayOutputStream[]>();
+
+		/**
+		 * Gets the data of one direction of a stream.
+		 * 
+		 * @param id
+		 *          stream id
+		 * @param reverse
+		 *          direction
+		 * @return the data
+		 */
+		public byte[] get(long id, boolean reverse) {
+			return streams.get(id)[(reverse) ? 1 : 0].toByteArray();
+		}
+
+		public void nextData(JTcpStream stream,
+		    boolean reverse,
+		    JBuffer data,
+		    int offset,
+		    int length,
+		    Object user) {
+
+			ByteArrayOutputStream[] out = streams.get(stream.getId());
+			if (out == null) {
+				out =
+				    new ByteArrayOutputStream[] { new ByteArrayOutputStream(),
+				        new ByteArrayOutputStream() };
+				streams.put(stream.getId(), out);
+			}
+
+			final byte[] b = data.getByteArray(offset, length);
+			out[(reverse) ? 1 : 0].write(b, 0, b.length);
+		}
+
+		public void nextGap(JTcpStream stream,
+		    boolean reverse,
+		    int length,
+		    Object user) {
+			assertTrue(length > 0);
+			gaps += length;
+		}
+
+		public void streamClosed(JTcpStream stream,
+		    JTcpReassembler.Close reason,
+		    Object user) {
+			closed.add(reason);
+		}
+	}
+
+	/** Length of the response on connection 3188. */
+	private final static int RESPONSE_LENGTH = 3 * 1460 + 221;
+
+	/** Packets of the test capture. */
+	private List<PcapPacket> packets;
+
+	/** Packets of connection from client port 3188, in capture order. */
+	private List<PcapPacket> connection;
+
+	/**
+	 * Creates a reassembler with a per direction memory limit.
+	 * 
+	 * @param collector
+	 *          handler
+	 * @param perDirection
+	 *          memory limit per direction
+	 * @return the reassembler
+	 */
+	private JTcpReassembler<Object> create(Collector collector, int perDirection) {
+		return new JTcpReassembler<Object>(1000,
+		    JTcpReassembler.DEFAULT_MAX_MEMORY, perDirection, 60, TimeUnit.SECONDS,
+		    collector);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	protected void setUp() throws Exception {
+		packets = new ArrayList<PcapPacket>();
+		connection = new ArrayList<PcapPacket>();
+
+		final Tcp tcp = new Tcp();
+		for (PcapPacket packet : TestUtils.getIterable(TestUtils.HTTP)) {
+			final PcapPacket copy = new PcapPacket(packet);
+			packets.add(copy);
+
+			if (copy.hasHeader(tcp)
+			    && (tcp.source() == 3188 || tcp.destination() == 3188)) {
+				connection.add(copy);
+			}
+		}
+	}
+
+	/**
+	 * Index within connection of the n-th server segment carrying data.
+	 * 
+	 * @param n
+	 *          0 based number of data segment
+	 * @return index into connection list
+	 */
+	private int serverData(int n) {
+		final Tcp tcp = new Tcp();
+
+		for (int i = 0; i < connection.size(); i++) {
+			final PcapPacket packet = connection.get(i);
+			if (packet.getHeader(tcp).source() == 80
+			    && tcp.getPayloadLength() > 0 && n-- == 0) {
+				return i;
+			}
+		}
+
+		throw new IllegalStateException("no such segment");
+	}
+
+	/**
+	 * Every stream is closed by the end and every HTTP request is found at the
+	 * start of its stream.
+	 */
+	public void testCapture() {
+		final Collector collector = new Collector();
+		final JTcpReassembler<Object> reassembler =
+		    new JTcpReassembler<Object>(collector);
+
+		for (PcapPacket packet : packets) {
+			reassembler.nextPacket(packet, null);
+		}
+		reassembler.flush(null);
+
+		assertEquals(0, reassembler.size());
+		assertEquals(0, reassembler.getMemory());
+		assertTrue(reassembler.getCloseCount(JTcpReassembler.Close.FIN) > 0);
+		assertEquals(reassembler.getCount(JTcpReassembler.Counter.STREAMS),
+		    collector.closed.size());
+
+		int requests = 0;
+		for (long id : collector.streams.keySet()) {
+			if (new String(collector.get(id, false)).startsWith("GET ")) {
+				requests++;
+			}
+		}
+
+		assertEquals(18, requests);
+	}
+
+	/**
+	 * Reference response on connection 3188 reassembled in capture order.
+	 * 
+	 * @return the response
+	 */
+	private byte[] reference() {
+		final Collector collector = new Collector();
+		final JTcpReassembler<Object> reassembler = create(collector, 1024 * 1024);
+
+		for (PcapPacket packet : connection) {
+			reassembler.add(packet, null);
+		}
+
+		assertEquals(1, reassembler.getCloseCount(JTcpReassembler.Close.FIN));
+		assertEquals(0, reassembler.size());
+
+		final byte[] response = collector.get(0, true);
+		assertEquals(RESPONSE_LENGTH, response.length);
+
+		return response;
+	}
+
+	/**
+	 * Out of order segment is held until the data before it arrives.
+	 */
+	public void testOutOfOrder() {
+		final byte[] expected = reference();
+
+		Collections.swap(connection, serverData(1), serverData(2));
+
+		final Collector collector = new Collector();
+		final JTcpReassembler<Object> reassembler = create(collector, 1024 * 1024);
+		for (PcapPacket packet : connection) {
+			reassembler.add(packet, null);
+		}
+
+		assertEquals(1, reassembler.getCount(JTcpReassembler.Counter.OUT_OF_ORDER));
+		assertEquals(0, reassembler.getCount(JTcpReassembler.Counter.GAPS));
+		assertEquals(0, reassembler.getMemory());
+		assertEquals(new String(expected), new String(collector.get(0, true)));
+	}
+
+	/**
+	 * Retransmitted segment is delivered only once.
+	 */
+	public void testRetransmission() {
+		final byte[] expected = reference();
+
+		final int i = serverData(1);
+		connection.add(i + 1, connection.get(i));
+
+		final Collector collector = new Collector();
+		final JTcpReassembler<Object> reassembler = create(collector, 1024 * 1024);
+		for (PcapPacket packet : connection) {
+			reassembler.add(packet, null);
+		}
+
+		assertEquals(1, reassembler
+		    .getCount(JTcpReassembler.Counter.RETRANSMISSIONS));
+		assertEquals(new String(expected), new String(collector.get(0, true)));
+	}
+
+	/**
+	 * Without memory for out of order segments, the missing data is given up
+	 * on and reported as a gap.
+	 */
+	public void testMemoryLimit() {
+		Collections.swap(connection, serverData(1), serverData(2));
+
+		final Collector collector = new Collector();
+		final JTcpReassembler<Object> reassembler = create(collector, 0);
+
+		for (PcapPacket packet : connection) {
+			reassembler.add(packet, null);
+		}
+
+		assertEquals(1, reassembler.getCount(JTcpReassembler.Counter.GAPS));
+		assertEquals(1460L, collector.gaps);
+		assertEquals(RESPONSE_LENGTH - 1460, collector.get(0, true).length);
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests lookups, expiration and eviction of ConcurrentLongCache.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestConcurrentLongCache
+    extends TestCase {
+
+	/**
+	 * Cache with a clock controlled by the test.
+	 */
+	private static class ManualCache
+	    extends ConcurrentLongCache<String> {
+
+		/** The now. */
+		private long now = 1000;
+
+		/**
+		 * Instantiates a new manual cache.
+		 * 
+		 * @param maxEntries
+		 *          the max entries
+		 */
+		public ManualCache(int maxEntries) {
+			super(maxEntries);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see org.jnetpcap.util.ConcurrentLongCache#currentTimeMillis()
+		 */
+		@Override
+		protected long currentTimeMillis() {
+			return now;
+		}
+	}
+
+	/**
+	 * Test put and get.
+	 */
+	public void testPutGet() {
+		final ManualCache cache = new ManualCache(100);
+
+		cache.put(1L, "one", 1000);
+		cache.put(0x7FFFFFFFFFFFFFFFL, "max", 1000);
+		cache.put(-1L, "minus one", 1000);
+
+		assertEquals("one", cache.get(1L));
+		assertEquals("max", cache.get(0x7FFFFFFFFFFFFFFFL));
+		assertEquals("minus one", cache.get(-1L));
+		assertNull(cache.get(2L));
+		assertEquals(3, cache.size());
+
+		cache.put(1L, "uno", 1000);
+		assertEquals("uno", cache.get(1L));
+		assertEquals(3, cache.size());
+
+		assertTrue(cache.remove(1L));
+		assertFalse(cache.remove(1L));
+		assertNull(cache.get(1L));
+		assertEquals(2, cache.size());
+	}
+
+	/**
+	 * Test expiration.
+	 */
+	public void testExpiration() {
+		final ManualCache cache = new ManualCache(100);
+
+		cache.put(1L, "short", 100);
+		cache.put(2L, "long", 10000);
+		cache.put(3L, "forever", Long.MAX_VALUE);
+
+		cache.now += 100;
+		assertFalse(cache.containsKey(1L));
+		assertNull(cache.get(1L));
+		assertEquals("long", cache.get(2L));
+
+		cache.now += 10000;
+		assertEquals(1, cache.expire());
+		assertEquals(1, cache.size());
+		assertEquals("forever", cache.get(3L));
+	}
+
+	/**
+	 * Referenced entries get a second chance, so the entry evicted to make room
+	 * is one that has not been read.
+	 */
+	public void testClockEviction() {
+		final ManualCache cache = new ManualCache(8);
+
+		for (long i = 0; i < 8; i++) {
+			cache.put(i, Long.toString(i), 10000);
+		}
+
+		for (long i = 0; i < 4; i++) {
+			assertNotNull(cache.get(i));
+		}
+
+		cache.put(100L, "100", 10000);
+
+		assertEquals(8, cache.size());
+		assertEquals("100", cache.get(100L));
+		for (long i = 0; i < 4; i++) {
+			assertTrue(cache.containsKey(i));
+		}
+
+		int evicted = 0;
+		for (long i = 4; i < 8; i++) {
+			if (cache.containsKey(i) == false) {
+				evicted++;
+			}
+		}
+
+		assertEquals(1, evicted);
+	}
+
+	/**
+	 * Expired entries are evicted ahead of live ones.
+	 */
+	public void testExpiredEvictedFirst() {
+		final ManualCache cache = new ManualCache(8);
+
+		for (long i = 0; i < 8; i++) {
+			cache.put(i, Long.toString(i), (i == 5) ? 10 : 10000);
+			cache.get(i);
+		}
+
+		cache.now += 10;
+		cache.put(100L, "100", 10000);
+
+		for (long i = 0; i < 8; i++) {
+			assertEquals(i != 5, cache.containsKey(i));
+		}
+	}
+
+	/**
+	 * The number of entries never exceeds the bound.
+	 */
+	public void testBounded() {
+		final ManualCache cache = new ManualCache(1000);
+
+		for (long i = 0; i < 100000; i++) {
+			cache.put(i * 7919, "x", 10000);
+			assertTrue(cache.size() <= 1000 + 16);
+		}
+
+		cache.setMaxEntries(100);
+		assertTrue(cache.size() <= 100 + 16);
+
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * Random operations compared against a HashMap, which exercises removal of
+	 * entries from the middle of probe sequences.
+	 */
+	public void testAgainstHashMap() {
+		final ManualCache cache = new ManualCache(100000);
+		final Map<Long, String> map = new HashMap<Long, String>();
+		final Random random = new Random(1);
+
+		for (int i = 0; i < 200000; i++) {
+			final long key = random.nextInt(5000);
+			switch (random.nextInt(3)) {
+				case 0:
+					cache.put(key, "v" + i, 10000);
+					map.put(key, "v" + i);
+					break;
+
+				case 1:
+					assertEquals(map.remove(key) != null, cache.remove(key));
+					break;
+
+				default:
+					assertEquals(map.get(key), cache.get(key));
+			}
+		}
+
+		assertEquals(map.size(), cache.size());
+
+		final AtomicInteger count = new AtomicInteger();
+		cache.visit(new ConcurrentLongCache.EntryHandler<String>() {
+
+			public void nextEntry(long key, String value, long expiration) {
+				assertEquals(map.get(key), value);
+				count.incrementAndGet();
+			}
+		});
+
+		assertEquals(map.size(), count.get());
+	}
+
+	/**
+	 * Readers running alongside writers always see the value that belongs to
+	 * the key.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testConcurrentAccess() throws InterruptedException {
+		final ConcurrentLongCache<Long> cache = new ConcurrentLongCache<Long>(512);
+		final AtomicInteger errors = new AtomicInteger();
+		final Thread[] threads = new Thread[4];
+
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					final Random random = new Random(seed);
+					for (int i = 0; i < 200000; i++) {
+						final long key = random.nextInt(2000);
+						if (random.nextInt(4) == 0) {
+							cache.put(key, key * 3, 60000);
+						} else {
+							final Long v = cache.get(key);
+							if (v != null && v.longValue() != key * 3) {
+								errors.incrementAndGet();
+							}
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertEquals(0, errors.get());
+		assertTrue(cache.size() <= 512 + 16);
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.util.RingBlockingQueue.WaitStrategy;
+
+/**
+ * Tests the ring buffer blocking queue in single and multi producer modes.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestRingBlockingQueue
+    extends TestCase {
+
+	/**
+	 * Capacity is rounded up, a full queue rejects offers and elements come out
+	 * in order.
+	 */
+	public void testFullAndEmpty() {
+		RingBlockingQueue<Integer> queue = new RingBlockingQueue<Integer>(3);
+		assertEquals(4, queue.capacity());
+		assertNull(queue.poll());
+		assertNull(queue.peek());
+
+		for (int i = 0; i < 4; i++) {
+			assertTrue(queue.offer(i));
+		}
+		assertFalse(queue.offer(4));
+		assertEquals(4, queue.size());
+		assertEquals(0, queue.remainingCapacity());
+		assertEquals(0, queue.peek().intValue());
+
+		for (int i = 0; i < 4; i++) {
+			assertEquals(i, queue.poll().intValue());
+		}
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * Batch drain honors the maximum and frees the slots.
+	 */
+	public void testDrainTo() {
+		RingBlockingQueue<Integer> queue = new RingBlockingQueue<Integer>(8);
+		for (int i = 0; i < 8; i++) {
+			queue.offer(i);
+		}
+
+		List<Integer> list = new ArrayList<Integer>();
+		assertEquals(5, queue.drainTo(list, 5));
+		assertEquals(3, queue.size());
+
+		for (int i = 8; i < 13; i++) {
+			assertTrue(queue.offer(i));
+		}
+
+		assertEquals(8, queue.drainTo(list));
+		for (int i = 0; i < 13; i++) {
+			assertEquals(i, list.get(i).intValue());
+		}
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * Timed poll returns null after the timeout.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testPollTimeout() throws InterruptedException {
+		RingBlockingQueue<Integer> queue = new RingBlockingQueue<Integer>(8);
+
+		long ts = System.nanoTime();
+		assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - ts >= TimeUnit.MILLISECONDS.toNanos(20));
+
+		queue.offer(1);
+		assertEquals(1, queue.poll(20, TimeUnit.MILLISECONDS).intValue());
+	}
+
+	/**
+	 * Runs producers against a single consumer and checks that each producer's
+	 * elements arrive complete and in order.
+	 * 
+	 * @param producers
+	 *          number of producer threads
+	 * @param strategy
+	 *          wait strategy
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	private void runProducers(final int producers, WaitStrategy strategy)
+	    throws InterruptedException {
+		final int count = 200000;
+		final BlockingQueue<long[]> queue =
+		    new RingBlockingQueue<long[]>(128, producers > 1, strategy);
+		final CountDownLatch start = new CountDownLatch(1);
+
+		for (int p = 0; p < producers; p++) {
+			final int id = p;
+			Thread t = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < count; i++) {
+							queue.put(new long[] {
+							    id,
+							    i });
+						}
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+
+		start.countDown();
+
+		long[] next = new long[producers];
+		List<long[]> batch = new ArrayList<long[]>();
+		for (int received = 0; received < count * producers;) {
+			if (queue.drainTo(batch, 32) == 0) {
+				batch.add(queue.take());
+			}
+
+			for (long[] e : batch) {
+				assertEquals(next[(int) e[0]]++, e[1]);
+				received++;
+			}
+			batch.clear();
+		}
+
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * Single producer with parking consumer.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testSingleProducerPark() throws InterruptedException {
+		runProducers(1, WaitStrategy.PARK);
+	}
+
+	/**
+	 * Single producer with yielding consumer.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testSingleProducerYield() throws InterruptedException {
+		runProducers(1, WaitStrategy.YIELD);
+	}
+
+	/**
+	 * Multiple producers with parking consumer.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testMultiProducerPark() throws InterruptedException {
+		runProducers(4, WaitStrategy.PARK);
+	}
+
+	/**
+	 * Multiple producers with yielding consumer.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testMultiProducerYield() throws InterruptedException {
+		runProducers(4, WaitStrategy.YIELD);
+	}
+
+	/**
+	 * The pump dispatches every element from a ring buffer queue.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testPump() throws InterruptedException {
+		final int count = 10000;
+		final CountDownLatch done = new CountDownLatch(count);
+
+		BlockingQueuePump<Integer> pump =
+		    new BlockingQueuePump<Integer>("pump", new RingBlockingQueue<Integer>(
+		        64)) {
+
+			    @Override
+			    protected void dispatch(Integer data) {
+				    done.countDown();
+			    }
+		    };
+
+		for (int i = 0; i < count; i++) {
+			pump.put(i);
+		}
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+import org.jnetpcap.util.RingBlockingQueue.WaitStrategy;
+
+/**
+ * Compares throughput and latency of {@link RingBlockingQueue} with the JRE's
+ * blocking queues. Not part of the regular build tests, run manually to see
+ * the numbers.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestRingBlockingQueuePerformance
+    extends TestCase {
+
+	/** Number of elements per producer. */
+	private final static int COUNT = 2000000;
+
+	/** Capacity of each queue. */
+	private final static int CAPACITY = 4096;
+
+	/** Number of elements in latency runs. */
+	private final static int LATENCY_COUNT = 100000;
+
+	/**
+	 * Measures elements per second from producers to a single batch draining
+	 * consumer.
+	 * 
+	 * @param queue
+	 *          queue to test
+	 * @param producers
+	 *          number of producer threads
+	 * @return elements per second
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	private double throughput(final BlockingQueue<Long> queue, int producers)
+	    throws InterruptedException {
+		final Long element = Long.valueOf(0);
+
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			threads[p] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < COUNT; i++) {
+							queue.put(element);
+						}
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			};
+		}
+
+		final List<Long> batch = new ArrayList<Long>(256);
+		final long total = (long) COUNT * producers;
+
+		long ts = System.nanoTime();
+		for (Thread t : threads) {
+			t.start();
+		}
+
+		for (long received = 0; received < total;) {
+			int n = queue.drainTo(batch, 256);
+			if (n == 0) {
+				queue.take();
+				n = 1;
+			}
+
+			received += n;
+			batch.clear();
+		}
+
+		long te = System.nanoTime();
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		return total / ((te - ts) / 1e9);
+	}
+
+	/**
+	 * Measures average time from put to take, with the producer sending one
+	 * element at a time at a modest rate so that the consumer is usually idle
+	 * and has to be woken up.
+	 * 
+	 * @param queue
+	 *          queue to test
+	 * @return average latency in nanos
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	private double latency(final BlockingQueue<Long> queue)
+	    throws InterruptedException {
+		Thread producer = new Thread() {
+			public void run() {
+				try {
+					for (int i = 0; i < LATENCY_COUNT; i++) {
+						queue.put(System.nanoTime());
+
+						long wait = System.nanoTime() + 20000;
+						while (System.nanoTime() < wait) {
+							// Busy wait 20us between elements
+						}
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		};
+		producer.start();
+
+		long sum = 0;
+		for (int i = 0; i < LATENCY_COUNT; i++) {
+			sum += System.nanoTime() - queue.take();
+		}
+
+		producer.join();
+
+		return (double) sum / LATENCY_COUNT;
+	}
+
+	/**
+	 * Reports throughput for 1 and 4 producers.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testThroughput() throws InterruptedException {
+		for (int producers : new int[] {
+		    1,
+		    4 }) {
+
+			report("LinkedBlockingQueue", producers, throughput(
+			    new LinkedBlockingQueue<Long>(CAPACITY), producers));
+			report("ArrayBlockingQueue", producers, throughput(
+			    new ArrayBlockingQueue<Long>(CAPACITY), producers));
+
+			for (WaitStrategy strategy : WaitStrategy.values()) {
+				report("RingBlockingQueue/" + strategy, producers, throughput(
+				    new RingBlockingQueue<Long>(CAPACITY, producers > 1, strategy),
+				    producers));
+			}
+		}
+	}
+
+	/**
+	 * Reports average latency.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testLatency() throws InterruptedException {
+		System.out.printf("%-28s %10.0f ns%n", "LinkedBlockingQueue",
+		    latency(new LinkedBlockingQueue<Long>(CAPACITY)));
+
+		for (WaitStrategy strategy : WaitStrategy.values()) {
+			System.out.printf("%-28s %10.0f ns%n", "RingBlockingQueue/" + strategy,
+			    latency(new RingBlockingQueue<Long>(CAPACITY, false, strategy)));
+		}
+	}
+
+	/**
+	 * Prints a throughput result.
+	 */
+	private void report(String name, int producers, double rate) {
+		System.out.printf("%-28s producers=%d %,14.0f ops/s%n", name, producers,
+		    rate);
+	}
+}
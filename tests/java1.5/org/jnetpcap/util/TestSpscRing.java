@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests single producer, single consumer ring.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestSpscRing
+    extends TestCase {
+
+	/**
+	 * Capacity is rounded up and a full ring rejects offers.
+	 */
+	public void testFullAndEmpty() {
+		SpscRing<Integer> ring = new SpscRing<Integer>(5);
+		assertEquals(8, ring.capacity());
+		assertTrue(ring.isEmpty());
+		assertNull(ring.poll());
+
+		for (int i = 0; i < 8; i++) {
+			assertTrue(ring.offer(i));
+		}
+		assertFalse(ring.offer(8));
+		assertEquals(8, ring.size());
+
+		for (int i = 0; i < 8; i++) {
+			assertEquals(i, ring.poll().intValue());
+		}
+		assertNull(ring.poll());
+		assertTrue(ring.isEmpty());
+	}
+
+	/**
+	 * Elements passed between 2 threads arrive complete and in order.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testOrderAcrossThreads() throws InterruptedException {
+		final SpscRing<Integer> ring = new SpscRing<Integer>(64);
+		final int count = 1000000;
+
+		Thread producer = new Thread() {
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					while (ring.offer(i) == false) {
+						Thread.yield();
+					}
+				}
+			}
+		};
+		producer.start();
+
+		for (int i = 0; i < count; i++) {
+			Integer e;
+			while ((e = ring.poll()) == null) {
+				Thread.yield();
+			}
+
+			assertEquals(i, e.intValue());
+		}
+
+		producer.join();
+		assertTrue(ring.isEmpty());
+	}
+}
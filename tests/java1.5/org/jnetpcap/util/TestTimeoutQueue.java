@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests expiration order of TimeoutQueue.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestTimeoutQueue
+    extends TestCase {
+
+	/**
+	 * Simple timeout entry which records when it timed out.
+	 */
+	private static class Entry implements Timeout {
+
+		/** The deadline. */
+		private final long deadline;
+
+		/** Where timed out entries are recorded. */
+		private final List<Long> fired;
+
+		/**
+		 * Instantiates a new entry.
+		 * 
+		 * @param deadline
+		 *          the deadline
+		 * @param fired
+		 *          the fired list
+		 */
+		public Entry(long deadline, List<Long> fired) {
+			this.deadline = deadline;
+			this.fired = fired;
+		}
+
+		public int compareTo(Timeout o) {
+			long other = ((Entry) o).deadline;
+			return (deadline < other) ? -1 : (deadline == other) ? 0 : 1;
+		}
+
+		public boolean isTimedout(long timeInMillis) {
+			return timeInMillis >= deadline;
+		}
+
+		public void timeout() {
+			fired.add(deadline);
+		}
+	}
+
+	/**
+	 * All entries due are timed out in deadline order, no matter in which
+	 * order they were added.
+	 */
+	public void testTimeoutInDeadlineOrder() {
+		TimeoutQueue queue = new TimeoutQueue();
+		List<Long> fired = new ArrayList<Long>();
+
+		long[] deadlines = {
+		    50, 10, 40, 20, 30, 90, 60, 80, 70
+		};
+		for (long d : deadlines) {
+			queue.add(new Entry(d, fired));
+		}
+
+		queue.timeout(65);
+
+		assertEquals(6, fired.size());
+		for (int i = 0; i < fired.size(); i++) {
+			assertEquals((i + 1) * 10L, fired.get(i).longValue());
+		}
+
+		queue.timeout(100);
+		assertEquals(9, fired.size());
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * Removed entries never time out.
+	 */
+	public void testRemove() {
+		TimeoutQueue queue = new TimeoutQueue();
+		List<Long> fired = new ArrayList<Long>();
+
+		Entry e = new Entry(10, fired);
+		queue.add(e);
+		queue.add(new Entry(20, fired));
+
+		assertTrue(queue.remove(e));
+		queue.timeout(30);
+
+		assertEquals(1, fired.size());
+		assertEquals(20L, fired.get(0).longValue());
+	}
+}
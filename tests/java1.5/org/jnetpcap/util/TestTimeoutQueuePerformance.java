@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares throughput of the priority queue based {@link TimeoutQueue} with
+ * {@link TimingWheelQueue}. The workload resembles flow or fragment tracking:
+ * a large population of pending entries, most of which are cancelled or
+ * rescheduled before they expire. Not part of the regular build tests, run
+ * manually to see the numbers.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestTimeoutQueuePerformance
+    extends TestCase {
+
+	/**
+	 * Timeout entry with a deadline.
+	 */
+	private static class Entry implements DeadlineTimeout {
+
+		/** The deadline. */
+		long deadline;
+
+		public int compareTo(Timeout o) {
+			long other = ((Entry) o).deadline;
+			return (deadline < other) ? -1 : (deadline == other) ? 0 : 1;
+		}
+
+		public long getDeadline() {
+			return deadline;
+		}
+
+		public boolean isTimedout(long timeInMillis) {
+			return timeInMillis >= deadline;
+		}
+
+		public void timeout() {
+		}
+	}
+
+	/** Number of pending entries. */
+	private final static int ENTRIES = 20000;
+
+	/** Number of operations per run. */
+	private final static int OPERATIONS = 500000;
+
+	/** Timeout given to each entry in millis. */
+	private final static int TIMEOUT = 30000;
+
+	/**
+	 * Runs the workload: each operation advances time by a milli, cancels a
+	 * random entry and reschedules it.
+	 * 
+	 * @param queue
+	 *          queue to run against
+	 * @return elapsed time in nanos
+	 */
+	private long run(TimeoutQueue queue) {
+		Random random = new Random(0);
+		Entry[] entries = new Entry[ENTRIES];
+
+		long now = 0;
+		queue.timeout(now);
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new Entry();
+			entries[i].deadline = now + random.nextInt(TIMEOUT);
+			queue.add(entries[i]);
+		}
+
+		long ts = System.nanoTime();
+		for (int i = 0; i < OPERATIONS; i++) {
+			Entry e = entries[random.nextInt(entries.length)];
+
+			queue.remove(e);
+			e.deadline = now + TIMEOUT;
+			queue.add(e);
+
+			queue.timeout(++now);
+		}
+
+		return System.nanoTime() - ts;
+	}
+
+	/**
+	 * Reports operations per second for both queue implementations.
+	 */
+	public void testCompareQueues() {
+		/* Warm up */
+		run(new TimeoutQueue());
+		run(new TimingWheelQueue());
+
+		long pq = run(new TimeoutQueue());
+		long wheel = run(new TimingWheelQueue());
+
+		System.out.printf("TimeoutQueue:      %,12.0f ops/s%n", OPERATIONS
+		    / (pq / 1e9));
+		System.out.printf("TimingWheelQueue:  %,12.0f ops/s%n", OPERATIONS
+		    / (wheel / 1e9));
+	}
+}
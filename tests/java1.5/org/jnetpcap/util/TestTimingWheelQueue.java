@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests expiration of TimingWheelQueue entries, including entries which have
+ * to cascade down through several wheels.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestTimingWheelQueue
+    extends TestCase {
+
+	/**
+	 * Timeout entry which records the time at which it timed out.
+	 */
+	private static class Entry implements DeadlineTimeout {
+
+		/** The deadline. */
+		private final long deadline;
+
+		/** Time at which entry timed out or -1. */
+		private long firedAt = -1;
+
+		/** Current queue time, shared by all entries. */
+		private final long[] now;
+
+		/** Where timed out entries are recorded. */
+		private final List<Entry> fired;
+
+		/**
+		 * Instantiates a new entry.
+		 * 
+		 * @param deadline
+		 *          the deadline
+		 * @param now
+		 *          current queue time
+		 * @param fired
+		 *          the fired list
+		 */
+		public Entry(long deadline, long[] now, List<Entry> fired) {
+			this.deadline = deadline;
+			this.now = now;
+			this.fired = fired;
+		}
+
+		public int compareTo(Timeout o) {
+			long other = ((Entry) o).deadline;
+			return (deadline < other) ? -1 : (deadline == other) ? 0 : 1;
+		}
+
+		public long getDeadline() {
+			return deadline;
+		}
+
+		public boolean isTimedout(long timeInMillis) {
+			return timeInMillis >= deadline;
+		}
+
+		public void timeout() {
+			assertEquals("timed out twice", -1, firedAt);
+			firedAt = now[0];
+			fired.add(this);
+		}
+	}
+
+	/**
+	 * Advances the queue and the shared clock.
+	 */
+	private void advance(TimeoutQueue queue, long[] now, long time) {
+		now[0] = time;
+		queue.timeout(time);
+	}
+
+	/**
+	 * Entries expire at the first timeout() call at or past their deadline,
+	 * with tick of 1 milli.
+	 */
+	public void testExactExpiry() {
+		TimingWheelQueue queue = new TimingWheelQueue();
+		List<Entry> fired = new ArrayList<Entry>();
+		long[] now = new long[1];
+
+		advance(queue, now, 1000);
+
+		Entry a = new Entry(1001, now, fired);
+		Entry b = new Entry(1300, now, fired);
+		Entry c = new Entry(1000 + 70000, now, fired);
+		queue.add(a);
+		queue.add(b);
+		queue.add(c);
+		assertEquals(3, queue.size());
+
+		advance(queue, now, 1000);
+		assertEquals(0, fired.size());
+
+		advance(queue, now, 1001);
+		assertEquals(1001, a.firedAt);
+
+		advance(queue, now, 1299);
+		assertEquals(-1, b.firedAt);
+		advance(queue, now, 1300);
+		assertEquals(1300, b.firedAt);
+
+		advance(queue, now, 1000 + 69999);
+		assertEquals(-1, c.firedAt);
+		advance(queue, now, 1000 + 70000);
+		assertEquals(1000 + 70000, c.firedAt);
+
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * Random deadlines spanning all wheels never expire early and expire no
+	 * more than a tick late.
+	 */
+	public void testRandomDeadlines() {
+		final long tick = 10;
+		TimingWheelQueue queue = new TimingWheelQueue(tick);
+		List<Entry> fired = new ArrayList<Entry>();
+		List<Entry> all = new ArrayList<Entry>();
+		long[] now = new long[1];
+		Random random = new Random(1);
+
+		advance(queue, now, 12345);
+
+		for (int i = 0; i < 5000; i++) {
+			int span = 1 << (random.nextInt(5) * 8);
+			long deadline = now[0] + (random.nextInt(span) + 1) * tick
+			    + random.nextInt((int) tick);
+			Entry e = new Entry(deadline, now, fired);
+			all.add(e);
+			queue.add(e);
+		}
+
+		/* Advance in irregular steps, sometimes jumping far ahead */
+		long end = now[0] + (1L << 32) * tick;
+		while (now[0] < end) {
+			long step = (random.nextInt(4) == 0) ? random.nextInt(1 << 26) : random
+			    .nextInt(1000);
+			advance(queue, now, Math.min(end, now[0] + step));
+
+			for (Entry e : fired) {
+				assertTrue("early", e.firedAt >= e.deadline);
+			}
+		}
+
+		assertEquals(all.size(), fired.size());
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * Stepping one tick at a time, every entry expires within its tick.
+	 */
+	public void testLateness() {
+		final long tick = 4;
+		TimingWheelQueue queue = new TimingWheelQueue(tick);
+		List<Entry> fired = new ArrayList<Entry>();
+		long[] now = new long[1];
+		Random random = new Random(2);
+
+		advance(queue, now, 0);
+
+		for (int i = 0; i < 2000; i++) {
+			queue.add(new Entry(random.nextInt(300000) + 1, now, fired));
+		}
+
+		for (long t = 0; t <= 300000 + tick; t += tick) {
+			advance(queue, now, t);
+		}
+
+		assertEquals(2000, fired.size());
+		for (Entry e : fired) {
+			assertTrue(e.firedAt >= e.deadline);
+			assertTrue(e.firedAt - e.deadline < tick);
+		}
+	}
+
+	/**
+	 * Removed entries never time out, including those removed by other entries
+	 * expiring in the same tick.
+	 */
+	public void testRemove() {
+		final TimingWheelQueue queue = new TimingWheelQueue();
+		final List<Entry> fired = new ArrayList<Entry>();
+		final long[] now = new long[1];
+
+		advance(queue, now, 0);
+
+		final Entry a = new Entry(500, now, fired);
+		final Entry b = new Entry(100000, now, fired);
+		final Entry c = new Entry(20, now, fired);
+		Entry d = new Entry(20, now, fired) {
+			@Override
+			public void timeout() {
+				super.timeout();
+				queue.remove(c);
+			}
+		};
+
+		queue.add(a);
+		queue.add(b);
+		queue.add(c);
+		queue.add(d);
+
+		assertTrue(queue.remove(a));
+		assertFalse(queue.remove(a));
+		assertTrue(queue.remove(b));
+
+		advance(queue, now, 200000);
+
+		assertTrue(fired.size() == 1 || (fired.size() == 2 && fired.get(0) == c));
+		assertEquals(-1, a.firedAt);
+		assertEquals(-1, b.firedAt);
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * Entries may reschedule themselves from within timeout().
+	 */
+	public void testRescheduleFromTimeout() {
+		final TimingWheelQueue queue = new TimingWheelQueue();
+		final long[] now = new long[1];
+		final int[] count = new int[1];
+
+		class Periodic implements DeadlineTimeout {
+			long deadline = 10;
+
+			public int compareTo(Timeout o) {
+				return 0;
+			}
+
+			public long getDeadline() {
+				return deadline;
+			}
+
+			public boolean isTimedout(long timeInMillis) {
+				return timeInMillis >= deadline;
+			}
+
+			public void timeout() {
+				assertTrue(now[0] >= deadline);
+				count[0]++;
+				deadline = now[0] + 10;
+				queue.add(this);
+			}
+		}
+
+		advance(queue, now, 0);
+		queue.add(new Periodic());
+
+		for (long t = 1; t <= 1000; t++) {
+			advance(queue, now, t);
+		}
+
+		assertEquals(100, count[0]);
+		assertEquals(1, queue.size());
+
+		/* A single big jump times out the entry only once */
+		advance(queue, now, 5000);
+		assertEquals(101, count[0]);
+	}
+
+	/**
+	 * Plain timeouts, which do not supply a deadline, are still supported.
+	 */
+	public void testPlainTimeout() {
+		TimingWheelQueue queue = new TimingWheelQueue();
+		final List<Long> fired = new ArrayList<Long>();
+
+		queue.add(new Timeout() {
+			public int compareTo(Timeout o) {
+				return 0;
+			}
+
+			public boolean isTimedout(long timeInMillis) {
+				return timeInMillis >= 50;
+			}
+
+			public void timeout() {
+				fired.add(50L);
+			}
+		});
+
+		assertEquals(1, queue.size());
+		queue.timeout(49);
+		assertEquals(0, fired.size());
+		queue.timeout(50);
+		assertEquals(1, fired.size());
+		assertTrue(queue.isEmpty());
+	}
+}
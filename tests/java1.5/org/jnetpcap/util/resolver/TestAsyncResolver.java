@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2005, 2006, 2007, 2008, 2009, 2010 Sly Technologies, Inc.
+ *
+ * This file is part of jNetPcap.
+ *
+ * jNetPcap is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 3 of 
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.jnetpcap.util.resolver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the asynchronous resolver using a local table of names in place of
+ * DNS lookups.
+ * 
+ * @author Mark Bednarczyk
+ * @author Sly Technologies, Inc.
+ */
+public class TestAsyncResolver
+    extends TestCase {
+
+	/**
+	 * Lookup source backed by a table, which can be made to block until
+	 * released.
+	 */
+	private static class TableLookup implements AsyncResolver.Lookup {
+
+		/** The names. */
+		private final Map<Long, String> names = new HashMap<Long, String>();
+
+		/** The release latch. */
+		private final CountDownLatch release;
+
+		/**
+		 * Instantiates a new table lookup.
+		 * 
+		 * @param blocked
+		 *          true if lookups should wait for release
+		 */
+		public TableLookup(boolean blocked) {
+			this.release = new CountDownLatch(blocked ? 1 : 0);
+		}
+
+		public String lookup(byte[] address) {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				return null;
+			}
+
+			return names.get(hash(address));
+		}
+	}
+
+	/** The Constant A. */
+	private final static byte[] A = new byte[] {
+	    10,
+	    0,
+	    0,
+	    1 };
+
+	/** The Constant B. */
+	private final static byte[] B = new byte[] {
+	    10,
+	    0,
+	    0,
+	    2 };
+
+	/** The Constant C. */
+	private final static byte[] C = new byte[] {
+	    10,
+	    0,
+	    0,
+	    3 };
+
+	/**
+	 * Hash of an IPv4 address.
+	 * 
+	 * @param address
+	 *          the address
+	 * @return the hash
+	 */
+	private static long hash(byte[] address) {
+		return ((address[0] & 0xFF) << 24) | ((address[1] & 0xFF) << 16)
+		    | ((address[2] & 0xFF) << 8) | (address[3] & 0xFF);
+	}
+
+	/** The async. */
+	private AsyncResolver async;
+
+	/** The resolver. */
+	private IpResolver resolver;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		resolver = new IpResolver();
+		resolver.initializeIfNeeded();
+		resolver.clearCache();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		if (async != null) {
+			async.shutdown();
+			async = null;
+		}
+	}
+
+	/**
+	 * Resolve returns without waiting and the name shows up later in the cache.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testResolveDoesNotBlock() throws InterruptedException {
+		final TableLookup lookup = new TableLookup(true);
+		lookup.names.put(hash(A), "a.example.com");
+		async = new AsyncResolver(resolver, lookup, 2, 16);
+
+		assertNull(async.resolve(A));
+		assertFalse(async.isCached(A));
+		assertTrue(async.isPending(A));
+
+		lookup.release.countDown();
+		assertTrue(async.await(5000));
+
+		assertTrue(async.isCached(A));
+		assertFalse(async.isPending(A));
+		assertEquals("a.example.com", async.resolve(A));
+		assertEquals(1, async.getCount(AsyncResolver.Counter.QUEUED));
+		assertEquals(1, async.getCount(AsyncResolver.Counter.RESOLVED));
+	}
+
+	/**
+	 * A failed lookup is cached as negative and is not retried.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testFailedLookupIsCached() throws InterruptedException {
+		async = new AsyncResolver(resolver, new TableLookup(false), 1, 16);
+
+		assertNull(async.resolve(B));
+		assertTrue(async.await(5000));
+
+		assertTrue(async.isCached(B));
+		assertNull(async.resolve(B));
+		assertEquals(1, async.getCount(AsyncResolver.Counter.QUEUED));
+		assertEquals(1, async.getCount(AsyncResolver.Counter.FAILED));
+	}
+
+	/**
+	 * Repeated requests for an address being looked up are not queued again.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testPendingNotQueuedTwice() throws InterruptedException {
+		final TableLookup lookup = new TableLookup(true);
+		async = new AsyncResolver(resolver, lookup, 1, 16);
+
+		for (int i = 0; i < 10; i++) {
+			assertNull(async.resolve(A));
+		}
+
+		assertEquals(1, async.getPending());
+		lookup.release.countDown();
+		assertTrue(async.await(5000));
+
+		assertEquals(1, async.getCount(AsyncResolver.Counter.QUEUED));
+	}
+
+	/**
+	 * Lookups are dropped once the queue is full, and can be queued again
+	 * later.
+	 * 
+	 * @throws InterruptedException
+	 *           the interrupted exception
+	 */
+	public void testBoundedQueue() throws InterruptedException {
+		final TableLookup lookup = new TableLookup(true);
+		lookup.names.put(hash(A), "a");
+		lookup.names.put(hash(B), "b");
+		lookup.names.put(hash(C), "c");
+		async = new AsyncResolver(resolver, lookup, 1, 1);
+
+		assertEquals(2, async.prefetch(A, B, C));
+		assertEquals(1, async.getCount(AsyncResolver.Counter.DROPPED));
+		assertFalse(async.isPending(C));
+
+		lookup.release.countDown();
+		assertTrue(async.await(5000));
+
+		assertEquals("a", async.resolve(A));
+		assertEquals("b", async.resolve(B));
+		assertFalse(async.isCached(C));
+
+		assertEquals(1, async.prefetch(A, B, C));
+		assertTrue(async.await(5000));
+		assertEquals("c", async.resolve(C));
+	}
+}